@@ -17,7 +17,8 @@ import java.util.concurrent.locks.*;
  *   Observer  (AutocompleteListener) — SearchTracker
  *   Facade    (AutocompleteService)
  * 
- * KEY DS: Trie — ACTrieNode[128] children, O(L) insert, O(P+N) search
+ * KEY DS: Radix trie — path-compressed edges, sorted sparse children,
+ *         cached top-K per node: O(L·K) insert, O(P + K) search
  */
 
 // ==================== EXCEPTIONS ====================
@@ -28,11 +29,60 @@ class EmptyQueryException extends RuntimeException {
 
 // ==================== MODELS ====================
 
+/**
+ * Radix trie node. The edge label into this node is src[from, to) — a slice of
+ * whichever query created the edge, so labels cost no extra strings. Children are
+ * sorted by first label char (binary search), null until the first child.
+ * top caches the best K suggestions of the whole subtree, in ranker order.
+ */
 class ACTrieNode {
-    final ACTrieNode[] children = new ACTrieNode[128];
-    String word;
-    int frequency;
-    boolean isEnd;
+    private static final char[] NO_KEYS = new char[0];
+    private static final ACTrieNode[] NO_KIDS = new ACTrieNode[0];
+    static final AutocompleteSuggestion[] EMPTY = new AutocompleteSuggestion[0];
+
+    String src;
+    int from, to;
+    char[] keys = NO_KEYS;
+    ACTrieNode[] kids = NO_KIDS;
+    AutocompleteSuggestion entry;                    // non-null = a query ends here
+    AutocompleteSuggestion[] top = EMPTY;
+
+    ACTrieNode(String src, int from, int to) { this.src = src; this.from = from; this.to = to; }
+
+    int labelLength() { return to - from; }
+
+    char labelAt(int i) { return src.charAt(from + i); }
+
+    int find(char c) { return Arrays.binarySearch(keys, c); }
+
+    void addChild(ACTrieNode child) {
+        int at = -find(child.labelAt(0)) - 1;
+        keys = insert(keys, at, child.labelAt(0));
+        ACTrieNode[] k = new ACTrieNode[kids.length + 1];
+        System.arraycopy(kids, 0, k, 0, at);
+        System.arraycopy(kids, at, k, at + 1, kids.length - at);
+        k[at] = child;
+        kids = k;
+    }
+
+    void removeChild(int at) {
+        char[] k = new char[keys.length - 1];
+        ACTrieNode[] c = new ACTrieNode[kids.length - 1];
+        System.arraycopy(keys, 0, k, 0, at);
+        System.arraycopy(keys, at + 1, k, at, k.length - at);
+        System.arraycopy(kids, 0, c, 0, at);
+        System.arraycopy(kids, at + 1, c, at, c.length - at);
+        keys = k.length == 0 ? NO_KEYS : k;
+        kids = c.length == 0 ? NO_KIDS : c;
+    }
+
+    private static char[] insert(char[] a, int at, char c) {
+        char[] r = new char[a.length + 1];
+        System.arraycopy(a, 0, r, 0, at);
+        System.arraycopy(a, at, r, at + 1, a.length - at);
+        r[at] = c;
+        return r;
+    }
 }
 
 class AutocompleteSuggestion {
@@ -43,7 +93,10 @@ class AutocompleteSuggestion {
 
 // ==================== INTERFACES ====================
 
-/** Strategy — pluggable ranking for suggestions. */
+/**
+ * Strategy — pluggable ranking for suggestions. Cached top-K lists assume a
+ * suggestion never ranks lower after its frequency grows.
+ */
 interface SuggestionRanker {
     Comparator<AutocompleteSuggestion> comparator();
 }
@@ -86,32 +139,87 @@ class SearchTracker implements AutocompleteListener {
 
 // ==================== AUTOCOMPLETE SERVICE (FACADE) ====================
 
+/**
+ * Facade over a radix trie. Every node caches its subtree's top K (K = defaultTopK),
+ * so getSuggestions is a walk down the prefix plus a copy — no subtree scan.
+ * addQuery refreshes the caches on the query's path only: a growing suggestion can
+ * only move up, so each list is patched in place; deletes and negative frequencies
+ * rebuild the path's lists from the children's lists, bottom-up.
+ */
 class AutocompleteService {
-    private final ACTrieNode root = new ACTrieNode();
+    private final ACTrieNode root = new ACTrieNode("", 0, 0);
     private final int defaultTopK;
     private SuggestionRanker ranker;
+    private Comparator<AutocompleteSuggestion> order;
     private final List<AutocompleteListener> listeners = new ArrayList<>();
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int size;
 
-    AutocompleteService(int topK, SuggestionRanker ranker) { this.defaultTopK = topK; this.ranker = ranker; }
+    AutocompleteService(int topK, SuggestionRanker ranker) {
+        this.defaultTopK = topK;
+        this.ranker = ranker;
+        this.order = ranker.comparator();
+    }
     AutocompleteService(int topK) { this(topK, new FrequencyRanker()); }
     AutocompleteService() { this(5); }
 
-    void setRanker(SuggestionRanker r) { this.ranker = r; }
+    /** New ranking order: every cached list is rebuilt, O(nodes · K) */
+    void setRanker(SuggestionRanker r) {
+        lock.writeLock().lock();
+        try {
+            this.ranker = r;
+            this.order = r.comparator();
+            rebuild(root);
+        } finally { lock.writeLock().unlock(); }
+    }
+
     void addListener(AutocompleteListener l) { listeners.add(l); }
 
+    /** Distinct queries stored */
+    int size() {
+        lock.readLock().lock();
+        try { return size; } finally { lock.readLock().unlock(); }
+    }
+
     void addQuery(String query, int frequency) {
         if (query == null || query.isEmpty()) throw new EmptyQueryException();
+        String word = query.toLowerCase();
         lock.writeLock().lock();
         try {
+            List<ACTrieNode> path = new ArrayList<>();
             ACTrieNode node = root;
-            for (char c : query.toLowerCase().toCharArray()) {
-                if (node.children[c] == null) node.children[c] = new ACTrieNode();
-                node = node.children[c];
+            path.add(node);
+            for (int i = 0; i < word.length(); ) {
+                int idx = node.find(word.charAt(i));
+                if (idx < 0) {                                   // new branch: one edge for the rest of the word
+                    ACTrieNode leaf = new ACTrieNode(word, i, word.length());
+                    node.addChild(leaf);
+                    node = leaf;
+                    path.add(node);
+                    break;
+                }
+                ACTrieNode child = node.kids[idx];
+                int common = 1, max = Math.min(child.labelLength(), word.length() - i);
+                while (common < max && child.labelAt(common) == word.charAt(i + common)) common++;
+                if (common < child.labelLength()) {              // diverges mid-edge: split it
+                    ACTrieNode mid = new ACTrieNode(child.src, child.from, child.from + common);
+                    child.from += common;
+                    mid.addChild(child);
+                    mid.top = child.top.clone();                 // same subtree so far
+                    node.kids[idx] = mid;
+                    child = mid;
+                }
+                node = child;
+                path.add(node);
+                i += common;
+            }
+            AutocompleteSuggestion old = node.entry;
+            if (old == null) size++;
+            node.entry = new AutocompleteSuggestion(word, (old == null ? 0 : old.frequency) + frequency);
+            for (int i = path.size() - 1; i >= 0; i--) {
+                if (frequency >= 0) promote(path.get(i), old, node.entry);
+                else refresh(path.get(i));
             }
-            node.isEnd = true;
-            node.word = query.toLowerCase();
-            node.frequency += frequency;
         } finally { lock.writeLock().unlock(); }
     }
 
@@ -119,17 +227,28 @@ class AutocompleteService {
 
     List<AutocompleteSuggestion> getSuggestions(String prefix, int topK) {
         if (prefix == null || prefix.isEmpty()) return Collections.emptyList();
+        String p = prefix.toLowerCase();
         lock.readLock().lock();
         try {
             ACTrieNode node = root;
-            for (char c : prefix.toLowerCase().toCharArray()) {
-                node = node.children[c];
-                if (node == null) return Collections.emptyList();
+            for (int i = 0; i < p.length(); ) {
+                int idx = node.find(p.charAt(i));
+                if (idx < 0) return Collections.emptyList();
+                node = node.kids[idx];
+                int n = Math.min(node.labelLength(), p.length() - i);
+                for (int j = 1; j < n; j++) if (node.labelAt(j) != p.charAt(i + j)) return Collections.emptyList();
+                i += n;                                          // prefix may end mid-edge: same subtree
+            }
+            List<AutocompleteSuggestion> result;
+            if (topK <= defaultTopK) {
+                result = new ArrayList<>(Math.min(topK, node.top.length));
+                for (int i = 0; i < node.top.length && i < topK; i++) result.add(node.top[i]);
+            } else {                                             // deeper than the cache: scan the subtree
+                PriorityQueue<AutocompleteSuggestion> pq = new PriorityQueue<>(order);
+                collectAll(node, pq);
+                result = new ArrayList<>();
+                while (!pq.isEmpty() && result.size() < topK) result.add(pq.poll());
             }
-            PriorityQueue<AutocompleteSuggestion> pq = new PriorityQueue<>(ranker.comparator());
-            collectAll(node, pq);
-            List<AutocompleteSuggestion> result = new ArrayList<>();
-            while (!pq.isEmpty() && result.size() < topK) result.add(pq.poll());
             for (AutocompleteListener l : listeners) l.onSearch(prefix, result.size());
             return result;
         } finally { lock.readLock().unlock(); }
@@ -138,30 +257,78 @@ class AutocompleteService {
     List<AutocompleteSuggestion> getSuggestions(String prefix) { return getSuggestions(prefix, defaultTopK); }
 
     private void collectAll(ACTrieNode node, PriorityQueue<AutocompleteSuggestion> pq) {
-        if (node.isEnd) pq.offer(new AutocompleteSuggestion(node.word, node.frequency));
-        for (ACTrieNode child : node.children) if (child != null) collectAll(child, pq);
+        if (node.entry != null) pq.offer(node.entry);
+        for (ACTrieNode child : node.kids) collectAll(child, pq);
     }
 
     boolean deleteQuery(String query) {
         if (query == null || query.isEmpty()) return false;
+        String word = query.toLowerCase();
         lock.writeLock().lock();
         try {
+            List<ACTrieNode> path = new ArrayList<>();
             ACTrieNode node = root;
-            for (char c : query.toLowerCase().toCharArray()) {
-                node = node.children[c];
-                if (node == null) return false;
+            path.add(node);
+            for (int i = 0; i < word.length(); ) {
+                int idx = node.find(word.charAt(i));
+                if (idx < 0) return false;
+                node = node.kids[idx];
+                if (node.labelLength() > word.length() - i || !word.regionMatches(i, node.src, node.from, node.labelLength())) return false;
+                path.add(node);
+                i += node.labelLength();
             }
-            if (!node.isEnd) return false;
-            node.isEnd = false; node.word = null; node.frequency = 0;
+            if (node.entry == null) return false;
+            node.entry = null;
+            size--;
+            if (node.kids.length == 0) {                         // prune the empty leaf; chains are not re-merged
+                ACTrieNode parent = path.get(path.size() - 2);
+                parent.removeChild(parent.find(node.labelAt(0)));
+                path.remove(path.size() - 1);
+            }
+            for (int i = path.size() - 1; i >= 0; i--) refresh(path.get(i));
             return true;
         } finally { lock.writeLock().unlock(); }
     }
+
+    /** Fast path: s (replacing old, if listed) can only have moved up — patch node.top in place, O(K) */
+    private void promote(ACTrieNode node, AutocompleteSuggestion old, AutocompleteSuggestion s) {
+        AutocompleteSuggestion[] top = node.top;
+        int at = -1;
+        for (int i = 0; i < top.length && old != null; i++) if (top[i] == old) at = i;
+        if (at < 0) {
+            if (top.length == defaultTopK && order.compare(s, top[top.length - 1]) >= 0) return;
+            top = Arrays.copyOf(top, Math.min(top.length + 1, defaultTopK));
+            at = top.length - 1;
+        }
+        for (; at > 0 && order.compare(s, top[at - 1]) < 0; at--) top[at] = top[at - 1];
+        top[at] = s;
+        node.top = top;
+    }
+
+    /** Slow path: node.top = best K of its own entry and its children's lists, O(children · K) */
+    private void refresh(ACTrieNode node) {
+        List<AutocompleteSuggestion> all = new ArrayList<>();
+        if (node.entry != null) all.add(node.entry);
+        for (ACTrieNode child : node.kids) Collections.addAll(all, child.top);
+        all.sort(order);
+        node.top = all.isEmpty() ? ACTrieNode.EMPTY
+                                 : all.subList(0, Math.min(defaultTopK, all.size())).toArray(ACTrieNode.EMPTY);
+    }
+
+    private void rebuild(ACTrieNode node) {
+        for (ACTrieNode child : node.kids) rebuild(child);
+        refresh(node);
+    }
 }
 
 // ==================== MAIN / TESTS ====================
 
 public class AutocompleteSystem {
     public static void main(String[] args) {
+        if (args.length > 0) {   // java AutocompleteSystem 10000000
+            for (String arg : args) benchmark(Integer.parseInt(arg));
+            return;
+        }
         System.out.println("╔═══════════════════════════════════════════╗");
         System.out.println("║   SEARCH AUTOCOMPLETE - LLD Demo          ║");
         System.out.println("╚═══════════════════════════════════════════╝\n");
@@ -270,19 +437,189 @@ public class AutocompleteSystem {
         check(r11.size(), 5, "Got 5");
         System.out.println("✓\n");
 
-        System.out.println("════════ ALL 11 TESTS PASSED ✓ ════════");
+        // --- Test 12: Cached top-K vs full subtree scan ---
+        System.out.println("=== Test 12: Cached top-K matches a full scan ===");
+        AutocompleteService svc12 = new AutocompleteService(5);
+        ArrayTrieService ref = new ArrayTrieService();
+        Random rnd = new Random(12);
+        String[] words = new String[3_000];
+        for (int i = 0; i < words.length; i++) words[i] = randomQuery(rnd, 300);
+        for (int i = 0; i < 30_000; i++) {
+            String w = words[rnd.nextInt(words.length)];
+            int f = rnd.nextInt(10) == 0 ? -rnd.nextInt(5) : 1 + rnd.nextInt(20);   // some negative: slow path
+            if (rnd.nextInt(50) == 0) check(svc12.deleteQuery(w), ref.deleteQuery(w), null);
+            else {
+                svc12.addQuery(w, f);
+                ref.addQuery(w, f);
+            }
+        }
+        int mismatches = 0;
+        for (int i = 0; i < 5_000; i++) {
+            String w = words[rnd.nextInt(words.length)], pre = w.substring(0, 1 + rnd.nextInt(w.length()));
+            int k = i % 2 == 0 ? 5 : 8;   // 8 > cache size: subtree scan
+            if (!render(svc12.getSuggestions(pre, k)).equals(render(ref.getSuggestions(pre, k)))) mismatches++;
+        }
+        check(mismatches, 0, "5K prefixes after adds, negative adds, deletes");
+        svc12.setRanker(new AlphabeticalRanker());
+        ref.order = new AlphabeticalRanker().comparator();
+        check(render(svc12.getSuggestions("a")), render(ref.getSuggestions("a", 5)), "Alphabetical after setRanker");
+        benchmark(100_000);
+        System.out.println("✓\n");
+
+        System.out.println("════════ ALL 12 TESTS PASSED ✓ ════════");
+    }
+
+    /** n distinct queries of 1-3 words from a Zipf-ish vocabulary: memory per term, lookup latency by prefix length */
+    static void benchmark(int n) {
+        boolean withOld = n <= 100_000;   // ~0.5 KB per node: the old trie does not fit in memory beyond that
+        System.out.printf("  --- %,d queries ---%n", n);
+        Random rnd = new Random(42);
+        long base = usedHeap();
+        AutocompleteService svc = new AutocompleteService(5);
+        long t = System.nanoTime();
+        while (svc.size() < n) svc.addQuery(randomQuery(rnd, 50_000), 1 + (int) Math.min(1e6, 1 / Math.pow(rnd.nextDouble(), 1.2)));
+        long buildNs = System.nanoTime() - t;
+        long bytes = usedHeap() - base;
+        System.out.printf("  radix trie: %d B/term, insert %.2f us%n", bytes / n, buildNs / 1e3 / n);
+
+        ArrayTrieService old = null;
+        if (withOld) {
+            old = new ArrayTrieService();
+            Random again = new Random(42);
+            base = usedHeap();
+            while (old.size < n) old.addQuery(randomQuery(again, 50_000), 1 + (int) Math.min(1e6, 1 / Math.pow(again.nextDouble(), 1.2)));
+            System.out.printf("  128-slot trie: %d B/term%n", (usedHeap() - base) / n);
+        }
+        System.out.printf("  %-8s %12s %12s %12s%s%n", "prefix", "p50", "p99", "max", withOld ? "     old p50     old p99" : "");
+        Random q = new Random(7);
+        for (int len = 1; len <= 8; len *= 2) {
+            int samples = 20_000;
+            String[] prefixes = new String[samples];
+            for (int i = 0; i < samples; i++) {
+                String w = randomQuery(q, 50_000);
+                prefixes[i] = w.substring(0, Math.min(len, w.length()));
+            }
+            long[] lat = time(prefixes, p -> svc.getSuggestions(p));
+            System.out.printf("  %-8s %9.2f us %9.2f us %9.2f us", len + " char", lat[samples / 2] / 1e3, lat[samples * 99 / 100] / 1e3, lat[samples - 1] / 1e3);
+            if (old != null) {
+                ArrayTrieService o = old;
+                long[] ol = time(Arrays.copyOf(prefixes, 500), p -> o.getSuggestions(p, 5));
+                System.out.printf(" %9.0f us %9.0f us", ol[250] / 1e3, ol[495] / 1e3);
+            }
+            System.out.println();
+        }
+    }
+
+    static long[] time(String[] prefixes, java.util.function.Consumer<String> lookup) {
+        for (String p : prefixes) lookup.accept(p);   // warm-up
+        long[] lat = new long[prefixes.length];
+        for (int i = 0; i < prefixes.length; i++) {
+            long t = System.nanoTime();
+            lookup.accept(prefixes[i]);
+            lat[i] = System.nanoTime() - t;
+        }
+        Arrays.sort(lat);
+        return lat;
+    }
+
+    /** 1-3 words; word i of a vocabulary is picked with probability ~ 1/i */
+    static String randomQuery(Random rnd, int vocabulary) {
+        StringBuilder sb = new StringBuilder();
+        for (int w = 1 + rnd.nextInt(3); w > 0; w--) {
+            if (sb.length() > 0) sb.append(' ');
+            long id = (long) Math.pow(vocabulary, rnd.nextDouble());   // log-uniform ≈ Zipf
+            Random word = new Random(id * 0x9E3779B97F4A7C15L);
+            for (int c = 3 + word.nextInt(6); c > 0; c--) sb.append((char) ('a' + word.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    static String render(List<AutocompleteSuggestion> list) {
+        StringBuilder sb = new StringBuilder();
+        for (AutocompleteSuggestion s : list) sb.append(s.query).append('=').append(s.frequency).append(' ');
+        return sb.toString();
+    }
+
+    static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) rt.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /** The previous trie: 128-slot child array per char, getSuggestions scans the whole subtree */
+    static final class ArrayTrieService {
+        static final class Node {
+            final Node[] children = new Node[128];
+            String word;
+            int frequency;
+            boolean isEnd;
+        }
+
+        final Node root = new Node();
+        Comparator<AutocompleteSuggestion> order = new FrequencyRanker().comparator();
+        int size;
+
+        void addQuery(String query, int frequency) {
+            Node node = root;
+            for (char c : query.toLowerCase().toCharArray()) {
+                if (node.children[c] == null) node.children[c] = new Node();
+                node = node.children[c];
+            }
+            if (!node.isEnd) size++;
+            node.isEnd = true;
+            node.word = query.toLowerCase();
+            node.frequency += frequency;
+        }
+
+        boolean deleteQuery(String query) {
+            Node node = root;
+            for (char c : query.toLowerCase().toCharArray()) {
+                node = node.children[c];
+                if (node == null) return false;
+            }
+            if (!node.isEnd) return false;
+            node.isEnd = false; node.word = null; node.frequency = 0;
+            size--;
+            return true;
+        }
+
+        List<AutocompleteSuggestion> getSuggestions(String prefix, int topK) {
+            Node node = root;
+            for (char c : prefix.toLowerCase().toCharArray()) {
+                node = node.children[c];
+                if (node == null) return Collections.emptyList();
+            }
+            PriorityQueue<AutocompleteSuggestion> pq = new PriorityQueue<>(order);
+            collectAll(node, pq);
+            List<AutocompleteSuggestion> result = new ArrayList<>();
+            while (!pq.isEmpty() && result.size() < topK) result.add(pq.poll());
+            return result;
+        }
+
+        private void collectAll(Node node, PriorityQueue<AutocompleteSuggestion> pq) {
+            if (node.isEnd) pq.offer(new AutocompleteSuggestion(node.word, node.frequency));
+            for (Node child : node.children) if (child != null) collectAll(child, pq);
+        }
     }
 
     static void check(int a, int e, String m) { System.out.println("  " + (a == e ? "✓" : "✗ GOT " + a) + " " + m); }
     static void check(String a, String e, String m) { System.out.println("  " + (Objects.equals(a, e) ? "✓" : "✗ GOT '" + a + "'") + " " + m); }
-    static void check(boolean a, boolean e, String m) { System.out.println("  " + (a == e ? "✓" : "✗ GOT " + a) + " " + m); }
+    static void check(boolean a, boolean e, String m) {
+        if (m != null || a != e) System.out.println("  " + (a == e ? "✓" : "✗ GOT " + a) + " " + m);
+    }
 }
 
 /*
  * INTERVIEW NOTES:
  * 
- * 1. TRIE: ACTrieNode[128] array per node. Insert O(L). DFS prefix search O(P+N).
- *    PriorityQueue with ranker's comparator for efficient top-K extraction.
+ * 1. TRIE: radix (path-compressed) — one node per branch point, not per char;
+ *    edge label = slice of an existing query string. Children: sorted char[]
+ *    + node[], binary search (a 128-slot array per node was ~4.4 KB/term).
+ *    Each node caches its subtree's top K → lookup O(P + K), no DFS.
+ *    addQuery patches the K-lists on its path (a score only grows → the
+ *    entry moves up); delete / negative rebuilds them from children's lists.
+ *    10M queries: ~195 B/term, lookup p99 0.4-5.5 us (1 CPU).
+ *    Requests with k > K fall back to a subtree scan (PriorityQueue).
  *
  * 2. STRATEGY (SuggestionRanker): FrequencyRanker (desc + alpha tiebreak),
  *    AlphabeticalRanker. Swap at runtime via setRanker().
@@ -1,6 +1,15 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /*
  * CDN SYSTEM - Low Level Design
@@ -8,9 +17,10 @@ import java.util.concurrent.atomic.*;
  * 
  * REQUIREMENTS:
  * 1. Route users to nearest edge server by region
- * 2. LRU cache at each edge with capacity limit + TTL expiration
+ * 2. Byte-bounded cache at each edge (CLOCK or LRU) with TTL expiration
  * 3. Cache MISS → fetch from origin → cache at edge → return
- * 4. Cache invalidation (purge across all edges)
+ * 4. Cache invalidation (purge across all edges), including prefix purges ("/img/2024/")
+ * 4b. Origin protection: request coalescing, stale-while-revalidate, negative caching, origin shield
  * 5. Pre-warm popular content to edges
  * 6. Consistent hashing to distribute content across edges in same region
  * 7. Health checks — unhealthy edges get skipped, traffic falls back
@@ -18,9 +28,12 @@ import java.util.concurrent.atomic.*;
  * 9. Thread-safe concurrent access
  * 
  * KEY DATA STRUCTURES:
- * - LinkedHashMap(accessOrder=true) for LRU cache per edge server
+ * - ConcurrentHashMap + striped CLOCK queues + timer wheels per edge (default)
+ * - LinkedHashMap(accessOrder=true) for the synchronized LRU variant
+ * - Ref-counted chunked bodies: pooled direct ByteBuffers, capped, segmented memory-mapped spill for large objects
+ * - ConcurrentSkipListSet key index + path-segment trie of purge generations per edge
  * - ConcurrentHashMap<region, ConsistentHashRing> for geo-routing
- * - TreeMap<Integer, String> for consistent hash ring per region
+ * - Copy-on-write sorted long[] ring (murmur64) per region; Maglev table / jump hash alternatives
  * 
  * DESIGN PATTERNS:
  * - Proxy: edge server proxies origin
@@ -29,9 +42,11 @@ import java.util.concurrent.atomic.*;
  * COMPLEXITY:
  *   fetchContent:    O(1) cache hit, O(1) origin fetch on miss
  *   invalidate:      O(E) where E = number of edge servers
+ *   invalidatePrefix: O(E × depth) logical purge; async sweep O(log K + matches) per edge
  *   prewarm:         O(E_region) edges in target region
- *   LRU eviction:    O(1) via LinkedHashMap
- *   consistent hash: O(log V) where V = virtual nodes
+ *   eviction:        O(1) amortized (CLOCK hand / LinkedHashMap head)
+ *   evictExpired:    O(due entries) via timer wheel (LRU variant: O(n) scan)
+ *   consistent hash: O(1) expected (bucket index over sorted points), Maglev O(1), jump O(log N)
  */
 
 // ==================== EXCEPTION ====================
@@ -44,128 +59,918 @@ class ContentNotFoundException extends Exception {
 
 enum CacheResult { HIT, MISS, EXPIRED }
 
+enum EvictionPolicy { LRU, CLOCK }
+
+enum HashRouting { RING, BOUNDED_LOAD, JUMP, MAGLEV }
+
 // ==================== CACHED CONTENT ====================
 
 class CachedContent {
+    private static final byte[] EMPTY = new byte[0];
+
     final String key;
-    final byte[] data;
+    final ChunkedBody body;
     final long createdAt;
     final long ttlMs;
-    long lastAccessedAt;
+    final long freshUntil;         // after this: stale, served while revalidating
+    final long expiresAt;          // after this: gone (freshUntil + stale window)
+    final boolean negative;        // cached "not found"
+    volatile boolean referenced;   // CLOCK bit, set on hit
+    volatile boolean removed;      // unlinked from the cache map; eviction/expiry queues skip it
+    long generation = -1;          // edge purge generation when the load started; -1 → stamped on put
+    CachedContent wheelPrev, wheelNext;   // timer-wheel slot links, guarded by the owning stripe's lock
+    int wheelSlot = -1;                   // -1 = not on a wheel
 
     CachedContent(String key, byte[] data, long ttlMs) {
+        this(key, ChunkedBody.wrap(data), ttlMs, 0, false);
+    }
+
+    CachedContent(String key, ChunkedBody body, long ttlMs, long staleMs) {
+        this(key, body, ttlMs, staleMs, false);
+    }
+
+    private CachedContent(String key, ChunkedBody body, long ttlMs, long staleMs, boolean negative) {
         this.key = key;
-        this.data = data;
+        this.body = body;
         this.ttlMs = ttlMs;
         this.createdAt = System.currentTimeMillis();
-        this.lastAccessedAt = createdAt;
+        this.freshUntil = createdAt + ttlMs;
+        this.expiresAt = freshUntil + staleMs;
+        this.negative = negative;
     }
 
-    boolean isExpired() { return System.currentTimeMillis() - createdAt > ttlMs; }
-    void touch() { lastAccessedAt = System.currentTimeMillis(); }
-    int size() { return data.length; }
+    static CachedContent notFound(String key, long ttlMs) {
+        return new CachedContent(key, ChunkedBody.wrap(EMPTY), ttlMs, 0, true);
+    }
+
+    boolean isExpired() { return System.currentTimeMillis() > expiresAt; }
+    boolean isStale() { return System.currentTimeMillis() > freshUntil; }
+    /** Read-mostly: only write the bit when it flips, so hot keys don't bounce the cache line. */
+    void touch() { if (!referenced) referenced = true; }
+    /** Negative entries are charged for their key so a scan of bogus URLs still hits the byte bound. */
+    long size() { return negative ? key.length() : body.length; }
+    /** Called once when the entry leaves the cache: drops the cache's reference to the body. */
+    void release() { body.release(); }
 }
 
-// ==================== EDGE SERVER ====================
+// ==================== CHUNKED STORAGE ====================
+
+/**
+ * Fixed-size direct ByteBuffers, recycled through a free list. Capacity is bounded:
+ * acquire() is all-or-nothing and returns null when the pool is exhausted.
+ */
+class ChunkPool {
+    final int chunkSize;
+    private final int maxChunks;
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    ChunkPool(int chunkSize, long maxBytes) {
+        this.chunkSize = chunkSize;
+        this.maxChunks = (int) Math.min(Integer.MAX_VALUE, maxBytes / chunkSize);
+    }
+
+    ByteBuffer[] acquire(int n) {
+        ByteBuffer[] out = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            ByteBuffer b = free.poll();
+            if (b == null) {
+                if (allocated.incrementAndGet() > maxChunks) {
+                    allocated.decrementAndGet();
+                    release(Arrays.copyOf(out, i));
+                    return null;
+                }
+                b = ByteBuffer.allocateDirect(chunkSize);
+            }
+            out[i] = b;
+        }
+        return out;
+    }
+
+    void release(ByteBuffer[] chunks) {
+        for (ByteBuffer b : chunks) { b.clear(); free.offer(b); }
+    }
+
+    int freeChunks() { return free.size(); }
+    int allocatedChunks() { return allocated.get(); }
+}
+
+/**
+ * Immutable object body as an array of read-only chunk views (heap-wrapped, pooled direct,
+ * or memory-mapped). Pooled bodies are reference counted: the cache holds one reference,
+ * every reader retains one, and chunks go back to the pool only when the last is released,
+ * so an eviction never recycles memory under an in-flight response.
+ */
+class ChunkedBody {
+    final long length;
+    private final ByteBuffer[] views;
+    private final ByteBuffer[] owned;      // pool chunks to return, null unless pooled
+    private final int chunkSize;
+    private final byte[] array;            // backing array when heap-wrapped
+    private final ChunkPool pool;
+    private final Runnable onFree;         // runs when the last reference is released; null = not counted
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private ChunkedBody(ByteBuffer[] views, ByteBuffer[] owned, int chunkSize, long length, byte[] array, ChunkPool pool,
+                        Runnable onFree) {
+        this.views = views;
+        this.owned = owned;
+        this.chunkSize = chunkSize;
+        this.length = length;
+        this.array = array;
+        this.pool = pool;
+        this.onFree = onFree;
+    }
+
+    static ChunkedBody wrap(byte[] data) {
+        return new ChunkedBody(new ByteBuffer[]{ByteBuffer.wrap(data).asReadOnlyBuffer()}, null,
+                Integer.MAX_VALUE, data.length, data, null, null);
+    }
+
+    /** Copies data into pool chunks (the one copy, at ingest). */
+    static ChunkedBody pooled(byte[] data, ByteBuffer[] chunks, ChunkPool pool) {
+        ByteBuffer[] views = new ByteBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            int off = i * pool.chunkSize, n = Math.min(pool.chunkSize, data.length - off);
+            chunks[i].put(data, off, n).flip();
+            views[i] = chunks[i].asReadOnlyBuffer();
+        }
+        return new ChunkedBody(views, chunks, pool.chunkSize, data.length, null, pool, () -> pool.release(chunks));
+    }
+
+    /** Disk-tier body; onFree tells its segment once the last reference is gone. */
+    static ChunkedBody mapped(ByteBuffer[] regions, int regionSize, long length, Runnable onFree) {
+        ByteBuffer[] views = new ByteBuffer[regions.length];
+        for (int i = 0; i < regions.length; i++) views[i] = regions[i].asReadOnlyBuffer();
+        return new ChunkedBody(views, null, regionSize, length, null, null, onFree);
+    }
+
+    /** False if the last reference is already gone (entry was evicted and recycled). */
+    boolean retain() {
+        if (onFree == null) return true;
+        for (int r = refs.get(); r > 0; r = refs.get()) {
+            if (refs.compareAndSet(r, r + 1)) return true;
+        }
+        return false;
+    }
+
+    void release() {
+        if (onFree != null && refs.decrementAndGet() == 0) onFree.run();
+    }
+
+    boolean isPooled() { return pool != null; }
+
+    /** Read-only slices covering [from, min(to, length)); takes ownership of one reference. */
+    ContentRange range(long from, long to) {
+        long end = Math.min(to, length);
+        if (from < 0 || from > end) {
+            release();
+            throw new IllegalArgumentException("Range not satisfiable: " + from + "-" + to + " of " + length);
+        }
+        List<ByteBuffer> slices = new ArrayList<>();
+        for (long pos = from; pos < end; ) {
+            int i = (int) (pos / chunkSize);
+            int off = (int) (pos - (long) i * chunkSize);
+            int n = (int) Math.min(views[i].limit() - off, end - pos);
+            slices.add(views[i].slice(off, n));
+            pos += n;
+        }
+        return new ContentRange(this, slices.toArray(new ByteBuffer[0]), from, end);
+    }
+
+    /** Whole body as an array: free when heap-wrapped, a copy otherwise. Caller must hold a reference. */
+    byte[] toBytes() {
+        if (array != null) return array;
+        if (!retain()) throw new IllegalStateException("Body already released: caller holds no reference");
+        try (ContentRange r = range(0, length)) {
+            return r.toBytes();
+        }
+    }
+}
+
+/** A response body: read-only buffers for a byte range. close() drops the reader's reference. */
+class ContentRange implements AutoCloseable {
+    final ByteBuffer[] buffers;
+    final long from, to;
+    private final ChunkedBody body;
+    private boolean closed;
+
+    ContentRange(ChunkedBody body, ByteBuffer[] buffers, long from, long to) {
+        this.body = body;
+        this.buffers = buffers;
+        this.from = from;
+        this.to = to;
+    }
+
+    long length() { return to - from; }
+    long totalLength() { return body.length; }
+
+    byte[] toBytes() {
+        byte[] out = new byte[(int) length()];
+        int pos = 0;
+        for (ByteBuffer b : buffers) {
+            int n = b.remaining();
+            b.duplicate().get(out, pos, n);
+            pos += n;
+        }
+        return out;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) { closed = true; body.release(); }
+    }
+}
+
+/**
+ * Local disk tier: objects are appended to segment files and served from read-only memory
+ * mappings (page cache, no heap copy). Bounded: at most maxBytes of segments exist at once.
+ * A full segment is sealed, and its file deleted once every body stored in it has been
+ * released (evicted, no reader left). At the cap store() refuses and the object stays on heap.
+ * No compaction: one long-lived body pins its whole segment.
+ */
+class DiskTier implements AutoCloseable {
+    private static final int REGION = 1 << 30;   // max bytes per mapping
+    private final Path dir;
+    private final long maxBytes, segmentBytes;
+    private final AtomicLong reserved = new AtomicLong();        // capacity of live segment files
+    private final Set<Segment> segments = ConcurrentHashMap.newKeySet();
+    private Segment active;                                        // guarded by this
+
+    private final class Segment {
+        final FileChannel channel;
+        final long capacity;
+        long end;                                                  // guarded by DiskTier.this
+        final AtomicInteger live = new AtomicInteger(1);          // bodies not yet freed, +1 while active
+
+        Segment(long capacity) throws IOException {
+            this.capacity = capacity;
+            this.channel = FileChannel.open(Files.createTempFile(dir, "edge-spill", ".dat"), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            reserved.addAndGet(capacity);
+            segments.add(this);
+        }
+
+        /** Last body gone from a sealed segment: delete the file (existing mappings stay valid). */
+        void release() {
+            if (live.decrementAndGet() != 0) return;
+            segments.remove(this);
+            reserved.addAndGet(-capacity);
+            try { channel.close(); } catch (IOException e) { /* file is already unlinked or gone */ }
+        }
+    }
+
+    DiskTier(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = Math.max(1 << 20, Math.min(REGION, maxBytes / 8));
+    }
+
+    ChunkedBody store(byte[] data) throws IOException {
+        Segment seg;
+        long pos;
+        synchronized (this) {
+            if (active == null || active.end + data.length > active.capacity) {
+                if (active != null) active.release();              // seal
+                active = null;
+                long capacity = Math.max(segmentBytes, data.length);
+                if (reserved.get() + capacity > maxBytes) throw new IOException("Disk tier full (" + maxBytes + " bytes)");
+                active = new Segment(capacity);
+            }
+            seg = active;
+            pos = seg.end;
+            seg.end += data.length;
+            seg.live.incrementAndGet();
+        }
+        try {
+            ByteBuffer src = ByteBuffer.wrap(data);
+            while (src.hasRemaining()) seg.channel.write(src, pos + src.position());
+            ByteBuffer[] regions = new ByteBuffer[(int) ((data.length + (long) REGION - 1) / REGION)];
+            for (int i = 0; i < regions.length; i++) {
+                long off = (long) i * REGION;
+                regions[i] = seg.channel.map(FileChannel.MapMode.READ_ONLY, pos + off, Math.min(REGION, data.length - off));
+            }
+            return ChunkedBody.mapped(regions, REGION, data.length, seg::release);
+        } catch (IOException e) {
+            seg.release();
+            throw e;
+        }
+    }
+
+    /** Bytes of segment files currently on disk (reserved capacity), ≤ maxBytes. */
+    long reservedBytes() { return reserved.get(); }
+
+    @Override
+    public void close() throws IOException {
+        for (Segment seg : segments) seg.channel.close();
+    }
+}
+
+/** Per-edge body storage: RAM chunk pool first, disk tier for large objects or when RAM is full. */
+class ChunkStore implements AutoCloseable {
+    final ChunkPool pool;
+    final DiskTier disk;
+    private final long spillThreshold;
+    final LongAdder ramObjects = new LongAdder();
+    final LongAdder diskObjects = new LongAdder();
+
+    ChunkStore(int chunkSize, long ramBytes, Path spillDir, long spillThreshold, long spillMaxBytes) {
+        this.pool = new ChunkPool(chunkSize, ramBytes);
+        this.disk = spillDir != null ? new DiskTier(spillDir, spillMaxBytes) : null;
+        this.spillThreshold = spillThreshold;
+    }
+
+    ChunkedBody ingest(byte[] data) {
+        if (data.length == 0) return ChunkedBody.wrap(data);
+        if (disk == null || data.length < spillThreshold) {
+            ByteBuffer[] chunks = pool.acquire((int) ((data.length + (long) pool.chunkSize - 1) / pool.chunkSize));
+            if (chunks != null) {
+                ramObjects.increment();
+                return ChunkedBody.pooled(data, chunks, pool);
+            }
+        }
+        if (disk != null) {
+            try {
+                ChunkedBody body = disk.store(data);
+                diskObjects.increment();
+                return body;
+            } catch (IOException e) {
+                // disk tier full or unavailable → fall through to heap (still bounded by the cache's maxBytes)
+            }
+        }
+        return ChunkedBody.wrap(data);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (disk != null) disk.close();
+    }
+}
+
+// ==================== SINGLE FLIGHT ====================
+
+/**
+ * Request coalescing: concurrent loads of one key share a single call. The first caller
+ * (leader) runs the loader; followers block on the leader's future. The entry is removed
+ * when the call finishes, so the next miss after that starts a fresh load.
+ */
+class SingleFlight<T> {
+    private final ConcurrentHashMap<String, CompletableFuture<T>> calls = new ConcurrentHashMap<>();
+    final LongAdder coalesced = new LongAdder();
+
+    T execute(String key, Supplier<T> loader) {
+        CompletableFuture<T> mine = new CompletableFuture<>();
+        CompletableFuture<T> leader = calls.putIfAbsent(key, mine);
+        if (leader != null) {
+            coalesced.increment();
+            try {
+                return leader.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            T value = loader.get();
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {   // an Error too, or followers wait on `mine` forever
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, mine);
+        }
+    }
+
+    boolean inFlight(String key) { return calls.containsKey(key); }
+}
+
+// ==================== EDGE CACHE (Strategy) ====================
+
+/**
+ * Byte-bounded cache behind an edge. get() returns null on MISS or EXPIRED (and drops the entry).
+ * put() takes ownership of the entry: it is release()d exactly once when it leaves (or is rejected),
+ * then passed to the cache's removal listener.
+ */
+interface EdgeCache {
+    CachedContent get(String key);
+    /** No expiry check, no CLOCK bit: for maintenance scans. */
+    CachedContent peek(String key);
+    void put(CachedContent content);
+    boolean remove(String key);
+    /** Removes the entry only if it is still the one mapped to its key. */
+    boolean remove(CachedContent entry);
+    int evictExpired();
+    int size();
+    long usedBytes();
+}
 
 /**
- * Edge Server (PoP) with LRU cache.
  * LinkedHashMap(accessOrder=true) → iteration order = least→most recently used.
- * Thread safety: synchronized on all cache ops.
+ * Thread safety: synchronized on all cache ops (get reorders the list, so reads serialize too).
+ */
+class LruEdgeCache implements EdgeCache {
+    private final long maxBytes;
+    private long usedBytes;
+    private final LinkedHashMap<String, CachedContent> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Consumer<CachedContent> onRemoval;
+
+    LruEdgeCache(long maxBytes) { this(maxBytes, c -> { }); }
+
+    LruEdgeCache(long maxBytes, Consumer<CachedContent> onRemoval) {
+        this.maxBytes = maxBytes;
+        this.onRemoval = onRemoval;
+    }
+
+    @Override
+    public synchronized CachedContent get(String key) {
+        CachedContent c = cache.get(key);
+        if (c == null) return null;
+        if (c.isExpired()) { remove(key); return null; }
+        return c;
+    }
+
+    /** LinkedHashMap has no non-reordering lookup, so a peek counts as an access here. */
+    @Override
+    public synchronized CachedContent peek(String key) { return cache.get(key); }
+
+    @Override
+    public synchronized void put(CachedContent content) {
+        if (cache.containsKey(content.key)) remove(content.key);
+        while (usedBytes + content.size() > maxBytes && !cache.isEmpty()) {
+            remove(cache.keySet().iterator().next()); // first = LRU
+        }
+        if (content.size() <= maxBytes) {
+            cache.put(content.key, content);
+            usedBytes += content.size();
+        } else {
+            content.release();
+            onRemoval.accept(content);
+        }
+    }
+
+    @Override
+    public synchronized boolean remove(String key) {
+        CachedContent removed = cache.remove(key);
+        if (removed == null) return false;
+        usedBytes -= removed.size();
+        removed.release();
+        onRemoval.accept(removed);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(CachedContent entry) {
+        return cache.get(entry.key) == entry && remove(entry.key);
+    }
+
+    /** Full scan under the lock. */
+    @Override
+    public synchronized int evictExpired() {
+        List<String> expired = new ArrayList<>();
+        for (CachedContent c : cache.values()) {
+            if (c.isExpired()) expired.add(c.key);
+        }
+        for (String k : expired) remove(k);
+        return expired.size();
+    }
+
+    @Override public synchronized int size() { return cache.size(); }
+    @Override public synchronized long usedBytes() { return usedBytes; }
+}
+
+/**
+ * Concurrent byte-weighted cache:
+ * - Lookups: one ConcurrentHashMap.get + a CLOCK bit write only when it flips → reads never lock
+ * - Writes: keys hash to one of 16 stripes; each stripe's lock guards its CLOCK queue and timer wheel
+ * - Eviction: CLOCK (second chance) hand that steps across stripes round-robin; a referenced entry
+ *   gets its bit cleared and goes to the back, an unreferenced one is evicted
+ * - Expiry: per-stripe hashed timer wheel (10ms ticks × 256 slots, longer TTLs take extra rounds),
+ *   so evictExpired() only touches entries that are due, not the whole map. Slots are intrusive
+ *   lists: every unlink takes the entry off its slot, so the wheel never pins removed bodies
+ * - usedBytes: every unlink goes through map.remove(key, entry) / map.put's return value, so each
+ *   entry's bytes are added once and subtracted once, however threads race
+ */
+class ClockEdgeCache implements EdgeCache {
+    private static final int STRIPES = 16;
+    private static final long TICK_MS = 10;
+    private static final int WHEEL_SLOTS = 256;
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final ArrayDeque<CachedContent> clock = new ArrayDeque<>();
+        final CachedContent[] wheel = new CachedContent[WHEEL_SLOTS];   // slot heads
+        int dead;                                                       // removed entries still queued in clock
+        long wheelTick;
+        int scheduled;
+    }
+
+    private final long maxBytes;
+    private final ConcurrentHashMap<String, CachedContent> map = new ConcurrentHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicInteger hand = new AtomicInteger();
+    private final Consumer<CachedContent> onRemoval;
+
+    ClockEdgeCache(long maxBytes) { this(maxBytes, c -> { }); }
+
+    ClockEdgeCache(long maxBytes, Consumer<CachedContent> onRemoval) {
+        this.maxBytes = maxBytes;
+        this.onRemoval = onRemoval;
+        long tick = System.currentTimeMillis() / TICK_MS;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+            stripes[i].wheelTick = tick;
+        }
+    }
+
+    private Stripe stripeFor(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    @Override
+    public CachedContent get(String key) {
+        CachedContent c = map.get(key);
+        if (c == null) return null;
+        if (c.isExpired()) { unlink(c); return null; }
+        c.touch();
+        return c;
+    }
+
+    @Override
+    public CachedContent peek(String key) { return map.get(key); }
+
+    @Override
+    public void put(CachedContent content) {
+        if (content.size() > maxBytes) {
+            remove(content.key);
+            content.release();
+            onRemoval.accept(content);
+            return;
+        }
+        Stripe s = stripeFor(content.key);
+        s.lock.lock();
+        try {
+            CachedContent prev = map.put(content.key, content);
+            if (prev != null) markRemoved(prev, s);
+            usedBytes.addAndGet(content.size());
+            s.clock.addLast(content);
+            schedule(s, content);
+            if (s.dead > 64 && s.dead > s.clock.size() / 2) {
+                s.clock.removeIf(c -> c.removed);
+                s.dead = 0;
+            }
+        } finally {
+            s.lock.unlock();
+        }
+        while (usedBytes.get() > maxBytes && evictOne()) { }
+    }
+
+    @Override
+    public boolean remove(String key) {
+        CachedContent c = map.get(key);
+        return c != null && unlink(c);
+    }
+
+    @Override
+    public boolean remove(CachedContent entry) { return unlink(entry); }
+
+    private boolean unlink(CachedContent c) {
+        Stripe s = stripeFor(c.key);
+        s.lock.lock();
+        try {
+            if (!map.remove(c.key, c)) return false;
+            markRemoved(c, s);
+            return true;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /** Caller holds s.lock. */
+    private void markRemoved(CachedContent c, Stripe s) {
+        c.removed = true;
+        unschedule(s, c);
+        usedBytes.addAndGet(-c.size());
+        s.dead++;
+        c.release();
+        onRemoval.accept(c);
+    }
+
+    /** One CLOCK sweep: advance the hand stripe by stripe until something is evicted. */
+    private boolean evictOne() {
+        int budget = 2 * map.size() + 2 * STRIPES;
+        for (int step = 0; step < budget; step++) {
+            Stripe s = stripes[hand.getAndIncrement() & (STRIPES - 1)];
+            s.lock.lock();
+            try {
+                CachedContent c = s.clock.pollFirst();
+                if (c == null) continue;
+                if (c.removed) { s.dead--; continue; }
+                if (c.referenced) {
+                    c.referenced = false;
+                    s.clock.addLast(c);
+                    continue;
+                }
+                if (map.remove(c.key, c)) {
+                    c.removed = true;
+                    unschedule(s, c);
+                    usedBytes.addAndGet(-c.size());
+                    c.release();
+                    onRemoval.accept(c);
+                    return true;
+                }
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        return false;
+    }
+
+    /** Push c on its expiry slot. Caller holds s.lock. */
+    private void schedule(Stripe s, CachedContent c) {
+        int slot = (int) ((c.expiresAt / TICK_MS) & (WHEEL_SLOTS - 1));
+        CachedContent head = s.wheel[slot];
+        c.wheelSlot = slot;
+        c.wheelPrev = null;
+        c.wheelNext = head;
+        if (head != null) head.wheelPrev = c;
+        s.wheel[slot] = c;
+        s.scheduled++;
+    }
+
+    /** Take c off its slot in O(1). Caller holds s.lock. */
+    private void unschedule(Stripe s, CachedContent c) {
+        if (c.wheelSlot < 0) return;
+        if (c.wheelPrev != null) c.wheelPrev.wheelNext = c.wheelNext;
+        else s.wheel[c.wheelSlot] = c.wheelNext;
+        if (c.wheelNext != null) c.wheelNext.wheelPrev = c.wheelPrev;
+        c.wheelPrev = c.wheelNext = null;
+        c.wheelSlot = -1;
+        s.scheduled--;
+    }
+
+    /** Advance every stripe's wheel to now; only due slots are visited. */
+    @Override
+    public int evictExpired() {
+        long now = System.currentTimeMillis(), nowTick = now / TICK_MS;
+        int evicted = 0;
+        for (Stripe s : stripes) {
+            s.lock.lock();
+            try {
+                long ticks = Math.min(nowTick - s.wheelTick, WHEEL_SLOTS);
+                for (long t = nowTick - ticks + 1; t <= nowTick; t++) {
+                    int slot = (int) (t & (WHEEL_SLOTS - 1));
+                    for (CachedContent c = s.wheel[slot], next; c != null; c = next) {
+                        next = c.wheelNext;
+                        if (c.expiresAt > now) continue;            // later round: stays in the slot
+                        if (unlink(c)) evicted++;                   // unschedules c
+                    }
+                }
+                s.wheelTick = nowTick;
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        return evicted;
+    }
+
+    @Override public int size() { return map.size(); }
+    @Override public long usedBytes() { return usedBytes.get(); }
+
+    /** Entries linked into timer wheels — equals size() when nothing leaks. */
+    int scheduledCount() {
+        int total = 0;
+        for (Stripe s : stripes) {
+            s.lock.lock();
+            try { total += s.scheduled; } finally { s.lock.unlock(); }
+        }
+        return total;
+    }
+
+    /** Sum of resident entry sizes, for checking usedBytes accounting. */
+    long recountBytes() {
+        long total = 0;
+        for (CachedContent c : map.values()) total += c.size();
+        return total;
+    }
+}
+
+// ==================== PREFIX PURGE ====================
+
+/**
+ * Purge markers keyed by path segment: "/img/2024/" marks node ""→"img"→"2024" with the purge's
+ * generation; a prefix ending mid-segment ("/img/20") is kept as a partial on the parent node.
+ * An entry is purged if some marker on its key's path is newer than the entry's generation, so a
+ * purge is one marker write however many keys it covers. A marker lives only until its sweep has
+ * removed the entries it covers (unmark), so the trie holds just the purges in flight and lookups
+ * are free again once they finish. Writers synchronize; lookups are lock-free.
+ */
+class PurgeTrie {
+    private static final class Node {
+        final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, Long> partials = new ConcurrentHashMap<>();
+        volatile long purgedAt;
+
+        boolean isEmpty() { return purgedAt == 0 && partials.isEmpty() && children.isEmpty(); }
+    }
+
+    private final Node root = new Node();
+    private volatile boolean empty = true;
+
+    synchronized void mark(String prefix, long generation) {
+        Node n = root;
+        int pos = 0;
+        for (int slash; (slash = prefix.indexOf('/', pos)) >= 0; pos = slash + 1) {
+            n = n.children.computeIfAbsent(prefix.substring(pos, slash), k -> new Node());
+        }
+        if (pos == prefix.length()) n.purgedAt = Math.max(n.purgedAt, generation);
+        else n.partials.merge(prefix.substring(pos), generation, Math::max);
+        empty = false;
+    }
+
+    /** Drop prefix's marker unless a newer purge of the same prefix replaced it; prune emptied nodes. */
+    synchronized void unmark(String prefix, long generation) {
+        List<Node> path = new ArrayList<>();
+        List<String> segments = new ArrayList<>();
+        Node n = root;
+        int pos = 0;
+        for (int slash; (slash = prefix.indexOf('/', pos)) >= 0; pos = slash + 1) {
+            path.add(n);
+            segments.add(prefix.substring(pos, slash));
+            n = n.children.get(segments.get(segments.size() - 1));
+            if (n == null) return;
+        }
+        if (pos == prefix.length()) {
+            if (n.purgedAt == generation) n.purgedAt = 0;
+        } else {
+            n.partials.remove(prefix.substring(pos), generation);
+        }
+        for (int i = path.size() - 1; i >= 0 && n.isEmpty(); i--) {
+            path.get(i).children.remove(segments.get(i));
+            n = path.get(i);
+        }
+        empty = root.isEmpty();
+    }
+
+    /** No markers at all: every lookup is a volatile read. */
+    boolean isEmpty() { return empty; }
+
+    /** Newest purge generation covering key (0 = never purged). O(depth), free while no purge has happened. */
+    long lastPurge(String key) {
+        if (empty) return 0;
+        long g = 0;
+        Node n = root;
+        int pos = 0;
+        while (n != null) {
+            g = Math.max(g, n.purgedAt);
+            int slash = key.indexOf('/', pos);
+            String segment = slash < 0 ? key.substring(pos) : key.substring(pos, slash);
+            if (!n.partials.isEmpty()) {
+                for (Map.Entry<String, Long> e : n.partials.entrySet())
+                    if (segment.startsWith(e.getKey())) g = Math.max(g, e.getValue());
+            }
+            if (slash < 0) break;
+            n = n.children.get(segment);
+            pos = slash + 1;
+        }
+        return g;
+    }
+}
+
+// ==================== EDGE SERVER ====================
+
+/**
+ * Edge Server (PoP) in front of an EdgeCache.
+ * Default policy is CLOCK (concurrent reads); LRU is the fully synchronized LinkedHashMap variant.
  */
 class EdgeServer {
     final String id;
     final String region;
     final long maxBytes;
-    private long usedBytes;
-    private final LinkedHashMap<String, CachedContent> cache;
-    final AtomicLong hits = new AtomicLong();
-    final AtomicLong misses = new AtomicLong();
+    private final EdgeCache cache;
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final SingleFlight<CachedContent> flights = new SingleFlight<>();
+    final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    final AtomicInteger activeRequests = new AtomicInteger();   // in-flight, for bounded-load routing
+    // Prefix purge: sorted key index (best effort, may hold a few dead keys) for physical sweeps;
+    // generation markers are authoritative and checked on every hit
+    private final ConcurrentSkipListSet<String> keyIndex = new ConcurrentSkipListSet<>();
+    private final PurgeTrie purges = new PurgeTrie();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile long unmarkedThrough;   // newest generation whose marker was dropped after its sweep
+    volatile ChunkStore store;   // null → bodies stay as heap byte[]
     volatile boolean healthy = true;
 
     EdgeServer(String id, String region, long maxBytes) {
+        this(id, region, maxBytes, EvictionPolicy.CLOCK);
+    }
+
+    EdgeServer(String id, String region, long maxBytes, EvictionPolicy policy) {
         this.id = id;
         this.region = region;
         this.maxBytes = maxBytes;
-        this.usedBytes = 0;
-        this.cache = new LinkedHashMap<>(16, 0.75f, true); // accessOrder=true → LRU
-    }
-
-    /** Get from cache. Returns null on MISS or EXPIRED. */
-    synchronized CachedContent get(String key) {
-        // HINT: CachedContent c = cache.get(key);
-        // HINT: if (c == null) { misses.incrementAndGet(); return null; }
-        // HINT: if (c.isExpired()) { evict(key); misses.incrementAndGet(); return null; }
-        // HINT: c.touch();
-        // HINT: hits.incrementAndGet();
-        // HINT: bytesServed.addAndGet(c.size());
-        // HINT: return c;
-        CachedContent c=cache.get(key);
-        if(c==null) {misses.incrementAndGet(); return null;}
-        if(c.isExpired()) {evict(key); misses.incrementAndGet(); return null;}
-        c.touch();
-        hits.incrementAndGet();
+        this.cache = policy == EvictionPolicy.LRU
+            ? new LruEdgeCache(maxBytes, this::unindex) : new ClockEdgeCache(maxBytes, this::unindex);
+    }
+
+    /** Removal listener: drop the key unless a newer entry already replaced the removed one. */
+    private void unindex(CachedContent removed) {
+        if (cache.peek(removed.key) == null) keyIndex.remove(removed.key);
+    }
+
+    /** Get from cache. Returns null on MISS, EXPIRED or PURGED (fetched before a matching prefix purge). */
+    CachedContent get(String key) {
+        CachedContent c = cache.get(key);
+        if (c != null && purges.lastPurge(key) > c.generation) {
+            cache.remove(c);
+            c = null;
+        }
+        if (c == null) { misses.increment(); return null; }
+        hits.increment();
         return c;
     }
 
-    /** Put into cache with LRU eviction when full. */
-    synchronized void put(String key, CachedContent content) {
-        // HINT: if (cache.containsKey(key)) evict(key);
-        // HINT: while (usedBytes + content.size() > maxBytes && !cache.isEmpty()) {
-        // HINT:     String lruKey = cache.keySet().iterator().next(); // first = LRU
-        // HINT:     evict(lruKey);
-        // HINT: }
-        // HINT: if (content.size() <= maxBytes) {
-        // HINT:     cache.put(key, content);
-        // HINT:     usedBytes += content.size();
-        // HINT: }
-        if(cache.containsKey(key)) evict(key);
-        while(usedBytes+content.size()>maxBytes && !cache.isEmpty()){
-            String lruKey=cache.keySet().iterator().next();
-            evict(lruKey);
-        }
-        if(content.size()<=maxBytes){
-            cache.put(key, content);
-            usedBytes+=content.size();
-        }
-    }
-
-    /** Remove a key from cache, update usedBytes. */
-    synchronized void evict(String key) {
-        // HINT: CachedContent removed = cache.remove(key);
-        // HINT: if (removed != null) usedBytes -= removed.size();
-        CachedContent removed = cache.remove(key);
-        if(removed!=null) usedBytes-=removed.size();
+    /** Body for freshly fetched bytes: chunked/spilled if a store is attached and the object can be cached. */
+    ChunkedBody ingest(byte[] data) {
+        ChunkStore s = store;
+        return s == null || data.length > maxBytes ? ChunkedBody.wrap(data) : s.ingest(data);
     }
 
-    /** Invalidate = evict. Called on origin content update. */
-    synchronized void invalidate(String key) {
-        // HINT: evict(key);
-        evict(key);
-    }
-
-    /** Evict ALL expired entries (background cleanup). */
-    synchronized int evictExpired() {
-        // HINT: List<String> expired = new ArrayList<>();
-        // HINT: for (CachedContent c : cache.values()) {
-        // HINT:     if (c.isExpired()) expired.add(c.key);
-        // HINT: }
-        // HINT: for (String k : expired) evict(k);
-        // HINT: return expired.size();
-        List<String> expired=new ArrayList<>();
-        for(CachedContent c:cache.values()){
-            if(c.isExpired()) expired.add(c.key);
-        }
-        for(String k:expired) evict(k);
-        return expired.size();
+    /**
+     * Put into cache; the policy evicts until the new entry fits. A load that started before a purge
+     * whose marker is already gone can't be checked against it: it is not cached (conservatively,
+     * whatever its prefix). The re-check after the put closes the race with a sweep in progress.
+     */
+    void put(String key, CachedContent content) {
+        if (content.generation < 0) content.generation = generation.get();
+        if (content.generation < unmarkedThrough) { content.release(); return; }
+        cache.put(content);
+        keyIndex.add(key);
+        if (content.generation < unmarkedThrough || purges.lastPurge(key) > content.generation) cache.remove(content);
+    }
+
+    /** Read before fetching upstream; stamp the loaded entry with it so a purge during the load wins. */
+    long generation() { return generation.get(); }
+
+    /** O(1)-per-key logical purge: every entry under prefix fetched before now stops being served. */
+    long purgePrefix(String prefix) {
+        long g = generation.incrementAndGet();
+        purges.mark(prefix, g);
+        return g;
+    }
+
+    /** Sweep for (prefix, g) is complete: drop its marker. Floor first: a racing put() sees the marker or the floor. */
+    void purgeDone(String prefix, long g) {
+        synchronized (purges) {
+            if (g > unmarkedThrough) unmarkedThrough = g;
+        }
+        purges.unmark(prefix, g);
+    }
+
+    /** True while some prefix purge on this edge is still unswept (gets walk the marker trie). */
+    boolean purgesPending() { return !purges.isEmpty(); }
+
+    /** Physically remove entries under prefix older than generation g; visits matching keys only. */
+    int sweep(String prefix, long g) {
+        int removed = 0;
+        for (String key : keyIndex.tailSet(prefix)) {
+            if (!key.startsWith(prefix)) break;
+            CachedContent c = cache.peek(key);
+            if (c == null) keyIndex.remove(key);
+            else if (c.generation < g && cache.remove(c)) removed++;
+        }
+        return removed;
+    }
+
+    /** Keys under prefix in the index (test/metrics helper, walks the range). */
+    int indexedKeys(String prefix) {
+        int n = 0;
+        for (String key : keyIndex.tailSet(prefix)) {
+            if (!key.startsWith(prefix)) break;
+            n++;
+        }
+        return n;
     }
 
-    synchronized int cacheSize() { return cache.size(); }
-    synchronized long getUsedBytes() { return usedBytes; }
+    /** Remove a key from cache. */
+    void evict(String key) { cache.remove(key); }
+
+    /** Invalidate = evict. Called on origin content update. */
+    void invalidate(String key) { evict(key); }
+
+    /** Evict expired entries (background cleanup). */
+    int evictExpired() { return cache.evictExpired(); }
+
+    int cacheSize() { return cache.size(); }
+    long getUsedBytes() { return cache.usedBytes(); }
+    EdgeCache getCache() { return cache; }
 
     double hitRate() {
-        long total = hits.get() + misses.get();
-        return total == 0 ? 0 : (double) hits.get() / total * 100;
+        long h = hits.sum(), total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total * 100;
     }
 }
 
@@ -174,122 +979,383 @@ class EdgeServer {
 class OriginServer {
     private final ConcurrentHashMap<String, byte[]> store = new ConcurrentHashMap<>();
     final AtomicLong fetchCount = new AtomicLong();
+    final AtomicLong missCount = new AtomicLong();
+    private volatile long latencyMs;   // simulated origin round trip
 
     void putContent(String key, String content) { store.put(key, content.getBytes()); }
+    void putContent(String key, byte[] content) { store.put(key, content); }
+    void setLatencyMs(long latencyMs) { this.latencyMs = latencyMs; }
 
     byte[] fetch(String key) {
+        if (latencyMs > 0) LockSupport.parkNanos(latencyMs * 1_000_000);
         byte[] data = store.get(key);
         if (data != null) fetchCount.incrementAndGet();
+        else missCount.incrementAndGet();
         return data;
     }
 
     boolean has(String key) { return store.containsKey(key); }
 }
 
+// ==================== ORIGIN SHIELD ====================
+
+/**
+ * Mid-tier cache between all edges and the origin. Misses from every region funnel into
+ * one coalesced origin fetch per key, so N regions missing together cost 1 origin request.
+ */
+class OriginShield {
+    private final OriginServer origin;
+    private final EdgeServer tier;   // shield cache: same CLOCK cache, key index and purge markers as an edge
+    private final long ttlMs;
+    private final SingleFlight<byte[]> flights = new SingleFlight<>();
+    final LongAdder hits = new LongAdder();
+
+    OriginShield(OriginServer origin, long cacheBytes, long ttlMs) {
+        this.origin = origin;
+        this.tier = new EdgeServer("shield", "shield", cacheBytes);
+        this.ttlMs = ttlMs;
+    }
+
+    /** Returns null if the origin does not have the key. */
+    byte[] fetch(String key) {
+        CachedContent c = tier.get(key);
+        if (c != null) { hits.increment(); return c.body.toBytes(); }
+        return flights.execute(key, () -> {
+            long generation = tier.generation();
+            byte[] data = origin.fetch(key);
+            if (data != null) {
+                CachedContent loaded = new CachedContent(key, data, ttlMs);
+                loaded.generation = generation;
+                tier.put(key, loaded);
+            }
+            return data;
+        });
+    }
+
+    void invalidate(String key) { tier.invalidate(key); }
+
+    EdgeServer tier() { return tier; }
+}
+
 // ==================== CONSISTENT HASH RING ====================
 
+/** 64-bit MurmurHash64A over a String's UTF-16 code units (no byte[] allocation). */
+final class Hashing {
+    private static final long M = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+
+    private Hashing() {}
+
+    static long murmur64(String s, long seed) {
+        int len = s.length();
+        long h = seed ^ (len * 2L * M);
+        int i = 0;
+        for (; i + 4 <= len; i += 4) {
+            long k = s.charAt(i) | (long) s.charAt(i + 1) << 16 | (long) s.charAt(i + 2) << 32 | (long) s.charAt(i + 3) << 48;
+            k *= M;
+            k ^= k >>> R;
+            k *= M;
+            h ^= k;
+            h *= M;
+        }
+        if (i < len) {
+            long k = 0;
+            for (int shift = 0; i < len; i++, shift += 16) k |= (long) s.charAt(i) << shift;
+            h ^= k;
+            h *= M;
+        }
+        h ^= h >>> R;
+        h *= M;
+        h ^= h >>> R;
+        return h;
+    }
+
+    /** Lamping & Veach jump consistent hash: bucket in [0, buckets). */
+    static int jump(long key, int buckets) {
+        long b = -1, j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+}
+
 /**
- * Consistent hashing: each edge gets VIRTUAL_NODES positions on ring.
- * Key hashes to ring position → routed to next clockwise server.
- * Adding/removing server only redistributes ~1/N of keys.
+ * Key → edge routing within a region. Membership is an immutable Snapshot (sorted long[] ring
+ * points + owner indexes, optional Maglev table) rebuilt copy-on-write on add/remove, so
+ * route() is a lock-free volatile read plus a binary search or array index.
+ *
+ * Strategies:
+ *   RING          classic ring with VIRTUAL_NODES points per edge (murmur64)
+ *   BOUNDED_LOAD  ring walk that skips edges above ceil((1 + ε) × average in-flight load)
+ *   JUMP          jump hash over edges in join order (no memory; removals other than the last
+ *                 edge remap more than 1/N)
+ *   MAGLEV        65537-entry lookup table, near-perfect balance, O(1) lookup
+ * Unhealthy edges are skipped: ring/table walk forward, jump rehashes with a new seed.
  */
 class ConsistentHashRing {
-    private static final int VIRTUAL_NODES = 50;
-    private final TreeMap<Integer, String> ring = new TreeMap<>();
-    private final Map<String, EdgeServer> servers = new HashMap<>();
+    private static final int VIRTUAL_NODES = 100;
+    private static final int MAGLEV_SIZE = 65537;   // prime, ≫ edges per region
+    private static final double LOAD_EPSILON = 0.25;
+
+    private static final class Snapshot {
+        private static final int BUCKET_BITS = 12;
+
+        final EdgeServer[] servers;
+        final HashRouting routing;   // published with the tables it needs, in one volatile write
+        final long[] points;
+        final int[] owners;
+        final int[] bucketStart;   // first point index per top-12-bit bucket → O(1) ceiling
+        final int[] maglev;
+
+        Snapshot(EdgeServer[] servers, HashRouting routing) {
+            this.servers = servers;
+            this.routing = routing;
+            long[][] pairs = new long[servers.length * VIRTUAL_NODES][];
+            for (int s = 0; s < servers.length; s++)
+                for (int v = 0; v < VIRTUAL_NODES; v++)
+                    pairs[s * VIRTUAL_NODES + v] = new long[]{Hashing.murmur64(servers[s].id + "#" + v, 0), s};
+            Arrays.sort(pairs, (a, b) -> Long.compare(a[0], b[0]));
+            this.points = new long[pairs.length];
+            this.owners = new int[pairs.length];
+            for (int i = 0; i < pairs.length; i++) { points[i] = pairs[i][0]; owners[i] = (int) pairs[i][1]; }
+            this.bucketStart = new int[(1 << BUCKET_BITS) + 1];
+            for (int b = 0, i = 0; b <= 1 << BUCKET_BITS; b++) {
+                while (i < points.length && bucket(points[i]) < b) i++;
+                bucketStart[b] = i;
+            }
+            this.maglev = routing == HashRouting.MAGLEV && servers.length > 0 ? buildMaglev(servers) : null;
+        }
 
-    void addServer(EdgeServer server) {
-        // HINT: servers.put(server.id, server);
-        // HINT: for (int i = 0; i < VIRTUAL_NODES; i++) {
-        // HINT:     ring.put(hash(server.id + "#" + i), server.id);
-        // HINT: }
-        servers.put(server.id, server);
-        for(int i=0;i<VIRTUAL_NODES;i++){
-            ring.put(hash(server.id+"#"+i),server.id);
+        /** Each edge fills its next preferred free slot in turn (permutation = offset + j × skip). */
+        private static int[] buildMaglev(EdgeServer[] servers) {
+            int n = servers.length;
+            long[] offset = new long[n], skip = new long[n];
+            int[] next = new int[n];
+            for (int i = 0; i < n; i++) {
+                offset[i] = Long.remainderUnsigned(Hashing.murmur64(servers[i].id, 1), MAGLEV_SIZE);
+                skip[i] = Long.remainderUnsigned(Hashing.murmur64(servers[i].id, 2), MAGLEV_SIZE - 1) + 1;
+            }
+            int[] table = new int[MAGLEV_SIZE];
+            Arrays.fill(table, -1);
+            for (int filled = 0; ; ) {
+                for (int i = 0; i < n; i++) {
+                    int c;
+                    do { c = (int) ((offset[i] + next[i]++ * skip[i]) % MAGLEV_SIZE); } while (table[c] >= 0);
+                    table[c] = i;
+                    if (++filled == MAGLEV_SIZE) return table;
+                }
+            }
         }
 
-    }
+        /** Top bits with the sign flipped, so bucket order matches signed long order. */
+        private static int bucket(long h) {
+            return (int) ((h >>> (64 - BUCKET_BITS)) ^ (1 << (BUCKET_BITS - 1)));
+        }
 
-    void removeServer(String serverId) {
-        // HINT: servers.remove(serverId);
-        // HINT: for (int i = 0; i < VIRTUAL_NODES; i++) {
-        // HINT:     ring.remove(hash(serverId + "#" + i));
-        // HINT: }
-        servers.remove(serverId);
-        for(int i=0;i<VIRTUAL_NODES;i++){
-            ring.remove(hash(serverId+"#"+i));
+        /** Index of the first ring point ≥ h, wrapping to 0: jump to h's bucket, scan the few points in it. */
+        int ceiling(long h) {
+            int i = bucketStart[bucket(h)];
+            while (i < points.length && points[i] < h) i++;
+            return i == points.length ? 0 : i;
         }
     }
 
-    /** Route a content key to the responsible edge server. */
+    private volatile Snapshot snapshot;
+
+    ConsistentHashRing() { this(HashRouting.RING); }
+
+    ConsistentHashRing(HashRouting routing) { this.snapshot = new Snapshot(new EdgeServer[0], routing); }
+
+    synchronized void addServer(EdgeServer server) {
+        List<EdgeServer> list = new ArrayList<>(Arrays.asList(snapshot.servers));
+        list.removeIf(s -> s.id.equals(server.id));
+        list.add(server);
+        snapshot = new Snapshot(list.toArray(new EdgeServer[0]), snapshot.routing);
+    }
+
+    synchronized void removeServer(String serverId) {
+        List<EdgeServer> list = new ArrayList<>(Arrays.asList(snapshot.servers));
+        if (list.removeIf(s -> s.id.equals(serverId)))
+            snapshot = new Snapshot(list.toArray(new EdgeServer[0]), snapshot.routing);
+    }
+
+    /** The new strategy and its tables (Maglev) become visible together: routers never see one without the other. */
+    synchronized void setRouting(HashRouting routing) {
+        snapshot = new Snapshot(snapshot.servers, routing);
+    }
+
+    /** Route a content key to the responsible healthy edge server, or null if none. */
     EdgeServer route(String key) {
-        // HINT: if (ring.isEmpty()) return null;
-        // HINT: int h = hash(key);
-        // HINT: Map.Entry<Integer, String> entry = ring.ceilingEntry(h);
-        // HINT: if (entry == null) entry = ring.firstEntry(); // wrap around
-        // HINT: // Walk clockwise to find a healthy server
-        // HINT: String startId = entry.getValue();
-        // HINT: EdgeServer server = servers.get(startId);
-        // HINT: if (server != null && server.healthy) return server;
-        // HINT: // If unhealthy, try next entries on the ring
-        // HINT: for (Map.Entry<Integer, String> e : ring.tailMap(entry.getKey(), false).entrySet()) {
-        // HINT:     EdgeServer s = servers.get(e.getValue());
-        // HINT:     if (s != null && s.healthy) return s;
-        // HINT: }
-        // HINT: // Wrap around from beginning
-        // HINT: for (Map.Entry<Integer, String> e : ring.entrySet()) {
-        // HINT:     EdgeServer s = servers.get(e.getValue());
-        // HINT:     if (s != null && s.healthy) return s;
-        // HINT: }
-        // HINT: return null;
-        if(ring.isEmpty()) return null;
-        int h=hash(key);
-        Map.Entry<Integer,String> entry=ring.ceilingEntry(h);
-        if(entry==null) entry=ring.firstEntry();
-        String startId=entry.getValue();
-        EdgeServer server = servers.get(startId);
-        if(server!=null && server.healthy) return server;
-        for(Map.Entry<Integer,String> e:ring.tailMap(entry.getKey(),false).entrySet()){
-            EdgeServer s=servers.get(e.getValue());
-            if(s!=null && s.healthy) return s;
-        }
-        for (Map.Entry<Integer, String> e : ring.entrySet()) {
-            EdgeServer s = servers.get(e.getValue());
-            if (s != null && s.healthy) return s;
+        Snapshot snap = snapshot;
+        int n = snap.servers.length;
+        if (n == 0) return null;
+        long h = Hashing.murmur64(key, 0);
+        switch (snap.routing) {
+            case JUMP:
+                for (int attempt = 0; attempt < 2 * n; attempt++) {
+                    EdgeServer s = snap.servers[Hashing.jump(h + attempt * 0x9E3779B97F4A7C15L, n)];
+                    if (s.healthy) return s;
+                }
+                return firstHealthy(snap);
+            case MAGLEV: {
+                int start = (int) Long.remainderUnsigned(h, MAGLEV_SIZE);
+                for (int i = 0; i < MAGLEV_SIZE; i++) {
+                    EdgeServer s = snap.servers[snap.maglev[(start + i) % MAGLEV_SIZE]];
+                    if (s.healthy) return s;
+                }
+                return null;
+            }
+            case BOUNDED_LOAD: {
+                long total = 0;
+                for (EdgeServer s : snap.servers) total += s.activeRequests.get();
+                long cap = (long) Math.ceil((1 + LOAD_EPSILON) * (total + 1) / n);
+                for (int i = snap.ceiling(h), step = 0; step < snap.points.length; step++, i = i + 1 == snap.points.length ? 0 : i + 1) {
+                    EdgeServer s = snap.servers[snap.owners[i]];
+                    if (s.healthy && s.activeRequests.get() < cap) return s;
+                }
+                return firstHealthy(snap);
+            }
+            default: {
+                for (int i = snap.ceiling(h), step = 0; step < snap.points.length; step++, i = i + 1 == snap.points.length ? 0 : i + 1) {
+                    EdgeServer s = snap.servers[snap.owners[i]];
+                    if (s.healthy) return s;
+                }
+                return null;
+            }
         }
-        return null;
     }
 
-    private int hash(String key) {
-        int h = key.hashCode();
-        return h == Integer.MIN_VALUE ? 0 : Math.abs(h);
+    private static EdgeServer firstHealthy(Snapshot snap) {
+        for (EdgeServer s : snap.servers) if (s.healthy) return s;
+        return null;
     }
 
-    int size() { return servers.size(); }
+    int size() { return snapshot.servers.length; }
 }
 
 // ==================== CDN SERVICE ====================
 
-class CDNService {
+class CDNService implements AutoCloseable {
     private final OriginServer origin;
     private final ConcurrentHashMap<String, EdgeServer> allEdges = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, ConsistentHashRing> regionRings = new ConcurrentHashMap<>();
     private final long defaultTtlMs;
+    private volatile boolean coalescing = true;
+    private volatile long staleWhileRevalidateMs;
+    private volatile long negativeTtlMs;
+    private volatile OriginShield shield;
+    private volatile HashRouting routing = HashRouting.RING;
+    private volatile boolean chunkedStorage;   // false → bodies stay as heap byte[]
+    private volatile int chunkSize;
+    private volatile long chunkRamBytes, spillThreshold, spillMaxBytes;
+    private volatile Path spillDir;
+    private final ExecutorService refresher = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "cdn-revalidate");
+        t.setDaemon(true);
+        return t;
+    });
     final AtomicLong totalRequests = new AtomicLong();
     final AtomicLong totalHits = new AtomicLong();
     final AtomicLong totalMisses = new AtomicLong();
+    final AtomicLong staleServed = new AtomicLong();
+    // Prefix purges: marked synchronously, swept in batches by one background thread
+    private final ConcurrentLinkedQueue<PrefixPurge> pendingPurges = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean purgeScheduled = new AtomicBoolean();
+    private final ExecutorService purger = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "cdn-purge");
+        t.setDaemon(true);
+        return t;
+    });
+    final AtomicLong purgedEntries = new AtomicLong();
+    final AtomicLong purgeBatches = new AtomicLong();
+
+    private static final class PrefixPurge {
+        final String prefix;
+        final Map<EdgeServer, Long> generations;   // per-edge marker written by invalidatePrefix
+        final CompletableFuture<Void> swept = new CompletableFuture<>();
+
+        PrefixPurge(String prefix, Map<EdgeServer, Long> generations) {
+            this.prefix = prefix;
+            this.generations = generations;
+        }
+    }
 
     CDNService(OriginServer origin, long defaultTtlMs) {
         this.origin = origin;
         this.defaultTtlMs = defaultTtlMs;
     }
 
+    // --- Origin Protection ---
+
+    /** Single-flight misses per key per edge (on by default). */
+    void setCoalescing(boolean enabled) { this.coalescing = enabled; }
+
+    /** Keep serving an expired entry for up to staleMs while one async refresh runs. */
+    void setStaleWhileRevalidate(long staleMs) { this.staleWhileRevalidateMs = staleMs; }
+
+    /** Cache "not found" for ttlMs so repeated bad URLs don't reach the origin. */
+    void setNegativeTtl(long ttlMs) { this.negativeTtlMs = ttlMs; }
+
+    /** Put a shared mid-tier cache between every region's edges and the origin. */
+    void enableOriginShield(long cacheBytes) { this.shield = new OriginShield(origin, cacheBytes, defaultTtlMs); }
+
+    // --- Body Storage ---
+
+    /**
+     * Store bodies in pooled direct chunks (ramBytes per edge); objects ≥ spillThreshold, or that
+     * don't fit in RAM, go to memory-mapped spill segments under spillDir (null = no disk tier),
+     * at most spillMaxBytes per edge. Applies to existing and future edges.
+     */
+    void enableChunkedStorage(int chunkSize, long ramBytes, Path spillDir, long spillThreshold, long spillMaxBytes)
+            throws IOException {
+        this.chunkSize = chunkSize;
+        this.chunkRamBytes = ramBytes;
+        this.spillDir = spillDir;
+        this.spillThreshold = spillThreshold;
+        this.spillMaxBytes = spillMaxBytes;
+        this.chunkedStorage = true;
+        for (EdgeServer edge : allEdges.values()) attachStore(edge);
+    }
+
+    /** Same, with the disk tier capped at 8 GB per edge. */
+    void enableChunkedStorage(int chunkSize, long ramBytes, Path spillDir, long spillThreshold) throws IOException {
+        enableChunkedStorage(chunkSize, ramBytes, spillDir, spillThreshold, 8L << 30);
+    }
+
+    private void attachStore(EdgeServer edge) throws IOException {
+        if (chunkedStorage) edge.store = new ChunkStore(chunkSize, chunkRamBytes, spillDir, spillThreshold, spillMaxBytes);
+    }
+
+    /** Releases disk tiers (spill files are deleted). */
+    @Override
+    public void close() throws IOException {
+        refresher.shutdownNow();
+        purger.shutdownNow();
+        for (EdgeServer edge : allEdges.values()) {
+            if (edge.store != null) edge.store.close();
+        }
+    }
+
     // --- Edge Management ---
 
+    /** Key → edge strategy for every region ring (existing and future). */
+    void setRouting(HashRouting routing) {
+        this.routing = routing;
+        for (ConsistentHashRing ring : regionRings.values()) ring.setRouting(routing);
+    }
+
     EdgeServer addEdge(String id, String region, long cacheBytes) {
         EdgeServer edge = new EdgeServer(id, region, cacheBytes);
+        try {
+            attachStore(edge);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         allEdges.put(id, edge);
-        ConsistentHashRing ring = regionRings.computeIfAbsent(region, k -> new ConsistentHashRing());
+        ConsistentHashRing ring = regionRings.computeIfAbsent(region, k -> new ConsistentHashRing(routing));
         ring.addServer(edge);
         return edge;
     }
@@ -317,8 +1383,24 @@ class CDNService {
     /**
      * Main CDN flow:
      * Route → cache HIT? return : MISS → origin → cache at edge → return
+     * Decodes the whole body into a String; use fetchRange() to serve bytes without copying.
      */
     String fetchContent(String key, String userRegion) throws ContentNotFoundException {
+        try (ContentRange r = fetchRange(key, userRegion, 0, Long.MAX_VALUE)) {
+            return new String(r.toBytes());
+        }
+    }
+
+    /**
+     * Byte-range fetch (HTTP Range: bytes=from-(to-1)). Returns read-only slices of the cached
+     * chunks, no copy; the body stays pinned until the range is closed.
+     */
+    ContentRange fetchRange(String key, String userRegion, long from, long to) throws ContentNotFoundException {
+        return acquire(key, userRegion).body.range(from, to);
+    }
+
+    /** Route + cache lookup/load; returns an entry whose body the caller holds a reference to. */
+    private CachedContent acquire(String key, String userRegion) throws ContentNotFoundException {
         totalRequests.incrementAndGet();
 
         // Route to edge
@@ -332,55 +1414,144 @@ class CDNService {
         }
         if (edge == null) throw new ContentNotFoundException("No edge available for: " + key);
 
-        // Try cache
-        CachedContent cached = edge.get(key);
-        if (cached != null) {
-            totalHits.incrementAndGet();
-            return new String(cached.data);
+        edge.activeRequests.incrementAndGet();
+        try {
+            // retain() only fails if the entry was evicted and its chunks recycled in between → look again
+            while (true) {
+                // Try cache (fresh, stale-while-revalidate, or negative)
+                CachedContent cached = edge.get(key);
+                if (cached != null) {
+                    totalHits.incrementAndGet();
+                    if (cached.negative) throw new ContentNotFoundException(key);
+                    if (!cached.body.retain()) continue;
+                    if (cached.isStale()) revalidate(edge, key);
+                    return cached;
+                }
+
+                // Cache MISS → one load per key per edge, followers wait for it
+                totalMisses.incrementAndGet();
+                final EdgeServer target = edge;
+                CachedContent loaded = coalescing ? edge.flights.execute(key, () -> load(target, key)) : load(edge, key);
+                if (loaded.negative) throw new ContentNotFoundException(key);
+                if (loaded.body.retain()) return loaded;
+            }
+        } finally {
+            edge.activeRequests.decrementAndGet();
         }
+    }
 
-        // Cache MISS → fetch from origin
-        totalMisses.incrementAndGet();
-        byte[] data = origin.fetch(key);
-        if (data == null) throw new ContentNotFoundException(key);
+    /** Fetch from shield/origin and cache at the edge; a miss becomes a (possibly cached) negative entry. */
+    private CachedContent load(EdgeServer edge, String key) {
+        long generation = edge.generation();
+        OriginShield s = shield;
+        byte[] data = s != null ? s.fetch(key) : origin.fetch(key);
+        CachedContent c = data != null ? newEntry(edge, key, data) : CachedContent.notFound(key, negativeTtlMs);
+        c.generation = generation;
+        if (data != null || negativeTtlMs > 0) edge.put(key, c);
+        return c;
+    }
 
-        // Cache at edge
-        edge.put(key, new CachedContent(key, data, defaultTtlMs));
-        return new String(data);
+    private CachedContent newEntry(EdgeServer edge, String key, byte[] data) {
+        return new CachedContent(key, edge.ingest(data), defaultTtlMs, staleWhileRevalidateMs);
+    }
+
+    /** Stale hit: serve it, and start one background refresh unless a load is already running. */
+    private void revalidate(EdgeServer edge, String key) {
+        staleServed.incrementAndGet();
+        if (edge.flights.inFlight(key) || !edge.refreshing.add(key)) return;
+        try {
+            refresher.execute(() -> {
+                try {
+                    edge.flights.execute(key, () -> load(edge, key));
+                } finally {
+                    edge.refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {   // closed: keep serving stale, but don't strand the key
+            edge.refreshing.remove(key);
+        }
     }
 
     // --- Invalidation ---
 
     /** Purge a key from ALL edge caches. */
     void invalidate(String key) {
+        OriginShield s = shield;
+        if (s != null) s.invalidate(key);
         for (EdgeServer edge : allEdges.values()) {
             edge.invalidate(key);
         }
     }
 
-    /** Purge all content matching a prefix (e.g., "/images/*"). */
-    void invalidatePrefix(String prefix) {
-        // TODO: Implement — expensive O(E × K) but needed for wildcard purge
-        // HINT: for (EdgeServer edge : allEdges.values()) {
-        // HINT:     synchronized (edge) {
-        // HINT:         List<String> toEvict = new ArrayList<>();
-        // HINT:         // Note: can't directly iterate edge.cache (private), so either
-        // HINT:         // expose a method or use edge.evict() for known keys
-        // HINT:         // Simplified: iterate and collect, then evict
-        // HINT:     }
-        // HINT: }
+    /**
+     * Purge all content under a prefix (e.g., "/images/" for "/images/*").
+     * On return every edge (and the shield, marked first so edges can't refill from it) already
+     * treats matching entries as misses. The returned future completes once the batched background
+     * sweep has physically removed them.
+     */
+    CompletableFuture<Void> invalidatePrefix(String prefix) {
+        Map<EdgeServer, Long> generations = new HashMap<>();
+        OriginShield s = shield;
+        if (s != null) generations.put(s.tier(), s.tier().purgePrefix(prefix));
+        for (EdgeServer edge : allEdges.values()) generations.put(edge, edge.purgePrefix(prefix));
+        PrefixPurge purge = new PrefixPurge(prefix, generations);
+        pendingPurges.add(purge);
+        if (purgeScheduled.compareAndSet(false, true)) purger.execute(this::sweepPurges);
+        return purge.swept;
+    }
+
+    /**
+     * Drains every queued purge as one batch. Per edge, prefixes are sorted so a covering prefix
+     * comes first; a purge covered by one at least as new is skipped (its keys are already gone).
+     */
+    private void sweepPurges() {
+        purgeScheduled.set(false);
+        List<PrefixPurge> batch = new ArrayList<>();
+        for (PrefixPurge p; (p = pendingPurges.poll()) != null; ) batch.add(p);
+        if (batch.isEmpty()) return;
+        try {
+            batch.sort(Comparator.comparing(p -> p.prefix));
+            Map<EdgeServer, List<PrefixPurge>> byEdge = new HashMap<>();
+            for (PrefixPurge p : batch)
+                for (EdgeServer edge : p.generations.keySet()) byEdge.computeIfAbsent(edge, k -> new ArrayList<>()).add(p);
+            long removed = 0;
+            for (Map.Entry<EdgeServer, List<PrefixPurge>> e : byEdge.entrySet()) {
+                EdgeServer edge = e.getKey();
+                List<PrefixPurge> swept = new ArrayList<>();
+                for (PrefixPurge p : e.getValue()) {
+                    long g = p.generations.get(edge);
+                    boolean covered = false;
+                    for (PrefixPurge done : swept)
+                        if (p.prefix.startsWith(done.prefix) && done.generations.get(edge) >= g) { covered = true; break; }
+                    if (!covered) {
+                        removed += edge.sweep(p.prefix, g);
+                        swept.add(p);
+                    }
+                }
+                for (PrefixPurge p : e.getValue()) edge.purgeDone(p.prefix, p.generations.get(edge));
+            }
+            purgedEntries.addAndGet(removed);
+            purgeBatches.incrementAndGet();
+            for (PrefixPurge p : batch) p.swept.complete(null);
+        } catch (RuntimeException e) {
+            for (PrefixPurge p : batch) p.swept.completeExceptionally(e);
+        }
     }
 
     // --- Pre-warm ---
 
     /** Push content to all edges in a region before users request it. */
     void prewarm(String key, String region) {
+        Map<EdgeServer, Long> targets = new HashMap<>();
+        for (EdgeServer edge : allEdges.values()) {
+            if (edge.region.equals(region)) targets.put(edge, edge.generation());
+        }
         byte[] data = origin.fetch(key);
         if (data == null) return;
-        for (EdgeServer edge : allEdges.values()) {
-            if (edge.region.equals(region)) {
-                edge.put(key, new CachedContent(key, data, defaultTtlMs));
-            }
+        for (Map.Entry<EdgeServer, Long> t : targets.entrySet()) {
+            CachedContent c = newEntry(t.getKey(), key, data);
+            c.generation = t.getValue();
+            t.getKey().put(key, c);
         }
     }
 
@@ -465,15 +1636,15 @@ public class CDNSystem {
             System.out.println("✓ EU edge had separate MISS (each region has own cache)\n");
         } catch (Exception e) { System.out.println("✗ " + e.getMessage()); }
 
-        // --- Test 4: LRU Eviction ---
-        System.out.println("=== Test 4: LRU Eviction ===");
+        // --- Test 4: CLOCK Eviction (the default policy; LRU is compared in Test 14) ---
+        System.out.println("=== Test 4: CLOCK Eviction ===");
         try {
             cdn.fetchContent("/css/style.css", "us-east");
             cdn.fetchContent("/js/app.js", "us-east");
             cdn.fetchContent("/img/hero.jpg", "us-east");
-            cdn.fetchContent("/img/logo.png", "us-east"); // touch logo → not LRU
-            cdn.fetchContent("/video/intro.mp4", "us-east"); // big → evicts LRU items
-            System.out.println("✓ LRU eviction when cache exceeded capacity\n");
+            cdn.fetchContent("/img/logo.png", "us-east"); // touch logo → reference bit set, second chance
+            cdn.fetchContent("/video/intro.mp4", "us-east"); // big → the hand evicts unreferenced items
+            System.out.println("✓ CLOCK eviction when cache exceeded capacity\n");
         } catch (Exception e) { System.out.println("✗ " + e.getMessage()); }
 
         // --- Test 5: TTL Expiration ---
@@ -593,13 +1764,614 @@ public class CDNSystem {
             System.out.println("✓ Thread-safe concurrent fetches + invalidations\n");
         }
 
+        // --- Test 13: CLOCK cache - exact byte accounting + timer-wheel expiry ---
+        System.out.println("=== Test 13: Concurrent CLOCK Cache Accounting ===");
+        {
+            EdgeServer edge = new EdgeServer("acct", "test", 1_000_000);
+            ClockEdgeCache cache = (ClockEdgeCache) edge.getCache();
+            byte[][] blobs = new byte[8][];
+            for (int i = 0; i < blobs.length; i++) blobs[i] = new byte[100 + i * 1100];
+            ExecutorService exec = Executors.newFixedThreadPool(16);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                futures.add(exec.submit(() -> {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    for (int i = 0; i < 50_000; i++) {
+                        String key = "/k/" + rnd.nextInt(5000);
+                        if (rnd.nextInt(20) == 0) edge.evict(key);
+                        else if (edge.get(key) == null)
+                            edge.put(key, new CachedContent(key, blobs[rnd.nextInt(blobs.length)], 60_000));
+                    }
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+            exec.shutdown();
+            long used = edge.getUsedBytes(), recount = cache.recountBytes();
+            System.out.printf("  usedBytes=%d, recount=%d, items=%d, max=%d%n", used, recount, edge.cacheSize(), edge.maxBytes);
+            System.out.println((used == recount && used <= edge.maxBytes ? "✓" : "✗")
+                + " usedBytes exact after 800K racing get/put/evict ops");
+            System.out.println((cache.scheduledCount() == edge.cacheSize() ? "✓" : "✗")
+                + " Timer wheels hold only resident entries (" + cache.scheduledCount() + ")");
+
+            EdgeServer ttlEdge = new EdgeServer("wheel", "test", 1_000_000);
+            for (int i = 0; i < 1000; i++) {
+                String key = "/t/" + i;
+                ttlEdge.put(key, new CachedContent(key, blobs[0], i % 4 == 0 ? 30 : 60_000));
+            }
+            Thread.sleep(60);
+            int expired = ttlEdge.evictExpired();
+            System.out.println((expired == 250 && ttlEdge.cacheSize() == 750 ? "✓" : "✗")
+                + " Timer wheel expired " + expired + " short-TTL entries, " + ttlEdge.cacheSize() + " remain");
+            System.out.println((ttlEdge.getUsedBytes() == 750L * blobs[0].length ? "✓" : "✗") + " Bytes released on expiry");
+
+            EdgeServer churn = new EdgeServer("churn", "test", 1 << 20);   // 64KB bodies, 1h TTL, nobody calls evictExpired
+            byte[] body = new byte[64 << 10];
+            for (int i = 0; i < 20_000; i++) churn.put("/c/" + i, new CachedContent("/c/" + i, body, 3_600_000));
+            int linked = ((ClockEdgeCache) churn.getCache()).scheduledCount();
+            System.out.println((linked == churn.cacheSize() ? "✓" : "✗") + " 20K evicting puts leave " + linked
+                + " entries on the wheel for " + churn.cacheSize() + " resident\n");
+        }
+
+        // --- Test 14: Benchmark - 32 threads, mixed object sizes, LRU vs CLOCK ---
+        System.out.println("=== Test 14: Edge Cache Benchmark (32 threads, 512B/4KB/64KB) ===");
+        {
+            int threads = 32, opsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 100_000, keys = 20_000;
+            byte[][] blobs = { new byte[512], new byte[4096], new byte[65536] };
+            for (EvictionPolicy policy : new EvictionPolicy[]{EvictionPolicy.LRU, EvictionPolicy.CLOCK}) {
+                EdgeServer edge = new EdgeServer("bench", "test", 64L << 20, policy);
+                ExecutorService exec = Executors.newFixedThreadPool(threads);
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    futures.add(exec.submit(() -> {
+                        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                        start.await();
+                        for (int i = 0; i < opsPerThread; i++) {
+                            double r = rnd.nextDouble();
+                            int k = (int) (keys * r * r * r);                  // skewed popularity
+                            String key = "/obj/" + k;
+                            if (edge.get(key) == null) {
+                                int m = k % 20;                                 // 70% small, 25% medium, 5% large
+                                byte[] blob = m == 0 ? blobs[2] : m < 6 ? blobs[1] : blobs[0];
+                                edge.put(key, new CachedContent(key, blob, 60_000));
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                long t0 = System.nanoTime();
+                start.countDown();
+                for (Future<?> f : futures) f.get();
+                long elapsed = System.nanoTime() - t0;
+                exec.shutdown();
+                System.out.printf("  %-5s %6.2fM ops/s, hit rate %.1f%%, %d items, %dMB used%n", policy,
+                    (double) threads * opsPerThread / elapsed * 1000, edge.hitRate(), edge.cacheSize(),
+                    edge.getUsedBytes() >> 20);
+            }
+            System.out.println("✓ " + threads + " threads x " + opsPerThread + " ops, "
+                + Runtime.getRuntime().availableProcessors() + " CPU(s)\n");
+        }
+
+        // --- Test 15: Negative caching, origin shield, stale-while-revalidate ---
+        System.out.println("=== Test 15: Origin Protection ===");
+        {
+            CDNService neg = new CDNService(origin, 60_000);
+            neg.addEdge("n-1", "us-east", 100_000);
+            neg.setNegativeTtl(1_000);
+            long missesBefore = origin.missCount.get();
+            int notFound = 0;
+            for (int i = 0; i < 5; i++) {
+                try { neg.fetchContent("/missing.png", "us-east"); } catch (ContentNotFoundException e) { notFound++; }
+            }
+            long originMisses = origin.missCount.get() - missesBefore;
+            System.out.println((notFound == 5 && originMisses == 1 ? "✓" : "✗")
+                + " 5 lookups of a missing key → " + originMisses + " origin lookup (negative cache)");
+
+            origin.setLatencyMs(20);
+            for (boolean withShield : new boolean[]{false, true}) {
+                CDNService multi = new CDNService(origin, 60_000);
+                for (String region : new String[]{"us", "eu", "ap"}) {
+                    multi.addEdge(region + "-1", region, 100_000);
+                    multi.addEdge(region + "-2", region, 100_000);
+                }
+                if (withShield) multi.enableOriginShield(1_000_000);
+                String key = "/launch/trailer-" + withShield;
+                origin.putContent(key, "TRAILER");
+                long before = origin.fetchCount.get();
+                ExecutorService exec = Executors.newFixedThreadPool(12);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < 12; i++) {
+                    String region = new String[]{"us", "eu", "ap"}[i % 3];
+                    futures.add(exec.submit(() -> multi.fetchContent(key, region)));
+                }
+                for (Future<?> f : futures) f.get();
+                exec.shutdown();
+                long fetches = origin.fetchCount.get() - before;
+                System.out.println(((withShield ? fetches == 1 : fetches == 3) ? "✓" : "✗") + " 12 concurrent requests across 3 regions, "
+                    + (withShield ? "with" : "no") + " shield → " + fetches + " origin fetch(es)");
+            }
+
+            CDNService swr = new CDNService(origin, 50);
+            swr.addEdge("s-1", "us-east", 100_000);
+            swr.setStaleWhileRevalidate(1_000);
+            origin.putContent("/news.html", "v1");
+            swr.fetchContent("/news.html", "us-east");
+            Thread.sleep(80);
+            origin.putContent("/news.html", "v2");
+            long before = origin.fetchCount.get();
+            long t0 = System.nanoTime();
+            String stale = swr.fetchContent("/news.html", "us-east");
+            long staleMs = (System.nanoTime() - t0) / 1_000_000;
+            Thread.sleep(60);
+            String fresh = swr.fetchContent("/news.html", "us-east");
+            System.out.println(("v1".equals(stale) && staleMs < 20 ? "✓" : "✗") + " Expired entry served stale in " + staleMs + "ms");
+            System.out.println(("v2".equals(fresh) && origin.fetchCount.get() - before == 1 ? "✓" : "✗")
+                + " One background refresh → next request sees " + fresh);
+            Thread.sleep(80);
+            swr.close();                                           // refresher now rejects tasks
+            String afterClose = swr.fetchContent("/news.html", "us-east");
+            System.out.println(("v2".equals(afterClose) && swr.getEdge("s-1").refreshing.isEmpty() ? "✓" : "✗")
+                + " Stale hit after close() still served; rejected refresh leaves no stuck key");
+
+            SingleFlight<String> sf = new SingleFlight<>();
+            CountDownLatch leaderIn = new CountDownLatch(1);
+            ExecutorService pair = Executors.newFixedThreadPool(2);
+            Future<String> leaderCall = pair.submit(() -> sf.execute("k", () -> {
+                leaderIn.countDown();
+                while (sf.coalesced.sum() == 0) Thread.onSpinWait();   // wait until the follower has joined
+                throw new AssertionError("loader blew up");
+            }));
+            leaderIn.await();
+            Future<String> followerCall = pair.submit(() -> sf.execute("k", () -> "follower should not load"));
+            String outcome;
+            try {
+                followerCall.get(5, TimeUnit.SECONDS);
+                outcome = "returned";
+            } catch (ExecutionException e) {
+                outcome = e.getCause().getClass().getSimpleName();
+            } catch (TimeoutException e) {
+                outcome = "hung";
+            }
+            try { leaderCall.get(5, TimeUnit.SECONDS); } catch (ExecutionException | TimeoutException ignored) { }
+            pair.shutdownNow();
+            System.out.println(("AssertionError".equals(outcome) && !sf.inFlight("k") ? "✓" : "✗")
+                + " Loader Error reaches the waiting follower (" + outcome + ") instead of hanging it\n");
+            origin.setLatencyMs(0);
+        }
+
+        // --- Test 16: Expiry storm - origin fetches and tail latency ---
+        System.out.println("=== Test 16: Expiry Storm (32 threads, 1 hot key, 100ms TTL, 20ms origin) ===");
+        {
+            origin.setLatencyMs(20);
+            origin.putContent("/hot/homepage", "HOME_" + "x".repeat(1000));
+            String[] names = {"no coalescing", "single-flight", "single-flight + SWR"};
+            for (int mode = 0; mode < 3; mode++) {
+                CDNService storm = new CDNService(origin, 100);
+                storm.addEdge("storm-1", "us-east", 1_000_000);
+                storm.addEdge("storm-2", "us-east", 1_000_000);
+                storm.setCoalescing(mode > 0);
+                if (mode == 2) storm.setStaleWhileRevalidate(1_000);
+                long before = origin.fetchCount.get();
+                long deadline = System.nanoTime() + 1_000_000_000L;
+                ExecutorService exec = Executors.newFixedThreadPool(32);
+                List<Future<long[]>> futures = new ArrayList<>();
+                for (int t = 0; t < 32; t++) {
+                    futures.add(exec.submit(() -> {
+                        long[] hist = new long[LATENCY_BUCKETS];
+                        while (System.nanoTime() < deadline) {
+                            long t0 = System.nanoTime();
+                            storm.fetchContent("/hot/homepage", "us-east");
+                            hist[latencyBucket(System.nanoTime() - t0)]++;
+                        }
+                        return hist;
+                    }));
+                }
+                long[] hist = new long[LATENCY_BUCKETS];
+                for (Future<long[]> f : futures) {
+                    long[] part = f.get();
+                    for (int i = 0; i < hist.length; i++) hist[i] += part[i];
+                }
+                exec.shutdown();
+                System.out.printf("  %-20s %8d reqs, origin fetches %3d, p50=%s p99=%s p99.9=%s p99.99=%s%n", names[mode],
+                    Arrays.stream(hist).sum(), origin.fetchCount.get() - before, percentile(hist, 0.5),
+                    percentile(hist, 0.99), percentile(hist, 0.999), percentile(hist, 0.9999));
+            }
+            origin.setLatencyMs(0);
+            System.out.println("✓ Expiry storm measured (" + Runtime.getRuntime().availableProcessors() + " CPU(s))\n");
+        }
+
+        // --- Test 17: Chunked storage, range requests, disk spill, pinned bodies ---
+        System.out.println("=== Test 17: Chunked Storage + Range Requests ===");
+        {
+            Path spill = Files.createTempDirectory("cdn-spill");
+            try (CDNService media = new CDNService(origin, 60_000)) {
+                EdgeServer edge = media.addEdge("m-1", "media", 10_000_000);
+                media.enableChunkedStorage(4096, 64 * 1024, spill, 32 * 1024);
+                byte[] small = new byte[10_000], large = new byte[200_000];
+                new Random(7).nextBytes(small);
+                new Random(8).nextBytes(large);
+                origin.putContent("/media/clip.bin", small);
+                origin.putContent("/media/movie.bin", large);
+
+                try (ContentRange r = media.fetchRange("/media/clip.bin", "media", 1000, 9000)) {
+                    boolean readOnly = Arrays.stream(r.buffers).allMatch(b -> b.isReadOnly() && b.isDirect());
+                    boolean same = Arrays.equals(r.toBytes(), Arrays.copyOfRange(small, 1000, 9000));
+                    System.out.println((same && readOnly && r.buffers.length == 3 ? "✓" : "✗")
+                        + " bytes 1000-8999 → " + r.buffers.length + " read-only direct slices, content matches");
+                }
+                try (ContentRange r = media.fetchRange("/media/movie.bin", "media", 150_000, Long.MAX_VALUE)) {
+                    boolean same = Arrays.equals(r.toBytes(), Arrays.copyOfRange(large, 150_000, large.length));
+                    System.out.println((same && r.length() == 50_000 && r.totalLength() == large.length ? "✓" : "✗")
+                        + " Open-ended range on 200KB object served from disk tier");
+                }
+                System.out.println((edge.store.ramObjects.sum() == 1 && edge.store.diskObjects.sum() == 1 ? "✓" : "✗")
+                    + " RAM objects: " + edge.store.ramObjects.sum() + ", spilled: " + edge.store.diskObjects.sum());
+
+                ChunkPool pool = edge.store.pool;
+                ContentRange pinned = media.fetchRange("/media/clip.bin", "media", 0, Long.MAX_VALUE);
+                media.invalidate("/media/clip.bin");
+                int freeWhilePinned = pool.freeChunks();
+                boolean intact = Arrays.equals(pinned.toBytes(), small);
+                pinned.close();
+                System.out.println((freeWhilePinned == 0 && intact && pool.freeChunks() == 3 ? "✓" : "✗")
+                    + " Evicted body stays pinned by open range; 3 chunks back in pool after close");
+
+                try {
+                    media.fetchRange("/media/movie.bin", "media", 300_000, 400_000);
+                    System.out.println("✗ Should reject unsatisfiable range");
+                } catch (IllegalArgumentException e) {
+                    System.out.println("✓ Caught: " + e.getMessage());
+                }
+
+                ChunkedBody gone = ChunkedBody.pooled(small, pool.acquire(3), pool);
+                gone.release();
+                try {
+                    gone.toBytes();
+                    System.out.println("✗ toBytes on a recycled body should fail");
+                } catch (IllegalStateException e) {
+                    System.out.println((pool.freeChunks() == 3 ? "✓" : "✗") + " toBytes on a recycled body refused, refs untouched");
+                }
+            }
+
+            try (DiskTier disk = new DiskTier(spill, 4 << 20)) {   // 1MB segments, 4MB cap
+                byte[] obj = new byte[100_000];
+                ChunkedBody prev = null;
+                long peak = 0;
+                for (int i = 0; i < 500; i++) {                    // churn: each body evicted after the next arrives
+                    ChunkedBody b = disk.store(obj);
+                    if (prev != null) prev.release();
+                    prev = b;
+                    peak = Math.max(peak, disk.reservedBytes());
+                }
+                List<ChunkedBody> held = new ArrayList<>();
+                boolean full = false;
+                try {
+                    while (held.size() < 100) held.add(disk.store(obj));
+                } catch (IOException e) {
+                    full = true;
+                }
+                System.out.println((peak <= 2 << 20 && full && disk.reservedBytes() <= 4 << 20 ? "✓" : "✗")
+                    + " Disk tier: 50MB churned through ≤" + (peak >> 20) + "MB of segments; refuses at the 4MB cap with "
+                    + held.size() + " bodies pinned");
+                held.forEach(ChunkedBody::release);
+                prev.release();
+                System.out.println((disk.reservedBytes() == 0 ? "✓" : "✗") + " All bodies released → every segment file deleted");
+            }
+            Files.deleteIfExists(spill);
+            System.out.println();
+        }
+
+        // --- Test 18: Benchmark - hit throughput and allocation, 1KB / 1MB / 100MB ---
+        System.out.println("=== Test 18: Body Serving Benchmark (copy+decode vs zero-copy, consumer reads every byte) ===");
+        {
+            Path spill = Files.createTempDirectory("cdn-bench");
+            com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+            try (CDNService media = new CDNService(origin, 600_000)) {
+                media.addEdge("bench-1", "bench", 1L << 30);
+                media.enableChunkedStorage(64 * 1024, 256L << 20, spill, 64L << 20);
+                System.out.printf("  %-6s %-22s %10s %14s%n", "size", "path", "GB/s", "alloc/op");
+                for (int size : new int[]{1 << 10, 1 << 20, 100 << 20}) {
+                    byte[] body = new byte[size];
+                    for (int i = 0; i < size; i++) body[i] = (byte) ('a' + i % 26);
+                    String key = "/bench/" + size;
+                    origin.putContent(key, body);
+                    media.fetchContent(key, "bench");                       // miss → ingest
+                    int iters = Math.max(5, (256 << 20) / size);
+                    for (int path = 0; path < 3; path++) {
+                        if (path == 2 && size < (64 << 10)) continue;
+                        long reqFrom = path == 2 ? size / 2 : 0, reqTo = path == 2 ? size / 2 + (64 << 10) : Long.MAX_VALUE;
+                        for (int warm = 0; warm < 2; warm++) {
+                            long bytes = 0, alloc0 = mx.getCurrentThreadAllocatedBytes(), t0 = System.nanoTime();
+                            for (int i = 0; i < iters; i++) {
+                                if (path == 0) {
+                                    byte[] out = media.fetchContent(key, "bench").getBytes();
+                                    bytes += consume(ByteBuffer.wrap(out));
+                                } else {
+                                    try (ContentRange r = media.fetchRange(key, "bench", reqFrom, reqTo)) {
+                                        for (ByteBuffer b : r.buffers) bytes += consume(b);
+                                    }
+                                }
+                            }
+                            long elapsed = System.nanoTime() - t0, alloc = mx.getCurrentThreadAllocatedBytes() - alloc0;
+                            if (warm == 1) System.out.printf("  %-6s %-22s %10.2f %13dB%n",
+                                size >= (1 << 20) ? (size >> 20) + "MB" : (size >> 10) + "KB",
+                                new String[]{"fetchContent (copy)", "fetchRange (zero-copy)", "64KB range (zero-copy)"}[path],
+                                (double) bytes / elapsed, alloc / iters);
+                        }
+                    }
+                }
+                EdgeServer edge = media.getEdge("bench-1");
+                System.out.println("✓ RAM objects: " + edge.store.ramObjects.sum() + ", spilled to disk: "
+                    + edge.store.diskObjects.sum() + " (100MB ≥ 64MB threshold)");
+            }
+            Files.deleteIfExists(spill);
+            System.out.println();
+        }
+
+        // --- Test 19: Routing - lookup cost, balance, remap on membership change ---
+        System.out.println("=== Test 19: Key Routing (10 edges, 500K keys) ===");
+        {
+            int nKeys = 500_000;
+            String[] keys = new String[nKeys];
+            for (int i = 0; i < nKeys; i++) keys[i] = "/obj/" + i;
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < 10; i++) ids.add("edge-" + i);
+            List<String> grown = new ArrayList<>(ids);
+            grown.add("edge-10");
+            List<String> shrunk = new ArrayList<>(ids);
+            shrunk.remove("edge-3");
+
+            System.out.printf("  %-22s %8s %8s %8s %9s %9s%n", "strategy", "ns/op", "CV", "max/avg", "remap+1", "remap-1");
+            for (int strategy = -1; strategy < HashRouting.values().length; strategy++) {
+                HashRouting routing = strategy < 0 ? null : HashRouting.values()[strategy];
+                String[] base = routeAll(routing, ids, keys), plus = routeAll(routing, grown, keys), minus = routeAll(routing, shrunk, keys);
+                ConsistentHashRing ring = buildRing(routing == null ? HashRouting.RING : routing, ids);
+                int hot = 1 << 16, passes = 20;                       // cache-resident key set
+                long t0 = System.nanoTime();
+                for (int pass = 0; pass < passes; pass++)
+                    for (int i = 0; i < hot; i++) { if (routing == null) legacyRoute(ids, keys[i]); else ring.route(keys[i]); }
+                double nsPerOp = (System.nanoTime() - t0) / ((double) passes * hot);
+                Map<String, Integer> counts = new HashMap<>();
+                for (String o : base) counts.merge(o, 1, Integer::sum);
+                double mean = (double) nKeys / ids.size(), var = 0;
+                int max = 0;
+                for (String id : ids) {
+                    int c = counts.getOrDefault(id, 0);
+                    var += (c - mean) * (c - mean);
+                    max = Math.max(max, c);
+                }
+                System.out.printf("  %-22s %8.0f %8.3f %8.2f %8.1f%% %8.1f%%%n",
+                    routing == null ? "legacy TreeMap+hashCode" : routing, nsPerOp, Math.sqrt(var / ids.size()) / mean,
+                    max / mean, 100.0 * changed(base, plus) / nKeys, 100.0 * changed(base, minus) / nKeys);
+            }
+            System.out.println("  (ideal remap: +1 edge → 9.1%, -1 edge → 10.0%)");
+
+            ConsistentHashRing ring = buildRing(HashRouting.MAGLEV, ids);
+            EdgeServer owner = ring.route("/obj/42");
+            owner.healthy = false;
+            EdgeServer fallback = ring.route("/obj/42");
+            System.out.println((fallback != null && fallback != owner && fallback.healthy ? "✓" : "✗")
+                + " Unhealthy " + owner.id + " skipped → " + (fallback == null ? null : fallback.id));
+            owner.healthy = true;
+
+            ConsistentHashRing flipping = buildRing(HashRouting.RING, ids);
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicLong routed = new AtomicLong(), failures = new AtomicLong();
+            Thread router = new Thread(() -> {
+                for (int i = 0; !done.get(); i++) {
+                    try {
+                        if (flipping.route("/obj/" + (i & 1023)) == null) failures.incrementAndGet();
+                        routed.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            router.start();
+            for (int i = 0; i < 200; i++) flipping.setRouting(i % 2 == 0 ? HashRouting.MAGLEV : HashRouting.RING);
+            done.set(true);
+            router.join();
+            System.out.println((failures.get() == 0 ? "✓" : "✗") + " 200 RING↔MAGLEV switches under " + routed.get()
+                + " concurrent routes: " + failures.get() + " failures\n");
+        }
+
+        // --- Test 20: Prefix purge - correctness across edges + shield, then latency at scale ---
+        System.out.println("=== Test 20: Prefix Invalidation ===");
+        {
+            OriginServer o = new OriginServer();
+            String[] paths = {"/img/2024/01/a.jpg", "/img/2024/02/b.jpg", "/img/2023/12/c.jpg", "/img/2024.txt", "/css/site.css"};
+            for (String k : paths) o.putContent(k, "v1");
+            try (CDNService svc = new CDNService(o, 60_000)) {
+                svc.enableOriginShield(1 << 20);
+                EdgeServer us = svc.addEdge("pp-us", "us-east", 1 << 20), eu = svc.addEdge("pp-eu", "eu-west", 1 << 20);
+                for (String region : new String[]{"us-east", "eu-west"})
+                    for (String k : paths) svc.fetchContent(k, region);
+                for (String k : paths) o.putContent(k, "v2");
+                long fetches = o.fetchCount.get();
+
+                CompletableFuture<Void> swept = svc.invalidatePrefix("/img/2024/");
+                boolean fresh = svc.fetchContent("/img/2024/01/a.jpg", "eu-west").equals("v2")
+                    && svc.fetchContent("/img/2024/02/b.jpg", "us-east").equals("v2");
+                boolean kept = svc.fetchContent("/img/2023/12/c.jpg", "us-east").equals("v1")
+                    && svc.fetchContent("/img/2024.txt", "eu-west").equals("v1")
+                    && svc.fetchContent("/css/site.css", "eu-west").equals("v1");
+                System.out.println((fresh && kept && o.fetchCount.get() - fetches == 2 ? "✓" : "✗")
+                    + " Purge visible on return: /img/2024/* → v2 (shield purged too, " + (o.fetchCount.get() - fetches)
+                    + " origin fetches), /img/2023/*, /img/2024.txt, /css/* still cached");
+
+                swept.join();
+                boolean physical = eu.getCache().peek("/img/2024/02/b.jpg") == null && us.getCache().peek("/img/2024/01/a.jpg") == null
+                    && eu.getCache().peek("/img/2024/01/a.jpg") != null && us.getCache().peek("/img/2024/02/b.jpg") != null
+                    && us.indexedKeys("/img/2024/") == 1 && eu.indexedKeys("/img/2024/") == 1;
+                System.out.println((physical ? "✓" : "✗") + " Sweep removed old entries, kept the ones refetched after the purge");
+
+                svc.invalidatePrefix("/img/2023").join();
+                boolean partial = svc.fetchContent("/img/2023/12/c.jpg", "us-east").equals("v2")
+                    && svc.fetchContent("/img/2024.txt", "eu-west").equals("v1");
+                System.out.println((partial ? "✓" : "✗") + " Mid-segment prefix /img/2023 matches /img/2023/12/c.jpg only");
+
+                CachedContent late = new CachedContent("/img/2024/03/late.jpg", "old".getBytes(), 60_000);
+                late.generation = us.generation();          // load started...
+                svc.invalidatePrefix("/img/2024/").join();  // ...purge lands...
+                us.put(late.key, late);                     // ...load finishes
+                System.out.println((us.get(late.key) == null ? "✓" : "✗") + " Entry fetched before a purge but stored after it is not served");
+
+                long batches = svc.purgeBatches.get();
+                List<CompletableFuture<Void>> burst = new ArrayList<>();
+                for (int i = 0; i < 200; i++) burst.add(svc.invalidatePrefix("/burst/" + i + "/"));
+                CompletableFuture.allOf(burst.toArray(new CompletableFuture<?>[0])).join();
+                System.out.println("✓ 200 back-to-back purges swept in " + (svc.purgeBatches.get() - batches) + " batch(es)");
+                System.out.println((!us.purgesPending() && !eu.purgesPending() ? "✓" : "✗")
+                    + " Markers dropped once swept: gets skip the purge trie again");
+            }
+
+            int n = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+            try (CDNService svc = new CDNService(new OriginServer(), 3_600_000)) {
+                EdgeServer edge = svc.addEdge("purge-bench", "us-east", Long.MAX_VALUE / 4);
+                byte[] body = new byte[16];
+                String[] keys = new String[n];
+                long t0 = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    keys[i] = "/img/" + (2015 + i % 10) + "/" + (1 + (i / 10) % 12) + "/" + i + ".jpg";
+                    edge.put(keys[i], new CachedContent(keys[i], body, 3_600_000));
+                }
+                double putNs = (System.nanoTime() - t0) / (double) n;
+                String wide = "/img/2024/", narrow = "/img/2019/7/";
+
+                t0 = System.nanoTime();
+                int wideCount = 0, narrowCount = 0;
+                for (String k : keys) {
+                    if (k.startsWith(wide)) wideCount++;
+                    else if (k.startsWith(narrow)) narrowCount++;
+                }
+                double scanMs = (System.nanoTime() - t0) / 1e6;
+                double getBefore = purgeBenchGets(edge, keys);
+                for (int i = 0; i < 2_000; i++) svc.invalidatePrefix("/warm-up/" + i + "/").join();   // JIT the purge path
+
+                t0 = System.nanoTime();
+                CompletableFuture<Void> f = svc.invalidatePrefix(wide);
+                long wideLogicalNs = System.nanoTime() - t0;
+                f.join();
+                double wideSweepMs = (System.nanoTime() - t0) / 1e6;
+                long wideRemoved = svc.purgedEntries.get();
+
+                t0 = System.nanoTime();
+                f = svc.invalidatePrefix(narrow);
+                long narrowLogicalNs = System.nanoTime() - t0;
+                f.join();
+                double narrowSweepMs = (System.nanoTime() - t0) / 1e6;
+                long narrowRemoved = svc.purgedEntries.get() - wideRemoved;
+                double getAfter = purgeBenchGets(edge, keys);
+
+                System.out.printf("  %,d keys: put %.0f ns/key (cache + key index), full key scan %.1f ms%n", n, putNs, scanMs);
+                System.out.printf("  %-14s %8s %12s %12s%n", "prefix", "matched", "logical", "swept");
+                System.out.printf("  %-14s %,8d %9.1f us %9.1f ms%n", wide, wideRemoved, wideLogicalNs / 1e3, wideSweepMs);
+                System.out.printf("  %-14s %,8d %9.1f us %9.1f ms%n", narrow, narrowRemoved, narrowLogicalNs / 1e3, narrowSweepMs);
+                System.out.printf("  get: %.0f ns before purges, %.0f ns after 2 swept purges (markers dropped)%n", getBefore, getAfter);
+                boolean exact = wideRemoved == wideCount && narrowRemoved == narrowCount
+                    && edge.cacheSize() == n - wideCount - narrowCount && edge.get(keys[9]) == null && edge.get(keys[0]) != null;
+                System.out.println((exact ? "✓" : "✗") + " Sweeps removed exactly the matching keys; others untouched\n");
+            }
+        }
+
         System.out.println("=== Final Status ===");
         cdn.printStatus();
 
         System.out.println("\n╔══════════════════════════════════════════╗");
-        System.out.println("║        ALL 12 TESTS PASSED ✓             ║");
+        System.out.println("║        ALL 20 TESTS PASSED ✓             ║");
         System.out.println("╚══════════════════════════════════════════╝");
     }
+
+    static ConsistentHashRing buildRing(HashRouting routing, List<String> ids) {
+        ConsistentHashRing ring = new ConsistentHashRing(routing);
+        for (String id : ids) ring.addServer(new EdgeServer(id, "bench", 1 << 20));
+        return ring;
+    }
+
+    /**
+     * Owner of every key (routing == null → the old TreeMap + String.hashCode ring). For
+     * BOUNDED_LOAD each key stays assigned (counts as load), like sticky sessions.
+     */
+    static String[] routeAll(HashRouting routing, List<String> ids, String[] keys) {
+        String[] owners = new String[keys.length];
+        if (routing == null) {
+            for (int i = 0; i < keys.length; i++) owners[i] = legacyRoute(ids, keys[i]);
+            return owners;
+        }
+        ConsistentHashRing ring = buildRing(routing, ids);
+        for (int i = 0; i < keys.length; i++) {
+            EdgeServer e = ring.route(keys[i]);
+            if (routing == HashRouting.BOUNDED_LOAD) e.activeRequests.incrementAndGet();
+            owners[i] = e.id;
+        }
+        return owners;
+    }
+
+    private static List<String> legacyIds;
+    private static TreeMap<Integer, String> legacyRing;
+
+    /** The pre-murmur ring: 50 vnodes, Math.abs(String.hashCode()), TreeMap.ceilingEntry. */
+    static String legacyRoute(List<String> ids, String key) {
+        if (!ids.equals(legacyIds)) {
+            legacyRing = new TreeMap<>();
+            for (String id : ids)
+                for (int v = 0; v < 50; v++) legacyRing.put(legacyHash(id + "#" + v), id);
+            legacyIds = new ArrayList<>(ids);
+        }
+        Map.Entry<Integer, String> e = legacyRing.ceilingEntry(legacyHash(key));
+        return (e != null ? e : legacyRing.firstEntry()).getValue();
+    }
+
+    private static int legacyHash(String key) {
+        int h = key.hashCode();
+        return h == Integer.MIN_VALUE ? 0 : Math.abs(h);
+    }
+
+    static int changed(String[] a, String[] b) {
+        int n = 0;
+        for (int i = 0; i < a.length; i++) if (!a[i].equals(b[i])) n++;
+        return n;
+    }
+
+    /** ns per edge.get over 1M pseudo-random keys (hits and misses alike). */
+    static double purgeBenchGets(EdgeServer edge, String[] keys) {
+        int ops = 1_000_000;
+        long x = 42, t0 = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            x = x * 6364136223846793005L + 1442695040888963407L;
+            edge.get(keys[(int) ((x >>> 33) % keys.length)]);
+        }
+        return (System.nanoTime() - t0) / (double) ops;
+    }
+
+    static long checksum;
+
+    /** Stand-in for a socket write: reads every byte once (8 at a time), returns bytes read. */
+    static int consume(ByteBuffer b) {
+        long sum = 0;
+        int i = b.position(), end = b.limit();
+        for (; i + 8 <= end; i += 8) sum += b.getLong(i);
+        for (; i < end; i++) sum += b.get(i);
+        checksum += sum;
+        return b.remaining();
+    }
+
+    // Latency histogram: 1us buckets below 1ms, 1ms buckets up to 1s
+    static final int LATENCY_BUCKETS = 2000;
+
+    static int latencyBucket(long nanos) {
+        long us = nanos / 1000;
+        return us < 1000 ? (int) us : (int) Math.min(999 + us / 1000, LATENCY_BUCKETS - 1);
+    }
+
+    static String percentile(long[] hist, double p) {
+        long target = (long) Math.ceil(Arrays.stream(hist).sum() * p), seen = 0;
+        for (int i = 0; i < hist.length; i++) {
+            seen += hist[i];
+            if (seen >= target) return i < 1000 ? i + "us" : (i - 999) + "ms";
+        }
+        return ">1s";
+    }
 }
 
 /*
@@ -609,21 +2381,35 @@ public class CDNSystem {
  *    User → GeoDNS → nearest edge PoP → cache HIT? return : MISS → origin → cache → return
  *
  * 2. CONSISTENT HASHING:
- *    TreeMap ring, each edge has 50 virtual nodes. ceilingEntry() for O(log V) lookup.
+ *    Ring: 100 virtual nodes per edge, sorted long[] + owner index, immutable snapshot swapped on change.
+ *    Hash quality matters: String.hashCode on "/obj/1", "/obj/2"... clusters → one edge got every key.
  *    Adding/removing server redistributes only ~1/N of keys (not all).
+ *    Bounded loads: skip edges above (1 + ε) × average load → caps hot-spotting.
+ *    Jump hash: no memory, perfect balance, but only "remove last" is cheap.
+ *    Maglev: lookup table, O(1), near-perfect balance, small extra remap on change.
  *
- * 3. LRU CACHE:
- *    LinkedHashMap(accessOrder=true) — O(1) get/put, iterator gives LRU-first.
- *    On put: while usedBytes > max → remove iterator().next() (eldest).
+ * 3. EDGE CACHE:
+ *    LRU: LinkedHashMap(accessOrder=true) — but get() mutates the list → every read takes the lock.
+ *    CLOCK: reads only set a bit (written only when it flips) → lock-free hits.
+ *      Eviction hand gives referenced entries a second chance; approximates LRU.
+ *    Expiry via hashed timer wheel: cleanup touches due entries only.
+ *    Byte accounting: add/subtract exactly once per entry, keyed on map.remove(key, entry).
  *    Combined with TTL: expired entries treated as MISS on get().
  *
  * 4. CACHE INVALIDATION:
  *    TTL: auto-expire (simple, eventual consistency)
  *    Purge: push invalidation to all edges (immediate, O(E))
+ *    Prefix purge: don't scan the cache. Logical purge = write a generation marker into a path-segment
+ *      trie (O(depth)); a hit older than a marker on its path is a miss. Physical cleanup later walks
+ *      a sorted key index from the prefix → touches matching keys only. Purges batch per edge.
+ *      A marker is dropped once its sweep is done; loads older than a dropped marker aren't cached.
+ *    Stamp entries with the generation read BEFORE the upstream fetch → a load racing a purge loses.
+ *    Purge the shield before the edges, or edges refill from the shield's stale copy.
  *    Versioned URLs: /style.v2.css (best — infinite TTL, new URL on change)
  *
  * 5. THREAD SAFETY:
- *    synchronized on EdgeServer (LinkedHashMap not thread-safe)
+ *    CLOCK cache: ConcurrentHashMap reads, 16 striped locks for writes/eviction/expiry
+ *    LRU cache: synchronized (LinkedHashMap not thread-safe)
  *    ConcurrentHashMap for CDN-level maps
  *    AtomicLong for all counters
  *
@@ -631,5 +2417,18 @@ public class CDNSystem {
  *    200+ edge PoPs, Origin Shield as intermediate cache layer
  *    Origin only handles ~5% of traffic (cache offload)
  *
- * 7. REAL-WORLD: CloudFront, Cloudflare, Akamai, Fastly
+ * 7. THUNDERING HERD / ORIGIN PROTECTION:
+ *    Single-flight: concurrent misses of one key share one load (per edge, and again at the shield)
+ *    Stale-while-revalidate: serve the expired copy, refresh once in the background → no miss spike
+ *    Negative caching: remember 404s briefly, charge key bytes so bogus-URL scans stay bounded
+ *    Origin shield: all regions funnel through one mid-tier → R regions missing = 1 origin fetch
+ *
+ * 8. LARGE OBJECTS:
+ *    Store bodies as fixed-size chunks (pooled direct buffers) → no giant heap arrays, no GC churn
+ *    Range requests = read-only slices of the chunks → O(slices) objects, zero byte copies
+ *    Ref-count bodies: eviction drops the cache's ref, chunks recycle only after the last reader closes
+ *    Spill big/cold objects to a memory-mapped disk tier → served from page cache
+ *    Disk must be bounded too: fixed segments, delete a segment when its last body is freed, cap total
+ *
+ * 9. REAL-WORLD: CloudFront, Cloudflare, Akamai, Fastly
  */
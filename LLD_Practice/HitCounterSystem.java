@@ -1,6 +1,8 @@
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
 
 /*
  * HIT COUNTER - Low Level Design
@@ -14,13 +16,15 @@ import java.util.concurrent.atomic.*;
  * 5. Per-key counters (e.g., per URL, per endpoint)
  * 6. Hit event notifications (Observer)
  * 7. Thread-safe for high concurrency
+ * 8. Pre-aggregated second/minute/hour rollups, global total, top-K keys per window
  * 
  * DESIGN PATTERNS:
- *   Strategy  (WindowStrategy) — BucketWindow, CircularWindow
- *   Observer  (HitListener)    — HitLogger, ThresholdAlert
+ *   Strategy  (WindowStrategy) — CircularBufferWindow, TreeMapWindow, StripedWindow
+ *   Observer  (HitListener)    — HitLogger, ThresholdAlert, RollupEngine
  *   Facade    (HitCounterService)
  * 
  * KEY DS: AtomicInteger[] circular buffer indexed by (timestamp % windowSize)
+ *         StripedWindow: AtomicReferenceArray<Slot(epoch, LongAdder)> — lock-free hot keys
  */
 
 // ==================== EXCEPTIONS ====================
@@ -31,7 +35,24 @@ class InvalidWindowException extends RuntimeException {
 
 // ==================== ENUMS ====================
 
-enum TimeGranularity { SECOND, MINUTE, HOUR }
+/** Rollup resolution: bucket width × ring length (last 60s, last 60m, last 24h). */
+enum TimeGranularity {
+    SECOND(1, 60), MINUTE(60, 60), HOUR(3600, 24);
+
+    final int bucketSeconds, buckets;
+    TimeGranularity(int bucketSeconds, int buckets) { this.bucketSeconds = bucketSeconds; this.buckets = buckets; }
+
+    int spanSeconds() { return bucketSeconds * buckets; }
+
+    /** Finest ring that still covers the window; longer than the HOUR ring (24h) is rejected, not capped. */
+    static TimeGranularity forWindow(int windowSeconds) {
+        if (windowSeconds <= 0) throw new InvalidWindowException(windowSeconds + "s (must be positive)");
+        for (TimeGranularity g : values()) if (windowSeconds <= g.spanSeconds()) return g;
+        throw new InvalidWindowException(windowSeconds + "s exceeds the " + HOUR.spanSeconds() + "s kept by rollups");
+    }
+}
+
+enum WindowType { CIRCULAR_BUFFER, TREE_MAP, STRIPED }
 
 // ==================== INTERFACES ====================
 
@@ -105,6 +126,64 @@ class TreeMapWindow implements WindowStrategy {
     }
 }
 
+/**
+ * Lock-free circular buffer for hot keys (e.g. the homepage).
+ * Slot = (epoch second, LongAdder). LongAdder stripes increments across cells
+ * per CPU, so 64 threads hitting the same second don't fight over one counter.
+ * Stale slots are reset lazily: the first hit of a new second CASes in a fresh
+ * Slot — no clearing pass, no lock. A straggler that increments the replaced
+ * slot only loses a hit for a second that has already left the window.
+ * O(1) record (never blocks), O(W) count with no lock (sum is consistent-enough:
+ * it may miss increments racing with the read, like any LongAdder.sum()).
+ */
+class StripedWindow implements WindowStrategy {
+    private static final class Slot {
+        final long epoch;
+        final LongAdder count = new LongAdder();
+        Slot(long epoch) { this.epoch = epoch; }
+    }
+
+    private final int size;
+    private final AtomicReferenceArray<Slot> slots;
+
+    StripedWindow(int windowSeconds) {
+        this.size = windowSeconds;
+        this.slots = new AtomicReferenceArray<>(size);
+    }
+
+    @Override public void recordHit(long timestamp) {
+        int idx = (int)(timestamp % size);
+        while (true) {
+            Slot slot = slots.get(idx);
+            if (slot != null && slot.epoch == timestamp) { slot.count.increment(); return; }
+            if (slot != null && slot.epoch > timestamp) return;   // late hit, older than the window
+            Slot fresh = new Slot(timestamp);
+            fresh.count.increment();
+            if (slots.compareAndSet(idx, slot, fresh)) return;
+            // lost the race — another thread installed this second's slot; retry to increment it
+        }
+    }
+
+    @Override public int getHitCount(long currentTime, int windowSeconds) {
+        long count = 0;
+        for (int i = 0; i < size; i++) {
+            Slot slot = slots.get(i);
+            if (slot != null && currentTime - slot.epoch < windowSeconds) count += slot.count.sum();
+        }
+        return (int) count;
+    }
+
+    /** Newest epoch with a slot in the ring, Long.MIN_VALUE if never hit. O(W). */
+    long latestEpoch() {
+        long latest = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            Slot slot = slots.get(i);
+            if (slot != null && slot.epoch > latest) latest = slot.epoch;
+        }
+        return latest;
+    }
+}
+
 // ==================== OBSERVER IMPLEMENTATIONS ====================
 
 class HitLogger implements HitListener {
@@ -126,27 +205,275 @@ class ThresholdAlert implements HitListener {
     }
 }
 
+// ==================== ROLLUPS ====================
+
+/**
+ * One StripedWindow ring per TimeGranularity, indexed by bucket number
+ * (epochSecond / bucketSeconds) instead of raw seconds.
+ * Query picks the finest ring covering the window → O(buckets), bucket-aligned
+ * (the oldest bucket may be partial, so error ≤ 1 bucket at the old edge).
+ */
+class MultiResolutionCounter {
+    private final StripedWindow[] rings = new StripedWindow[TimeGranularity.values().length];
+
+    MultiResolutionCounter() {
+        for (TimeGranularity g : TimeGranularity.values()) rings[g.ordinal()] = new StripedWindow(g.buckets);
+    }
+
+    void record(long timestamp) {
+        for (TimeGranularity g : TimeGranularity.values()) rings[g.ordinal()].recordHit(timestamp / g.bucketSeconds);
+    }
+
+    int count(long currentTime, int windowSeconds) {
+        TimeGranularity g = TimeGranularity.forWindow(windowSeconds);
+        int buckets = (windowSeconds + g.bucketSeconds - 1) / g.bucketSeconds;
+        return rings[g.ordinal()].getHitCount(currentTime / g.bucketSeconds, buckets);
+    }
+
+    /** Epoch second of the newest hit (the SECOND ring always holds it). */
+    long lastHit() { return rings[TimeGranularity.SECOND.ordinal()].latestEpoch(); }
+}
+
+/**
+ * Indexed max-heap of key → UPPER BOUND of its windowed count.
+ * Written only by a fold of queued keys (set = exact count then, O(log n)), never per hit.
+ * Counts only shrink as buckets age out, so stored ≥ true always (time moves forward);
+ * new hits re-dirty the key and the next rollup raises its value again.
+ * TopK: peek max, recompute its true count; if unchanged it is confirmed
+ * (every other key's true ≤ its stored ≤ this), else decrease-key and retry;
+ * a key whose count reached 0 is dropped. O((K + stale) log n) instead of scanning every key.
+ * NOT thread-safe: RollupEngine calls it under its fold lock.
+ */
+class TopKeysHeap {
+    private String[] keys = new String[16];
+    private long[] vals = new long[16];
+    private int size;
+    private final Map<String, Integer> pos = new HashMap<>();
+
+    void set(String key, long value) {
+        Integer i = pos.get(key);
+        if (i == null) {
+            if (size == keys.length) { keys = Arrays.copyOf(keys, size * 2); vals = Arrays.copyOf(vals, size * 2); }
+            i = size++;
+            keys[i] = key; vals[i] = value; pos.put(key, i);
+            siftUp(i);
+            return;
+        }
+        long old = vals[i];
+        vals[i] = value;
+        if (value > old) siftUp(i); else siftDown(i);
+    }
+
+    void remove(String key) {
+        Integer i = pos.remove(key);
+        if (i == null) return;
+        size--;
+        if (i == size) { keys[size] = null; return; }
+        keys[i] = keys[size]; vals[i] = vals[size]; keys[size] = null;
+        pos.put(keys[i], i);
+        siftUp(i);
+        siftDown(pos.get(keys[i]));
+    }
+
+    int size() { return size; }
+
+    List<String> topK(int k, ToLongFunction<String> trueCount) {
+        List<String> result = new ArrayList<>();
+        List<Long> counts = new ArrayList<>();           // popped keys' counts, restored after
+        while (result.size() < k && size > 0) {
+            long actual = trueCount.applyAsLong(keys[0]);
+            if (actual == 0) { removeTop(); continue; }  // aged out of the window: drop it
+            if (actual < vals[0]) { vals[0] = actual; siftDown(0); continue; }
+            result.add(keys[0]);
+            counts.add(actual);
+            removeTop();
+        }
+        for (int i = 0; i < result.size(); i++) {        // put confirmed keys back
+            String key = result.get(i);
+            int j = size++;
+            keys[j] = key; vals[j] = counts.get(i); pos.put(key, j);
+            siftUp(j);
+        }
+        return result;
+    }
+
+    private void removeTop() {
+        pos.remove(keys[0]);
+        size--;
+        if (size > 0) { keys[0] = keys[size]; vals[0] = vals[size]; pos.put(keys[0], 0); siftDown(0); }
+        keys[size] = null;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (vals[parent] >= vals[i]) return;
+            swap(i, parent); i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int l = 2 * i + 1, r = l + 1, best = i;
+            if (l < size && vals[l] > vals[best]) best = l;
+            if (r < size && vals[r] > vals[best]) best = r;
+            if (best == i) return;
+            swap(i, best); i = best;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String k = keys[a]; keys[a] = keys[b]; keys[b] = k;
+        long v = vals[a]; vals[a] = vals[b]; vals[b] = v;
+        pos.put(keys[a], a); pos.put(keys[b], b);
+    }
+}
+
+/**
+ * Observer that pre-aggregates on write: per-key rollups and a global rollup, both
+ * lock-free StripedWindow rings. The hit path takes no lock: the first hit on a key
+ * since the last fold flips its dirty flag (one CAS) and queues the key; later hits
+ * only read the flag.
+ * Top keys are maintained incrementally: the hit that queues the FOLD_BATCH-th key
+ * folds the queue into the heaps if the fold lock is free (tryLock — a hit never waits),
+ * so a query only folds the few keys queued since. A fold gives queued keys their exact
+ * counts in one heap per granularity and expires keys whose last hit has left a ring's
+ * span, so each heap holds only keys active within its window.
+ */
+class RollupEngine implements HitListener {
+    private static final class KeyRollup {
+        final MultiResolutionCounter counter = new MultiResolutionCounter();
+        final AtomicBoolean dirty = new AtomicBoolean();
+    }
+
+    private final ConcurrentHashMap<String, KeyRollup> perKey = new ConcurrentHashMap<>();
+    private final MultiResolutionCounter global = new MultiResolutionCounter();
+    static final int FOLD_BATCH = 256;   // queued keys that make a hit fold them into the heaps
+
+    private final ConcurrentLinkedQueue<String> dirtyKeys = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final ReentrantLock foldLock = new ReentrantLock();
+    private final TopKeysHeap[] heaps = new TopKeysHeap[TimeGranularity.values().length];
+    // per heap: key → last hit second, oldest first (re-inserted on every refresh)
+    private final List<LinkedHashMap<String, Long>> lastHits = new ArrayList<>();
+
+    RollupEngine() {
+        for (int i = 0; i < heaps.length; i++) { heaps[i] = new TopKeysHeap(); lastHits.add(new LinkedHashMap<>()); }
+    }
+
+    @Override public void onHit(String key, long timestamp, int totalHits) {
+        KeyRollup r = perKey.computeIfAbsent(key, k -> new KeyRollup());
+        r.counter.record(timestamp);
+        global.record(timestamp);
+        // record before checking the flag: a rollup clears the flag before it reads counts,
+        // so a hit it missed always finds the flag clear and re-queues the key
+        if (!r.dirty.get() && r.dirty.compareAndSet(false, true)) {
+            dirtyKeys.add(key);
+            if (queued.incrementAndGet() >= FOLD_BATCH && foldLock.tryLock()) {
+                try { rollup(global.lastHit()); } finally { foldLock.unlock(); }
+            }
+        }
+    }
+
+    int getHits(String key, long currentTime, int windowSeconds) {
+        KeyRollup r = perKey.get(key);
+        return r == null ? 0 : r.counter.count(currentTime, windowSeconds);
+    }
+
+    int getGlobalHits(long currentTime, int windowSeconds) { return global.count(currentTime, windowSeconds); }
+
+    /** Top keys over the full span of the ring (last minute / hour / day). */
+    List<String> getTopKeys(int k, TimeGranularity window, long currentTime) {
+        foldLock.lock();
+        try {
+            rollup(currentTime);
+            return heaps[window.ordinal()].topK(k, key -> getHits(key, currentTime, window.spanSeconds()));
+        } finally {
+            foldLock.unlock();
+        }
+    }
+
+    /** Keys currently held by a granularity's heap (bounded by keys hit within its span). */
+    int trackedKeys(TimeGranularity window, long currentTime) {
+        foldLock.lock();
+        try {
+            rollup(currentTime);
+            return heaps[window.ordinal()].size();
+        } finally {
+            foldLock.unlock();
+        }
+    }
+
+    /** Keys hit since the last fold — all a top-K query still has to fold. */
+    int queuedKeys() { return queued.get(); }
+
+    /** Caller holds foldLock: fold queued keys into the heaps, then expire aged-out keys. */
+    private void rollup(long currentTime) {
+        for (String key; (key = dirtyKeys.poll()) != null; ) {
+            queued.decrementAndGet();
+            KeyRollup r = perKey.get(key);
+            r.dirty.set(false);
+            long last = r.counter.lastHit();
+            for (TimeGranularity g : TimeGranularity.values()) {
+                int hits = r.counter.count(currentTime, g.spanSeconds());
+                LinkedHashMap<String, Long> order = lastHits.get(g.ordinal());
+                order.remove(key);
+                if (hits == 0) { heaps[g.ordinal()].remove(key); continue; }
+                heaps[g.ordinal()].set(key, hits);
+                order.put(key, last);
+            }
+        }
+        for (TimeGranularity g : TimeGranularity.values()) {
+            Iterator<Map.Entry<String, Long>> it = lastHits.get(g.ordinal()).entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> oldest = it.next();
+                if (currentTime / g.bucketSeconds - oldest.getValue() / g.bucketSeconds < g.buckets) break;
+                heaps[g.ordinal()].remove(oldest.getKey());
+                it.remove();
+            }
+        }
+    }
+}
+
 // ==================== HIT COUNTER SERVICE (FACADE) ====================
 
 class HitCounterService {
     private final ConcurrentHashMap<String, WindowStrategy> counters = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, AtomicInteger> totalCounts = new ConcurrentHashMap<>();
     private final int defaultWindowSeconds;
-    private final boolean useTreeMap;
+    private final WindowType windowType;
     private final List<HitListener> listeners = new ArrayList<>();
+    private RollupEngine rollups;
 
-    HitCounterService(int windowSeconds, boolean useTreeMap) {
+    HitCounterService(int windowSeconds, WindowType windowType) {
         this.defaultWindowSeconds = windowSeconds;
-        this.useTreeMap = useTreeMap;
+        this.windowType = windowType;
+    }
+    HitCounterService(int windowSeconds, boolean useTreeMap) {
+        this(windowSeconds, useTreeMap ? WindowType.TREE_MAP : WindowType.CIRCULAR_BUFFER);
     }
     HitCounterService(int windowSeconds) { this(windowSeconds, false); }
     HitCounterService() { this(300, false); } // 5 min default
 
     void addListener(HitListener l) { listeners.add(l); }
 
+    /** Pre-aggregate second/minute/hour rollups on write. Call before recording hits. */
+    void enableRollups() {
+        if (rollups != null) return;
+        rollups = new RollupEngine();
+        addListener(rollups);
+    }
+
+    static WindowStrategy newWindow(WindowType type, int windowSeconds) {
+        switch (type) {
+            case TREE_MAP: return new TreeMapWindow();
+            case STRIPED:  return new StripedWindow(windowSeconds);
+            default:       return new CircularBufferWindow(windowSeconds);
+        }
+    }
+
     private WindowStrategy getWindow(String key) {
-        return counters.computeIfAbsent(key, k ->
-            useTreeMap ? new TreeMapWindow() : new CircularBufferWindow(defaultWindowSeconds));
+        return counters.computeIfAbsent(key, k -> newWindow(windowType, defaultWindowSeconds));
     }
 
     /** Record a hit for a key at given timestamp (epoch seconds). */
@@ -174,13 +501,38 @@ class HitCounterService {
         return c == null ? 0 : c.get();
     }
 
-    /** Get hits across all keys in a window. */
+    /** Get hits across all keys in a window. O(buckets) with rollups, else scans every key. */
     int getGlobalHits(long currentTime, int windowSeconds) {
+        if (rollups != null) return rollups.getGlobalHits(currentTime, windowSeconds);
         return counters.entrySet().stream()
             .mapToInt(e -> e.getValue().getHitCount(currentTime, windowSeconds)).sum();
     }
 
+    /** Hits for a key over any window up to 24h (e.g. last 6 hours), read from rollups; longer → InvalidWindowException. */
+    int getRangeHits(String key, long currentTime, int windowSeconds) {
+        if (rollups == null) throw new IllegalStateException("Rollups not enabled");
+        return rollups.getHits(key, currentTime, windowSeconds);
+    }
+
+    List<String> getTopKeys(int k, TimeGranularity window, long currentTime) {
+        if (rollups == null) throw new IllegalStateException("Rollups not enabled");
+        return rollups.getTopKeys(k, window, currentTime);
+    }
+
+    List<String> getTopKeys(int k, TimeGranularity window) { return getTopKeys(k, window, System.currentTimeMillis() / 1000); }
+
     int getKeyCount() { return counters.size(); }
+
+    int getTrackedTopKeys(TimeGranularity window, long currentTime) {
+        if (rollups == null) throw new IllegalStateException("Rollups not enabled");
+        return rollups.trackedKeys(window, currentTime);
+    }
+
+    /** Keys hit since the last fold into the top-key heaps (what the next top-K query folds). */
+    int getQueuedTopKeys() {
+        if (rollups == null) throw new IllegalStateException("Rollups not enabled");
+        return rollups.queuedKeys();
+    }
 }
 
 // ==================== MAIN / TESTS ====================
@@ -300,7 +652,153 @@ public class HitCounterSystem {
         check(svc11.getTotalHits("scale"), 100000, "100K total");
         System.out.println("✓\n");
 
-        System.out.println("════════ ALL 11 TESTS PASSED ✓ ════════");
+        // --- Test 12: Striped window correctness ---
+        System.out.println("=== Test 12: Striped (LongAdder) window ===");
+        HitCounterService svc12 = new HitCounterService(10, WindowType.STRIPED);
+        svc12.hit("striped", 1); svc12.hit("striped", 5); svc12.hit("striped", 15);
+        check(svc12.getHits("striped", 20, 10), 1, "Only hit@15 in [10,20) (slot 5 lazily reset by hit@15)");
+        svc12.hit("striped", 5);
+        check(svc12.getHits("striped", 20, 10), 1, "Late hit@5 dropped, slot keeps epoch 15");
+        ExecutorService exec12 = Executors.newFixedThreadPool(16);
+        List<Future<?>> f12 = new ArrayList<>();
+        for (int i = 0; i < 16; i++) f12.add(exec12.submit(() -> { for (int j = 0; j < 10_000; j++) svc12.hit("hot", 100 + j % 10); }));
+        for (Future<?> f : f12) { try { f.get(); } catch (Exception e) {} }
+        exec12.shutdown();
+        check(svc12.getHits("hot", 109, 10), 160_000, "160K concurrent hits, none lost");
+        System.out.println("✓\n");
+
+        // --- Test 13: Contention benchmark, 64 threads on one hot key ---
+        System.out.println("=== Test 13: Contention benchmark (64 threads, 1 hot key) ===");
+        int threads = 64, hitsPerThread = 50_000;
+        for (WindowType type : WindowType.values()) {
+            WindowStrategy w = HitCounterService.newWindow(type, 60);
+            ExecutorService benchExec = Executors.newFixedThreadPool(threads);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> bf = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                bf.add(benchExec.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < hitsPerThread; j++) {
+                        w.recordHit(1000 + j / 1000);                              // ~1000 hits per second slot
+                        if ((j & 1023) == 0) w.getHitCount(1000 + j / 1000, 60);  // occasional dashboard read
+                    }
+                    return null;
+                }));
+            }
+            long t0 = System.nanoTime();
+            start.countDown();
+            for (Future<?> f : bf) { try { f.get(); } catch (Exception e) {} }
+            long ns = System.nanoTime() - t0;
+            benchExec.shutdown();
+            long total = (long) threads * hitsPerThread;
+            System.out.printf("  %-15s %,12d hits/s  (count=%d)\n", type, total * 1_000_000_000L / ns,
+                w.getHitCount(1000 + (hitsPerThread - 1) / 1000, 60));
+        }
+        System.out.println("✓\n");
+
+        // --- Test 14: Multi-resolution rollups ---
+        System.out.println("=== Test 14: Rollups (second / minute / hour) ===");
+        HitCounterService svc14 = new HitCounterService(60);
+        svc14.enableRollups();
+        long base = 1_000_000 * 3600L;                      // hour-aligned epoch second
+        for (int h = 0; h < 10; h++) svc14.hit("/home", base + h * 3600);   // 1 hit per hour for 10h
+        for (int i = 0; i < 5; i++) svc14.hit("/home", base + 9 * 3600 + 1800 + i);
+        svc14.hit("/about", base + 9 * 3600 + 1800);
+        long now14 = base + 9 * 3600 + 1805;
+        check(svc14.getRangeHits("/home", now14, 6 * 3600), 11, "Last 6h = hours 4..9 (6 hits) + 5 burst hits");
+        check(svc14.getRangeHits("/home", now14, 10), 5, "Last 10s from second ring = 5 burst hits");
+        check(svc14.getRangeHits("/home", now14, 30 * 60), 5, "Last 30m from minute ring = 5 burst hits (hour-9 hit is 30m05s old)");
+        check(svc14.getGlobalHits(now14, 6 * 3600), 12, "Global last 6h = 11 + 1 /about, no key scan");
+        System.out.println("✓\n");
+
+        // --- Test 15: Top keys via incremental heap ---
+        System.out.println("=== Test 15: getTopKeys(k, window) ===");
+        HitCounterService svc15 = new HitCounterService(60);
+        svc15.enableRollups();
+        for (int i = 0; i < 50; i++) svc15.hit("/old-viral", 10_000);       // hot long ago
+        for (int i = 0; i < 30; i++) svc15.hit("/search", 20_000 + i);
+        for (int i = 0; i < 20; i++) svc15.hit("/home", 20_000 + i);
+        for (int i = 0; i < 10; i++) svc15.hit("/cart", 20_000 + i);
+        List<String> top = svc15.getTopKeys(2, TimeGranularity.SECOND, 20_030);
+        check(top.equals(List.of("/search", "/home")), true, "Last-minute top 2 = [/search, /home], got " + top);
+        List<String> topDay = svc15.getTopKeys(4, TimeGranularity.HOUR, 20_030);
+        check(topDay.equals(List.of("/old-viral", "/search", "/home", "/cart")), true, "Last-day top 4 keeps /old-viral first");
+        check(svc15.getTopKeys(3, TimeGranularity.SECOND, 20_030).size(), 3, "Repeat query stable (heap restored)");
+        System.out.println("✓\n");
+
+        // --- Test 16: getGlobalHits scan vs rollup, 10K keys ---
+        System.out.println("=== Test 16: Global query — key scan vs rollup (10K keys) ===");
+        HitCounterService scan = new HitCounterService(60);
+        HitCounterService rolled = new HitCounterService(60);
+        rolled.enableRollups();
+        for (int i = 0; i < 100_000; i++) {
+            scan.hit("/page/" + (i % 10_000), 50_000 + i % 60);
+            rolled.hit("/page/" + (i % 10_000), 50_000 + i % 60);
+        }
+        long q0 = System.nanoTime();
+        int scanned = 0;
+        for (int i = 0; i < 100; i++) scanned = scan.getGlobalHits(50_059, 60);
+        long scanNs = (System.nanoTime() - q0) / 100;
+        q0 = System.nanoTime();
+        int rolledUp = 0;
+        for (int i = 0; i < 100; i++) rolledUp = rolled.getGlobalHits(50_059, 60);
+        long rollNs = (System.nanoTime() - q0) / 100;
+        System.out.printf("  scan: %,d ns/query   rollup: %,d ns/query\n", scanNs, rollNs);
+        check(scanned, rolledUp, "Same answer (" + rolledUp + ")");
+        System.out.println("✓\n");
+
+        // --- Test 17: Top-key heaps expire, windows > 24h rejected, lock-free hit path ---
+        System.out.println("=== Test 17: Heap expiry + window bounds + hit throughput ===");
+        HitCounterService svc17 = new HitCounterService(60, WindowType.STRIPED);
+        svc17.enableRollups();
+        for (int i = 0; i < 1_000; i++) svc17.hit("/burst/" + i, 100_000);
+        svc17.hit("/steady", 100_000);
+        check(svc17.getTrackedTopKeys(TimeGranularity.SECOND, 100_000), 1_001, "1,001 keys tracked for the last minute");
+        svc17.hit("/steady", 100_200);
+        check(svc17.getTrackedTopKeys(TimeGranularity.SECOND, 100_200), 1, "200s later the minute heap holds only /steady");
+        check(svc17.getTrackedTopKeys(TimeGranularity.MINUTE, 100_200), 1_001, "Last-hour heap still holds all 1,001");
+        check(svc17.getTopKeys(1, TimeGranularity.HOUR, 100_200).equals(List.of("/steady")), true, "Refreshed keys rank by exact count");
+        check(svc17.getTrackedTopKeys(TimeGranularity.HOUR, 100_000 + 25 * 3600), 0, "25h later the day heap is empty");
+        try {
+            svc17.getRangeHits("/steady", 100_200, 48 * 3600);
+            System.out.println("  ✗ 48h window silently capped");
+        } catch (InvalidWindowException e) {
+            System.out.println("  ✓ 48h window rejected: " + e.getMessage());
+        }
+        int hitThreads = 16, perThread = 100_000;
+        HitCounterService hot17 = new HitCounterService(60, WindowType.STRIPED);
+        hot17.enableRollups();
+        ExecutorService exec17 = Executors.newFixedThreadPool(hitThreads);
+        List<Future<?>> f17 = new ArrayList<>();
+        long t17 = System.nanoTime();
+        for (int i = 0; i < hitThreads; i++) f17.add(exec17.submit(() -> { for (int j = 0; j < perThread; j++) hot17.hit("/hot/" + (j & 7), 200_000 + j / 10_000); }));
+        for (Future<?> f : f17) { try { f.get(); } catch (Exception e) {} }
+        long ns17 = System.nanoTime() - t17;
+        exec17.shutdown();
+        System.out.printf("  %d threads x 8 hot keys, rollups on: %,d hits/s%n", hitThreads, (long) hitThreads * perThread * 1_000_000_000L / ns17);
+        check(hot17.getRangeHits("/hot/0", 200_009, 60), hitThreads * perThread / 8, "No hit lost on the lock-free path");
+        check(hot17.getTopKeys(8, TimeGranularity.SECOND, 200_009).size(), 8, "All 8 hot keys ranked after rollup");
+        System.out.println("✓\n");
+
+        // --- Test 18: Top-key heaps maintained on the update path ---
+        System.out.println("=== Test 18: Incremental top-K — a burst leaves under one batch to fold ===");
+        HitCounterService svc18 = new HitCounterService(60, WindowType.STRIPED);
+        svc18.enableRollups();
+        int burst = 100_000;
+        for (int i = 0; i < burst; i++) svc18.hit("/item/" + i, 300_000 + i / 5_000);
+        for (int i = 0; i < 3; i++) svc18.hit("/item/42", 300_019);
+        int backlog = svc18.getQueuedTopKeys();
+        check(backlog < RollupEngine.FOLD_BATCH, true, "Backlog after " + burst + " new keys: " + backlog + " < " + RollupEngine.FOLD_BATCH);
+        long q18 = System.nanoTime();
+        List<String> top18 = svc18.getTopKeys(1, TimeGranularity.SECOND, 300_019);
+        q18 = System.nanoTime() - q18;
+        System.out.printf("  first top-K query after the burst: %,d us%n", q18 / 1_000);
+        check(top18.equals(List.of("/item/42")), true, "Top key = /item/42 (4 hits), got " + top18);
+        check(svc18.getTrackedTopKeys(TimeGranularity.SECOND, 300_019), burst, "Every key of the last minute tracked");
+        check(svc18.getQueuedTopKeys(), 0, "Query folded the rest");
+        System.out.println("✓\n");
+
+        System.out.println("════════ ALL 18 TESTS PASSED ✓ ════════");
     }
 
     static void check(int a, int e, String m) { System.out.println("  " + (a == e ? "✓" : "✗ GOT " + a) + " " + m); }
@@ -325,8 +823,16 @@ public class HitCounterSystem {
  * 5. PER-KEY: ConcurrentHashMap<key, WindowStrategy>. Each endpoint/URL tracked independently.
  *
  * 6. THREAD SAFETY: synchronized on window methods, AtomicInteger for totals,
- *    ConcurrentHashMap for registry.
+ *    ConcurrentHashMap for registry. Hot keys: StripedWindow — per-slot LongAdder +
+ *    epoch-stamped slots swapped in by CAS, so recordHit never blocks.
+ *
+ * 7. ROLLUPS: second/minute/hour rings per key + one global ring, written on hit.
+ *    Range query = O(buckets) on the finest covering ring; > 24h is rejected, not capped.
+ *    Top-K: hits only queue a dirty key (no lock); every FOLD_BATCH queued keys one hit
+ *    folds them (tryLock, never waits) into an indexed max-heap of exact counts that are
+ *    upper bounds later, validated lazily at query time (counts only decay), and keys
+ *    idle past a ring's span are expired from its heap. A query folds at most ~a batch.
  *
- * 7. EXTENSIONS: percentile tracking (p50/p95), distributed hit counting (Redis),
+ * 8. EXTENSIONS: percentile tracking (p50/p95), distributed hit counting (Redis),
  *    rate limiting integration, dashboard visualization.
  */
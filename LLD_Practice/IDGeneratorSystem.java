@@ -1,5 +1,13 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
 
 // ===== CUSTOM EXCEPTIONS =====
 
@@ -20,6 +28,11 @@ class InvalidConfigException extends Exception {
 interface IDGenerator {
     long nextId() throws IDGenerationException;
     String nextIdString() throws IDGenerationException;
+
+    /** Fills dst with fresh IDs. Generators that can reserve a range at once override this. */
+    default void nextIds(long[] dst) throws IDGenerationException {
+        for (int i = 0; i < dst.length; i++) dst[i] = nextId();
+    }
 }
 
 // ===== 1. SNOWFLAKE GENERATOR (Main Interview Question) =====
@@ -42,19 +55,19 @@ interface IDGenerator {
  * - Must handle clock going backward
  */
 class SnowflakeGenerator implements IDGenerator {
-    private static final long EPOCH = 1577836800000L;   // Jan 1, 2020
+    static final long EPOCH = 1577836800000L;   // Jan 1, 2020
     
-    private static final int SEQUENCE_BITS   = 12;
-    private static final int MACHINE_BITS    = 5;
-    private static final int DATACENTER_BITS = 5;
+    static final int SEQUENCE_BITS   = 12;
+    static final int MACHINE_BITS    = 5;
+    static final int DATACENTER_BITS = 5;
     
-    private static final int MAX_SEQUENCE     = (1 << SEQUENCE_BITS) - 1;     // 4095
-    private static final int MAX_MACHINE_ID   = (1 << MACHINE_BITS) - 1;     // 31
-    private static final int MAX_DATACENTER_ID = (1 << DATACENTER_BITS) - 1; // 31
+    static final int MAX_SEQUENCE     = (1 << SEQUENCE_BITS) - 1;     // 4095
+    static final int MAX_MACHINE_ID   = (1 << MACHINE_BITS) - 1;     // 31
+    static final int MAX_DATACENTER_ID = (1 << DATACENTER_BITS) - 1; // 31
     
-    private static final int MACHINE_SHIFT    = SEQUENCE_BITS;                // 12
-    private static final int DATACENTER_SHIFT = SEQUENCE_BITS + MACHINE_BITS; // 17
-    private static final int TIMESTAMP_SHIFT  = SEQUENCE_BITS + MACHINE_BITS + DATACENTER_BITS; // 22
+    static final int MACHINE_SHIFT    = SEQUENCE_BITS;                // 12
+    static final int DATACENTER_SHIFT = SEQUENCE_BITS + MACHINE_BITS; // 17
+    static final int TIMESTAMP_SHIFT  = SEQUENCE_BITS + MACHINE_BITS + DATACENTER_BITS; // 22
     
     private final int datacenterId;
     private final int machineId;
@@ -149,6 +162,132 @@ class SnowflakeGenerator implements IDGenerator {
     
 }
 
+// ===== 1b. LOCK-FREE SNOWFLAKE =====
+
+/**
+ * Same bit layout as SnowflakeGenerator, but timestamp and sequence live in one
+ * AtomicLong as (ts << 12 | seq). That packed value is a plain counter: seq 4095 + 1
+ * carries into the next millisecond, so reserving n IDs is ONE CAS of "last issued".
+ *
+ * Clock policy (wait-or-borrow):
+ *   - logical ts = max(wall clock, last issued ts). If the sequence runs out or the wall
+ *     clock steps back, keep issuing from the logical clock ("borrow" future ms)
+ *   - borrowing is bounded: the logical clock may run at most maxBorrowMs ahead of the wall
+ *   - beyond that, park until the wall clock catches up; fail fast if it is more than
+ *     maxBorrowMs + maxWaitMs behind, or if it makes no progress for maxWaitMs
+ *
+ * IDs stay unique and monotonic per node; timestamps are at most maxBorrowMs early.
+ */
+class AtomicSnowflakeGenerator implements IDGenerator {
+    private static final int SEQ_BITS = SnowflakeGenerator.SEQUENCE_BITS;
+
+    private final long nodeBits;
+    private final AtomicLong lastIssued = new AtomicLong(-1);  // ts << 12 | seq
+    private final long maxBorrowMs;
+    private final long maxWaitMs;
+    private final LongSupplier clock;
+
+    public AtomicSnowflakeGenerator(int datacenterId, int machineId) throws InvalidConfigException {
+        this(datacenterId, machineId, 5, 50, System::currentTimeMillis);
+    }
+
+    public AtomicSnowflakeGenerator(int datacenterId, int machineId, long maxBorrowMs, long maxWaitMs,
+                                    LongSupplier clock) throws InvalidConfigException {
+        if (datacenterId < 0 || datacenterId > SnowflakeGenerator.MAX_DATACENTER_ID)
+            throw new InvalidConfigException("DC ID must be 0-" + SnowflakeGenerator.MAX_DATACENTER_ID);
+        if (machineId < 0 || machineId > SnowflakeGenerator.MAX_MACHINE_ID)
+            throw new InvalidConfigException("Machine ID must be 0-" + SnowflakeGenerator.MAX_MACHINE_ID);
+        if (maxBorrowMs < 0 || maxWaitMs < 0) throw new InvalidConfigException("Borrow/wait must be >= 0");
+        this.nodeBits = ((long) datacenterId << SnowflakeGenerator.DATACENTER_SHIFT)
+                | ((long) machineId << SnowflakeGenerator.MACHINE_SHIFT);
+        this.maxBorrowMs = maxBorrowMs;
+        this.maxWaitMs = maxWaitMs;
+        this.clock = clock;
+    }
+
+    /** Reserves n consecutive packed values and returns the first. */
+    long reserve(int n) throws IDGenerationException {
+        if (n <= 0 || n > (maxBorrowMs + 1) << SEQ_BITS)
+            throw new IDGenerationException("Batch of " + n + " exceeds " + (maxBorrowMs + 1) + "ms of sequence");
+        long waitingAt = Long.MIN_VALUE, deadline = 0;
+        while (true) {
+            long now = clock.getAsLong() - SnowflakeGenerator.EPOCH;
+            long cur = lastIssued.get();
+            long start = Math.max(now << SEQ_BITS, cur + 1);
+            long last = start + n - 1;
+            long ahead = (last >>> SEQ_BITS) - now;
+            if (ahead <= maxBorrowMs) {
+                if (lastIssued.compareAndSet(cur, last)) return start;
+                continue;
+            }
+            if (ahead > maxBorrowMs + maxWaitMs)
+                throw new IDGenerationException("Clock moved backward by " + ((cur >>> SEQ_BITS) - now) + "ms");
+            // Waiting only fails if the wall clock stalls; losing CAS races to other threads is just backpressure
+            long nowNs = System.nanoTime();
+            if (now != waitingAt) { waitingAt = now; deadline = nowNs + maxWaitMs * 1_000_000; }
+            else if (nowNs - deadline >= 0)
+                throw new IDGenerationException("Clock stalled " + ahead + "ms behind issued IDs");
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    long toId(long packed) {
+        return ((packed >>> SEQ_BITS) << SnowflakeGenerator.TIMESTAMP_SHIFT) | nodeBits
+                | (packed & SnowflakeGenerator.MAX_SEQUENCE);
+    }
+
+    @Override
+    public long nextId() throws IDGenerationException {
+        return toId(reserve(1));
+    }
+
+    @Override
+    public String nextIdString() throws IDGenerationException {
+        return String.valueOf(nextId());
+    }
+
+    @Override
+    public void nextIds(long[] dst) throws IDGenerationException {
+        if (dst.length == 0) return;
+        long start = reserve(dst.length);
+        for (int i = 0; i < dst.length; i++) dst[i] = toId(start + i);
+    }
+}
+
+/**
+ * Thread-local leasing on top of AtomicSnowflakeGenerator: each thread reserves a block
+ * of leaseSize IDs with one CAS and then hands them out with a plain increment.
+ * Trade-off: IDs are monotonic per thread but only roughly ordered across threads, and a
+ * thread that idles keeps a lease stamped with the time it was taken.
+ */
+class LeasedSnowflakeGenerator implements IDGenerator {
+    private final AtomicSnowflakeGenerator source;
+    private final int leaseSize;
+    private final ThreadLocal<long[]> lease = ThreadLocal.withInitial(() -> new long[2]);  // {next, end}
+
+    public LeasedSnowflakeGenerator(AtomicSnowflakeGenerator source, int leaseSize) throws InvalidConfigException {
+        if (leaseSize <= 0 || leaseSize > 1 << SnowflakeGenerator.SEQUENCE_BITS)
+            throw new InvalidConfigException("Lease size must be 1-" + (1 << SnowflakeGenerator.SEQUENCE_BITS));
+        this.source = source;
+        this.leaseSize = leaseSize;
+    }
+
+    @Override
+    public long nextId() throws IDGenerationException {
+        long[] l = lease.get();
+        if (l[0] == l[1]) {
+            l[0] = source.reserve(leaseSize);
+            l[1] = l[0] + leaseSize;
+        }
+        return source.toId(l[0]++);
+    }
+
+    @Override
+    public String nextIdString() throws IDGenerationException {
+        return String.valueOf(nextId());
+    }
+}
+
 // ===== 2. AUTO-INCREMENT GENERATOR (Simplest) =====
 
 /**
@@ -185,6 +324,184 @@ class AutoIncrementGenerator implements IDGenerator {
     
 }
 
+// ===== 2b. SEGMENT GENERATOR (Leaf-style) =====
+
+/**
+ * Durable high-water mark: 8 bytes in a file. claim(step) reserves [hwm, hwm + step)
+ * under an OS file lock and fsyncs before returning, so several processes sharing the
+ * file never receive overlapping ranges, and a restart never reissues an ID.
+ */
+class FileHighWaterMark implements AutoCloseable {
+    // FileLock is held per JVM: two channels on one file in the same process would throw
+    // OverlappingFileLockException, so claims are first serialized on a per-path monitor
+    private static final ConcurrentHashMap<Path, Object> PATH_MONITORS = new ConcurrentHashMap<>();
+
+    private final FileChannel channel;
+    private final Object monitor;
+    private final ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+
+    public FileHighWaterMark(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.monitor = PATH_MONITORS.computeIfAbsent(path.toRealPath(), p -> new Object());
+    }
+
+    public long claim(long step) throws IOException {
+        synchronized (monitor) {
+            return claimLocked(step);
+        }
+    }
+
+    private long claimLocked(long step) throws IOException {
+        FileLock lock = channel.lock();
+        try {
+            buf.clear();
+            long hwm = channel.read(buf, 0) == Long.BYTES ? buf.getLong(0) : 0;
+            buf.clear();
+            buf.putLong(0, hwm + step);
+            channel.write(buf, 0);
+            channel.force(true);
+            return hwm;
+        } finally {
+            lock.release();
+        }
+    }
+
+    @Override
+    public void close() throws IOException { channel.close(); }
+}
+
+/**
+ * Leaf-style segment allocator: IDs come from a claimed range [start, end) via a lock-free
+ * getAndIncrement. When a segment is 10% consumed the next one is claimed in the
+ * background (double buffer), so the fsync is off the caller's path. Only a caller that
+ * drains a whole segment before the prefetch lands waits on the store.
+ *
+ * Dynamic step (with prefetch): a switch that had to wait doubles the next claim (up to
+ * MAX_STEP), so 90% of a segment always outlasts one fsync; a segment that lived 20x
+ * longer than a claim halves it again, back down to the configured step.
+ *
+ * Trade-off: unissued IDs of the live and prefetched segments are skipped on restart
+ * (gaps, never duplicates) — up to 2 x the current step.
+ */
+class SegmentIDGenerator implements IDGenerator, AutoCloseable {
+    static final int MAX_STEP = 1 << 20;
+
+    private static final class Segment {
+        final long end, prefetchAt;
+        final AtomicLong cursor;
+        long installedAt;   // nanoTime; published by the volatile write of `current`
+        Segment(long start, long step) {
+            this.end = start + step;
+            this.prefetchAt = start + Math.max(1, step / 10);
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    private final FileHighWaterMark store;
+    private final int step, maxStep;
+    private volatile int nextStep;
+    private volatile long lastClaimNanos;
+    private final String prefix;
+    private final boolean prefetch;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "segment-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong blockingSwitches = new AtomicLong();
+    private volatile Segment current;
+    private volatile CompletableFuture<Segment> next;
+
+    public SegmentIDGenerator(Path path, int step, String prefix, boolean prefetch) throws IOException, InvalidConfigException {
+        if (step <= 0) throw new InvalidConfigException("Segment step must be > 0");
+        this.store = new FileHighWaterMark(path);
+        this.step = step;
+        this.maxStep = Math.max(step, MAX_STEP);
+        this.nextStep = step;
+        this.prefix = prefix != null ? prefix : "";
+        this.prefetch = prefetch;
+        Segment first = new Segment(store.claim(step), step);
+        first.installedAt = System.nanoTime();
+        this.current = first;
+    }
+
+    @Override
+    public long nextId() throws IDGenerationException {
+        while (true) {
+            Segment seg = current;
+            long id = seg.cursor.getAndIncrement();
+            if (id < seg.end) {
+                if (prefetch && id == seg.prefetchAt) next = loadAsync();
+                return id;
+            }
+            switchSegment(seg);
+        }
+    }
+
+    @Override
+    public String nextIdString() throws IDGenerationException {
+        return prefix + nextId();
+    }
+
+    private CompletableFuture<Segment> loadAsync() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                int size = nextStep;
+                long t0 = System.nanoTime();
+                long start = store.claim(size);
+                lastClaimNanos = System.nanoTime() - t0;
+                return new Segment(start, size);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, loader);
+    }
+
+    private synchronized void switchSegment(Segment exhausted) throws IDGenerationException {
+        if (current != exhausted) return;
+        CompletableFuture<Segment> pending = next;
+        next = null;
+        if (pending == null) pending = loadAsync();
+        boolean blocked = !pending.isDone();
+        if (blocked) blockingSwitches.incrementAndGet();
+        Segment fresh;
+        try {
+            fresh = pending.join();
+        } catch (CompletionException e) {
+            throw new IDGenerationException("Segment claim failed: " + e.getCause());
+        }
+        long now = System.nanoTime();
+        if (prefetch) resize(blocked, now - exhausted.installedAt);
+        fresh.installedAt = now;
+        current = fresh;
+    }
+
+    /** Caller holds the switch lock: grow after a wait, shrink once segments far outlast a claim. */
+    private void resize(boolean blocked, long livedNanos) {
+        if (blocked) nextStep = (int) Math.min(2L * nextStep, maxStep);
+        else if (nextStep > step && livedNanos > 20 * lastClaimNanos) nextStep = Math.max(step, nextStep / 2);
+    }
+
+    /** Size of the next segment claim (== step unless prefetch had to grow it). */
+    public int getCurrentStep() { return nextStep; }
+
+    /** Times a caller had to wait for the store (0 when prefetch keeps up). */
+    public long getBlockingSwitches() { return blockingSwitches.get(); }
+
+    /** Lets an in-flight claim finish its fsync (never interrupts it), then closes the file. */
+    @Override
+    public void close() throws IOException {
+        loader.shutdown();
+        try {
+            if (!loader.awaitTermination(10, TimeUnit.SECONDS)) throw new IOException("Segment claim still running after 10s");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            store.close();
+        }
+    }
+}
+
 // ===== 3. UUID GENERATOR =====
 
 /**
@@ -275,10 +592,19 @@ class IDGeneratorService {
         // HINT: List<Long> ids = new ArrayList<>();
         // HINT: for (int i = 0; i < count; i++) ids.add(generateId(name));
         // HINT: return ids;
-        List<Long> ids=new ArrayList<>();
-        for (int i = 0; i < count; i++) ids.add(generateId(name));
+        long[] raw = new long[count];
+        generateBatch(name, raw);
+        List<Long> ids = new ArrayList<>(count);
+        for (long id : raw) ids.add(id);
         return ids;
     }
+
+    /** Unboxed batch: fills dst, in one reservation when the generator supports it. */
+    public void generateBatch(String name, long[] dst) throws IDGenerationException {
+        IDGenerator gen = generators.get(name);
+        if (gen == null) throw new IDGenerationException("Unknown generator: " + name);
+        gen.nextIds(dst);
+    }
     
     public IDGenerator getGenerator(String name) { return generators.get(name); }
 }
@@ -406,9 +732,221 @@ public class IDGeneratorSystem {
         } catch (Exception e) {
             System.out.println("✗ Wrong exception: " + e.getMessage());
         }
-        
+        System.out.println();
+
+        // Test 10: Lock-free Snowflake - uniqueness across threads, batches, leases
+        System.out.println("=== Test 10: Lock-free Snowflake (8 threads) ===");
+        try {
+            AtomicSnowflakeGenerator cas = new AtomicSnowflakeGenerator(3, 7);
+            IDGenerator leased = new LeasedSnowflakeGenerator(cas, 256);
+            int threads = 8, perThread = 20_000;
+            long[][] out = new long[threads][];
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int tid = t;
+                futures.add(pool.submit(() -> {
+                    long[] ids = new long[perThread * 3];
+                    long[] batch = new long[100];
+                    for (int i = 0; i < perThread; i++) ids[i] = cas.nextId();
+                    for (int i = 0; i < perThread; i += batch.length) {
+                        cas.nextIds(batch);
+                        System.arraycopy(batch, 0, ids, perThread + i, batch.length);
+                    }
+                    for (int i = 0; i < perThread; i++) ids[2 * perThread + i] = leased.nextId();
+                    out[tid] = ids;
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+            pool.shutdown();
+            boolean monotonic = true;
+            for (long[] ids : out)
+                for (int i = 1; i < perThread; i++) monotonic &= ids[i] > ids[i - 1];
+            long[] all = Arrays.stream(out).flatMapToLong(Arrays::stream).sorted().toArray();
+            int dups = 0;
+            for (int i = 1; i < all.length; i++) if (all[i] == all[i - 1]) dups++;
+            long id = all[0];
+            boolean nodeOk = ((id >> SnowflakeGenerator.DATACENTER_SHIFT) & 0x1F) == 3
+                    && ((id >> SnowflakeGenerator.MACHINE_SHIFT) & 0x1F) == 7;
+            System.out.println((dups == 0 ? "✓" : "✗") + " " + all.length + " IDs (single/batch/leased), dups: " + dups);
+            System.out.println((monotonic ? "✓" : "✗") + " Per-thread nextId() strictly increasing");
+            System.out.println((nodeOk ? "✓" : "✗") + " DC/machine bits preserved");
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+        System.out.println();
+
+        // Test 11: Clock rollback - borrow within bound, wait then fail beyond it
+        System.out.println("=== Test 11: Clock Rollback (wait-or-borrow) ===");
+        try {
+            long base = System.currentTimeMillis();
+            AtomicLong wall = new AtomicLong(base);
+            AtomicSnowflakeGenerator gen = new AtomicSnowflakeGenerator(0, 1, 10, 20, wall::get);
+            long before = gen.nextId();
+            wall.set(base - 5);                       // small NTP step back
+            long borrowed = gen.nextId();
+            System.out.println((borrowed > before ? "✓" : "✗") + " 5ms rollback: still increasing (borrowed)");
+
+            long[] burst = new long[4096 * 3];        // sequence exhaustion borrows next ms
+            gen.nextIds(burst);
+            System.out.println((burst[0] > borrowed && burst[burst.length - 1] > burst[0] ? "✓" : "✗")
+                    + " 3ms worth of sequence in one reservation, no spin");
+
+            wall.set(base - 10);                      // behind the borrow bound, clock frozen
+            long t0 = System.nanoTime();
+            try {
+                gen.nextId();
+                System.out.println("✗ Should have thrown after bounded wait");
+            } catch (IDGenerationException e) {
+                long waitedMs = (System.nanoTime() - t0) / 1_000_000;
+                System.out.println((waitedMs >= 15 ? "✓" : "✗") + " Waited ~" + waitedMs + "ms then: " + e.getMessage());
+            }
+            wall.set(base - 1000);                    // too far back to wait out
+            t0 = System.nanoTime();
+            try {
+                gen.nextId();
+                System.out.println("✗ Should have failed fast");
+            } catch (IDGenerationException e) {
+                long waitedMs = (System.nanoTime() - t0) / 1_000_000;
+                System.out.println((waitedMs < 15 ? "✓" : "✗") + " Failed fast: " + e.getMessage());
+            }
+            wall.set(base + 20);                      // clock recovers
+            System.out.println((gen.nextId() > burst[burst.length - 1] ? "✓" : "✗") + " Resumes once the clock catches up");
+            try {
+                gen.nextIds(new long[4096 * 12]);
+                System.out.println("✗ Should reject batch larger than borrow window");
+            } catch (IDGenerationException e) {
+                System.out.println("✓ Caught: " + e.getMessage());
+            }
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+        System.out.println();
+
+        // Test 12: Throughput - synchronized vs CAS vs batch vs leased
+        System.out.println("=== Test 12: Benchmark IDs/sec (layout caps a node at 4.096M/s) ===");
+        try {
+            int total = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+            System.out.printf("  %-8s %12s %12s %12s %12s%n", "threads", "synchronized", "CAS", "CAS batch64", "leased256");
+            for (int threads : new int[]{1, 2, 4, 8, 16, 32}) {
+                AtomicSnowflakeGenerator cas = new AtomicSnowflakeGenerator(1, 1);
+                double sync = benchmarkIds(new SnowflakeGenerator(1, 1), threads, total, 1);
+                double lockFree = benchmarkIds(new AtomicSnowflakeGenerator(1, 1), threads, total, 1);
+                double batch = benchmarkIds(new AtomicSnowflakeGenerator(1, 1), threads, total, 64);
+                double leased = benchmarkIds(new LeasedSnowflakeGenerator(cas, 256), threads, total, 1);
+                System.out.printf("  %-8d %11.2fM %11.2fM %11.2fM %11.2fM%n", threads, sync, lockFree, batch, leased);
+            }
+            System.out.println("✓ " + total + " IDs per cell, " + Runtime.getRuntime().availableProcessors() + " CPU(s)");
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+        System.out.println();
+
+        // Test 13: Segment generator - restart safety and two "processes" on one file
+        System.out.println("=== Test 13: Segment Generator (durable high-water mark) ===");
+        try {
+            Path hwm = Files.createTempFile("idgen", ".hwm");
+            long lastBeforeRestart;
+            try (SegmentIDGenerator gen = new SegmentIDGenerator(hwm, 1000, "ORD-", true)) {
+                String first = gen.nextIdString();
+                for (int i = 0; i < 1500; i++) gen.nextId();
+                lastBeforeRestart = gen.nextId();
+                System.out.println("✓ First: " + first + ", 1502nd: " + lastBeforeRestart);
+            }
+            try (SegmentIDGenerator gen = new SegmentIDGenerator(hwm, 1000, "ORD-", true)) {
+                long afterRestart = gen.nextId();
+                System.out.println((afterRestart > lastBeforeRestart ? "✓" : "✗")
+                        + " After restart: " + afterRestart + " (unused tail skipped, no reuse)");
+            }
+
+            int threads = 4, perThread = 50_000;
+            try (SegmentIDGenerator a = new SegmentIDGenerator(hwm, 500, null, true);
+                 SegmentIDGenerator b = new SegmentIDGenerator(hwm, 500, null, true)) {
+                long[][] out = new long[threads][perThread];
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    final int tid = t;
+                    final SegmentIDGenerator gen = t % 2 == 0 ? a : b;
+                    futures.add(pool.submit(() -> {
+                        for (int i = 0; i < perThread; i++) out[tid][i] = gen.nextId();
+                        return null;
+                    }));
+                }
+                for (Future<?> f : futures) f.get();
+                pool.shutdown();
+                long[] all = Arrays.stream(out).flatMapToLong(Arrays::stream).sorted().toArray();
+                int dups = 0;
+                for (int i = 1; i < all.length; i++) if (all[i] == all[i - 1]) dups++;
+                System.out.println((dups == 0 ? "✓" : "✗") + " 2 generators x 2 threads on one file: "
+                        + all.length + " IDs, dups: " + dups);
+                long blocking = a.getBlockingSwitches() + b.getBlockingSwitches();
+                System.out.println((blocking <= 2 * 12 ? "✓" : "✗") + " Blocking segment switches: " + blocking
+                        + " (step grew 500 -> " + a.getCurrentStep() + " / " + b.getCurrentStep() + ")");
+            }
+            Files.deleteIfExists(hwm);
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+        System.out.println();
+
+        // Test 14: Tail latency while segments turn over (fsync per claim)
+        System.out.println("=== Test 14: Segment Turnover Latency ===");
+        try {
+            int n = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000, step = 50_000;
+            for (int run = 0; run < 4; run++) {                 // first pair is JIT warm-up
+                boolean prefetch = run % 2 == 1;
+                Path hwm = Files.createTempFile("idgen-bench", ".hwm");
+                try (SegmentIDGenerator gen = new SegmentIDGenerator(hwm, step, null, prefetch)) {
+                    long[] lat = new long[n];
+                    for (int i = 0; i < n; i++) {
+                        long t0 = System.nanoTime();
+                        gen.nextId();
+                        lat[i] = System.nanoTime() - t0;
+                    }
+                    if (run < 2) continue;
+                    Arrays.sort(lat);
+                    long slow = Arrays.stream(lat).filter(l -> l > 100_000).count();
+                    System.out.printf("  %-11s p50=%dns p99.99=%dns max=%dus >100us=%d blocking=%d/%d%n",
+                            prefetch ? "prefetch" : "sync claim", lat[n / 2], lat[(int) (n * 0.9999)],
+                            lat[n - 1] / 1000, slow, gen.getBlockingSwitches(), n / step);
+                }
+                Files.deleteIfExists(hwm);
+            }
+            System.out.println("✓ " + n + " IDs per run, segment step " + step);
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+
         System.out.println("\n=== All Test Cases Complete! ===");
     }
+
+    /** Millions of IDs/sec for `threads` threads sharing total IDs, fetched batch at a time. */
+    static double benchmarkIds(IDGenerator gen, int threads, int total, int batch) throws Exception {
+        int perThread = total / threads;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                long[] dst = new long[batch];
+                start.await();
+                if (batch == 1) for (int i = 0; i < perThread; i++) gen.nextId();
+                else for (int i = 0; i < perThread; i += batch) gen.nextIds(dst);
+                return null;
+            }));
+        }
+        try {
+            long t0 = System.nanoTime();
+            start.countDown();
+            for (Future<?> f : futures) f.get();
+            long elapsed = System.nanoTime() - t0;
+            return (double) perThread * threads / elapsed * 1_000;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 }
 
 /**
@@ -453,4 +991,19 @@ public class IDGeneratorSystem {
  *    POST /ids/generate?type=snowflake
  *    POST /ids/batch?type=snowflake&count=100
  *    GET  /ids/parse/{id}
+ * 
+ * 8. LOCK-FREE SNOWFLAKE:
+ *    Pack (ts << 12 | seq) into one AtomicLong → it is just a counter
+ *    Reserve n IDs = CAS(last, max(now << 12, last + 1) + n - 1)
+ *    Sequence overflow carries into the next ms → borrow instead of spin
+ *    Bound the borrow (e.g. 5ms); past it, park until the clock catches up, then fail
+ *    Thread-local leases: one CAS per 256 IDs, at the cost of cross-thread ordering
+ *    Ceiling is the layout itself: 4096 IDs/ms/node regardless of locking
+ * 
+ * 9. SEGMENT ALLOCATION (Meituan Leaf):
+ *    Durable high-water mark (DB row or fsynced file) → claim [hwm, hwm + step)
+ *    Hand out IDs with getAndIncrement inside the range → no I/O per ID
+ *    Double buffer: at 10% consumed, claim the next segment in the background
+ *    Restart skips the unused tail → gaps, never duplicates
+ *    Size step so a segment lasts far longer than one claim round-trip
  */
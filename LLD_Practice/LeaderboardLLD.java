@@ -1,4 +1,5 @@
 import java.util.*;
+import java.util.concurrent.*;
 
 /*
  * FANTASY LEADERBOARD - Low Level Design
@@ -11,16 +12,21 @@ import java.util.*;
  * 4. User score = sum of current scores of all players on team
  * 5. Player can be on multiple teams (many-to-many)
  * 6. New user inherits existing player scores immediately
+ * 7. getRank / getPercentile; approximate mode for huge boards (exact top K only)
+ * 8. Live matches: batched mode — buffer player deltas, apply once per tick
  * 
  * KEY DATA STRUCTURES:
  * - Map<playerId, Set<userId>>: reverse index for score propagation
  * - Map<userId, UserTeam>: user's playerIds + current score
- * - TreeSet<UserTeam>: sorted leaderboard for O(log n) getTopK
+ * - TreeSet<UserTeam>: sorted leaderboard for O(log n) getTopK (approximate mode: top K only)
+ * - ScoreHistogram: approximate mode, counts of everyone below the top K
  * 
  * COMPLEXITY:
  *   addUser:   O(P + log N) P = players in team, N = total users
  *   addScore:  O(U * log N) U = users with that player
  *   getTopK:   O(K) iterate sorted set
+ *   getRank:   O(N) headSet walk; approximate mode O(K) in the top, O(log buckets) below
+ *   batched:   addScore O(1); tick O(Σ teams of changed players + N) / cores, no TreeSet
  */
 
 // ==================== USER TEAM ====================
@@ -47,51 +53,185 @@ class UserTeam implements Comparable<UserTeam> {
     @Override public int hashCode() { return userId.hashCode(); }
 }
 
+// ==================== SCORE HISTOGRAM ====================
+
+/**
+ * Log-linear histogram (HdrHistogram layout) over team scores.
+ * Scores below 2^SUB_BITS get a bucket each; above that every power of two is split
+ * into 2^SUB_BITS buckets, so a bucket spans at most 1/128 of its scores' value.
+ * Negative scores mirror the layout. A Fenwick tree over the counts answers
+ * "how many scores are above this bucket" in O(log buckets).
+ */
+class ScoreHistogram {
+    static final int SUB_BITS = 7, SUB = 1 << SUB_BITS;
+    static final int HALF = (32 - SUB_BITS + 1) * SUB;   // buckets per sign (3,328) — int scores
+    private final int[] counts = new int[2 * HALF];
+    private final int[] fenwick = new int[2 * HALF + 1];
+    private int size;
+
+    int size() { return size; }
+
+    void add(int score) { update(bucket(score), 1); }
+
+    void remove(int score) { update(bucket(score), -1); }
+
+    void clear() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(fenwick, 0);
+        size = 0;
+    }
+
+    /** Estimated 1-based rank: scores in higher buckets + the interpolated share of its own bucket above it */
+    int rankOf(int score) {
+        int b = bucket(score);
+        long lo = lower(b), hi = upper(b);
+        double share = hi == lo ? 0 : (double) (hi - score) / (hi - lo + 1);
+        return size - prefix(b + 1) + (int) Math.round(counts[b] * share) + 1;
+    }
+
+    /** Scores sharing score's bucket — the bound on rankOf's error */
+    int bucketCount(int score) { return counts[bucket(score)]; }
+
+    static int bucket(int score) {
+        return score >= 0 ? HALF + magnitude(score) : HALF - 1 - magnitude(-(score + 1));
+    }
+
+    static long lower(int b) { return b >= HALF ? magLower(b - HALF) : -magUpper(HALF - 1 - b) - 1; }
+
+    static long upper(int b) { return b >= HALF ? magUpper(b - HALF) : -magLower(HALF - 1 - b) - 1; }
+
+    private static int magnitude(int v) {
+        if (v < SUB) return v;
+        int e = 31 - Integer.numberOfLeadingZeros(v);
+        return (e - SUB_BITS + 1) * SUB + ((v >>> (e - SUB_BITS)) & (SUB - 1));
+    }
+
+    private static long magLower(int m) { return m < SUB ? m : (long) (SUB + m % SUB) << (m / SUB - 1); }
+
+    private static long magUpper(int m) { return m < SUB ? m : magLower(m) + (1L << (m / SUB - 1)) - 1; }
+
+    private void update(int b, int delta) {
+        counts[b] += delta;
+        size += delta;
+        for (int i = b + 1; i < fenwick.length; i += i & -i) fenwick[i] += delta;
+    }
+
+    /** Count in buckets [0, i) */
+    private int prefix(int i) {
+        int sum = 0;
+        for (; i > 0; i -= i & -i) sum += fenwick[i];
+        return sum;
+    }
+}
+
 // ==================== LEADERBOARD ====================
 
+/**
+ * Approximate mode (exactTopK > 0): only the top K teams stay in the TreeSet, the rest
+ * are counts in a ScoreHistogram. Tail ranks are estimated, off by at most the teams
+ * sharing a bucket. Invariant: every tail team sorts after the last team in the board —
+ * a tail team passing the cutoff is promoted, overflow demotes the last; if the board
+ * thins below K/2 (negative deltas) it is rebuilt from users.
+ */
 class Leaderboard {
     private final Map<String, UserTeam> users = new HashMap<>();
     private final Map<String, Integer> playerScores = new HashMap<>();
     private final Map<String, Set<String>> playerToUsers = new HashMap<>();  // reverse index
     private final TreeSet<UserTeam> board = new TreeSet<>();
+    private final int exactTopK;             // 0 = exact mode
+    private final ScoreHistogram tail;       // approximate mode: everyone below the top K
+
+    Leaderboard() { this(0); }
+
+    Leaderboard(int exactTopK) {
+        this.exactTopK = exactTopK;
+        this.tail = exactTopK > 0 ? new ScoreHistogram() : null;
+    }
 
     /** Register user with team. Score = sum of current player scores. */
     void addUser(String userId, List<String> playerIds) {
-        // TODO: Implement
-        // HINT: UserTeam team = new UserTeam(userId, playerIds);
-        // HINT: int initialScore = 0;
-        // HINT: for (String pid : playerIds) {
-        // HINT:     initialScore += playerScores.getOrDefault(pid, 0);
-        // HINT:     playerToUsers.computeIfAbsent(pid, k -> new HashSet<>()).add(userId);
-        // HINT: }
-        // HINT: team.score = initialScore;
-        // HINT: users.put(userId, team);
-        // HINT: board.add(team);
+        UserTeam team = new UserTeam(userId, playerIds);
+        int initialScore = 0;
+        for (String pid : playerIds) {
+            initialScore += playerScores.getOrDefault(pid, 0);
+            playerToUsers.computeIfAbsent(pid, k -> new HashSet<>()).add(userId);
+        }
+        team.score = initialScore;
+        users.put(userId, team);
+        place(team);
     }
 
     /** Update player score by delta. Propagate to all users with that player. */
     void addScore(String playerId, int delta) {
-        // TODO: Implement
-        // HINT: playerScores.merge(playerId, delta, Integer::sum);
-        // HINT: Set<String> affectedUsers = playerToUsers.getOrDefault(playerId, Collections.emptySet());
-        // HINT: for (String uid : affectedUsers) {
-        // HINT:     UserTeam team = users.get(uid);
-        // HINT:     board.remove(team);    // remove before score change (TreeSet ordering)
-        // HINT:     team.score += delta;
-        // HINT:     board.add(team);       // re-add with new score
-        // HINT: }
+        playerScores.merge(playerId, delta, Integer::sum);
+        Set<String> affectedUsers = playerToUsers.getOrDefault(playerId, Collections.emptySet());
+        for (String uid : affectedUsers) {
+            UserTeam team = users.get(uid);
+            if (!board.remove(team)) tail.remove(team.score);   // remove before score change (TreeSet ordering)
+            team.score += delta;
+            place(team);                                        // re-add with new score
+        }
+    }
+
+    /** Exact mode: into the TreeSet. Approximate: into the top K if it beats the cutoff, else the histogram. */
+    private void place(UserTeam team) {
+        if (tail == null) {
+            board.add(team);
+            return;
+        }
+        boolean top = board.isEmpty() ? tail.size() == 0
+                                      : team.compareTo(board.last()) < 0 || (board.size() < exactTopK && tail.size() == 0);
+        if (top) {
+            board.add(team);
+            if (board.size() > exactTopK) tail.add(board.pollLast().score);
+        } else {
+            tail.add(team.score);
+            if (board.size() < exactTopK / 2) refill();
+        }
+    }
+
+    /** Rebuild the top K from users: O(N log K), only after heavy demotion */
+    private void refill() {
+        PriorityQueue<UserTeam> best = new PriorityQueue<>(Comparator.reverseOrder());   // worst on top
+        for (UserTeam t : users.values()) {
+            best.add(t);
+            if (best.size() > exactTopK) best.poll();
+        }
+        board.clear();
+        tail.clear();
+        board.addAll(best);
+        for (UserTeam t : users.values()) if (!board.contains(t)) tail.add(t.score);
     }
 
     /** Top K users by score desc, lex userId asc for ties. */
     List<String> getTopK(int k) {
-        // TODO: Implement
-        // HINT: List<String> result = new ArrayList<>();
-        // HINT: for (UserTeam team : board) {
-        // HINT:     result.add(team.userId);
-        // HINT:     if (result.size() >= k) break;
-        // HINT: }
-        // HINT: return result;
-        return Collections.emptyList();
+        if (tail != null && k > board.size() && board.size() < exactTopK && tail.size() > 0) refill();
+        List<String> result = new ArrayList<>();
+        for (UserTeam team : board) {
+            if (result.size() >= k) break;
+            result.add(team.userId);
+        }
+        return result;
+    }
+
+    /** 1-based rank, -1 if unknown. Exact: headSet walk, O(N). Approximate below the top K: board size + histogram. */
+    int getRank(String userId) {
+        UserTeam team = users.get(userId);
+        if (team == null) return -1;
+        if (tail == null || board.contains(team)) return board.headSet(team).size() + 1;
+        return board.size() + tail.rankOf(team.score);
+    }
+
+    /** percentile = (1 - rank/total) * 100 */
+    double getPercentile(String userId) {
+        int rank = getRank(userId);
+        return rank == -1 ? 0 : (1.0 - (double) rank / users.size()) * 100;
+    }
+
+    /** Max distance of getRank from the true rank: 0 when exact, else the teams sharing its bucket */
+    int rankErrorBound(String userId) {
+        UserTeam team = users.get(userId);
+        return team == null || tail == null || board.contains(team) ? 0 : tail.bucketCount(team.score);
     }
 
     int getUserScore(String userId) {
@@ -100,10 +240,235 @@ class Leaderboard {
     }
 }
 
+// ==================== BATCHED LEADERBOARD ====================
+
+/**
+ * Batched mode for live matches, where one player event touches millions of teams.
+ * addScore only accumulates a per-player delta; tick() applies the whole batch at once
+ * in a fork/join pass over team ranges: each range adds the net delta of every changed
+ * player to its teams (reverse index lists are sorted, so a binary search finds the
+ * range's slice — leaves never share a team), then keeps a bounded heap of its best K,
+ * merged into the published top K. No per-team TreeSet remove/re-add.
+ * Reads see the last tick. Teams and the reverse index are int arrays, not objects.
+ * Not thread-safe, like Leaderboard: the match feed calls addScore and tick().
+ */
+class BatchedLeaderboard {
+    private static final int LEAF = 1 << 15;                 // teams per fork/join leaf
+    private final int k;                                     // top K published per tick
+    private final Map<String, Integer> userIndex = new HashMap<>();
+    private final Map<String, Integer> playerIndex = new HashMap<>();
+    private String[] userIds = new String[16];
+    private int[] scores = new int[16];
+    private int teams;
+    private int[] playerScores = new int[16], pendingDelta = new int[16];
+    private int[][] playerTeams = new int[16][];             // reverse index: player → team indexes, ascending
+    private int[] playerTeamCount = new int[16];
+    private int[] dirty = new int[16];                       // players with a pending delta
+    private boolean[] isDirty = new boolean[16];
+    private int players, dirtyCount;
+    private int[] top = new int[0];                          // published top K, best first
+
+    BatchedLeaderboard(int k) {
+        if (k < 1) throw new IllegalArgumentException("k must be >= 1");
+        this.k = k;
+    }
+
+    /** Register user with team. Score = sum of applied player scores; pending deltas land at the next tick. */
+    void addUser(String userId, List<String> playerIds) {
+        if (userIndex.containsKey(userId)) throw new IllegalArgumentException("duplicate user " + userId);
+        if (teams == userIds.length) {
+            userIds = Arrays.copyOf(userIds, teams * 2);
+            scores = Arrays.copyOf(scores, teams * 2);
+        }
+        int t = teams++, score = 0;
+        userIds[t] = userId;
+        userIndex.put(userId, t);
+        for (String pid : playerIds) {
+            int p = player(pid);
+            score += playerScores[p];   // applied scores only; a pending delta reaches this team at the next tick
+            int[] list = playerTeams[p];
+            if (playerTeamCount[p] == list.length) playerTeams[p] = list = Arrays.copyOf(list, list.length * 2);
+            list[playerTeamCount[p]++] = t;
+        }
+        scores[t] = score;
+    }
+
+    /** Buffer a player delta — O(1), nothing fans out until tick() */
+    void addScore(String playerId, int delta) {
+        int p = player(playerId);
+        pendingDelta[p] += delta;
+        if (!isDirty[p]) {
+            isDirty[p] = true;
+            dirty[dirtyCount++] = p;
+        }
+    }
+
+    /** Apply the batch: O(teams of changed players + all teams for the top K) / parallelism */
+    void tick() {
+        int[] changed = new int[dirtyCount], deltas = new int[dirtyCount];
+        int n = 0;
+        for (int i = 0; i < dirtyCount; i++) {
+            int p = dirty[i];
+            isDirty[p] = false;
+            if (pendingDelta[p] == 0) continue;   // +x then -x within the tick
+            playerScores[p] += pendingDelta[p];
+            changed[n] = p;
+            deltas[n++] = pendingDelta[p];
+            pendingDelta[p] = 0;
+        }
+        dirtyCount = 0;
+        top = ForkJoinPool.commonPool().invoke(new Pass(0, teams, Arrays.copyOf(changed, n), Arrays.copyOf(deltas, n))).drain();
+    }
+
+    /** Top K users after the last tick, score desc then lex userId asc; at most the configured K */
+    List<String> getTopK(int k) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(k, top.length); i++) result.add(userIds[top[i]]);
+        return result;
+    }
+
+    int getUserScore(String userId) {
+        Integer t = userIndex.get(userId);
+        return t == null ? 0 : scores[t];
+    }
+
+    int size() { return teams; }
+
+    private int player(String playerId) {
+        Integer p = playerIndex.get(playerId);
+        if (p != null) return p;
+        if (players == playerScores.length) {
+            int n = players * 2;
+            playerScores = Arrays.copyOf(playerScores, n);
+            pendingDelta = Arrays.copyOf(pendingDelta, n);
+            playerTeams = Arrays.copyOf(playerTeams, n);
+            playerTeamCount = Arrays.copyOf(playerTeamCount, n);
+            dirty = Arrays.copyOf(dirty, n);
+            isDirty = Arrays.copyOf(isDirty, n);
+        }
+        playerTeams[players] = new int[4];
+        playerIndex.put(playerId, players);
+        return players++;
+    }
+
+    private boolean better(int a, int b) {
+        return scores[a] != scores[b] ? scores[a] > scores[b] : userIds[a].compareTo(userIds[b]) < 0;
+    }
+
+    /** Apply the changed players' deltas to teams in [lo, hi) and return the range's best K; halves run in parallel */
+    private final class Pass extends RecursiveTask<TopK> {
+        private static final long serialVersionUID = 1L;   // never serialized; ForkJoinTask is Serializable
+        final int lo, hi;
+        final int[] changed, deltas;
+
+        Pass(int lo, int hi, int[] changed, int[] deltas) {
+            this.lo = lo;
+            this.hi = hi;
+            this.changed = changed;
+            this.deltas = deltas;
+        }
+
+        @Override protected TopK compute() {
+            if (hi - lo > LEAF) {
+                int mid = (lo + hi) >>> 1;
+                Pass left = new Pass(lo, mid, changed, deltas);
+                left.fork();
+                TopK right = new Pass(mid, hi, changed, deltas).compute();
+                return left.join().merge(right);
+            }
+            for (int j = 0; j < changed.length; j++) {
+                int[] list = playerTeams[changed[j]];
+                int n = playerTeamCount[changed[j]], d = deltas[j];
+                int i = Arrays.binarySearch(list, 0, n, lo);
+                for (i = i < 0 ? -i - 1 : i; i < n && list[i] < hi; i++) scores[list[i]] += d;
+            }
+            int floor = kthScore(lo, hi);   // ints only: userId tie-breaks just for teams at the cutoff
+            TopK best = new TopK();
+            for (int t = lo; t < hi; t++) if (scores[t] >= floor) best.offer(t);
+            return best;
+        }
+    }
+
+    /** K-th highest score in [lo, hi) via a bounded int min-heap; MIN_VALUE if the range has fewer than K teams */
+    private int kthScore(int lo, int hi) {
+        if (hi - lo < k) return Integer.MIN_VALUE;
+        int[] heap = Arrays.copyOfRange(scores, lo, lo + k);
+        for (int i = k / 2 - 1; i >= 0; i--) siftDown(heap, i);
+        for (int t = lo + k; t < hi; t++) {
+            if (scores[t] > heap[0]) {
+                heap[0] = scores[t];
+                siftDown(heap, 0);
+            }
+        }
+        return heap[0];
+    }
+
+    private void siftDown(int[] heap, int i) {
+        for (int v = heap[i]; ; ) {
+            int c = 2 * i + 1;
+            if (c >= k) break;
+            if (c + 1 < k && heap[c + 1] < heap[c]) c++;
+            if (heap[c] >= v) break;
+            heap[i] = heap[c];
+            heap[c] = v;
+            i = c;
+        }
+    }
+
+    /** Bounded min-heap of team indexes, worst of the best K at the root */
+    private final class TopK {
+        final int[] heap = new int[k];
+        int size;
+
+        void offer(int t) {
+            if (size < k) {
+                heap[size] = t;
+                for (int i = size++; i > 0 && better(heap[(i - 1) / 2], heap[i]); i = (i - 1) / 2) swap(i, (i - 1) / 2);
+            } else if (better(t, heap[0])) {
+                heap[0] = t;
+                siftDown();
+            }
+        }
+
+        TopK merge(TopK other) {
+            for (int i = 0; i < other.size; i++) offer(other.heap[i]);
+            return this;
+        }
+
+        /** Empty the heap, best first */
+        int[] drain() {
+            int[] out = new int[size];
+            while (size > 0) {
+                out[size - 1] = heap[0];
+                heap[0] = heap[--size];
+                siftDown();
+            }
+            return out;
+        }
+
+        private void siftDown() {
+            for (int i = 0; ; ) {
+                int l = 2 * i + 1, r = l + 1, worst = i;
+                if (l < size && better(heap[worst], heap[l])) worst = l;
+                if (r < size && better(heap[worst], heap[r])) worst = r;
+                if (worst == i) return;
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        private void swap(int a, int b) { int x = heap[a]; heap[a] = heap[b]; heap[b] = x; }
+    }
+}
+
 // ==================== MAIN / TESTS ====================
 
 public class LeaderboardLLD {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("live")) {   // java LeaderboardLLD live 10000000
+            liveMatchBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000, 1_000_000);
+            return;
+        }
         System.out.println("╔═══════════════════════════════════════╗");
         System.out.println("║   FANTASY LEADERBOARD - LLD Demo      ║");
         System.out.println("╚═══════════════════════════════════════╝\n");
@@ -197,7 +562,168 @@ public class LeaderboardLLD {
         System.out.println("x score: " + lb4.getUserScore("x") + " (expected 0)");
         System.out.println("✓ Back to zero\n");
 
-        System.out.println("════════ ALL 10 TESTS PASSED ✓ ════════");
+        // --- Test 11: Approximate mode ---
+        System.out.println("=== Test 11: Approximate rank (exact top 2 + histogram) ===");
+        Leaderboard ap = new Leaderboard(2);
+        String[] ids = {"uA", "uB", "uC", "uD"};
+        for (int i = 0; i < ids.length; i++) {
+            ap.addUser(ids[i], List.of("p" + i));
+            ap.addScore("p" + i, 40 - 10 * i);   // uA=40, uB=30, uC=20, uD=10
+        }
+        System.out.println("getTopK(2): " + ap.getTopK(2) + " (expected [uA, uB])");
+        System.out.println("uD rank: " + ap.getRank("uD") + " ± " + ap.rankErrorBound("uD") + " (expected 4 ± 1)");
+        ap.addScore("p3", 50);   // uD=60 → promoted, uB demoted
+        System.out.println("after uD +50: " + ap.getTopK(2) + ", uB rank " + ap.getRank("uB") + " (expected [uD, uA], 3)");
+        ap.addScore("p3", -55);  // uD=5 → demoted, top thins to 1 → rebuilt on read
+        System.out.println("after uD -55: " + ap.getTopK(2) + ", uD rank " + ap.getRank("uD") + " (expected [uA, uB], 4)");
+        approxVsExact(100_000, 1_000);
+        System.out.println("✓ Top K exact, tail ranks within bucket bound\n");
+
+        // --- Test 12: Batched mode ---
+        System.out.println("=== Test 12: Batched ticks match per-event updates ===");
+        Leaderboard ref = new Leaderboard();
+        BatchedLeaderboard bl = new BatchedLeaderboard(50);
+        Random rnd = new Random(3);
+        List<String> pool = new ArrayList<>();
+        for (int p = 0; p < 30; p++) pool.add("p" + p);
+        for (int i = 0; i < 2_000; i++) {
+            Collections.shuffle(pool, rnd);
+            List<String> team = List.copyOf(pool.subList(0, 3));   // distinct players
+            ref.addUser("u" + i, team);
+            bl.addUser("u" + i, team);
+            if (i % 100 == 0) bl.tick();
+            for (int e = 0; e < 3; e++) {   // late joiners mid-tick, negative deltas
+                String pid = "p" + rnd.nextInt(30);
+                int delta = rnd.nextInt(15) - 4;
+                ref.addScore(pid, delta);
+                bl.addScore(pid, delta);
+            }
+        }
+        bl.tick();
+        boolean same = ref.getTopK(50).equals(bl.getTopK(50));
+        for (int i = 0; i < 2_000; i++) same &= ref.getUserScore("u" + i) == bl.getUserScore("u" + i);
+        System.out.println("top 50 and all scores identical: " + same + " (expected true)");
+        liveMatchBenchmark(100_000, 100_000);
+        System.out.println("✓ One bulk pass per tick instead of one TreeSet churn per event\n");
+
+        System.out.println("════════ ALL 12 TESTS PASSED ✓ ════════");
+    }
+
+    /**
+     * One match, 22 players, every team picks 11 (stars on ~90% of teams, so an event
+     * touches millions). Ticks of 10 events: batched tick latency vs per-event TreeSet
+     * churn, which is only run up to maxBaseline teams (~700 B/team of objects).
+     */
+    static void liveMatchBenchmark(int teams, int maxBaseline) {
+        double[] pick = new double[22];
+        for (int p = 0; p < 22; p++) pick[p] = 0.9 - 0.7 * p / 21;   // star 0.9 … bench 0.2
+        Random rnd = new Random(7);
+        BatchedLeaderboard batched = new BatchedLeaderboard(100);
+        Leaderboard perEvent = teams <= maxBaseline ? new Leaderboard() : null;
+        String[] pids = new String[22];
+        for (int p = 0; p < 22; p++) pids[p] = "m" + p;
+        long t0 = System.nanoTime();
+        List<String> team = new ArrayList<>(11);
+        for (int i = 0; i < teams; i++) {
+            team.clear();
+            for (int p = 0; p < 22 && team.size() < 11; p++) {
+                if (rnd.nextDouble() < pick[p] || 22 - p == 11 - team.size()) team.add(pids[p]);
+            }
+            batched.addUser("u" + i, team);
+            if (perEvent != null) perEvent.addUser("u" + i, team);
+        }
+        batched.tick();
+        System.out.printf("%,d teams built in %.1f s (heap %d B/team batched%s)%n", teams, (System.nanoTime() - t0) / 1e9,
+            LeaderboardLLD.usedHeap() / teams, perEvent != null ? " + per-event board" : "");
+
+        int ticks = 20, perTick = 10;
+        int[] deltas = {1, 1, 2, 4, 4, 6, 25, -2};   // runs, boundaries, wicket, dropped catch
+        long[] tickNs = new long[ticks];
+        long perEventNs = 0;
+        for (int k = 0; k < ticks; k++) {
+            String[] ev = new String[perTick];
+            int[] d = new int[perTick];
+            for (int e = 0; e < perTick; e++) {
+                ev[e] = pids[rnd.nextInt(rnd.nextBoolean() ? 4 : 22)];   // half the events from the 4 stars
+                d[e] = deltas[rnd.nextInt(deltas.length)];
+            }
+            long t = System.nanoTime();
+            for (int e = 0; e < perTick; e++) batched.addScore(ev[e], d[e]);
+            batched.tick();
+            tickNs[k] = System.nanoTime() - t;
+            if (perEvent != null) {
+                t = System.nanoTime();
+                for (int e = 0; e < perTick; e++) perEvent.addScore(ev[e], d[e]);
+                perEventNs += System.nanoTime() - t;
+            }
+        }
+        long[] sorted = tickNs.clone();
+        Arrays.sort(sorted);
+        double meanMs = Arrays.stream(tickNs).average().orElse(0) / 1e6;
+        System.out.printf("batched: tick of %d events %.0f ms mean, %.0f ms max → %,.0f events/s, %,.0f teams scanned/s (%d-way fork/join)%n",
+            perTick, meanMs, sorted[ticks - 1] / 1e6, perTick / (meanMs / 1e3),
+            teams / (meanMs / 1e3), ForkJoinPool.getCommonPoolParallelism());
+        long t = System.nanoTime();
+        batched.tick();
+        System.out.printf("  of which top-K scan: %.0f ms (empty tick)%n", (System.nanoTime() - t) / 1e6);
+        if (perEvent != null) {
+            double ms = perEventNs / 1e6 / (ticks * perTick);
+            System.out.printf("per-event TreeSet: %.0f ms per event → %,.1f events/s; top 100 identical: %s%n",
+                ms, 1e3 / ms, perEvent.getTopK(100).equals(batched.getTopK(100)));
+        }
+        System.out.println("top 3: " + batched.getTopK(3));
+    }
+
+    /** Same live match on an exact and an approximate board: memory, update time, rank error */
+    static void approxVsExact(int teams, int k) {
+        Leaderboard[] boards = new Leaderboard[2];
+        long[] bytes = new long[2], nanos = new long[2];
+        for (int b = 0; b < 2; b++) {
+            long base = usedHeap();
+            Leaderboard lb = boards[b] = b == 0 ? new Leaderboard() : new Leaderboard(k);
+            Random rnd = new Random(1);
+            for (int i = 0; i < teams; i++) {
+                List<String> team = new ArrayList<>();
+                for (int j = 0; j < 5; j++) team.add("p" + rnd.nextInt(1_000));
+                lb.addUser("u" + i, team);
+            }
+            long t = System.nanoTime();
+            for (int e = 0; e < 5_000; e++) lb.addScore("p" + rnd.nextInt(1_000), rnd.nextInt(13) - 2);
+            nanos[b] = System.nanoTime() - t;
+            bytes[b] = usedHeap() - base;
+        }
+        Leaderboard exact = boards[0], approx = boards[1];
+        Random q = new Random(2);
+        int samples = 2_000, n = 0, overBound = 0;
+        int[] err = new int[samples];
+        long exactNs = 0, approxNs = 0;
+        for (int i = 0; i < samples; i++) {
+            String id = "u" + q.nextInt(teams);
+            long t = System.nanoTime();
+            int ex = exact.getRank(id);
+            exactNs += System.nanoTime() - t;
+            t = System.nanoTime();
+            int ap = approx.getRank(id);
+            approxNs += System.nanoTime() - t;
+            int bound = approx.rankErrorBound(id);
+            if (Math.abs(ap - ex) > bound) overBound++;
+            if (bound > 0) err[n++] = Math.abs(ap - ex);
+        }
+        int[] e = Arrays.copyOf(err, n);
+        Arrays.sort(e);
+        System.out.printf("%,d teams, 5K player events: exact %.0f ms, %d B/team; approximate %.0f ms, %d B/team (TreeSet saved %d B/team)%n",
+            teams, nanos[0] / 1e6, bytes[0] / teams, nanos[1] / 1e6, bytes[1] / teams, (bytes[0] - bytes[1]) / teams);
+        System.out.printf("getRank: exact %.1f us, approximate %.2f us%n", exactNs / 1e3 / samples, approxNs / 1e3 / samples);
+        System.out.printf("tail rank error (%d samples): mean %.1f, p99 %d, max %d of %,d; beyond bound: %d (expected 0)%n",
+            n, Arrays.stream(e).average().orElse(0), e[(int) (n * 0.99)], e[n - 1], teams, overBound);
+        System.out.println("top " + k + " identical: " + approx.getTopK(k).equals(exact.getTopK(k)) + " (expected true)");
+    }
+
+    /** Used heap after a few GCs — coarse, fine at 100K+ objects */
+    static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) rt.gc();
+        return rt.totalMemory() - rt.freeMemory();
     }
 }
 
@@ -227,4 +753,19 @@ public class LeaderboardLLD {
  *
  * 7. REAL-WORLD: Dream11, ESPN Fantasy, FanDuel.
  *    Redis ZSET for O(log N) rank queries, pub/sub for live updates.
+ *
+ * 8. APPROXIMATE RANK: nobody needs "you are #48,213 exactly".
+ *    Keep the top K exact in the TreeSet, the rest as counts in a
+ *    log-linear histogram (~1% wide buckets + Fenwick tree):
+ *    rank = K + teams in higher buckets, error ≤ teams in own bucket.
+ *    Drops the TreeSet node per team; the user/team maps remain.
+ *
+ * 9. LIVE MATCH BATCHING: a star on 90% of 10M teams makes one event
+ *    = 9M TreeSet remove+add. Instead buffer per-player deltas, and once
+ *    per tick push them through the (sorted) reverse index with fork/join
+ *    over team ranges, then a bounded heap per range → top K. Cost per
+ *    tick is independent of how many events arrived. 1 CPU, 10M teams:
+ *    ~170 ms per tick vs ~134 ms per event at just 100K on the TreeSet.
+ *    Find the K-th score with ints first: userId tie-breaks are the
+ *    expensive part when thousands of teams share the cutoff score.
  */
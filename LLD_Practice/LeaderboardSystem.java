@@ -1,9 +1,30 @@
+import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 
 // ===== ENUMS =====
 enum LeaderboardType { GLOBAL, REGIONAL, FRIENDS }
-enum TimePeriod { ALL_TIME, DAILY, WEEKLY, MONTHLY }
+enum TimePeriod {
+    ALL_TIME, DAILY, WEEKLY, MONTHLY;
+
+    /** Index of the period containing epochMillis (UTC). A board covers exactly one index; a new index = rotate. */
+    long bucket(long epochMillis) {
+        long day = Math.floorDiv(epochMillis, 86_400_000L);
+        switch (this) {
+            case DAILY: return day;
+            case WEEKLY: return Math.floorDiv(day + 3, 7);   // weeks start Monday; 1970-01-01 was a Thursday
+            case MONTHLY: LocalDate d = LocalDate.ofEpochDay(day); return d.getYear() * 12L + d.getMonthValue() - 1;
+            default: return 0;
+        }
+    }
+}
 
 // ===== DOMAIN =====
 
@@ -16,84 +37,582 @@ class PlayerEntry implements Comparable<PlayerEntry> {
         this.region = region;
     }
 
-    void addScore(long points) { this.score += points; this.lastUpdated = System.currentTimeMillis(); }
+    void addScore(long points) { addScore(points, System.currentTimeMillis()); }
 
-    /** Sort: highest score first. Tie-break: earlier update wins */
+    /** Explicit timestamp: both copies of a left-right board must tie-break identically */
+    void addScore(long points, long at) { this.score += points; this.lastUpdated = at; }
+
+    /** Detached copy for readers — the board's own entry keeps changing after the read returns */
+    PlayerEntry copy() {
+        PlayerEntry c = new PlayerEntry(playerId, region);
+        c.score = score;
+        c.lastUpdated = lastUpdated;
+        return c;
+    }
+
+    static List<PlayerEntry> copies(List<PlayerEntry> entries) {
+        return entries.stream().map(PlayerEntry::copy).collect(Collectors.toList());
+    }
+
+    @Override
+    public String toString() { return playerId + "=" + score; }
+
+    /** Sort: highest score first. Tie-break: earlier update wins, then playerId (no two players compare equal) */
     @Override
     public int compareTo(PlayerEntry o) {
         if (o.score != this.score) return Long.compare(o.score, this.score);
-        return Long.compare(this.lastUpdated, o.lastUpdated);
+        if (o.lastUpdated != this.lastUpdated) return Long.compare(this.lastUpdated, o.lastUpdated);
+        return playerId.compareTo(o.playerId);
     }
 
 }
 
 /**
- * Single leaderboard backed by TreeSet (simulates Redis Sorted Set)
- * TreeSet gives O(log n) insert/remove, headSet for rank
+ * Indexable skip list — the structure behind a Redis Sorted Set (zskiplist).
+ * Every forward link stores its span: how many level-0 nodes it jumps over.
+ * Summing spans along the search path gives the rank; walking down by spans
+ * finds the k-th entry. Insert/remove/rank/byRank: O(log n) expected.
+ *
+ * Links to null carry the count of remaining nodes, so spans stay consistent
+ * when a taller node is inserted later. Not thread-safe (neither is Leaderboard).
+ */
+class RankedSkipList {
+    static final int MAX_LEVEL = 32;      // enough for 4^32 entries at p = 1/4
+
+    static final class Node {
+        final PlayerEntry entry;
+        final long score, updated;      // copy of the sort key (Redis keeps score in the node): no entry deref per compare
+        final Node[] next;
+        final int[] span;
+        Node(PlayerEntry entry, int level) {
+            this.entry = entry;
+            score = entry == null ? 0 : entry.score;
+            updated = entry == null ? 0 : entry.lastUpdated;
+            next = new Node[level];
+            span = new int[level];
+        }
+    }
+
+    private final Node head = new Node(null, MAX_LEVEL);
+    private final Node[] update = new Node[MAX_LEVEL];   // scratch: last node before the target per level
+    private final int[] passed = new int[MAX_LEVEL];     // scratch: rank of update[i]
+    private int level = 1, size;
+
+    int size() { return size; }
+
+    /** Same order as PlayerEntry.compareTo, from the node's copy of the key */
+    private static int compare(Node x, PlayerEntry e) {
+        if (x.score != e.score) return Long.compare(e.score, x.score);
+        if (x.updated != e.lastUpdated) return Long.compare(x.updated, e.lastUpdated);
+        return x.entry.playerId.compareTo(e.playerId);
+    }
+
+    /** Redis zslRandomLevel: each extra level with probability 1/4 */
+    private static int randomLevel() {
+        int lvl = 1;
+        while (lvl < MAX_LEVEL && ThreadLocalRandom.current().nextInt(4) == 0) lvl++;
+        return lvl;
+    }
+
+    void insert(PlayerEntry e) {
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            passed[i] = i == level - 1 ? 0 : passed[i + 1];
+            while (x.next[i] != null && compare(x.next[i], e) < 0) {
+                passed[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        int lvl = randomLevel();
+        for (int i = level; i < lvl; i++) {
+            passed[i] = 0;
+            update[i] = head;
+            head.span[i] = size;
+        }
+        level = Math.max(level, lvl);
+        x = new Node(e, lvl);
+        for (int i = 0; i < lvl; i++) {
+            x.next[i] = update[i].next[i];
+            update[i].next[i] = x;
+            x.span[i] = update[i].span[i] - (passed[0] - passed[i]);
+            update[i].span[i] = passed[0] - passed[i] + 1;
+        }
+        for (int i = lvl; i < level; i++) update[i].span[i]++;   // taller links now jump over x too
+        size++;
+    }
+
+    /** Remove e (must still compare the way it did when inserted). */
+    boolean remove(PlayerEntry e) {
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i], e) < 0) x = x.next[i];
+            update[i] = x;
+        }
+        x = x.next[0];
+        if (x == null || x.entry != e) return false;
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == x) {
+                update[i].span[i] += x.span[i] - 1;
+                update[i].next[i] = x.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) level--;
+        size--;
+        return true;
+    }
+
+    /** 1-based rank of e, 0 if absent (Redis: ZRANK + 1) */
+    int rank(PlayerEntry e) {
+        int rank = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i], e) <= 0) {
+                rank += x.span[i];
+                x = x.next[i];
+            }
+            if (x.entry == e) return rank;
+        }
+        return 0;
+    }
+
+    /** Node at 1-based rank, null if out of range */
+    Node byRank(int rank) {
+        if (rank < 1 || rank > size) return null;
+        int traversed = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && traversed + x.span[i] <= rank) {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+            if (traversed == rank) return x;
+        }
+        return null;
+    }
+
+    /** Entries with rank in [from, to], clamped (Redis: ZRANGE from-1 to-1) — O(log n + k) */
+    List<PlayerEntry> range(int from, int to) {
+        from = Math.max(from, 1);
+        to = Math.min(to, size);
+        List<PlayerEntry> out = new ArrayList<>(Math.max(0, to - from + 1));
+        for (Node x = byRank(from); x != null && out.size() < to - from + 1; x = x.next[0]) out.add(x.entry);
+        return out;
+    }
+
+    void clear() {
+        Arrays.fill(head.next, null);
+        Arrays.fill(head.span, 0);
+        level = 1;
+        size = 0;
+    }
+}
+
+/**
+ * Log-linear score histogram (HdrHistogram-style) for the approximate board's tail.
+ * Scores below 2^SUB_BITS get a bucket each; above that every power of two is split
+ * into 2^SUB_BITS buckets, so a bucket spans at most 1/128 of its scores' value.
+ * Negative scores mirror the layout. Counts sit in a Fenwick tree: "how many scores
+ * are above this bucket" is O(log buckets), add/remove likewise.
+ */
+class ScoreHistogram {
+    static final int SUB_BITS = 7, SUB = 1 << SUB_BITS;
+    static final int HALF = (64 - SUB_BITS + 1) * SUB;   // buckets per sign (7,424)
+    private final long[] counts = new long[2 * HALF];
+    private final long[] fenwick = new long[2 * HALF + 1];
+    private long size;
+
+    long size() { return size; }
+
+    void add(long score) { update(bucket(score), 1); }
+
+    void remove(long score) { update(bucket(score), -1); }
+
+    void clear() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(fenwick, 0);
+        size = 0;
+    }
+
+    /** Estimated 1-based rank: scores in higher buckets + the interpolated share of its own bucket above it */
+    long rankOf(long score) {
+        int b = bucket(score);
+        long lo = lower(b), hi = upper(b);
+        double share = hi == lo ? 0 : (double) (hi - score) / (hi - lo + 1);
+        return size - prefix(b + 1) + Math.round(counts[b] * share) + 1;
+    }
+
+    /** Scores sharing score's bucket — the bound on rankOf's error */
+    long bucketCount(long score) { return counts[bucket(score)]; }
+
+    static int bucket(long score) {
+        return score >= 0 ? HALF + magnitude(score) : HALF - 1 - magnitude(-(score + 1));
+    }
+
+    static long lower(int b) { return b >= HALF ? magLower(b - HALF) : -magUpper(HALF - 1 - b) - 1; }
+
+    static long upper(int b) { return b >= HALF ? magUpper(b - HALF) : -magLower(HALF - 1 - b) - 1; }
+
+    private static int magnitude(long v) {
+        if (v < SUB) return (int) v;
+        int e = 63 - Long.numberOfLeadingZeros(v);
+        return (e - SUB_BITS + 1) * SUB + (int) ((v >>> (e - SUB_BITS)) & (SUB - 1));
+    }
+
+    private static long magLower(int m) { return m < SUB ? m : (long) (SUB + m % SUB) << (m / SUB - 1); }
+
+    private static long magUpper(int m) { return m < SUB ? m : magLower(m) + (1L << (m / SUB - 1)) - 1; }
+
+    private void update(int b, long delta) {
+        counts[b] += delta;
+        size += delta;
+        for (int i = b + 1; i < fenwick.length; i += i & -i) fenwick[i] += delta;
+    }
+
+    /** Count in buckets [0, i) */
+    private long prefix(int i) {
+        long sum = 0;
+        for (; i > 0; i -= i & -i) sum += fenwick[i];
+        return sum;
+    }
+}
+
+/**
+ * Single leaderboard backed by an indexable skip list (Redis Sorted Set)
+ * O(log n) update, rank, percentile; O(log n + k) top-N, rank range and neighborhood
+ *
+ * Approximate mode (exactTopK > 0) for very large boards: only the top K live in the
+ * skip list; everyone else is a count in a ScoreHistogram. Tail ranks are estimated,
+ * off by at most the players sharing a bucket. Invariant: every tail player sorts
+ * after the last top player — a tail player passing the cutoff is promoted, overflow
+ * demotes the last; if demotions shrink the top below K/2 it is rebuilt from playerMap.
  */
 class Leaderboard {
     String name;
-    TreeSet<PlayerEntry> ranked = new TreeSet<>();        // sorted by score desc
+    RankedSkipList ranked = new RankedSkipList();          // sorted by score desc (approximate mode: top K only)
     Map<String, PlayerEntry> playerMap = new HashMap<>();  // playerId → entry
+    final int exactTopK;                                   // 0 = exact mode
+    final ScoreHistogram tail;                             // approximate mode: everyone below the top K
 
-    Leaderboard(String name) { this.name = name; }
+    Leaderboard(String name) { this(name, 0); }
+
+    Leaderboard(String name, int exactTopK) {
+        this.name = name;
+        this.exactTopK = exactTopK;
+        this.tail = exactTopK > 0 ? new ScoreHistogram() : null;
+    }
 
     /**
-     * Update score: MUST remove from TreeSet BEFORE modifying score, then re-add.
-     * TreeSet uses compareTo — changing score while inside breaks ordering!
+     * Update score: MUST remove from the skip list BEFORE modifying score, then re-add.
+     * The list is ordered by compareTo — changing score while inside breaks ordering!
      */
     void updateScore(String playerId, long score, String region) {
+        updateScore(playerId, score, region, System.currentTimeMillis());
+    }
+
+    void updateScore(String playerId, long score, String region, long at) {
         // HINT: entry = playerMap.get(playerId)
         // if exists: ranked.remove(entry) → entry.addScore(score) → ranked.add(entry)
         // if new: create entry → addScore → put in playerMap + ranked
         if(playerMap.containsKey(playerId)){
             PlayerEntry entry=playerMap.get(playerId);
-            ranked.remove(entry);
-            entry.addScore(score);
-            ranked.add(entry);
+            if (!ranked.remove(entry)) tail.remove(entry.score);   // not in the skip list → approximate-mode tail
+            entry.addScore(score, at);
+            place(entry);
         }else{
             PlayerEntry entry=new PlayerEntry(playerId, region);
-            entry.addScore(score);  // BUG FIX: was missing — score never set for new player!
+            entry.addScore(score, at);  // BUG FIX: was missing — score never set for new player!
             playerMap.put(playerId,entry);
-            ranked.add(entry);
+            place(entry);
+        }
+    }
+
+    /** Exact mode: into the skip list. Approximate: into the top K if it beats the cutoff, else the histogram. */
+    private void place(PlayerEntry e) {
+        if (tail == null) {
+            ranked.insert(e);
+            return;
+        }
+        RankedSkipList.Node last = ranked.byRank(ranked.size());
+        boolean top = last != null ? e.compareTo(last.entry) < 0 || (ranked.size() < exactTopK && tail.size() == 0)
+                                   : tail.size() == 0;
+        if (top) {
+            ranked.insert(e);
+            if (ranked.size() > exactTopK) {
+                PlayerEntry out = ranked.byRank(ranked.size()).entry;
+                ranked.remove(out);
+                tail.add(out.score);
+            }
+        } else {
+            tail.add(e.score);
+            if (ranked.size() < exactTopK / 2) refill();
+        }
+    }
+
+    /** Demotions left the exact set short: rebuild the top K from playerMap, O(n log K) — rare */
+    private void refill() {
+        PriorityQueue<PlayerEntry> best = new PriorityQueue<>(Comparator.reverseOrder());   // worst on top
+        for (PlayerEntry e : playerMap.values()) {
+            best.add(e);
+            if (best.size() > exactTopK) best.poll();
+        }
+        Set<PlayerEntry> keep = new HashSet<>(best);
+        ranked.clear();
+        tail.clear();
+        for (PlayerEntry e : playerMap.values()) {
+            if (keep.contains(e)) ranked.insert(e);
+            else tail.add(e.score);
         }
     }
 
-    /** Rank = headSet(entry).size() + 1  (In Redis: ZREVRANK) */
+    /** True when getRank is exact for this player (always, outside approximate mode) */
+    boolean isExactRank(String playerId) {
+        PlayerEntry entry = playerMap.get(playerId);
+        return entry != null && (tail == null || ranked.rank(entry) > 0);
+    }
+
+    /** Rank = sum of spans on the search path  (In Redis: ZREVRANK) — was headSet(entry).size(), O(n) */
     int getRank(String playerId) {
         PlayerEntry entry = playerMap.get(playerId);
         if (entry == null) return -1;  // BUG FIX: was NPE if player not found
-        return ranked.headSet(entry).size()+1;
+        int rank = ranked.rank(entry);
+        if (rank > 0 || tail == null) return rank;
+        return (int) (ranked.size() + tail.rankOf(entry.score));   // approximate: everyone in the top, then the histogram
     }
 
-    /** Iterate TreeSet (already sorted), take first N  (In Redis: ZREVRANGE 0 N-1) */
+    /** First N in order  (In Redis: ZREVRANGE 0 N-1) */
     List<PlayerEntry> getTopN(int n) {
-        // HINT: iterate ranked, collect first n entries
-        return ranked.stream().limit(n).collect(Collectors.toList());
+        return ranked.range(1, n);
+    }
+
+    /** Players ranked fromRank..toRank inclusive, 1-based  (In Redis: ZREVRANGE from-1 to-1) */
+    List<PlayerEntry> getRange(int fromRank, int toRank) {
+        return ranked.range(fromRank, toRank);
     }
 
-    /** Get K players above and below a player */
+    /** Get K players above and below a player — rank, then a range; no full copy + indexOf (approximate mode: top K only) */
     List<PlayerEntry> getNeighborhood(String playerId, int k) {
-        // HINT: convert ranked to list, find idx, return subList [idx-k, idx+k+1]
-        PlayerEntry entry=playerMap.get(playerId);
-        List<PlayerEntry> list=new ArrayList<>(ranked);
-        int idx=list.indexOf(entry);
-        return list.subList(Math.max(0, idx-k), Math.min(list.size(), idx+k+1));  // BUG FIX: was idx+k, missed the player itself
+        int rank = getRank(playerId);
+        if (rank == -1 || !isExactRank(playerId)) return Collections.emptyList();
+        return ranked.range(rank - k, rank + k);
     }
 
     /** percentile = (1 - rank/total) * 100 */
     double getPercentile(String playerId) {
         int rank = getRank(playerId);
-        if (rank == -1 || ranked.isEmpty()) return 0;
-        return (1.0 - (double) rank / ranked.size()) * 100;
+        if (rank == -1 || playerMap.isEmpty()) return 0;
+        return (1.0 - (double) rank / playerMap.size()) * 100;
     }
 
     void resetPlayer(String playerId) {
         PlayerEntry e = playerMap.remove(playerId);
-        if (e != null) ranked.remove(e);
+        if (e != null && !ranked.remove(e)) tail.remove(e.score);
+    }
+
+    void resetAll() {
+        ranked.clear();
+        playerMap.clear();
+        if (tail != null) tail.clear();
+    }
+}
+
+// ===== CONCURRENT INGESTION =====
+
+/** One score submission, shared by every board it fans out to (immutable). Also carries writer control messages. */
+class ScoreEvent {
+    final String playerId, region;
+    final long points, timestamp;
+    final CountDownLatch barrier;   // control: counted down once everything queued before it is applied
+    final boolean reset;            // control: publish an empty board for the current period
+
+    ScoreEvent(String playerId, String region, long points, long timestamp) {
+        this(playerId, region, points, timestamp, null, false);
+    }
+
+    private ScoreEvent(String playerId, String region, long points, long timestamp, CountDownLatch barrier, boolean reset) {
+        this.playerId = playerId;
+        this.region = region;
+        this.points = points;
+        this.timestamp = timestamp;
+        this.barrier = barrier;
+        this.reset = reset;
+    }
+
+    static ScoreEvent barrier(CountDownLatch latch) { return new ScoreEvent(null, null, 0, 0, latch, false); }
+
+    static ScoreEvent reset() { return new ScoreEvent(null, null, 0, 0, null, true); }
+}
+
+/**
+ * Left-right board (Ramalhete & Correia): two copies of the same Leaderboard.
+ * Readers are wait-free on the copy being read; the single writer applies a batch
+ * to the other copy, flips readers onto it, waits for readers still on the old copy
+ * to leave, then replays the batch there. Readers always see a whole batch or none.
+ * Costs 2x memory and every update is applied twice.
+ */
+class LeftRightBoard {
+    final long period;                  // TimePeriod bucket this board covers
+    private final Leaderboard[] copies;
+    private final AtomicInteger[] readers = {new AtomicInteger(), new AtomicInteger()};
+    private volatile int readSide, version;
+
+    LeftRightBoard(String name, long period, int exactTopK) {
+        this.period = period;
+        this.copies = new Leaderboard[]{new Leaderboard(name, exactTopK), new Leaderboard(name, exactTopK)};
+    }
+
+    <T> T read(Function<Leaderboard, T> query) {
+        int v = version;
+        readers[v].incrementAndGet();
+        try {
+            return query.apply(copies[readSide]);
+        } finally {
+            readers[v].decrementAndGet();
+        }
+    }
+
+    /** Writer thread only. batch must be deterministic — it runs once per copy. */
+    void write(Consumer<Leaderboard> batch) {
+        int side = readSide;
+        batch.accept(copies[1 - side]);
+        readSide = 1 - side;
+        int v = version;
+        awaitNoReaders(1 - v);
+        version = 1 - v;
+        awaitNoReaders(v);              // nobody can still be on copies[side] now
+        batch.accept(copies[side]);
     }
 
-    void resetAll() { ranked.clear(); playerMap.clear(); }
+    private void awaitNoReaders(int v) {
+        while (readers[v].get() != 0) Thread.yield();   // reads are short; yield lets them finish on a busy box
+    }
+}
+
+/**
+ * Single writer for one board key (e.g. "GLOBAL:DAILY"). Drains queued events in
+ * batches (lingering LINGER_MS for a batch to build up), coalesces them per player (summed points, latest timestamp) and applies
+ * each batch through the left-right board. When the period ends — by event time or
+ * by the clock while idle — it publishes a fresh board instead of clearing the old
+ * one in place; the finished board stays readable as `previous`. Scores stamped in the
+ * period that just ended but still queued at the boundary are applied to `previous`;
+ * anything older is counted as late and dropped.
+ */
+class BoardWriter implements Runnable {
+    static final int MAX_BATCH = 4096;
+    static final long IDLE_CHECK_MS = 50;
+    static final long LINGER_MS = 2;    // let a batch build up: fewer wakeups, more per-player coalescing
+
+    private static final class Pending {
+        long points, at;
+        String region;
+    }
+
+    final String key;
+    final TimePeriod period;
+    private final LongSupplier clock;
+    private final int exactTopK;
+    private final BlockingQueue<ScoreEvent> queue = new ArrayBlockingQueue<>(1 << 16);
+    private final Map<String, Pending> pending = new HashMap<>(), pendingPrevious = new HashMap<>();
+    private final Thread thread;
+    volatile LeftRightBoard current, previous;
+    volatile long events, updates, batches, rotations, late;   // writer thread writes; readers only report
+
+    BoardWriter(String key, TimePeriod period, LongSupplier clock, int exactTopK) {
+        this.key = key;
+        this.period = period;
+        this.clock = clock;
+        this.exactTopK = exactTopK;
+        this.current = new LeftRightBoard(key, period.bucket(clock.getAsLong()), exactTopK);
+        this.thread = new Thread(this, "board-" + key);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Blocks when the writer is a full queue behind (backpressure instead of unbounded memory). */
+    void submit(ScoreEvent e) {
+        try {
+            queue.put(e);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing score for " + key);
+        }
+    }
+
+    void stop() throws InterruptedException {
+        thread.interrupt();
+        thread.join();
+    }
+
+    @Override
+    public void run() {
+        List<ScoreEvent> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (true) {
+                ScoreEvent first = queue.poll(IDLE_CHECK_MS, TimeUnit.MILLISECONDS);
+                long bucket = period.bucket(clock.getAsLong());
+                if (bucket > current.period) rotate(bucket);
+                if (first == null) continue;
+                if (queue.size() < MAX_BATCH) Thread.sleep(LINGER_MS);
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (ScoreEvent e : batch) accept(e);
+                apply();
+                batches++;
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // stop()
+        }
+    }
+
+    private void accept(ScoreEvent e) {
+        if (e.barrier != null || e.reset) {
+            apply();
+            if (e.reset) rotate(current.period);
+            if (e.barrier != null) e.barrier.countDown();
+            return;
+        }
+        events++;
+        long bucket = period.bucket(e.timestamp);
+        Map<String, Pending> into = pending;
+        if (bucket < current.period) {   // belongs to a finished period
+            LeftRightBoard prev = previous;
+            if (prev == null || bucket != prev.period) {
+                late++;
+                return;
+            }
+            into = pendingPrevious;      // queued before the boundary, drained after the rotation
+        }
+        if (bucket > current.period) {
+            apply();
+            rotate(bucket);
+        }
+        Pending p = into.computeIfAbsent(e.playerId, k -> new Pending());
+        p.points += e.points;
+        p.at = Math.max(p.at, e.timestamp);
+        p.region = e.region;
+    }
+
+    /** Always before a rotation: pendingPrevious must land on the board `previous` points at now. */
+    private void apply() {
+        updates += apply(current, pending) + apply(previous, pendingPrevious);
+    }
+
+    private static int apply(LeftRightBoard target, Map<String, Pending> batch) {
+        if (batch.isEmpty()) return 0;
+        target.write(board -> batch.forEach((id, p) -> board.updateScore(id, p.points, p.region, p.at)));
+        int n = batch.size();
+        batch.clear();
+        return n;
+    }
+
+    private void rotate(long bucket) {
+        previous = current;
+        current = new LeftRightBoard(key, bucket, exactTopK);
+        rotations++;
+    }
 }
 
 // ===== SERVICE =====
@@ -101,53 +620,89 @@ class Leaderboard {
 /**
  * Leaderboard Service — manages multiple leaderboards (global/regional/daily/weekly)
  * Each combo of (type, period, qualifier) is a separate Leaderboard (Redis Sorted Set).
- * submitScore fans out to all relevant boards.
+ * submitScore fans out to all relevant boards — asynchronously: one queue and one
+ * writer thread per board; reads go straight to that board's left-right snapshot.
+ * Call flush() for read-your-writes.
  */
 class LeaderboardService {
-    Map<String, Leaderboard> boards = new HashMap<>();      // "global:all_time" → Leaderboard
+    Map<String, BoardWriter> boards = new ConcurrentHashMap<>();      // "global:all_time" → writer + board
     Map<String, Set<String>> friendsGraph = new HashMap<>(); // userId → friendIds
+    private final LongSupplier clock;
+    private final int exactTopK;
 
-    Leaderboard getOrCreate(String key) { return boards.computeIfAbsent(key, Leaderboard::new); }
+    LeaderboardService() { this(System::currentTimeMillis); }
+
+    /** clock: epoch millis, used to stamp scores and decide period rotation */
+    LeaderboardService(LongSupplier clock) { this(clock, 0); }
+
+    /** exactTopK > 0: approximate boards — exact top K, histogram-estimated ranks below */
+    LeaderboardService(LongSupplier clock, int exactTopK) {
+        this.clock = clock;
+        this.exactTopK = exactTopK;
+    }
+
+    BoardWriter getOrCreate(String key, TimePeriod p) { return boards.computeIfAbsent(key, k -> new BoardWriter(k, p, clock, exactTopK)); }
 
     String key(LeaderboardType t, TimePeriod p) { return t + ":" + p; }
     String key(LeaderboardType t, TimePeriod p, String q) { return t + ":" + p + ":" + q; }
 
-    /** Submit score — fan-out to global (all periods) + regional (all periods) */
+    /** Submit score — fan-out to global (all periods) + regional (all periods); returns once queued */
     void submitScore(String playerId, long score, String region) {
-        // HINT: for each TimePeriod → update global board + regional board
-        // for (TimePeriod p : TimePeriod.values()) {
-        //     getOrCreate(key(GLOBAL, p)).updateScore(playerId, score, region);
-        //     getOrCreate(key(REGIONAL, p, region)).updateScore(playerId, score, region);
-        // }
+        // HINT: for each TimePeriod → queue for global board + regional board
+        ScoreEvent event = new ScoreEvent(playerId, region, score, clock.getAsLong());
         for(TimePeriod p:TimePeriod.values()){
-            getOrCreate(key(LeaderboardType.GLOBAL, p)).updateScore(playerId, score, region);
-            getOrCreate(key(LeaderboardType.REGIONAL, p, region)).updateScore(playerId, score, region);  // BUG FIX: was missing region qualifier — all regions lumped into one board!
+            getOrCreate(key(LeaderboardType.GLOBAL, p), p).submit(event);
+            getOrCreate(key(LeaderboardType.REGIONAL, p, region), p).submit(event);  // BUG FIX: was missing region qualifier — all regions lumped into one board!
         }
     }
 
+    /** Wait until every score submitted before this call is visible to readers */
+    void flush() throws InterruptedException {
+        List<BoardWriter> writers = new ArrayList<>(boards.values());
+        CountDownLatch latch = new CountDownLatch(writers.size());
+        for (BoardWriter w : writers) w.submit(ScoreEvent.barrier(latch));
+        latch.await();
+    }
+
+    void close() throws InterruptedException {
+        for (BoardWriter w : boards.values()) w.stop();
+    }
+
+    /** Run query against the current snapshot of a board; absent if the board doesn't exist yet */
+    private <T> T read(String key, Function<Leaderboard, T> query, T absent) {
+        BoardWriter w = boards.get(key);
+        return w == null ? absent : w.current.read(query);
+    }
+
     List<PlayerEntry> getTopN(LeaderboardType t, TimePeriod p, int n) {
-        Leaderboard b = boards.get(key(t, p));
-        return b == null ? Collections.emptyList() : b.getTopN(n);
+        return read(key(t, p), b -> PlayerEntry.copies(b.getTopN(n)), Collections.emptyList());
     }
 
     List<PlayerEntry> getTopN(LeaderboardType t, TimePeriod p, String region, int n) {
-        Leaderboard b = boards.get(key(t, p, region));
-        return b == null ? Collections.emptyList() : b.getTopN(n);
+        return read(key(t, p, region), b -> PlayerEntry.copies(b.getTopN(n)), Collections.emptyList());
+    }
+
+    /** Top N of the period that just ended (e.g. yesterday's winners) */
+    List<PlayerEntry> getPreviousTopN(LeaderboardType t, TimePeriod p, int n) {
+        BoardWriter w = boards.get(key(t, p));
+        LeftRightBoard prev = w == null ? null : w.previous;
+        return prev == null ? Collections.emptyList() : prev.read(b -> PlayerEntry.copies(b.getTopN(n)));
     }
 
     int getRank(String playerId, LeaderboardType t, TimePeriod p) {
-        Leaderboard b = boards.get(key(t, p));
-        return b == null ? -1 : b.getRank(playerId);
+        return read(key(t, p), b -> b.getRank(playerId), -1);
+    }
+
+    List<PlayerEntry> getRange(LeaderboardType t, TimePeriod p, int fromRank, int toRank) {
+        return read(key(t, p), b -> PlayerEntry.copies(b.getRange(fromRank, toRank)), Collections.emptyList());
     }
 
     List<PlayerEntry> getNeighborhood(String playerId, LeaderboardType t, TimePeriod p, int k) {
-        Leaderboard b = boards.get(key(t, p));
-        return b == null ? Collections.emptyList() : b.getNeighborhood(playerId, k);
+        return read(key(t, p), b -> PlayerEntry.copies(b.getNeighborhood(playerId, k)), Collections.emptyList());
     }
 
     double getPercentile(String playerId, LeaderboardType t, TimePeriod p) {
-        Leaderboard b = boards.get(key(t, p));
-        return b == null ? 0 : b.getPercentile(playerId);
+        return read(key(t, p), b -> b.getPercentile(playerId), 0.0);
     }
 
     /** Friends leaderboard: collect friends' entries from global board, sort, return top N */
@@ -155,17 +710,17 @@ class LeaderboardService {
         // HINT: get friends from friendsGraph
         // HINT: for each friend, get PlayerEntry from global:all_time board
         // HINT: include self, sort by compareTo, return top n
-        Leaderboard globalBoard = boards.get(key(LeaderboardType.GLOBAL, TimePeriod.ALL_TIME));
         Set<String> friends = friendsGraph.getOrDefault(playerId, Collections.emptySet());
-        List<PlayerEntry> result = new ArrayList<>();
-        PlayerEntry selfEntry = globalBoard.playerMap.get(playerId);
-        if (selfEntry != null) result.add(selfEntry);
-        for (String friendId : friends) {
-        PlayerEntry entry = globalBoard.playerMap.get(friendId);
-        if (entry != null) {
-                result.add(entry);
+        List<PlayerEntry> result = read(key(LeaderboardType.GLOBAL, TimePeriod.ALL_TIME), globalBoard -> {
+            List<PlayerEntry> found = new ArrayList<>();
+            PlayerEntry selfEntry = globalBoard.playerMap.get(playerId);
+            if (selfEntry != null) found.add(selfEntry.copy());
+            for (String friendId : friends) {
+                PlayerEntry entry = globalBoard.playerMap.get(friendId);
+                if (entry != null) found.add(entry.copy());
             }
-        }
+            return found;
+        }, new ArrayList<>());
         result.sort(null);
         
         return result.stream()
@@ -178,16 +733,17 @@ class LeaderboardService {
         friendsGraph.computeIfAbsent(u2, k -> new HashSet<>()).add(u1);
     }
 
+    /** Swap in an empty board (ordered after every score already queued for it) */
     void resetLeaderboard(LeaderboardType t, TimePeriod p) {
-        Leaderboard b = boards.get(key(t, p));
-        if (b != null) b.resetAll();
+        BoardWriter w = boards.get(key(t, p));
+        if (w != null) w.submit(ScoreEvent.reset());
     }
 }
 
 // ===== MAIN =====
 
 public class LeaderboardSystem {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         System.out.println("=== Leaderboard System ===\n");
         LeaderboardService svc = new LeaderboardService();
 
@@ -201,6 +757,7 @@ public class LeaderboardSystem {
         svc.submitScore("diana", 220, "EU");
         svc.submitScore("eve", 170, "US");
         svc.submitScore("frank", 190, "AP");
+        svc.flush();   // submits are asynchronous; wait for the board writers
 
         System.out.println("\n--- Global Top 3 (expect diana=220, bob=200, frank=190) ---");
         System.out.println(svc.getTopN(LeaderboardType.GLOBAL, TimePeriod.ALL_TIME, 3));
@@ -223,24 +780,427 @@ public class LeaderboardSystem {
 
         System.out.println("\n--- Score Update: alice +100 → should be rank 1 ---");
         svc.submitScore("alice", 100, "US");
+        svc.flush();
         System.out.println("Alice rank: " + svc.getRank("alice", LeaderboardType.GLOBAL, TimePeriod.ALL_TIME));
 
         System.out.println("\n--- Daily Reset ---");
         svc.resetLeaderboard(LeaderboardType.GLOBAL, TimePeriod.DAILY);
+        svc.flush();
         System.out.println("Daily after reset: " + svc.getTopN(LeaderboardType.GLOBAL, TimePeriod.DAILY, 3).size() + " (expect 0)");
         System.out.println("All-time intact: " + svc.getTopN(LeaderboardType.GLOBAL, TimePeriod.ALL_TIME, 1));
 
+        System.out.println("\n--- Rank Range 2..4 (expect diana=220, bob=200, frank=190) ---");
+        System.out.println(svc.getRange(LeaderboardType.GLOBAL, TimePeriod.ALL_TIME, 2, 4));
+
+        System.out.println("\n--- Period Rotation (manual clock, Mon 2024-01-01 10:00 UTC) ---");
+        long[] now = {1_704_103_200_000L};
+        LeaderboardService timed = new LeaderboardService(() -> now[0]);
+        timed.submitScore("alice", 50, "US");
+        timed.submitScore("bob", 30, "US");
+        timed.flush();
+        now[0] += 86_400_000L;                     // Tuesday: new day, same week and month
+        timed.submitScore("bob", 5, "US");
+        timed.flush();
+        System.out.println("Daily:          " + timed.getTopN(LeaderboardType.GLOBAL, TimePeriod.DAILY, 5) + " (expect [bob=5])");
+        System.out.println("Yesterday:      " + timed.getPreviousTopN(LeaderboardType.GLOBAL, TimePeriod.DAILY, 5) + " (expect [alice=50, bob=30])");
+        System.out.println("Weekly:         " + timed.getTopN(LeaderboardType.GLOBAL, TimePeriod.WEEKLY, 5) + " (expect [alice=50, bob=35])");
+        now[0] += 31 * 86_400_000L;                // Fri 2024-02-02, no new scores: rotation comes from the clock
+        Thread.sleep(3 * BoardWriter.IDLE_CHECK_MS);
+        System.out.println("Monthly (Feb):  " + timed.getTopN(LeaderboardType.GLOBAL, TimePeriod.MONTHLY, 5) + " (expect [])");
+        System.out.println("January:        " + timed.getPreviousTopN(LeaderboardType.GLOBAL, TimePeriod.MONTHLY, 5) + " (expect [alice=50, bob=35])");
+        System.out.println("All-time:       " + timed.getTopN(LeaderboardType.GLOBAL, TimePeriod.ALL_TIME, 5) + " (expect [alice=50, bob=35])");
+        timed.close();
+
+        System.out.println("\n--- Scores Queued Across Midnight (Mon 23:59:59 → Tue 00:00:01) ---");
+        now[0] = 1_704_153_599_000L;
+        LeaderboardService edge = new LeaderboardService(() -> now[0]);
+        edge.submitScore("m0", 1, "US");
+        edge.flush();
+        BoardWriter daily = edge.boards.get(edge.key(LeaderboardType.GLOBAL, TimePeriod.DAILY));
+        CountDownLatch holding = new CountDownLatch(1), release = new CountDownLatch(1);
+        Thread slowReader = new Thread(() -> daily.current.read(b -> {   // parks the writer in its next left-right flip
+            holding.countDown();
+            try { release.await(); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); }
+            return null;
+        }));
+        slowReader.start();
+        holding.await();
+        int burst = 50_000;
+        for (int i = 1; i < burst; i++) edge.submitScore("m" + i % 1_000, 1, "US");   // queued behind the stalled writer...
+        now[0] += 2_000;                                                                  // ...while the clock crosses midnight
+        release.countDown();
+        slowReader.join();
+        edge.submitScore("tue", 7, "US");
+        daily.submit(new ScoreEvent("straggler", "US", 3, now[0] - 1_500));             // stamped Monday, arrives after Tuesday's first score
+        daily.submit(new ScoreEvent("sunday", "US", 9, now[0] - 86_400_000L - 2_000));   // two days back: too late for any kept board
+        edge.flush();
+        long monday = edge.getPreviousTopN(LeaderboardType.GLOBAL, TimePeriod.DAILY, 2_000).stream().filter(e -> e.playerId.startsWith("m")).mapToLong(e -> e.score).sum();
+        System.out.println("Monday burst on yesterday's board: " + monday + " of " + burst + " (expect " + burst + ")");
+        System.out.println("Straggler on yesterday's board: " + edge.getPreviousTopN(LeaderboardType.GLOBAL, TimePeriod.DAILY, 2_000).stream().anyMatch(e -> e.playerId.equals("straggler")) + " (expect true)");
+        System.out.println("Today: " + edge.getTopN(LeaderboardType.GLOBAL, TimePeriod.DAILY, 5) + ", late " + daily.late + " (expect [tue=7], 1)");
+        edge.close();
+
+        System.out.println("\n--- Skip list vs TreeSet on 200K random updates (expect true, true) ---");
+        Leaderboard check = new Leaderboard("check");
+        Random rnd = new Random(7);
+        for (int i = 0; i < 200_000; i++) {
+            String id = "p" + rnd.nextInt(20_000);
+            long pts = rnd.nextInt(50);        // small scores: lots of ties
+            check.updateScore(id, pts, "US");
+            if (i % 10 == 0) check.resetPlayer(id);
+        }
+        List<PlayerEntry> expected = new ArrayList<>(new TreeSet<>(check.playerMap.values()));   // same entries, TreeSet order
+        boolean ranksMatch = expected.size() == check.ranked.size();
+        for (int i = 0; i < expected.size(); i++) ranksMatch &= check.getRank(expected.get(i).playerId) == i + 1;
+        System.out.println("Every rank matches the TreeSet position: " + ranksMatch);
+        System.out.println("Full range matches the TreeSet order: " + check.getRange(1, Integer.MAX_VALUE).equals(expected));
+
+        System.out.println("\n--- Approximate Board: exact top 2, histogram below ---");
+        Leaderboard approx = new Leaderboard("approx", 2);
+        String[][] demo = {{"alice", "150"}, {"bob", "200"}, {"charlie", "180"}, {"diana", "220"}, {"eve", "170"}, {"frank", "190"}};
+        for (String[] d : demo) approx.updateScore(d[0], Long.parseLong(d[1]), "US");
+        System.out.println("Top: " + approx.getTopN(5) + " (expect [diana=220, bob=200])");
+        System.out.println("Eve rank: " + approx.getRank("eve") + ", exact: " + approx.isExactRank("eve") + " (expect 5, false)");
+        approx.updateScore("eve", 100, "US");
+        System.out.println("Eve +100 promoted: " + approx.getTopN(5) + ", bob rank " + approx.getRank("bob") + " (expect [eve=270, diana=220], 3)");
+
+        // args: [rank|ingest|approx] [size...] — no args runs all three at default sizes; bare numbers = rank benchmark sizes
+        String mode = args.length == 0 ? "all" : Character.isDigit(args[0].charAt(0)) ? "rank" : args[0];
+        List<Integer> sizes = Arrays.stream(args).filter(a -> Character.isDigit(a.charAt(0))).map(Integer::parseInt).collect(Collectors.toList());
+        if (mode.equals("all") || mode.equals("rank")) {
+            for (int n : sizes.isEmpty() ? List.of(1_000_000) : sizes) benchmark(n);
+        }
+        if (mode.equals("all") || mode.equals("ingest")) {
+            int events = sizes.isEmpty() ? 500_000 : sizes.get(0);
+            ingestBenchmark(events, 100_000, 3, 4, 2);   // broad: top 1% of players score ~20% of events
+            ingestBenchmark(events, 100_000, 8, 4, 2);   // live match: top 1% score ~56%
+        }
+        if (mode.equals("all") || mode.equals("approx")) {
+            for (int n : sizes.isEmpty() ? List.of(1_000_000) : sizes) approxBenchmark(n, 10_000);
+        }
+        svc.close();
+
         System.out.println("\n=== Done ===");
     }
+
+    /** Build a board of n players with random scores, then time each query against the TreeSet version. */
+    static void benchmark(int n) {
+        System.out.printf("%n--- Benchmark: %,d players ---%n", n);
+        String[] regions = {"US", "EU", "AP"};
+        Random rnd = new Random(42);
+        Leaderboard board = new Leaderboard("bench");
+        long t0 = System.nanoTime();
+        for (int i = 0; i < n; i++) board.updateScore("p" + i, rnd.nextInt(1_000_000), regions[i % 3]);
+        double buildSkip = (System.nanoTime() - t0) / 1e9;
+        int q = 200_000;
+        double[] skip = new double[4];
+        long sink = 0;
+        for (int round = 0; round < 2; round++) {   // first round warms up the JIT
+            rnd = new Random(1);
+            t0 = System.nanoTime();
+            for (int i = 0; i < q; i++) sink += board.getRank("p" + rnd.nextInt(n));
+            skip[0] = (System.nanoTime() - t0) / (double) q;
+            t0 = System.nanoTime();
+            for (int i = 0; i < q; i++) sink += (long) board.getPercentile("p" + rnd.nextInt(n));
+            skip[1] = (System.nanoTime() - t0) / (double) q;
+            t0 = System.nanoTime();
+            for (int i = 0; i < q; i++) { int from = 1 + rnd.nextInt(n); sink += board.getRange(from, from + 99).size(); }
+            skip[2] = (System.nanoTime() - t0) / (double) q;
+            t0 = System.nanoTime();
+            for (int i = 0; i < q; i++) sink += board.getNeighborhood("p" + rnd.nextInt(n), 5).size();
+            skip[3] = (System.nanoTime() - t0) / (double) q;
+        }
+        board = null;
+
+        rnd = new Random(42);
+        TreeSetLeaderboard old = new TreeSetLeaderboard();
+        t0 = System.nanoTime();
+        for (int i = 0; i < n; i++) old.updateScore("p" + i, rnd.nextInt(1_000_000));
+        double buildTree = (System.nanoTime() - t0) / 1e9;
+        int oq = Math.max(5, 20_000_000 / n);      // O(n) per call: a handful is enough
+        double[] tree = new double[4];
+        rnd = new Random(1);
+        t0 = System.nanoTime();
+        for (int i = 0; i < oq; i++) sink += old.getRank("p" + rnd.nextInt(n));
+        tree[0] = (System.nanoTime() - t0) / (double) oq;
+        t0 = System.nanoTime();
+        for (int i = 0; i < oq; i++) sink += (long) old.getPercentile("p" + rnd.nextInt(n));
+        tree[1] = (System.nanoTime() - t0) / (double) oq;
+        t0 = System.nanoTime();
+        for (int i = 0; i < oq; i++) { int from = 1 + rnd.nextInt(n); sink += old.getRange(from, from + 99).size(); }
+        tree[2] = (System.nanoTime() - t0) / (double) oq;
+        t0 = System.nanoTime();
+        for (int i = 0; i < oq; i++) sink += old.getNeighborhood("p" + rnd.nextInt(n), 5).size();
+        tree[3] = (System.nanoTime() - t0) / (double) oq;
+
+        System.out.printf("build:            skip list %.1f s, TreeSet %.1f s%n", buildSkip, buildTree);
+        String[] ops = {"getRank", "getPercentile", "getRange (100)", "getNeighborhood(5)"};
+        System.out.printf("%-20s %14s %14s %10s%n", "op", "skip list", "TreeSet", "speedup");
+        for (int i = 0; i < 4; i++) {
+            System.out.printf("%-20s %11.2f us %11.2f us %9.0fx%n", ops[i], skip[i] / 1e3, tree[i] / 1e3, tree[i] / skip[i]);
+        }
+        if (sink == 42) System.out.println();   // keep the results live
+    }
+
+    /** Approximate mode vs exact boards on the same n players: memory, update speed, rank error */
+    static void approxBenchmark(int n, int k) {
+        System.out.printf("%n--- Approximate Rank: %,d players, exact top %,d + %,d-bucket histogram ---%n", n, k, 2 * ScoreHistogram.HALF);
+        String[] ids = new String[n];
+        long[] initial = new long[n];
+        Random rnd = new Random(5);
+        for (int i = 0; i < n; i++) {
+            ids[i] = "p" + i;
+            initial[i] = (long) (10_000_000 * Math.pow(rnd.nextDouble(), 4));   // long tail of low scores, few high
+        }
+        long base = usedHeap();
+        Map<String, PlayerEntry> plain = new HashMap<>();
+        for (int i = 0; i < n; i++) plain.put(ids[i], new PlayerEntry(ids[i], "US"));
+        double mapBytes = (usedHeap() - base) / (double) n;   // what any board needs: id → entry
+        plain = null;
+
+        base = usedHeap();
+        TreeSetLeaderboard tree = new TreeSetLeaderboard();
+        for (int i = 0; i < n; i++) tree.updateScore(ids[i], initial[i]);
+        double treeBytes = (usedHeap() - base) / (double) n;
+        tree = null;
+
+        Leaderboard[] boards = {new Leaderboard("exact"), new Leaderboard("approx", k)};
+        double[] bytes = new double[2], updateNs = new double[2];
+        int updates = n;
+        for (int b = 0; b < 2; b++) {
+            base = usedHeap();
+            for (int i = 0; i < n; i++) boards[b].updateScore(ids[i], initial[i], "US", i);
+            bytes[b] = (usedHeap() - base) / (double) n;
+            Random u = new Random(9);
+            long t0 = System.nanoTime();
+            for (int j = 0; j < updates; j++) boards[b].updateScore(ids[u.nextInt(n)], 1 + u.nextInt(100_000), "US", n + j);
+            updateNs[b] = (System.nanoTime() - t0) / (double) updates;
+        }
+        System.out.printf("%-22s %16s %16s %12s%n", "", "total B/player", "index B/player", "update");
+        System.out.printf("%-22s %16.0f %16.0f %12s%n", "TreeSet (old)", treeBytes, treeBytes - mapBytes, "-");
+        String[] names = {"skip list (exact)", "approximate"};
+        for (int b = 0; b < 2; b++) {
+            System.out.printf("%-22s %16.0f %16.1f %9.2f us%n", names[b], bytes[b], bytes[b] - mapBytes, updateNs[b] / 1e3);
+        }
+
+        Leaderboard exact = boards[0], approx = boards[1];
+        int samples = 100_000, tailSamples = 0, topWrong = 0, overBound = 0;
+        double[] absErr = new double[samples], relErr = new double[samples];
+        double maxPctErr = 0;
+        Random q = new Random(11);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < samples; i++) approx.getRank(ids[q.nextInt(n)]);
+        double approxRankNs = (System.nanoTime() - t0) / (double) samples;
+        t0 = System.nanoTime();
+        for (int i = 0; i < samples; i++) exact.getRank(ids[q.nextInt(n)]);
+        double exactRankNs = (System.nanoTime() - t0) / (double) samples;
+        for (int i = 0; i < samples; i++) {
+            String id = ids[q.nextInt(n)];
+            int ex = exact.getRank(id), ap = approx.getRank(id);
+            if (approx.isExactRank(id)) {
+                if (ex != ap) topWrong++;
+                continue;
+            }
+            long err = Math.abs((long) ap - ex);
+            if (err > approx.tail.bucketCount(approx.playerMap.get(id).score)) overBound++;
+            absErr[tailSamples] = err;
+            relErr[tailSamples++] = err / (double) ex;
+            maxPctErr = Math.max(maxPctErr, Math.abs(exact.getPercentile(id) - approx.getPercentile(id)));
+        }
+        double[] a = Arrays.copyOf(absErr, tailSamples), r = Arrays.copyOf(relErr, tailSamples);
+        Arrays.sort(a);
+        Arrays.sort(r);
+        System.out.printf("getRank: exact %.2f us, approximate %.2f us%n", exactRankNs / 1e3, approxRankNs / 1e3);
+        System.out.printf("Top %,d after %,d updates matches exact board: %s, sampled top ranks wrong: %d (expect true, 0)%n",
+            k, updates, approx.getTopN(k).toString().equals(exact.getTopN(k).toString()), topWrong);
+        System.out.printf("Tail rank error over %,d samples: mean %.1f, p99 %.0f, max %.0f positions; relative mean %.4f%%, max %.3f%%%n",
+            tailSamples, Arrays.stream(a).average().orElse(0), a[(int) (tailSamples * 0.99)], a[tailSamples - 1],
+            Arrays.stream(r).average().orElse(0) * 100, r[tailSamples - 1] * 100);
+        System.out.printf("Max percentile error %.4f points; errors beyond the bucket-count bound: %d (expect 0)%n", maxPctErr, overBound);
+    }
+
+    /** Used heap after a few GCs — coarse, fine at millions of objects */
+    static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) rt.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /** Ingestion target for the concurrency benchmark */
+    interface Ingest {
+        void submit(String playerId, long points, String region);
+        int rank(String playerId);
+        List<PlayerEntry> top(int n);
+        void drain() throws InterruptedException;
+    }
+
+    /** Skewed live traffic from producer threads while reader threads time getRank/getTopN, async service vs one big lock. */
+    static void ingestBenchmark(int events, int players, int skew, int producers, int readers) throws InterruptedException {
+        System.out.printf("%n--- Concurrent Ingestion: %,d events, %,d players (player = n*u^%d), %d producers, %d readers, %d CPU(s) ---%n",
+            events, players, skew, producers, readers, Runtime.getRuntime().availableProcessors());
+        String[] ids = new String[players];
+        for (int i = 0; i < players; i++) ids[i] = "p" + i;
+        String[] regions = {"US", "EU", "AP"};
+
+        LeaderboardService async = new LeaderboardService();
+        LockedService locked = new LockedService();
+        Ingest[] targets = {
+            new Ingest() {
+                public void submit(String id, long pts, String region) { async.submitScore(id, pts, region); }
+                public int rank(String id) { return async.getRank(id, LeaderboardType.GLOBAL, TimePeriod.ALL_TIME); }
+                public List<PlayerEntry> top(int n) { return async.getTopN(LeaderboardType.GLOBAL, TimePeriod.ALL_TIME, n); }
+                public void drain() throws InterruptedException { async.flush(); }
+            },
+            new Ingest() {
+                public void submit(String id, long pts, String region) { locked.submitScore(id, pts, region); }
+                public int rank(String id) { return locked.getRank(id); }
+                public List<PlayerEntry> top(int n) { return locked.getTopN(n); }
+                public void drain() { }
+            }
+        };
+        String[] names = {"queue + single writer + left-right", "synchronized fan-out (one lock)"};
+        LongAdder[] submitted = {new LongAdder(), new LongAdder()};
+        System.out.printf("%-36s %12s %10s %10s %10s %10s%n", "", "events/s", "read p50", "read p99", "read p99.9", "reads");
+        for (int t = 0; t < targets.length; t++) {
+            Ingest target = targets[t];
+            LongAdder points = submitted[t];
+            long[][] samples = new long[readers][2_000_000];
+            int[] counts = new int[readers];
+            CountDownLatch done = new CountDownLatch(producers);
+            AtomicInteger stop = new AtomicInteger();
+            Thread[] threads = new Thread[producers + readers];
+            for (int i = 0; i < producers; i++) {
+                threads[i] = new Thread(() -> {
+                    ThreadLocalRandom r = ThreadLocalRandom.current();
+                    for (int k = 0; k < events / producers; k++) {
+                        int player = (int) (players * Math.pow(r.nextDouble(), skew));   // a few hot players score most often
+                        int pts = 1 + r.nextInt(10);
+                        target.submit(ids[player], pts, regions[player % 3]);
+                        points.add(pts);
+                    }
+                    done.countDown();
+                });
+            }
+            for (int i = 0; i < readers; i++) {
+                int slot = i;
+                threads[producers + i] = new Thread(() -> {
+                    ThreadLocalRandom r = ThreadLocalRandom.current();
+                    while (stop.get() == 0 && counts[slot] < samples[slot].length) {
+                        long t0 = System.nanoTime();
+                        if (counts[slot] % 2 == 0) target.rank(ids[r.nextInt(players)]);
+                        else target.top(10);
+                        samples[slot][counts[slot]++] = System.nanoTime() - t0;
+                        LockSupport.parkNanos(100_000);   // paced, like request traffic — not a spin that starves the writers
+                    }
+                });
+            }
+            long t0 = System.nanoTime();
+            for (Thread th : threads) th.start();
+            done.await();
+            target.drain();
+            double seconds = (System.nanoTime() - t0) / 1e9;
+            stop.set(1);
+            for (Thread th : threads) th.join();
+            long[] all = new long[Arrays.stream(counts).sum()];
+            int pos = 0;
+            for (int i = 0; i < readers; i++) {
+                System.arraycopy(samples[i], 0, all, pos, counts[i]);
+                pos += counts[i];
+            }
+            Arrays.sort(all);
+            System.out.printf("%-36s %,12.0f %8.1f us %8.1f us %8.1f us %,10d%n", names[t], events / seconds,
+                all[all.length / 2] / 1e3, all[(int) (all.length * 0.99)] / 1e3, all[(int) (all.length * 0.999)] / 1e3, all.length);
+        }
+        long updates = 0, queued = 0;
+        for (BoardWriter w : async.boards.values()) {
+            updates += w.updates;
+            queued += w.events;
+        }
+        System.out.printf("Coalescing: %,d board events → %,d board updates (%.1fx fewer); every update applied to both left-right copies%n",
+            queued, updates, queued / (double) updates);
+        long boardTotal = async.getRange(LeaderboardType.GLOBAL, TimePeriod.ALL_TIME, 1, Integer.MAX_VALUE).stream().mapToLong(e -> e.score).sum();
+        System.out.println("All-time board total equals points submitted: " + (boardTotal == submitted[0].sum()) + " (expect true)");
+        async.close();
+    }
+
+    /** The previous service made thread-safe the simple way: every submit and read under one lock. */
+    static final class LockedService {
+        private final Map<String, Leaderboard> boards = new HashMap<>();
+
+        synchronized void submitScore(String playerId, long score, String region) {
+            for (TimePeriod p : TimePeriod.values()) {
+                boards.computeIfAbsent("GLOBAL:" + p, Leaderboard::new).updateScore(playerId, score, region);
+                boards.computeIfAbsent("REGIONAL:" + p + ":" + region, Leaderboard::new).updateScore(playerId, score, region);
+            }
+        }
+
+        synchronized int getRank(String playerId) {
+            Leaderboard b = boards.get("GLOBAL:ALL_TIME");
+            return b == null ? -1 : b.getRank(playerId);
+        }
+
+        synchronized List<PlayerEntry> getTopN(int n) {
+            Leaderboard b = boards.get("GLOBAL:ALL_TIME");
+            return b == null ? Collections.emptyList() : PlayerEntry.copies(b.getTopN(n));
+        }
+    }
+
+    /** The previous board: TreeSet + headSet(entry).size() for rank, full copy + indexOf for neighborhood. */
+    static final class TreeSetLeaderboard {
+        final TreeSet<PlayerEntry> ranked = new TreeSet<>();
+        final Map<String, PlayerEntry> playerMap = new HashMap<>();
+
+        void updateScore(String playerId, long score) {
+            PlayerEntry entry = playerMap.get(playerId);
+            if (entry != null) ranked.remove(entry);
+            else playerMap.put(playerId, entry = new PlayerEntry(playerId, "US"));
+            entry.addScore(score);
+            ranked.add(entry);
+        }
+
+        int getRank(String playerId) {
+            PlayerEntry entry = playerMap.get(playerId);
+            return entry == null ? -1 : ranked.headSet(entry).size() + 1;
+        }
+
+        double getPercentile(String playerId) {
+            int rank = getRank(playerId);
+            return rank == -1 ? 0 : (1.0 - (double) rank / ranked.size()) * 100;
+        }
+
+        List<PlayerEntry> getRange(int fromRank, int toRank) {
+            return ranked.stream().skip(fromRank - 1).limit(toRank - fromRank + 1).collect(Collectors.toList());
+        }
+
+        List<PlayerEntry> getNeighborhood(String playerId, int k) {
+            List<PlayerEntry> list = new ArrayList<>(ranked);
+            int idx = list.indexOf(playerMap.get(playerId));
+            return list.subList(Math.max(0, idx - k), Math.min(list.size(), idx + k + 1));
+        }
+    }
 }
 
 /**
  * KEY POINTS FOR INTERVIEW:
  * 
- * 1. DATA STRUCTURE: TreeSet (simulates Redis Sorted Set ZADD/ZREVRANK/ZREVRANGE)
- * 2. CRITICAL: Remove from TreeSet BEFORE changing score, then re-add
+ * 1. DATA STRUCTURE: indexable skip list + hash map = Redis Sorted Set (ZADD/ZREVRANK/ZREVRANGE)
+ *    - Each link stores its span → rank = sum of spans on the search path, O(log n)
+ *    - TreeSet can't do this: headSet(e).size() walks the view, O(n) (~ms at 1M, ~0.1 s at 20M)
+ *    - Alternative: size-augmented balanced tree (order-statistic tree), same bounds
+ * 1b. APPROXIMATE MODE: exact skip list for the top K only, everyone else counted in a log-linear score
+ *    histogram (HdrHistogram layout, ~1% wide buckets) with a Fenwick tree → rank = K + prefix count
+ *    - Error per player ≤ players sharing its bucket; 1M players: mean ~33 positions, 0.008% relative
+ *    - Index shrinks ~80 → ~4 B/player and updates get ~8x cheaper; the id → score map still dominates
+ *    - Top K stays exact: promote on crossing the K-th score, refill from the map if the top thins out
+ * 2. CRITICAL: Remove from the sorted structure BEFORE changing score, then re-add
  * 3. MULTIPLE BOARDS: Separate sorted set per (type, period) — fan-out on write
- * 4. TIME RESET: Cron job clears daily/weekly boards; all-time never resets
+ * 4. TIME RESET: on a period boundary the writer publishes a fresh board (old one stays readable as
+ *    "previous", e.g. yesterday's winners) — never clear a live board in place; all-time never resets
+ *    Scores stamped before the boundary but still queued land on "previous", not in the late count
+ * 4b. CONCURRENCY: submitScore only enqueues; one writer thread per board batches, coalesces per player,
+ *    applies. Readers use a left-right pair (two copies) → wait-free reads of a whole-batch snapshot.
+ *    1 CPU: read p99 ~15 us vs ~32 ms behind one lock, at ~half the ingest rate (each update applied
+ *    twice, boards can't run in parallel); with cores, the per-board writers scale out
  * 5. FRIENDS: Filter global board by friend list, or maintain per-user boards
  * 6. TIE-BREAK: Same score → earlier timestamp wins
  * 7. SCALE: Redis cluster sharded by board key, Kafka for async fan-out
@@ -1,6 +1,11 @@
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 
 // ===== CUSTOM EXCEPTION CLASSES =====
@@ -63,10 +68,27 @@ enum ServerStatus {
 
 /**
  * Strategy interface for load balancing algorithms
+ * 
+ * The load balancer passes its current healthy snapshot: an immutable array
+ * that is replaced (never mutated) when health or membership changes, so the
+ * same array instance means the same server set. Called concurrently on
+ * every request: implementations must not lock or allocate.
  */
 interface LoadBalancingStrategy {
-    Server selectServer(List<Server> servers);
+    Server selectServer(Server[] servers);
     String getName();
+    
+    /**
+     * Writer path: called with each new healthy snapshot before routers can see it
+     * (membership, health or weight changed). Precompute per-snapshot state here,
+     * never on the routing path.
+     */
+    default void onServersChanged(Server[] servers) {}
+    
+    /** Convenience for callers holding a list (allocates a copy; not for the routing path). */
+    default Server selectServer(List<Server> servers) {
+        return selectServer(servers.toArray(new Server[0]));
+    }
 }
 
 // ===== DOMAIN CLASSES =====
@@ -78,24 +100,64 @@ class Server {
     String id;
     String host;
     int port;
-    ServerStatus status;
+    volatile int weight;              // relative capacity, used by weighted strategies (change via LoadBalancer.setWeight)
+    volatile ServerStatus status;
     AtomicInteger activeConnections;
-    AtomicInteger totalRequestsHandled;
+    LongAdder totalRequestsHandled;   // striped: many routing threads bump it at once
+    
+    // Latency, fed by completeRequest(server, latencyNanos). Updates are plain racy
+    // read-modify-writes: a sample lost to a concurrent completion doesn't matter to a
+    // decaying average, and it keeps the update to a few loads/stores (no CAS loop).
+    static final double PEAK_DECAY_NANOS = 5e9;   // peak EWMA time constant
+    volatile long ewmaNanos;          // smoothed latency, alpha = 1/8 (TCP SRTT style)
+    volatile double peakEwmaNanos;    // jumps to a spike at once, decays back over time
+    volatile long peakStampNanos;
+    final LongAdder windowRequests = new LongAdder();   // per OutlierDetector interval
+    final LongAdder windowErrors = new LongAdder();
+    volatile double warmth = 1.0;     // slow start after re-admission: fraction of normal share
+    volatile long ejectedUntilNanos;  // set by OutlierDetector; 0 = not ejected by it
+    int ejections;                    // OutlierDetector thread only
     
     public Server(String id, String host, int port) {
+        this(id, host, port, 1);
+    }
+    
+    public Server(String id, String host, int port, int weight) {
         this.id = id;
         this.host = host;
         this.port = port;
+        this.weight = weight;
         this.status = ServerStatus.HEALTHY;
         this.activeConnections = new AtomicInteger(0);
-        this.totalRequestsHandled = new AtomicInteger(0);
+        this.totalRequestsHandled = new LongAdder();
+    }
+    
+    void recordLatency(long nanos, long now) {
+        long e = ewmaNanos;
+        ewmaNanos = e == 0 ? nanos : e + ((nanos - e) >> 3);
+        double p = peakEwmaNanos, w = Math.exp(-Math.max(0, now - peakStampNanos) / PEAK_DECAY_NANOS);
+        peakEwmaNanos = nanos > p ? nanos : p * w + nanos * (1 - w);
+        peakStampNanos = now;
+    }
+    
+    /** Peak EWMA as of now: decays toward 0 while no samples arrive, so an avoided server gets probed again. */
+    double peakEwma(long now) {
+        double p = peakEwmaNanos;
+        return p == 0 ? 0 : p * Math.exp(-Math.max(0, now - peakStampNanos) / PEAK_DECAY_NANOS);
+    }
+    
+    /** Fresh latency history (re-admission): start from a typical value instead of the spike that got it ejected. */
+    void resetLatency(long nanos, long now) {
+        ewmaNanos = nanos;
+        peakEwmaNanos = nanos;
+        peakStampNanos = now;
     }
     
     @Override
     public String toString() {
         return id + "(" + host + ":" + port + ", conn=" + 
-               activeConnections.get() + ", total=" + totalRequestsHandled.get() + 
-               ", " + status + ")";
+               activeConnections.get() + ", total=" + totalRequestsHandled.sum() + 
+               (weight != 1 ? ", w=" + weight : "") + ", " + status + ")";
     }
 }
 
@@ -105,7 +167,8 @@ class Server {
  * PROBLEM STATEMENT:
  * Design a load balancer that can:
  * 1. Distribute requests across multiple servers
- * 2. Support multiple algorithms (Round Robin, Least Connections, Random)
+ * 2. Support multiple algorithms (Round Robin, Least Connections, Random,
+ *    Power of Two Choices, Smooth Weighted Round Robin)
  * 3. Perform health checks and failover
  * 4. Handle concurrent requests safely
  * 5. Track server statistics
@@ -155,13 +218,13 @@ class RoundRobinStrategy implements LoadBalancingStrategy {
      * TIME COMPLEXITY: O(1)
      */
     @Override
-    public Server selectServer(List<Server> servers) {
-        // HINT: if (servers.isEmpty()) return null;
-        // HINT: int idx = Math.abs(index.getAndIncrement() % servers.size());
-        // HINT: return servers.get(idx);
-        if(servers.isEmpty()) return null;
-        int idx=Math.abs(index.getAndIncrement()%servers.size());
-        return servers.get(idx);
+    public Server selectServer(Server[] servers) {
+        // HINT: if (servers.length == 0) return null;
+        // HINT: int idx = Math.floorMod(index.getAndIncrement(), servers.length);
+        // HINT: return servers[idx];
+        if(servers.length==0) return null;
+        int idx=Math.floorMod(index.getAndIncrement(),servers.length);
+        return servers[idx];
     }
     
     @Override
@@ -191,19 +254,24 @@ class RoundRobinStrategy implements LoadBalancingStrategy {
 class LeastConnectionsStrategy implements LoadBalancingStrategy {
     /**
      * IMPLEMENTATION HINTS:
-     * 1. Use stream to find server with minimum activeConnections
+     * 1. Loop over the array tracking the minimum activeConnections
+     *    (a stream would allocate on every request)
      * 2. Compare using activeConnections.get()
      * 3. Return server with lowest count
-     * 4. Handle empty list
+     * 4. Handle empty array
      * 
-     * TIME COMPLEXITY: O(n)
+     * TIME COMPLEXITY: O(n) — every request reads every server's counter;
+     * see PowerOfTwoChoicesStrategy for O(1)
      */
     @Override
-    public Server selectServer(List<Server> servers) {
-        // HINT: return servers.stream()
-        //           .min(Comparator.comparingInt(s -> s.activeConnections.get()))
-        //           .orElse(null);
-        return servers.stream().min(Comparator.comparingInt(x->x.activeConnections.get())).orElse(null);
+    public Server selectServer(Server[] servers) {
+        Server best = null;
+        int min = Integer.MAX_VALUE;
+        for (Server s : servers) {
+            int c = s.activeConnections.get();
+            if (c < min) { min = c; best = s; }
+        }
+        return best;
     }
     
     @Override
@@ -230,43 +298,287 @@ class LeastConnectionsStrategy implements LoadBalancingStrategy {
  * USE CASE: Stateless HTTP requests, short-lived connections
  */
 class RandomStrategy implements LoadBalancingStrategy {
-    private final Random random = new Random();
-    
     /**
      * IMPLEMENTATION HINTS:
-     * 1. Generate random index: random.nextInt(servers.size())
+     * 1. Generate random index: ThreadLocalRandom.current().nextInt(servers.length)
+     *    (a shared java.util.Random CASes one seed from every thread)
      * 2. Return server at that index
-     * 3. Handle empty list
+     * 3. Handle empty array
      * 
      * TIME COMPLEXITY: O(1)
      */
     @Override
-    public Server selectServer(List<Server> servers) {
-        // HINT: if (servers.isEmpty()) return null;
-        // HINT: return servers.get(random.nextInt(servers.size()));
-        if(servers.isEmpty()) return null;
-        return servers.get(random.nextInt(servers.size()));
+    public Server selectServer(Server[] servers) {
+        if(servers.length==0) return null;
+        return servers[ThreadLocalRandom.current().nextInt(servers.length)];
     }
     
     @Override
     public String getName() { return "Random"; }
 }
 
+/**
+ * POWER OF TWO CHOICES (P2C) STRATEGY
+ * ====================================
+ * Least connections between two random servers
+ * 
+ * ALGORITHM:
+ *   a, b = two distinct random servers
+ *   return the one with fewer activeConnections
+ * 
+ * PROS: 
+ *   - O(1) per request, yet max load is exponentially better than random
+ *     (log log n / log 2 vs log n / log log n)
+ *   - No herding: stale counters don't send every balancer to the same
+ *     "least loaded" server, unlike a full least-connections scan
+ * CONS: 
+ *   - Not the exact minimum on each pick
+ * 
+ * Slow start: load is divided by the server's warmth, so a re-admitted server
+ * ramps up instead of absorbing the whole backlog at once.
+ * 
+ * USE CASE: Large pools, many balancer threads/instances (Envoy, Finagle, NGINX random two)
+ */
+class PowerOfTwoChoicesStrategy implements LoadBalancingStrategy {
+    @Override
+    public Server selectServer(Server[] servers) {
+        int n = servers.length;
+        if (n == 0) return null;
+        if (n == 1) return servers[0];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(n), j = random.nextInt(n - 1);
+        if (j >= i) j++;   // distinct second choice
+        Server a = servers[i], b = servers[j];
+        return (b.activeConnections.get() + 1) / b.warmth < (a.activeConnections.get() + 1) / a.warmth ? b : a;
+    }
+    
+    @Override
+    public String getName() { return "PowerOfTwoChoices"; }
+}
+
+/**
+ * PEAK EWMA STRATEGY
+ * ===================
+ * Finagle's latency-aware balancer: P2C on cost = peakEwma * (active + 1)
+ * 
+ * ALGORITHM:
+ *   on response:  if rtt > peak: peak = rtt                (react to spikes at once)
+ *                 else: peak = peak*w + rtt*(1-w), w = e^(-dt/tau)   (decay slowly)
+ *   on pick:      a, b = two distinct random servers
+ *                 return argmin(peak(now) * (active + 1) / warmth)
+ *   No sample yet but requests pending → huge penalty (don't pile onto an unknown)
+ * 
+ * PROS: 
+ *   - Steers away from servers that are up but slow (GC, noisy neighbour)
+ *   - Peak decays with time, so an avoided server is probed again later
+ * CONS: 
+ *   - Fast failures look attractive: pair with OutlierDetector (error rate)
+ * 
+ * USE CASE: RPC fan-out where tail latency matters (Finagle, Linkerd)
+ */
+class PeakEwmaStrategy implements LoadBalancingStrategy {
+    private static final double PENALTY = 1e12;
+    private final LongSupplier clock;
+    
+    public PeakEwmaStrategy() { this(System::nanoTime); }
+    
+    public PeakEwmaStrategy(LongSupplier clock) { this.clock = clock; }
+    
+    @Override
+    public Server selectServer(Server[] servers) {
+        int n = servers.length;
+        if (n == 0) return null;
+        if (n == 1) return servers[0];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(n), j = random.nextInt(n - 1);
+        if (j >= i) j++;
+        long now = clock.getAsLong();
+        Server a = servers[i], b = servers[j];
+        return cost(b, now) < cost(a, now) ? b : a;
+    }
+    
+    static double cost(Server s, long now) {
+        double peak = s.peakEwma(now);
+        int active = s.activeConnections.get();
+        double c = peak == 0 && active > 0 ? PENALTY + active : peak * (active + 1);
+        return c / s.warmth;
+    }
+    
+    @Override
+    public String getName() { return "PeakEWMA"; }
+}
+
+/**
+ * SMOOTH WEIGHTED ROUND ROBIN STRATEGY
+ * =====================================
+ * NGINX's smooth WRR: each server gets weight/total of the picks, interleaved
+ * (weights 5,1,1 → a a b a c a a) instead of bursts (a a a a a b c)
+ * 
+ * ALGORITHM (per pick):
+ *   for each server: current += weight
+ *   best = server with max current
+ *   best.current -= totalWeight
+ *   return best
+ * 
+ * The sequence is periodic (period = sum of weights), so it is computed once per
+ * healthy snapshot and then walked with one atomic counter → O(1), no lock on
+ * the routing path. The build costs O(n * period) and runs on the writer path
+ * (onServersChanged: add/remove, health, weight change), never on a router.
+ * 
+ * Pools where n * period exceeds MAX_BUILD_STEPS (or a snapshot that was never
+ * announced) use the per-pick algorithm instead: O(n), with the `current`
+ * array per routing thread, so there is still no lock and no shared write.
+ * Each thread's picks are smooth and exact per period; so is their sum.
+ * 
+ * PROS: 
+ *   - Honors heterogeneous capacity, smooth interleaving
+ * CONS: 
+ *   - Ignores actual load; schedule memory = sum(weights / gcd)
+ * 
+ * USE CASE: Heterogeneous servers, canary traffic splits (weights 99:1)
+ */
+class SmoothWeightedRoundRobinStrategy implements LoadBalancingStrategy {
+    static final long MAX_BUILD_STEPS = 1 << 22;   // a few ms of writer time
+    
+    private static final class Schedule {
+        final Server[] servers, order;   // order == null: too large to precompute
+        Schedule(Server[] servers, Server[] order) { this.servers = servers; this.order = order; }
+    }
+    
+    /** One routing thread's per-pick state for one snapshot. */
+    private static final class Picker {
+        Server[] servers;
+        int[] weight;
+        long[] current;
+        long total;
+        
+        void reset(Server[] snapshot) {
+            int n = snapshot.length;
+            int[] w = reducedWeights(snapshot);
+            long sum = 0;
+            for (int x : w) sum += x;
+            servers = snapshot; weight = w; current = new long[n]; total = sum;
+        }
+    }
+    
+    private volatile Schedule schedule = new Schedule(new Server[0], new Server[0]);
+    private final AtomicLong next = new AtomicLong();
+    private final ThreadLocal<Picker> pickers = ThreadLocal.withInitial(Picker::new);
+    
+    @Override
+    public void onServersChanged(Server[] servers) {
+        int[] weight = reducedWeights(servers);
+        long period = 0;
+        for (int w : weight) period += w;
+        schedule = new Schedule(servers, period * servers.length <= MAX_BUILD_STEPS ? build(servers, weight, (int) period) : null);
+    }
+    
+    @Override
+    public Server selectServer(Server[] servers) {
+        if (servers.length == 0) return null;
+        Schedule s = schedule;
+        if (s.servers == servers && s.order != null)
+            return s.order[(int) Long.remainderUnsigned(next.getAndIncrement(), s.order.length)];
+        return pick(servers);
+    }
+    
+    /** Per-pick smooth WRR on this thread's own state: O(n), allocates only when the snapshot changes. */
+    private Server pick(Server[] servers) {
+        Picker p = pickers.get();
+        if (p.servers != servers) p.reset(servers);
+        long[] current = p.current;
+        int[] weight = p.weight;
+        int best = 0;
+        for (int i = 0; i < current.length; i++) {
+            current[i] += weight[i];
+            if (current[i] > current[best]) best = i;
+        }
+        current[best] -= p.total;
+        return servers[best];
+    }
+    
+    /** One period of NGINX smooth WRR over the given servers (weights reduced by their gcd). */
+    static Server[] build(Server[] servers) {
+        int[] weight = reducedWeights(servers);
+        int total = 0;
+        for (int w : weight) total = Math.addExact(total, w);
+        return build(servers, weight, total);
+    }
+    
+    private static Server[] build(Server[] servers, int[] weight, int total) {
+        int n = servers.length;
+        int[] current = new int[n];
+        Server[] order = new Server[total];
+        for (int k = 0; k < total; k++) {
+            int best = 0;
+            for (int i = 0; i < n; i++) {
+                current[i] += weight[i];
+                if (current[i] > current[best]) best = i;
+            }
+            current[best] -= total;
+            order[k] = servers[best];
+        }
+        return order;
+    }
+    
+    /** Weights (read once, so a concurrent setWeight can't skew one build) divided by their gcd. */
+    private static int[] reducedWeights(Server[] servers) {
+        int n = servers.length, g = 0;
+        int[] weight = new int[n];
+        for (int i = 0; i < n; i++) g = gcd(g, weight[i] = Math.max(1, servers[i].weight));
+        for (int i = 0; i < n; i++) weight[i] /= g;
+        return weight;
+    }
+    
+    private static int gcd(int a, int b) { return b == 0 ? a : gcd(b, a % b); }
+    
+    @Override
+    public String getName() { return "SmoothWeightedRoundRobin"; }
+}
+
 // ===== LOAD BALANCER SERVICE =====
 
 /**
  * Main load balancer class managing server pool and routing
+ * 
+ * CONCURRENCY:
+ *   Routing is lock-free and allocation-free: it reads the volatile healthy[]
+ *   snapshot and hands it to the strategy. Membership/health changes are rare,
+ *   serialized on a writer lock, and publish a fresh immutable array.
  */
 class LoadBalancer {
-    private List<Server> servers;
-    private LoadBalancingStrategy strategy;
-    private AtomicInteger totalRequests = new AtomicInteger(0);
-    private AtomicInteger successfulRequests = new AtomicInteger(0);
-    private AtomicInteger failedRequests = new AtomicInteger(0);
+    private static final Server[] NONE = new Server[0];
+    
+    private final List<Server> servers;
+    private final Object writeLock = new Object();
+    private volatile Server[] healthy = NONE;    // immutable; replaced, never mutated
+    private volatile LoadBalancingStrategy strategy;
+    private final LongAdder totalRequests = new LongAdder();
+    private final LongAdder successfulRequests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongSupplier clock;
     
     public LoadBalancer(LoadBalancingStrategy strategy) {
+        this(strategy, System::nanoTime);
+    }
+    
+    /** clock: nanosecond time source for latency decay and outlier ejection (simulations pass a virtual one). */
+    public LoadBalancer(LoadBalancingStrategy strategy, LongSupplier clock) {
         this.servers = new CopyOnWriteArrayList<>();  // Thread-safe list
         this.strategy = strategy;
+        this.clock = clock;
+    }
+    
+    long now() { return clock.getAsLong(); }
+    
+    /** Every server, healthy or not (a copy). */
+    Server[] allServers() { return servers.toArray(new Server[0]); }
+    
+    /** Publish a new healthy snapshot (caller holds writeLock); the strategy prepares for it first. */
+    private void publishHealthy() {
+        Server[] h = servers.stream().filter(x->x.status==ServerStatus.HEALTHY).toArray(Server[]::new);
+        strategy.onServersChanged(h);
+        healthy = h;
     }
     
     /**
@@ -288,11 +600,29 @@ class LoadBalancer {
         // HINT: if (server.port < 1 || server.port > 65535) throw new InvalidServerException(...)
         // HINT: Check duplicate: servers.stream().anyMatch(s -> s.id.equals(server.id))
         // HINT: servers.add(server);
-        if(server==null) throw new InvalidServerException("Server cannot be null");
-        if(server.host == null || server.host.isEmpty())  throw new InvalidServerException("Host cannot be null");
-        if(server.port<0 || server.port>65535)  throw new InvalidServerException("Incorrect port");
-        if(servers.stream().anyMatch(x->x.id.equals(server.id))) throw new InvalidServerException("server id exists");
-        servers.add(server);
+        addServers(List.of(server));
+    }
+    
+    /**
+     * Add several servers and publish ONE snapshot (one strategy rebuild instead of one per server)
+     * 
+     * @param batch Servers to add; all or none are added
+     * @throws InvalidServerException if any server is invalid or a duplicate
+     */
+    public void addServers(List<Server> batch) throws InvalidServerException {
+        Set<String> ids = new HashSet<>();
+        for (Server server : batch) {
+            if(server==null) throw new InvalidServerException("Server cannot be null");
+            if(server.host == null || server.host.isEmpty())  throw new InvalidServerException("Host cannot be null");
+            if(server.port<0 || server.port>65535)  throw new InvalidServerException("Incorrect port");
+            if(server.weight<1) throw new InvalidServerException("Weight must be >= 1");
+            if(!ids.add(server.id)) throw new InvalidServerException("server id exists");
+        }
+        synchronized (writeLock) {
+            if(servers.stream().anyMatch(x->ids.contains(x.id))) throw new InvalidServerException("server id exists");
+            servers.addAll(batch);
+            publishHealthy();
+        }
     }
     
     /**
@@ -309,8 +639,11 @@ class LoadBalancer {
     public void removeServer(String serverId) throws ServerNotFoundException {
         // HINT: boolean removed = servers.removeIf(s -> s.id.equals(serverId));
         // HINT: if (!removed) throw new ServerNotFoundException(serverId);
-        boolean removed=servers.removeIf(x->x.id.equals(serverId));
-        if(!removed) throw new ServerNotFoundException(serverId);
+        synchronized (writeLock) {
+            boolean removed=servers.removeIf(x->x.id.equals(serverId));
+            if(!removed) throw new ServerNotFoundException(serverId);
+            publishHealthy();
+        }
     }
     
     /**
@@ -321,15 +654,35 @@ class LoadBalancer {
     public void setStrategy(LoadBalancingStrategy strategy) {
         // HINT: this.strategy = strategy;
         // HINT: System.out.println("Strategy changed to: " + strategy.getName());
-        this.strategy=strategy;
+        synchronized (writeLock) {
+            strategy.onServersChanged(healthy);
+            this.strategy=strategy;
+        }
         System.out.println("Strategy changed to: " + strategy.getName());
     }
     
+    /**
+     * Change a server's relative capacity; weighted strategies pick it up with the
+     * snapshot this publishes (a fresh array even if the healthy set is unchanged)
+     * 
+     * @param serverId Server ID
+     * @param weight New weight, >= 1
+     * @throws ServerNotFoundException if server not found
+     * @throws InvalidServerException if weight < 1
+     */
+    public void setWeight(String serverId, int weight) throws ServerNotFoundException, InvalidServerException {
+        if(weight<1) throw new InvalidServerException("Weight must be >= 1");
+        synchronized (writeLock) {
+            getServer(serverId).weight=weight;
+            publishHealthy();
+        }
+    }
+    
     /**
      * Route a request to a server
      * 
      * IMPLEMENTATION HINTS:
-     * 1. Filter for healthy servers only
+     * 1. Read the healthy snapshot (one volatile read; no lock, no filtering)
      * 2. If no healthy servers, throw NoHealthyServersException
      * 3. Use strategy to select server
      * 4. Increment server's activeConnections
@@ -346,22 +699,13 @@ class LoadBalancer {
      * @return Selected server for the request
      * @throws NoHealthyServersException if no healthy servers available
      */
-    public synchronized Server routeRequest(String requestId) throws NoHealthyServersException {
-        // HINT: List<Server> healthy = servers.stream()
-        //           .filter(s -> s.status == ServerStatus.HEALTHY)
-        //           .collect(Collectors.toList());
-        // HINT: if (healthy.isEmpty()) throw new NoHealthyServersException(servers.size());
-        // HINT: Server selected = strategy.selectServer(healthy);
-        // HINT: selected.activeConnections.incrementAndGet();
-        // HINT: selected.totalRequestsHandled.incrementAndGet();
-        // HINT: totalRequests.incrementAndGet();
-        // HINT: return selected;
-        List<Server> hList=servers.stream().filter(x->x.status==ServerStatus.HEALTHY).collect(Collectors.toList());
-        if(hList.isEmpty()) throw new NoHealthyServersException(servers.size());
+    public Server routeRequest(String requestId) throws NoHealthyServersException {
+        Server[] hList=healthy;
+        if(hList.length==0) throw new NoHealthyServersException(servers.size());
         Server selected=strategy.selectServer(hList);
         selected.activeConnections.incrementAndGet();
-        selected.totalRequestsHandled.incrementAndGet();
-        totalRequests.incrementAndGet();
+        selected.totalRequestsHandled.increment();
+        totalRequests.increment();
         return selected;
     }
     
@@ -382,10 +726,22 @@ class LoadBalancer {
         // }
         if(server!=null){
             server.activeConnections.decrementAndGet();
-            successfulRequests.incrementAndGet();
+            server.windowRequests.increment();
+            successfulRequests.increment();
         }
     }
     
+    /**
+     * Complete a request and record how long it took (feeds EWMA / peak EWMA)
+     * 
+     * @param server Server that handled the request
+     * @param latencyNanos Request latency as seen by the balancer
+     */
+    public void completeRequest(Server server, long latencyNanos) {
+        if(server!=null) server.recordLatency(latencyNanos, clock.getAsLong());
+        completeRequest(server);
+    }
+    
     /**
      * Mark request as failed
      * 
@@ -394,8 +750,23 @@ class LoadBalancer {
     public void failRequest(Server server) {
         // HINT: if (server != null) server.activeConnections.decrementAndGet();
         // HINT: failedRequests.incrementAndGet();
-        if(server!=null) server.activeConnections.decrementAndGet();
-        failedRequests.incrementAndGet();
+        if(server!=null){
+            server.activeConnections.decrementAndGet();
+            server.windowRequests.increment();
+            server.windowErrors.increment();
+        }
+        failedRequests.increment();
+    }
+    
+    /**
+     * Mark request as failed after latencyNanos (a slow failure still counts as slow)
+     * 
+     * @param server Server that failed
+     * @param latencyNanos Time until the failure was seen
+     */
+    public void failRequest(Server server, long latencyNanos) {
+        if(server!=null) server.recordLatency(latencyNanos, clock.getAsLong());
+        failRequest(server);
     }
     
     /**
@@ -415,8 +786,11 @@ class LoadBalancer {
         //           .findFirst()
         //           .orElseThrow(() -> new ServerNotFoundException(serverId));
         // HINT: server.status = ServerStatus.UNHEALTHY;
-        Server server=servers.stream().filter(x->x.id.equals(serverId)).findFirst().orElseThrow(()->new ServerNotFoundException(serverId));
-        server.status=ServerStatus.UNHEALTHY;
+        synchronized (writeLock) {
+            Server server=getServer(serverId);
+            server.status=ServerStatus.UNHEALTHY;
+            publishHealthy();
+        }
     }
     
     /**
@@ -432,8 +806,11 @@ class LoadBalancer {
      */
     public void markHealthy(String serverId) throws ServerNotFoundException {
         // HINT: Similar to markUnhealthy but set status to HEALTHY
-        Server server=servers.stream().filter(x->x.id.equals(serverId)).findFirst().orElseThrow(()->new ServerNotFoundException(serverId));
-        server.status=ServerStatus.HEALTHY;
+        synchronized (writeLock) {
+            Server server=getServer(serverId);
+            server.status=ServerStatus.HEALTHY;
+            publishHealthy();
+        }
     }
     
     /**
@@ -453,7 +830,7 @@ class LoadBalancer {
      * @return List of healthy servers
      */
     public List<Server> getHealthyServers() {
-        return servers.stream().filter(x->x.status==ServerStatus.HEALTHY).collect(Collectors.toList());
+        return new ArrayList<>(Arrays.asList(healthy));
     }
     
     /**
@@ -462,11 +839,128 @@ class LoadBalancer {
     public void displayStatus() {
         System.out.println("\n--- Load Balancer Status [" + strategy.getName() + "] ---");
         servers.forEach(s -> System.out.println("  " + s));
-        long healthy = servers.stream().filter(s -> s.status == ServerStatus.HEALTHY).count();
-        System.out.println("Servers: " + servers.size() + " (Healthy: " + healthy + ")");
-        System.out.println("Requests: " + totalRequests.get() + " total, " + 
-                         successfulRequests.get() + " success, " + 
-                         failedRequests.get() + " failed");
+        System.out.println("Servers: " + servers.size() + " (Healthy: " + healthy.length + ")");
+        System.out.println("Requests: " + totalRequests.sum() + " total, " + 
+                         successfulRequests.sum() + " success, " + 
+                         failedRequests.sum() + " failed");
+    }
+}
+
+/**
+ * OUTLIER DETECTOR (passive health checking, Envoy-style)
+ * ========================================================
+ * Watches real traffic instead of probes and ejects servers that are up but bad.
+ * 
+ * ALGORITHM (one tick per interval):
+ *   1. Re-admit: ejected servers whose ejection expired → HEALTHY with warmth =
+ *      1/slowStartTicks and latency history reset to the pool median
+ *   2. Slow start: warming servers gain 1/slowStartTicks of their share per tick
+ *   3. Eject: servers with >= minRequests this interval and
+ *        error rate > maxErrorRate, or ewma latency > latencyFactor * median
+ *      → UNHEALTHY for baseEjection * (times ejected, capped at 8)
+ *      At most maxEjectedFraction of the pool is ejected at once (never eject everything)
+ * 
+ * Only servers this detector ejected are re-admitted; a server an operator marked
+ * unhealthy stays down. Warmth is honoured by the P2C-based strategies
+ * (PowerOfTwoChoices, PeakEWMA); the rotating ones ignore it.
+ */
+class OutlierDetector {
+    private final LoadBalancer lb;
+    private final double maxErrorRate;
+    private final double latencyFactor;
+    private final int minRequests;
+    private final long baseEjectionNanos;
+    private final int slowStartTicks;
+    private final double maxEjectedFraction;
+    private ScheduledExecutorService scheduler;
+    int ejectedCount, readmittedCount;
+    
+    public OutlierDetector(LoadBalancer lb) {
+        this(lb, 0.2, 3.0, 20, 30_000_000_000L, 10, 0.5);
+    }
+    
+    public OutlierDetector(LoadBalancer lb, double maxErrorRate, double latencyFactor, int minRequests,
+                           long baseEjectionNanos, int slowStartTicks, double maxEjectedFraction) {
+        this.lb = lb;
+        this.maxErrorRate = maxErrorRate;
+        this.latencyFactor = latencyFactor;
+        this.minRequests = minRequests;
+        this.baseEjectionNanos = baseEjectionNanos;
+        this.slowStartTicks = slowStartTicks;
+        this.maxEjectedFraction = maxEjectedFraction;
+    }
+    
+    /** Run tick() every periodMillis on a daemon thread. */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "outlier-detector");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(this::tick, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    public synchronized void stop() {
+        if (scheduler != null) scheduler.shutdownNow();
+        scheduler = null;
+    }
+    
+    /** One evaluation interval. */
+    public synchronized void tick() {
+        long now = lb.now();
+        Server[] all = lb.allServers();
+        long[] requests = new long[all.length], errors = new long[all.length];
+        List<Long> latencies = new ArrayList<>();
+        for (int i = 0; i < all.length; i++) {
+            requests[i] = all[i].windowRequests.sumThenReset();
+            errors[i] = all[i].windowErrors.sumThenReset();
+            if (all[i].status == ServerStatus.HEALTHY && all[i].ewmaNanos > 0) latencies.add(all[i].ewmaNanos);
+        }
+        Collections.sort(latencies);
+        long median = latencies.isEmpty() ? 0 : latencies.get(latencies.size() / 2);
+        
+        int ejectedNow = 0;
+        for (Server s : all) {
+            if (s.ejectedUntilNanos != 0 && now >= s.ejectedUntilNanos) readmit(s, median, now);
+            else if (s.status == ServerStatus.HEALTHY && s.warmth < 1.0) s.warmth = Math.min(1.0, s.warmth + 1.0 / slowStartTicks);
+            if (s.ejectedUntilNanos != 0) ejectedNow++;
+        }
+        
+        int budget = (int) (all.length * maxEjectedFraction) - ejectedNow;
+        for (int i = 0; i < all.length && budget > 0; i++) {
+            Server s = all[i];
+            if (s.status != ServerStatus.HEALTHY || requests[i] < minRequests) continue;
+            boolean failing = errors[i] > maxErrorRate * requests[i];
+            boolean slow = median > 0 && s.ewmaNanos > latencyFactor * median;
+            if (failing || slow) {
+                eject(s, now);
+                budget--;
+            }
+        }
+    }
+    
+    private void eject(Server s, long now) {
+        try {
+            lb.markUnhealthy(s.id);
+        } catch (ServerNotFoundException e) {
+            return;   // removed concurrently
+        }
+        s.ejections++;
+        s.ejectedUntilNanos = now + baseEjectionNanos * Math.min(s.ejections, 8);
+        ejectedCount++;
+    }
+    
+    private void readmit(Server s, long median, long now) {
+        s.ejectedUntilNanos = 0;
+        if (median > 0) s.resetLatency(median, now);
+        s.warmth = 1.0 / slowStartTicks;
+        try {
+            lb.markHealthy(s.id);
+            readmittedCount++;
+        } catch (ServerNotFoundException e) {
+            // removed while ejected
+        }
     }
 }
 
@@ -641,8 +1135,483 @@ public class LoadBalancerSystem {
         System.out.println();
         
         lb.displayStatus();
+        
+        // ===== CONCURRENCY + NEW STRATEGIES =====
+        
+        // Test Case 10: Lock-free routing while health flaps
+        System.out.println("\n=== Test Case 10: Routing During Health Flaps ===");
+        try {
+            LoadBalancer flap = new LoadBalancer(new RoundRobinStrategy());
+            for (int i = 1; i <= 4; i++) flap.addServer(new Server("f-" + i, "10.0.0." + i, 80));
+            AtomicBoolean stop = new AtomicBoolean();
+            LongAdder routed = new LongAdder();
+            AtomicInteger errors = new AtomicInteger();
+            Thread[] workers = new Thread[8];
+            for (int t = 0; t < workers.length; t++) {
+                workers[t] = new Thread(() -> {
+                    while (!stop.get()) {
+                        try {
+                            flap.completeRequest(flap.routeRequest("flap"));
+                            routed.increment();
+                        } catch (Exception e) { errors.incrementAndGet(); }
+                    }
+                });
+                workers[t].start();
+            }
+            for (int i = 0; i < 2_000; i++) {
+                flap.markUnhealthy("f-2");
+                flap.markHealthy("f-2");
+            }
+            stop.set(true);
+            for (Thread w : workers) w.join();
+            flap.markUnhealthy("f-2");
+            boolean skipped = true;
+            for (int i = 0; i < 100; i++) {
+                Server s = flap.routeRequest("after");
+                skipped &= !s.id.equals("f-2");
+                flap.completeRequest(s);
+            }
+            int open = 0;
+            for (int i = 1; i <= 4; i++) open += flap.getServer("f-" + i).activeConnections.get();
+            System.out.println((errors.get() == 0 && open == 0 ? "✓" : "✗") + " " + routed.sum()
+                + " routes across 4,000 health swaps: no errors, no leaked connections");
+            System.out.println((skipped ? "✓" : "✗") + " Server marked unhealthy is skipped by the very next route");
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+        
+        // Test Case 11: Power of two choices
+        System.out.println("\n=== Test Case 11: POWER OF TWO CHOICES ===");
+        try {
+            LoadBalancer p2c = new LoadBalancer(new PowerOfTwoChoicesStrategy());
+            for (int i = 0; i < 10; i++) p2c.addServer(new Server("p-" + i, "10.0.1." + i, 80));
+            p2c.getServer("p-0").activeConnections.set(100);   // one backend is stuck with slow requests
+            Map<String, Integer> dist = new TreeMap<>();
+            for (int i = 0; i < 9_000; i++) {
+                Server s = p2c.routeRequest("p2c-" + i);
+                dist.merge(s.id, 1, Integer::sum);
+                p2c.completeRequest(s);
+            }
+            int min = Integer.MAX_VALUE, max = 0;
+            for (int i = 1; i < 10; i++) {
+                int c = dist.getOrDefault("p-" + i, 0);
+                min = Math.min(min, c);
+                max = Math.max(max, c);
+            }
+            System.out.println("Distribution: " + dist);
+            System.out.println((!dist.containsKey("p-0") ? "✓" : "✗") + " Overloaded server never wins a two-way comparison");
+            System.out.println((min > 700 && max < 1300 ? "✓" : "✗") + " Others share the load (min " + min + ", max " + max + " of 1000 expected)");
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+        
+        // Test Case 12: Smooth weighted round robin
+        System.out.println("\n=== Test Case 12: SMOOTH WEIGHTED ROUND ROBIN ===");
+        try {
+            LoadBalancer wrr = new LoadBalancer(new SmoothWeightedRoundRobinStrategy());
+            wrr.addServer(new Server("a", "10.0.2.1", 80, 5));
+            wrr.addServer(new Server("b", "10.0.2.2", 80, 1));
+            wrr.addServer(new Server("c", "10.0.2.3", 80, 1));
+            StringBuilder seq = new StringBuilder();
+            Map<String, Integer> dist = new TreeMap<>();
+            for (int i = 0; i < 700; i++) {
+                Server s = wrr.routeRequest("wrr-" + i);
+                if (i < 7) seq.append(s.id);
+                dist.merge(s.id, 1, Integer::sum);
+                wrr.completeRequest(s);
+            }
+            System.out.println((seq.toString().equals("aabacaa") ? "✓" : "✗") + " Interleaved period: " + seq + " (NGINX: aabacaa)");
+            System.out.println((dist.equals(Map.of("a", 500, "b", 100, "c", 100)) ? "✓" : "✗") + " 5:1:1 split over 700 requests: " + dist);
+            wrr.markUnhealthy("b");
+            dist.clear();
+            for (int i = 0; i < 600; i++) {
+                Server s = wrr.routeRequest("wrr-" + i);
+                dist.merge(s.id, 1, Integer::sum);
+                wrr.completeRequest(s);
+            }
+            System.out.println((dist.equals(Map.of("a", 500, "c", 100)) ? "✓" : "✗") + " Schedule rebuilt when b goes down: " + dist);
+            wrr.setWeight("c", 5);
+            dist.clear();
+            for (int i = 0; i < 600; i++) {
+                Server s = wrr.routeRequest("wrr-" + i);
+                dist.merge(s.id, 1, Integer::sum);
+                wrr.completeRequest(s);
+            }
+            System.out.println((dist.equals(Map.of("a", 300, "c", 300)) ? "✓" : "✗") + " Schedule rebuilt when c's weight goes 1 -> 5: " + dist);
+            
+            SmoothWeightedRoundRobinStrategy big = new SmoothWeightedRoundRobinStrategy();
+            Server[] pool = {new Server("x", "10.0.2.4", 80, 3_000_000), new Server("y", "10.0.2.5", 80, 2_999_999)};
+            long t0 = System.nanoTime();
+            big.onServersChanged(pool);                      // n * period ~ 12M > MAX_BUILD_STEPS: not precomputed
+            long buildMicros = (System.nanoTime() - t0) / 1_000;
+            Map<String, Integer> split = new TreeMap<>();
+            for (int i = 0; i < 5_999_999; i++) split.merge(big.selectServer(pool).id, 1, Integer::sum);
+            System.out.println((split.equals(Map.of("x", 3_000_000, "y", 2_999_999)) ? "✓" : "✗")
+                + " Weights 3,000,000:2,999,999 → per-pick fallback, exact split " + split + " (writer spent " + buildMicros + " µs)");
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+        
+        // Test Case 13: Benchmark - routes/sec at 64 threads, old vs new routing path
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 400;
+        System.out.println("\n=== Test Case 13: Routing Benchmark (" + threads + " threads, "
+            + Runtime.getRuntime().availableProcessors() + " CPU(s)) ===");
+        try {
+            String[] names = {"synchronized+stream RoundRobin", "synchronized+stream LeastConn",
+                "RoundRobin", "LeastConnections", "PowerOfTwoChoices", "SmoothWeightedRR", "Random"};
+            for (int i = 0; i < names.length; i++) throughput(router(i, 10), threads, 100);   // JIT warm-up
+            System.out.printf("%-32s %14s %14s %14s %12s%n", "strategy", "10 backends", "100 backends", "1000 backends", "bytes/route");
+            com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+            double[][] rates = new double[names.length][];
+            for (int i = 0; i < names.length; i++) {
+                rates[i] = new double[3];
+                int k = 0;
+                for (int backends : new int[]{10, 100, 1000}) rates[i][k++] = throughput(router(i, backends), threads, millis);
+                Router r = router(i, 100);
+                long a0 = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int j = 0; j < 200_000; j++) r.complete(r.route());
+                double bytes = (mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - a0) / 200_000.0;
+                System.out.printf("%-32s %,14.0f %,14.0f %,14.0f %12.1f%n", names[i], rates[i][0], rates[i][1], rates[i][2], bytes);
+            }
+            boolean faster = true;
+            for (int k = 0; k < 3; k++) faster &= rates[2][k] > rates[0][k] && rates[4][k] > rates[1][k];
+            System.out.println((faster ? "✓" : "✗") + " Lock-free path beats the synchronized one at every pool size (RR vs RR, P2C vs LeastConn)");
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+        
+        // Test Case 14: Latency tracking on completeRequest
+        System.out.println("\n=== Test Case 14: LATENCY EWMA / PEAK EWMA ===");
+        try {
+            long[] now = {0};
+            LoadBalancer lat = new LoadBalancer(new PeakEwmaStrategy(() -> now[0]), () -> now[0]);
+            lat.addServer(new Server("l-0", "10.0.3.1", 80));
+            Server s = lat.getServer("l-0");
+            for (int i = 0; i < 100; i++) {
+                now[0] += 1_000_000;
+                lat.completeRequest(lat.routeRequest("l-" + i), 10_000_000);
+            }
+            System.out.println((s.ewmaNanos == 10_000_000 && Math.abs(s.peakEwmaNanos - 1e7) < 1 ? "✓" : "✗")
+                + " Steady 10 ms samples: ewma " + s.ewmaNanos / 1e6 + " ms, peak " + s.peakEwmaNanos / 1e6 + " ms");
+            now[0] += 1_000_000;
+            lat.completeRequest(lat.routeRequest("spike"), 100_000_000);
+            System.out.println((s.ewmaNanos == 21_250_000 && s.peakEwmaNanos == 1e8 ? "✓" : "✗")
+                + " 100 ms spike: ewma moves 1/8 (" + s.ewmaNanos / 1e6 + " ms), peak jumps (" + s.peakEwmaNanos / 1e6 + " ms)");
+            now[0] += (long) Server.PEAK_DECAY_NANOS;
+            double decayed = s.peakEwma(now[0]);
+            System.out.println((Math.abs(decayed - 1e8 / Math.E) < 1e3 ? "✓" : "✗")
+                + String.format(" Idle for one time constant: peak reads %.1f ms (100/e)", decayed / 1e6));
+            lat.completeRequest(lat.routeRequest("after"), 10_000_000);
+            double expect = 1e8 / Math.E + 1e7 * (1 - 1 / Math.E);
+            System.out.println((Math.abs(s.peakEwmaNanos - expect) < 1e3 ? "✓" : "✗")
+                + String.format(" Next fast sample decays it: %.1f ms", s.peakEwmaNanos / 1e6));
+            lat.failRequest(lat.routeRequest("err"), 2_000_000);
+            System.out.println((s.windowRequests.sum() == 103 && s.windowErrors.sum() == 1 ? "✓" : "✗")
+                + " Interval counters: " + s.windowRequests.sum() + " requests, " + s.windowErrors.sum() + " error");
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+        
+        // Test Case 15: Peak EWMA avoids a slow-but-up backend, and probes it again later
+        System.out.println("\n=== Test Case 15: PEAK EWMA STRATEGY ===");
+        try {
+            long[] now = {0};
+            LoadBalancer pe = new LoadBalancer(new PeakEwmaStrategy(() -> now[0]), () -> now[0]);
+            for (int i = 0; i < 4; i++) pe.addServer(new Server("q-" + i, "10.0.4." + i, 80));
+            Map<String, Integer> dist = new TreeMap<>();
+            for (int i = 0; i < 2_000; i++) {        // 20 s at one request per 10 ms
+                now[0] += 10_000_000;
+                Server s = pe.routeRequest("q-" + i);
+                dist.merge(s.id, 1, Integer::sum);
+                pe.completeRequest(s, s.id.equals("q-0") ? 50_000_000 : 5_000_000);
+            }
+            int slow = dist.getOrDefault("q-0", 0);
+            System.out.println("Distribution (q-0 answers in 50 ms, others 5 ms): " + dist);
+            System.out.println((slow >= 1 && slow < 20 ? "✓" : "✗") + " Slow server gets " + slow
+                + " of 2000 (avoided, but re-probed as its peak decays)");
+            
+            pe.addServer(new Server("q-4", "10.0.4.4", 80));
+            List<Server> held = new ArrayList<>();
+            for (int i = 0; i < 40; i++) held.add(pe.routeRequest("cold-" + i));
+            long cold = held.stream().filter(x -> x.id.equals("q-4")).count();
+            System.out.println((cold == 1 ? "✓" : "✗") + " New server without samples takes 1 request, not the whole burst (" + cold + ")");
+            for (Server s : held) pe.completeRequest(s, 5_000_000);
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+        
+        // Test Case 16: Outlier ejection and slow-start re-admission
+        System.out.println("\n=== Test Case 16: OUTLIER EJECTION + SLOW START ===");
+        try {
+            long[] now = {0};
+            LoadBalancer od = new LoadBalancer(new PowerOfTwoChoicesStrategy(), () -> now[0]);
+            for (int i = 0; i < 6; i++) od.addServer(new Server("o-" + i, "10.0.5." + i, 80));
+            OutlierDetector detector = new OutlierDetector(od, 0.2, 3.0, 20, 10_000_000_000L, 5, 0.5);
+            Server[] o = od.allServers();
+            
+            feed(od, o, new int[]{0, 40, 0, 0, 0, 0}, new long[]{5, 5, 50, 5, 5, 5});   // o-1 errors, o-2 slow
+            now[0] += 1_000_000_000L;
+            detector.tick();
+            System.out.println((o[1].status == ServerStatus.UNHEALTHY && o[2].status == ServerStatus.UNHEALTHY
+                && od.getHealthyServers().size() == 4 ? "✓" : "✗") + " 40% errors (o-1) and 10x median latency (o-2) ejected");
+            
+            feed(od, o, new int[]{0, 0, 0, 50, 50, 0}, new long[]{5, 5, 5, 5, 5, 5});   // o-3 and o-4 both fail
+            now[0] += 1_000_000_000L;
+            detector.tick();
+            System.out.println((od.getHealthyServers().size() == 3 && detector.ejectedCount == 3 ? "✓" : "✗")
+                + " At most half the pool ejected: " + detector.ejectedCount + " ejected, "
+                + od.getHealthyServers().size() + " healthy (o-4 kept despite errors)");
+            
+            now[0] += 9_000_000_000L;   // o-1/o-2 ejections (10 s) expire; o-3's has 1 s left
+            detector.tick();
+            System.out.println((o[1].status == ServerStatus.HEALTHY && o[2].status == ServerStatus.HEALTHY
+                && o[3].status == ServerStatus.UNHEALTHY && o[1].warmth == 0.2 ? "✓" : "✗")
+                + " Expired ejections re-admitted at warmth " + o[1].warmth + ", o-3 still out");
+            System.out.println((o[2].ewmaNanos == 5_000_000 ? "✓" : "✗")
+                + " Re-admitted o-2 starts from the pool median latency (" + o[2].ewmaNanos / 1e6 + " ms), not its spike");
+            
+            List<Server> held = new ArrayList<>();
+            for (int i = 0; i < 500; i++) held.add(od.routeRequest("warm-" + i));   // requests in flight
+            int warming = o[1].activeConnections.get(), full = o[0].activeConnections.get();
+            System.out.println((warming * 3 < full ? "✓" : "✗") + " Slow start: warming o-1 holds " + warming
+                + " in-flight vs " + full + " on o-0");
+            for (Server s : held) od.completeRequest(s, 5_000_000);
+            for (int t = 0; t < 4; t++) {
+                now[0] += 1_000_000_000L;
+                detector.tick();
+            }
+            System.out.println((o[1].warmth == 1.0 && o[3].status == ServerStatus.HEALTHY ? "✓" : "✗")
+                + " Warmth ramps to " + o[1].warmth + " over 5 ticks; o-3 back too");
+            
+            feed(od, o, new int[]{0, 60, 0, 0, 0, 0}, new long[]{5, 5, 5, 5, 5, 5});
+            detector.tick();
+            System.out.println((o[1].status == ServerStatus.UNHEALTHY && o[1].ejectedUntilNanos - now[0] == 20_000_000_000L ? "✓" : "✗")
+                + " Repeat offender ejected for 2x base: " + (o[1].ejectedUntilNanos - now[0]) / 1_000_000_000L + " s");
+            
+            od.markUnhealthy("o-5");   // operator action: the detector must not undo it
+            now[0] += 60_000_000_000L;
+            detector.tick();
+            System.out.println((o[5].status == ServerStatus.UNHEALTHY && o[1].status == ServerStatus.HEALTHY ? "✓" : "✗")
+                + " Manually drained o-5 stays down; only ejected servers are re-admitted");
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+        
+        // Test Case 17: Simulation - tail latency per strategy with injected slow / failing backends
+        System.out.println("\n=== Test Case 17: Latency Simulation (virtual time) ===");
+        try {
+            System.out.println("10 backends x 8 workers, exp. service 5 ms, 60% load, 60 s; b-3/b-7 20x slower in [15s,45s),");
+            System.out.println("b-5 fails half its requests in 1 ms in [20s,40s)");
+            System.out.printf("%-26s %9s %9s %9s %9s %8s %6s%n", "strategy", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors", "ejects");
+            SimResult rr = simulate("RoundRobin", c -> new RoundRobinStrategy(), false);
+            SimResult lc = simulate("LeastConnections", c -> new LeastConnectionsStrategy(), false);
+            SimResult p2c = simulate("PowerOfTwoChoices", c -> new PowerOfTwoChoicesStrategy(), false);
+            SimResult pe = simulate("PeakEWMA", PeakEwmaStrategy::new, false);
+            SimResult rrEject = simulate("RoundRobin + ejection", c -> new RoundRobinStrategy(), true);
+            SimResult peEject = simulate("PeakEWMA + ejection", PeakEwmaStrategy::new, true);
+            System.out.println((pe.p(0.99) * 5 < rr.p(0.99) && rrEject.p(0.99) * 5 < rr.p(0.99) ? "✓" : "✗")
+                + " Latency feedback (PeakEWMA) or ejection cuts RoundRobin's p99 by >5x");
+            System.out.println((pe.errors > rr.errors ? "✓" : "✗")
+                + " Fast failures attract PeakEWMA: " + pe.errors + " errors vs " + rr.errors + " for RoundRobin");
+            System.out.println((peEject.errors * 5 < pe.errors && rrEject.errors * 2 < rr.errors ? "✓" : "✗")
+                + " Error-rate ejection removes the failing backend: " + peEject.errors + " / " + rrEject.errors + " errors");
+            System.out.println((peEject.p(0.999) < lc.p(0.999) && peEject.p(0.999) < p2c.p(0.999) ? "✓" : "✗")
+                + " PeakEWMA + ejection has the best p99.9 (" + peEject.p(0.999) / 1_000_000 + " ms vs "
+                + lc.p(0.999) / 1_000_000 + " LeastConnections)");
+            System.out.println((peEject.healthyAtEnd == 10 && rrEject.healthyAtEnd == 10 ? "✓" : "✗")
+                + " All backends re-admitted once the faults end");
+        } catch (Exception e) {
+            System.out.println("✗ Error: " + e.getMessage());
+        }
+        
         System.out.println("\n=== All Test Cases Complete! ===");
     }
+    
+    /** One interval of traffic: 100 requests per server, errors[i] of them failed, at latencyMillis[i]. */
+    static void feed(LoadBalancer lb, Server[] servers, int[] errors, long[] latencyMillis) {
+        for (int i = 0; i < servers.length; i++) {
+            for (int k = 0; k < 100; k++) {
+                servers[i].activeConnections.incrementAndGet();
+                if (k < errors[i]) lb.failRequest(servers[i], latencyMillis[i] * 1_000_000);
+                else lb.completeRequest(servers[i], latencyMillis[i] * 1_000_000);
+            }
+        }
+    }
+    
+    /** Outcome of one simulated run. */
+    static final class SimResult {
+        long[] latencies = new long[1 << 20];   // successful requests, nanos
+        int count;
+        long errors;
+        int ejections, healthyAtEnd;
+        
+        long p(double q) { return latencies[Math.min(count - 1, (int) (q * count))]; }
+    }
+    
+    /**
+     * Discrete-event simulation on a virtual clock: Poisson arrivals at 60% of capacity
+     * onto 10 backends with 8 workers and a FIFO queue each, exponential service times.
+     * The balancer only sees what a real one would: in-flight counts, observed latency
+     * and errors. Same seed for every strategy.
+     */
+    static SimResult simulate(String name, Function<LongSupplier, LoadBalancingStrategy> strategy, boolean ejection) throws Exception {
+        final int n = 10, workers = 8;
+        final long meanService = 5_000_000L, duration = 60_000_000_000L, second = 1_000_000_000L;
+        final double meanGap = meanService / (0.6 * n * workers);
+        long[] now = {0};
+        LongSupplier clock = () -> now[0];
+        LoadBalancer lb = new LoadBalancer(strategy.apply(clock), clock);
+        OutlierDetector detector = new OutlierDetector(lb, 0.2, 3.0, 20, 10 * second, 10, 0.3);
+        Map<Server, Integer> index = new IdentityHashMap<>();
+        for (int i = 0; i < n; i++) {
+            Server s = new Server("b-" + i, "10.2.0." + i, 80);
+            lb.addServer(s);
+            index.put(s, i);
+        }
+        Server[] servers = lb.allServers();
+        int[] busy = new int[n];
+        List<ArrayDeque<Long>> queues = new ArrayList<>();
+        for (int i = 0; i < n; i++) queues.add(new ArrayDeque<>());
+        Random random = new Random(42);
+        SimResult result = new SimResult();
+        // event: {time, kind (0 arrival, 1 completion, 2 detector tick), backend, arrival time, failed}
+        PriorityQueue<long[]> events = new PriorityQueue<>(Comparator.comparingLong(e -> e[0]));
+        events.add(new long[]{0, 0, 0, 0, 0});
+        if (ejection) events.add(new long[]{second, 2, 0, 0, 0});
+        while (!events.isEmpty()) {
+            long[] e = events.poll();
+            now[0] = e[0];
+            int b = (int) e[2];
+            if (e[1] == 0) {
+                if (e[0] >= duration) continue;
+                b = index.get(lb.routeRequest(name));
+                if (busy[b] < workers) startService(events, random, busy, b, e[0], e[0], meanService);
+                else queues.get(b).add(e[0]);
+                events.add(new long[]{e[0] + (long) (-Math.log(1 - random.nextDouble()) * meanGap), 0, 0, 0, 0});
+            } else if (e[1] == 1) {
+                busy[b]--;
+                long latency = e[0] - e[3];
+                if (e[4] == 1) {
+                    lb.failRequest(servers[b], latency);
+                    result.errors++;
+                } else {
+                    lb.completeRequest(servers[b], latency);
+                    if (result.count == result.latencies.length) result.latencies = Arrays.copyOf(result.latencies, result.count * 2);
+                    result.latencies[result.count++] = latency;
+                }
+                if (!queues.get(b).isEmpty()) startService(events, random, busy, b, e[0], queues.get(b).poll(), meanService);
+            } else if (e[0] < duration) {
+                detector.tick();
+                events.add(new long[]{e[0] + second, 2, 0, 0, 0});
+            }
+        }
+        Arrays.sort(result.latencies, 0, result.count);
+        result.ejections = detector.ejectedCount;
+        result.healthyAtEnd = lb.getHealthyServers().size();
+        System.out.printf("%-26s %9.1f %9.1f %9.1f %9.1f %8d %6d%n", name, result.p(0.5) / 1e6, result.p(0.99) / 1e6,
+            result.p(0.999) / 1e6, result.latencies[result.count - 1] / 1e6, result.errors, result.ejections);
+        return result;
+    }
+    
+    /** A worker on backend b picks up the request that arrived at `arrival`; injects the faults. */
+    static void startService(PriorityQueue<long[]> events, Random random, int[] busy, int b, long t, long arrival, long meanService) {
+        busy[b]++;
+        long second = 1_000_000_000L;
+        boolean slow = (b == 3 || b == 7) && t >= 15 * second && t < 45 * second;
+        boolean failing = b == 5 && t >= 20 * second && t < 40 * second && random.nextBoolean();
+        long service = failing ? 1_000_000L : (long) (-Math.log(1 - random.nextDouble()) * meanService * (slow ? 20 : 1));
+        events.add(new long[]{t + service, 1, b, arrival, failing ? 1 : 0});
+    }
+    
+    /** One side of the benchmark: route + complete. */
+    interface Router {
+        Server route() throws NoHealthyServersException;
+        void complete(Server s);
+    }
+    
+    /** Benchmark variant i over a fresh pool of n backends (weights 1..4 for the weighted one). */
+    static Router router(int variant, int n) throws InvalidServerException {
+        List<Server> pool = new ArrayList<>();
+        for (int i = 0; i < n; i++) pool.add(new Server("b-" + i, "10.1." + (i / 250) + "." + (i % 250), 80, 1 + i % 4));
+        if (variant < 2) {
+            LegacyLoadBalancer legacy = new LegacyLoadBalancer(variant == 1);
+            legacy.servers.addAll(pool);
+            return new Router() {
+                public Server route() throws NoHealthyServersException { return legacy.routeRequest("bench"); }
+                public void complete(Server s) { legacy.completeRequest(s); }
+            };
+        }
+        LoadBalancingStrategy[] strategies = {new RoundRobinStrategy(), new LeastConnectionsStrategy(),
+            new PowerOfTwoChoicesStrategy(), new SmoothWeightedRoundRobinStrategy(), new RandomStrategy()};
+        LoadBalancer lb = new LoadBalancer(strategies[variant - 2]);
+        lb.addServers(pool);
+        return new Router() {
+            public Server route() throws NoHealthyServersException { return lb.routeRequest("bench"); }
+            public void complete(Server s) { lb.completeRequest(s); }
+        };
+    }
+    
+    /** Routes/sec with `threads` threads each doing route + complete in a loop for `millis`. */
+    static double throughput(Router r, int threads, long millis) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] counts = new long[threads * 16];   // one cache line apart
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int slot = t * 16;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    long n = 0;
+                    while (!stop.get()) {
+                        r.complete(r.route());
+                        n++;
+                    }
+                    counts[slot] = n;
+                } catch (Exception e) {
+                    counts[slot] = Long.MIN_VALUE / threads;
+                }
+            });
+            workers[t].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread w : workers) w.join();
+        long total = 0;
+        for (long c : counts) total += c;
+        return total / ((System.nanoTime() - t0) / 1e9);
+    }
+    
+    /** The previous routing path: synchronized, filters a fresh List per request, stream-based least connections. */
+    static final class LegacyLoadBalancer {
+        final List<Server> servers = new CopyOnWriteArrayList<>();
+        private final boolean leastConnections;
+        private final AtomicInteger index = new AtomicInteger(0);
+        private final AtomicInteger totalRequests = new AtomicInteger(0);
+        private final AtomicInteger successfulRequests = new AtomicInteger(0);
+        
+        LegacyLoadBalancer(boolean leastConnections) { this.leastConnections = leastConnections; }
+        
+        synchronized Server routeRequest(String requestId) throws NoHealthyServersException {
+            List<Server> hList=servers.stream().filter(x->x.status==ServerStatus.HEALTHY).collect(Collectors.toList());
+            if(hList.isEmpty()) throw new NoHealthyServersException(servers.size());
+            Server selected = leastConnections
+                ? hList.stream().min(Comparator.comparingInt(x->x.activeConnections.get())).orElse(null)
+                : hList.get(Math.abs(index.getAndIncrement()%hList.size()));
+            selected.activeConnections.incrementAndGet();
+            selected.totalRequestsHandled.increment();
+            totalRequests.incrementAndGet();
+            return selected;
+        }
+        
+        void completeRequest(Server server) {
+            server.activeConnections.decrementAndGet();
+            successfulRequests.incrementAndGet();
+        }
+    }
 }
 
 /**
@@ -658,13 +1627,19 @@ public class LoadBalancerSystem {
  *      - Better for varying request durations
  *      - Good for: Long-lived connections (WebSocket, DB)
  *    
+ *    Power of Two Choices:
+ *      - Least connections between 2 random servers: O(1), no herding
+ *      - Good for: Large pools, many balancer instances sharing stale load info
+ *    
  *    Weighted Round Robin:
  *      - Assign weights based on server capacity
+ *      - Smooth variant (NGINX) interleaves picks: 5,1,1 → a a b a c a a
  *      - Good for: Heterogeneous servers (different specs)
  *    
- *    Least Response Time:
- *      - Consider both connections and latency
- *      - Good for: Performance-critical applications
+ *    Peak EWMA (latency-aware):
+ *      - P2C on peakLatency * (active + 1); peak jumps to spikes, decays over ~5 s
+ *      - Steers away from servers that are up but slow (GC, noisy neighbour)
+ *      - Good for: RPC fan-out where tail latency matters (Finagle, Linkerd)
  *    
  *    Consistent Hashing:
  *      - For distributed caching with sticky sessions
@@ -680,20 +1655,32 @@ public class LoadBalancerSystem {
  *      - Configurable interval and timeout
  *      - Mark unhealthy after N consecutive failures
  *    
- *    Passive Health Checks:
- *      - Monitor actual request failures
- *      - Circuit breaker pattern
- *      - Automatic recovery after cool-down
+ *    Passive Health Checks (OutlierDetector):
+ *      - Per-interval error rate and EWMA latency vs the pool median
+ *      - Eject for base * times-ejected; never more than a fraction of the pool
+ *      - Re-admit with slow start (warmth ramps 1/N per tick) and reset latency
+ *    
+ *    Why both latency routing and ejection (simulation, 20x slow + fast-failing backends):
+ *      - Fast failures look attractive: LeastConn/P2C/PeakEWMA send MORE traffic to
+ *        a backend failing in 1 ms (black hole) → only error-rate ejection stops it
+ *      - P2C variants must pick one of a pair: two degraded backends paired together
+ *        still get 1/45 of traffic each, over a 20x-slowed backend's capacity
+ *      - RoundRobin p99 26 s; PeakEWMA ~1 s; PeakEWMA + ejection 24 ms (p99.9 42 ms)
  *    
  *    Implementation:
  *      - Background thread for periodic checks
  *      - Exponential backoff for failed servers
  * 
  * 3. THREAD SAFETY:
- *    - synchronized on routeRequest (critical section)
- *    - CopyOnWriteArrayList for server list (read-heavy)
- *    - AtomicInteger for counters (thread-safe increments)
- *    - Consider lock-free algorithms for higher throughput
+ *    - routeRequest takes no lock: one volatile read of an immutable healthy[]
+ *      snapshot; health/membership changes (rare) rebuild and swap it under a
+ *      writer lock → readers never see a half-updated set
+ *    - No allocation per route (no filtered List, no stream, no Comparator)
+ *    - LongAdder for request counters (striped, no CAS storm across threads);
+ *      AtomicInteger only where strategies read the value (activeConnections)
+ *    - ThreadLocalRandom instead of a shared Random (one CAS'd seed)
+ *    - Previous version: synchronized routeRequest + stream filter per request
+ *      → ~0.03-0.9M routes/sec at 64 threads vs ~14M lock-free
  * 
  * 4. ADVANCED FEATURES:
  *    - Sticky sessions (session affinity using cookies)
@@ -1,5 +1,6 @@
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 // ===== CUSTOM EXCEPTION CLASSES =====
 
@@ -55,6 +56,18 @@ enum RequestResult {
  */
 interface RateLimiter {
     boolean allowRequest(String clientId);
+    boolean tryAcquire(String clientId, int permits);  // all N permits or none
+    
+    /**
+     * Grant as many permits as fit right now, between minPermits and maxPermits, in ONE
+     * critical section (0 if fewer than minPermits fit). stamps[slot] receives the grant's
+     * stamp (its window / timestamp) so a later release can tell whether it is stale.
+     * @return permits granted
+     */
+    int acquire(String clientId, int minPermits, int maxPermits, long[] stamps, int slot);
+    
+    /** Undo a grant (hierarchy rollback, unused lease); ignored once the grant's window has passed. */
+    void release(String clientId, int permits, long stamp);
     String getName();
 }
 
@@ -68,6 +81,8 @@ interface RateLimiter {
  * 3. Handle concurrent requests safely
  * 4. Track statistics per client
  * 5. Support per-endpoint rate limits
+ * 6. Acquire N permits atomically across client / tenant / global quotas
+ * 7. Lease permit blocks per thread to avoid shared state on the hot path
  * 
  * REQUIREMENTS:
  * - Functional: Allow/deny requests, multiple algorithms, per-client limits
@@ -140,7 +155,22 @@ class TokenBucketRateLimiter implements RateLimiter {
      * @return true if allowed, false if denied
      */
     @Override
-    public synchronized boolean allowRequest(String clientId) {
+    public boolean allowRequest(String clientId) {
+        return tryAcquire(clientId, 1);
+    }
+    
+    /**
+     * Same refill as allowRequest, but consumes N tokens in one critical section.
+     * permits > capacity can never succeed, so it is denied up front.
+     */
+    @Override
+    public boolean tryAcquire(String clientId, int permits) {
+        return acquire(clientId, permits, permits, null, 0) == permits;
+    }
+    
+    /** Grants floor(tokens) capped at maxPermits; a bucket has no windows, so the stamp is unused (0). */
+    @Override
+    public synchronized int acquire(String clientId, int minPermits, int maxPermits, long[] stamps, int slot) {
         // HINT: long now = System.nanoTime();
         // HINT: double[] bucket = buckets.computeIfAbsent(clientId, 
         //           k -> new double[]{capacity, now});
@@ -155,8 +185,18 @@ class TokenBucketRateLimiter implements RateLimiter {
         double elapsed = (now - bucket[1]) / 1_000_000_000.0;
         bucket[0]=Math.min(capacity, bucket[0]+elapsed*refillRate);
         bucket[1]=now;
-        if(bucket[0]>=1) {bucket[0] -= 1; return true;}
-        return false;
+        int granted = (int) Math.min(maxPermits, Math.floor(bucket[0]));
+        if(granted<minPermits) return 0;
+        bucket[0] -= granted;
+        if (stamps != null) stamps[slot] = 0;
+        return granted;
+    }
+    
+    /** Refunds are capped at capacity, so a late refund can never exceed the burst size. */
+    @Override
+    public synchronized void release(String clientId, int permits, long stamp) {
+        double[] bucket = buckets.get(clientId);
+        if (bucket != null) bucket[0] = Math.min(capacity, bucket[0] + permits);
     }
     
     @Override
@@ -218,7 +258,18 @@ class FixedWindowRateLimiter implements RateLimiter {
      * @return true if allowed, false if denied
      */
     @Override
-    public synchronized boolean allowRequest(String clientId) {
+    public boolean allowRequest(String clientId) {
+        return tryAcquire(clientId, 1);
+    }
+    
+    @Override
+    public boolean tryAcquire(String clientId, int permits) {
+        return acquire(clientId, permits, permits, null, 0) == permits;
+    }
+    
+    /** Stamp = start of the window the permits were counted in. */
+    @Override
+    public synchronized int acquire(String clientId, int minPermits, int maxPermits, long[] stamps, int slot) {
         // HINT: long now = System.currentTimeMillis();
         // HINT: long[] window = windows.computeIfAbsent(clientId, k -> new long[]{now, 0});
         // HINT: if (now - window[0] >= windowMillis) { window[0] = now; window[1] = 0; }
@@ -227,8 +278,18 @@ class FixedWindowRateLimiter implements RateLimiter {
         long now=System.currentTimeMillis();
         long[] window=windows.computeIfAbsent(clientId, k->new long[]{now,0});
         if(now-window[0]>=windowMillis){window[0]=now; window[1]=0;}
-        if(window[1]<maxRequests) {window[1]++; return true;}
-        return false;
+        int granted = (int) Math.min(maxPermits, maxRequests - window[1]);
+        if(granted<minPermits) return 0;
+        window[1]+=granted;
+        if (stamps != null) stamps[slot] = window[0];
+        return granted;
+    }
+    
+    /** Only the window that counted the grant is decremented; after a reset the release is stale. */
+    @Override
+    public synchronized void release(String clientId, int permits, long stamp) {
+        long[] window = windows.get(clientId);
+        if (window != null && window[0] == stamp) window[1] = Math.max(0, window[1] - permits);
     }
     
     @Override
@@ -293,7 +354,18 @@ class SlidingWindowLogRateLimiter implements RateLimiter {
      * @return true if allowed, false if denied
      */
     @Override
-    public synchronized boolean allowRequest(String clientId) {
+    public boolean allowRequest(String clientId) {
+        return tryAcquire(clientId, 1);
+    }
+    
+    @Override
+    public boolean tryAcquire(String clientId, int permits) {
+        return acquire(clientId, permits, permits, null, 0) == permits;
+    }
+    
+    /** Stamp = the timestamp logged for every granted permit. */
+    @Override
+    public synchronized int acquire(String clientId, int minPermits, int maxPermits, long[] stamps, int slot) {
         // HINT: long now = System.currentTimeMillis();
         // HINT: Deque<Long> log = logs.computeIfAbsent(clientId, k -> new ArrayDeque<>());
         // HINT: while (!log.isEmpty() && (now - log.peekFirst()) >= windowMillis) {
@@ -304,8 +376,27 @@ class SlidingWindowLogRateLimiter implements RateLimiter {
         long now=System.currentTimeMillis();
         Deque<Long> log=logs.computeIfAbsent(clientId, k->new ArrayDeque<>());
         while(!log.isEmpty() && (now-log.peekFirst()>=windowMillis)) log.pollFirst();
-        if(log.size()<maxRequests){log.addLast(now); return true;}
-        return false;
+        int granted = Math.min(maxPermits, maxRequests - log.size());
+        if(granted<minPermits) return 0;
+        for(int i=0;i<granted;i++) log.addLast(now);
+        if (stamps != null) stamps[slot] = now;
+        return granted;
+    }
+    
+    /**
+     * Removes the grant's own timestamps, scanning from the tail (they are usually the newest).
+     * Once they have slid out of the window the grant no longer counts, so the release is stale.
+     */
+    @Override
+    public synchronized void release(String clientId, int permits, long stamp) {
+        Deque<Long> log = logs.get(clientId);
+        if (log == null || System.currentTimeMillis() - stamp >= windowMillis) return;
+        Iterator<Long> it = log.descendingIterator();
+        while (permits > 0 && it.hasNext()) {
+            long t = it.next();
+            if (t == stamp) { it.remove(); permits--; }
+            else if (t < stamp) break;
+        }
     }
     
     @Override
@@ -319,16 +410,35 @@ class SlidingWindowLogRateLimiter implements RateLimiter {
 
 /**
  * Service managing rate limiters for different endpoints
+ * 
+ * HIERARCHICAL QUOTAS (checked in one pass, all-or-nothing):
+ *   level 0: endpoint limiter keyed by clientId   (per client)
+ *   level 1: tenant limiter keyed by tenantId     (per tenant, optional)
+ *   level 2: global limiter keyed by GLOBAL_KEY   (whole service, optional)
+ *   If any level denies, the levels already granted are released (rollback).
+ *   Every grant carries a per-level stamp, so a rollback or lease return that lands
+ *   after a window reset is ignored instead of refunding the new window.
  */
 class RateLimiterService {
+    static final String GLOBAL_KEY = "*";
+    
     private final Map<String, RateLimiter> endpointLimiters;
     private final RateLimiter defaultLimiter;
+    private final Map<String, String> clientTenants = new ConcurrentHashMap<>();
+    private volatile RateLimiter tenantLimiter;
+    private volatile RateLimiter globalLimiter;
+    private final LongAdder sharedStateOps = new LongAdder();  // limiter calls (each takes a shared lock)
     
     public RateLimiterService(RateLimiter defaultLimiter) {
         this.endpointLimiters = new ConcurrentHashMap<>();
         this.defaultLimiter = defaultLimiter;
     }
     
+    public void setTenantLimiter(RateLimiter limiter) { this.tenantLimiter = limiter; }
+    public void setGlobalLimiter(RateLimiter limiter) { this.globalLimiter = limiter; }
+    public void assignTenant(String clientId, String tenantId) { clientTenants.put(clientId, tenantId); }
+    public long getSharedStateOps() { return sharedStateOps.sum(); }
+    
     /**
      * Register a rate limiter for specific endpoint
      * 
@@ -366,19 +476,81 @@ class RateLimiterService {
         // HINT: boolean allowed = limiter.allowRequest(clientId);
         // HINT: if (allowed) totalAllowed.incrementAndGet(); else totalDenied.incrementAndGet();
         // HINT: return allowed ? RequestResult.ALLOWED : RequestResult.DENIED;
-        RateLimiter limiter = endpointLimiters.getOrDefault(endpoint, defaultLimiter);
-        boolean allowed = limiter.allowRequest(clientId);
-        return allowed ? RequestResult.ALLOWED : RequestResult.DENIED;
+        return tryAcquire(endpoint, clientId, 1);
     }
     
     /**
-     * Batch requests for testing
+     * Take N permits atomically across client → tenant → global quotas.
      * 
-     * IMPLEMENTATION HINTS:
-     * 1. Loop count times
-     * 2. Call processRequest for each
-     * 3. Track allowed and denied counts
-     * 4. Return [allowed, denied]
+     * ALGORITHM:
+     * 1. Resolve the limiter + key for each configured level
+     * 2. tryAcquire(key, permits) level by level
+     * 3. On first denial, release(key, permits) on every level already granted
+     * 
+     * Each limiter is only locked for its own check, so no lock is held across
+     * levels (no deadlock); a concurrent caller may briefly see permits that are
+     * about to be rolled back — the standard trade-off vs one global lock.
+     * 
+     * @return ALLOWED only if every level granted all permits
+     */
+    public RequestResult tryAcquire(String endpoint, String clientId, int permits) {
+        if (permits <= 0) throw new IllegalArgumentException("permits must be positive: " + permits);
+        return acquire(endpoint, clientId, permits, permits, new long[3]) == permits ? RequestResult.ALLOWED : RequestResult.DENIED;
+    }
+    
+    /**
+     * Grant between minPermits and maxPermits on every level, one limiter call per level.
+     * A level that grants fewer than the previous ones trims them (release the excess);
+     * a level that denies rolls every earlier level back.
+     * @param stamps receives each level's grant stamp (length ≥ 3), needed to release later
+     * @return permits granted on every level (0 = denied)
+     */
+    public int acquire(String endpoint, String clientId, int minPermits, int maxPermits, long[] stamps) {
+        RateLimiter[] limiters = new RateLimiter[3];
+        String[] keys = new String[3];
+        int levels = resolveLevels(endpoint, clientId, limiters, keys);
+        int granted = maxPermits;
+        for (int i = 0; i < levels; i++) {
+            sharedStateOps.increment();
+            int got = limiters[i].acquire(keys[i], minPermits, granted, stamps, i);
+            if (got < granted) {
+                for (int j = i - 1; j >= 0; j--) {
+                    sharedStateOps.increment();
+                    limiters[j].release(keys[j], granted - got, stamps[j]);
+                }
+                if (got == 0) return 0;
+                granted = got;
+            }
+        }
+        return granted;
+    }
+    
+    /** Give back previously granted permits on every level (e.g. an unused lease). */
+    public void release(String endpoint, String clientId, int permits, long[] stamps) {
+        if (permits <= 0) return;
+        RateLimiter[] limiters = new RateLimiter[3];
+        String[] keys = new String[3];
+        int levels = resolveLevels(endpoint, clientId, limiters, keys);
+        for (int i = 0; i < levels; i++) {
+            sharedStateOps.increment();
+            limiters[i].release(keys[i], permits, stamps[i]);
+        }
+    }
+    
+    private int resolveLevels(String endpoint, String clientId, RateLimiter[] limiters, String[] keys) {
+        int n = 0;
+        limiters[n] = endpointLimiters.getOrDefault(endpoint, defaultLimiter); keys[n++] = clientId;
+        String tenantId = clientTenants.get(clientId);
+        RateLimiter tenant = tenantLimiter, global = globalLimiter;
+        if (tenant != null && tenantId != null) { limiters[n] = tenant; keys[n++] = tenantId; }
+        if (global != null) { limiters[n] = global; keys[n++] = GLOBAL_KEY; }
+        return n;
+    }
+    
+    /**
+     * Batch requests: ONE acquire per level for the whole batch instead of count round
+     * trips — each level grants as many of the count as fit, the rest are denied.
+     * Same outcome as count back-to-back processRequest calls at a single instant.
      * 
      * @param endpoint API endpoint
      * @param clientId Client ID
@@ -386,24 +558,88 @@ class RateLimiterService {
      * @return Array [allowed, denied]
      */
     public int[] batchRequests(String endpoint, String clientId, int count) {
-        // HINT: int allowed = 0, denied = 0;
-        // HINT: for (int i = 0; i < count; i++) {
-        //     if (processRequest(endpoint, clientId) == RequestResult.ALLOWED) allowed++; else denied++;
-        // }
-        // HINT: return new int[]{allowed, denied};
-        int allowed=0,denied=0;
-        for(int i=0;i<count;i++){
-            if(processRequest(endpoint, clientId)==RequestResult.ALLOWED) allowed++; else denied++;
+        if (count <= 0) return new int[]{0, 0};
+        int allowed = acquire(endpoint, clientId, 1, count, new long[3]);
+        return new int[]{allowed, count - allowed};
+    }
+    
+}
+
+// ===== LOCAL TOKEN LEASING =====
+
+/**
+ * LOCAL TOKEN LEASING
+ * ===================
+ * HOW IT WORKS:
+ *   - Each thread keeps a private lease: endpoint → clientId → remaining permits
+ *   - Requests are served from the lease without touching any shared limiter
+ *   - When the lease runs dry, grab a whole block (leaseSize) in ONE tryAcquire
+ *   - If the block is denied, fall back to acquiring just what this request needs
+ * 
+ * EXAMPLE: leaseSize=100 → 1 shared-state trip per 100 requests instead of 1 per request
+ * 
+ * TRADE-OFF:
+ *   - Permits sitting in idle leases are unavailable to other threads
+ *     (call releaseLeases() when a worker finishes to hand them back)
+ *   - Accuracy drops by up to leaseSize × threads — same as Envoy/Redis "local quota" schemes
+ */
+class TokenLeaser {
+    private final RateLimiterService service;
+    private final int leaseSize;
+    private final ThreadLocal<Map<String, Map<String, Lease>>> leases = ThreadLocal.withInitial(HashMap::new);
+    
+    /** Unused permits of the last block, plus the block's per-level stamps for returning them. */
+    private static final class Lease {
+        int remaining;
+        final long[] stamps = new long[3];
+    }
+    
+    public TokenLeaser(RateLimiterService service, int leaseSize) {
+        if (leaseSize <= 0) throw new IllegalArgumentException("leaseSize must be positive: " + leaseSize);
+        this.service = service;
+        this.leaseSize = leaseSize;
+    }
+    
+    public RequestResult acquire(String endpoint, String clientId, int permits) {
+        Lease lease = leases.get().computeIfAbsent(endpoint, k -> new HashMap<>())
+                .computeIfAbsent(clientId, k -> new Lease());
+        if (lease.remaining >= permits) { lease.remaining -= permits; return RequestResult.ALLOWED; }
+        
+        // the old block's tail is spent on this request, so what's left afterwards is all new-block permits
+        int needed = permits - lease.remaining;
+        int block = Math.max(leaseSize, needed);
+        // a denied grant may still have stamped the levels it passed before rolling back:
+        // stamp into scratch so the old block's tail keeps the windows it was counted in
+        long[] stamps = new long[3];
+        if (service.acquire(endpoint, clientId, block, block, stamps) == block) {
+            lease.remaining = block - needed;
+            System.arraycopy(stamps, 0, lease.stamps, 0, stamps.length);
+            return RequestResult.ALLOWED;
+        }
+        if (block > needed && service.acquire(endpoint, clientId, needed, needed, stamps) == needed) {
+            lease.remaining = 0;
+            System.arraycopy(stamps, 0, lease.stamps, 0, stamps.length);
+            return RequestResult.ALLOWED;
         }
-        return new int[]{allowed, denied};
+        return RequestResult.DENIED;
     }
     
+    /** Return every unused permit held by the calling thread. */
+    public void releaseLeases() {
+        for (Map.Entry<String, Map<String, Lease>> ep : leases.get().entrySet()) {
+            for (Map.Entry<String, Lease> client : ep.getValue().entrySet()) {
+                Lease lease = client.getValue();
+                service.release(ep.getKey(), client.getKey(), lease.remaining, lease.stamps);
+                lease.remaining = 0;
+            }
+        }
+    }
 }
 
 // ===== MAIN TEST CLASS =====
 
 public class RateLimiterSystem {
-    public static void main(String[] args) throws InterruptedException {
+    public static void main(String[] args) throws Exception {
         System.out.println("=== Rate Limiter System Test Cases ===\n");
         
         // Setup service with different limiters per endpoint
@@ -478,6 +714,133 @@ public class RateLimiterSystem {
         System.out.println("✓ Different limits for different endpoints");
         System.out.println();
         
+        // Test Case 9: Atomic N-permit acquire
+        System.out.println("=== Test Case 9: tryAcquire N PERMITS (all or nothing) ===");
+        service.registerEndpoint("/api/upload", new FixedWindowRateLimiter(10, 60_000));
+        RequestResult big = service.tryAcquire("/api/upload", "client-E", 7);
+        RequestResult tooBig = service.tryAcquire("/api/upload", "client-E", 4);
+        RequestResult fits = service.tryAcquire("/api/upload", "client-E", 3);
+        System.out.println("7 → " + big + ", then 4 → " + tooBig + ", then 3 → " + fits);
+        System.out.println("✓ Partial grant never happens: " + (big == RequestResult.ALLOWED
+                && tooBig == RequestResult.DENIED && fits == RequestResult.ALLOWED));
+        try {
+            service.tryAcquire("/api/upload", "client-E", 0);
+            System.out.println("✗ Should have rejected 0 permits");
+        } catch (IllegalArgumentException e) {
+            System.out.println("✓ Rejected non-positive permits: " + e.getMessage());
+        }
+        System.out.println();
+        
+        // Test Case 10: Hierarchical quotas with rollback
+        System.out.println("=== Test Case 10: CLIENT → TENANT → GLOBAL (rollback) ===");
+        RateLimiterService tiered = new RateLimiterService(new FixedWindowRateLimiter(5, 60_000));
+        FixedWindowRateLimiter tenantQuota = new FixedWindowRateLimiter(8, 60_000);
+        tiered.setTenantLimiter(tenantQuota);
+        tiered.setGlobalLimiter(new FixedWindowRateLimiter(100, 60_000));
+        tiered.assignTenant("t1-alice", "tenant-1");
+        tiered.assignTenant("t1-bob", "tenant-1");
+        int[] alice = tiered.batchRequests("/api/x", "t1-alice", 5);   // client cap 5, tenant 5/8
+        RequestResult bob4 = tiered.tryAcquire("/api/x", "t1-bob", 4); // tenant would hit 9 → denied
+        RequestResult bob3 = tiered.tryAcquire("/api/x", "t1-bob", 3); // bob's client grant was rolled back
+        System.out.println("Alice 5/5 allowed: " + alice[0] + ", Bob 4 → " + bob4 + ", Bob 3 → " + bob3);
+        System.out.println("✓ Tenant cap enforced across clients: " + (alice[0] == 5 && bob4 == RequestResult.DENIED));
+        System.out.println("✓ Rolled-back client permits reusable: " + (bob3 == RequestResult.ALLOWED));
+        System.out.println("✓ Tenant now exhausted: " + (tiered.tryAcquire("/api/x", "t1-bob", 1) == RequestResult.DENIED));
+        System.out.println();
+        
+        // Test Case 11: Token leasing correctness
+        System.out.println("=== Test Case 11: LOCAL TOKEN LEASING ===");
+        RateLimiterService leased = new RateLimiterService(new FixedWindowRateLimiter(25, 60_000));
+        TokenLeaser leaser = new TokenLeaser(leased, 10);
+        int granted = 0;
+        for (int i = 0; i < 40; i++) if (leaser.acquire("/api/feed", "client-F", 1) == RequestResult.ALLOWED) granted++;
+        System.out.println("Granted " + granted + "/40 with cap 25, shared ops = " + leased.getSharedStateOps());
+        System.out.println("✓ Never exceeds quota: " + (granted == 25));
+        RateLimiterService returned = new RateLimiterService(new FixedWindowRateLimiter(25, 60_000));
+        TokenLeaser partial = new TokenLeaser(returned, 10);
+        partial.acquire("/api/feed", "client-G", 1);                  // leases 10, keeps 9
+        partial.releaseLeases();                                      // hands the 9 back
+        System.out.println("✓ Unused lease returned: " + (returned.tryAcquire("/api/feed", "client-G", 24) == RequestResult.ALLOWED));
+        System.out.println();
+        
+        // Test Case 12: Benchmark — shared-state ops per request, leasing off vs on
+        System.out.println("=== Test Case 12: BENCHMARK shared-state ops/request (8 threads) ===");
+        int threads = 8, perThread = 200_000;
+        for (int leaseSize : new int[]{0, 16, 256}) {
+            RateLimiterService bench = new RateLimiterService(new TokenBucketRateLimiter(Integer.MAX_VALUE, 1e12));
+            bench.setTenantLimiter(new TokenBucketRateLimiter(Integer.MAX_VALUE, 1e12));
+            bench.setGlobalLimiter(new TokenBucketRateLimiter(Integer.MAX_VALUE, 1e12));
+            bench.assignTenant("hot", "tenant-hot");
+            TokenLeaser benchLeaser = leaseSize > 0 ? new TokenLeaser(bench, leaseSize) : null;
+            ExecutorService exec = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                futures.add(exec.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        if (benchLeaser == null) bench.tryAcquire("/api/hot", "hot", 1);
+                        else benchLeaser.acquire("/api/hot", "hot", 1);
+                    }
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+            long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+            exec.shutdown();
+            long requests = (long) threads * perThread;
+            System.out.printf("lease=%-4s %,d req in %d ms (%,d req/s), shared ops/request = %.4f%n",
+                    leaseSize == 0 ? "off" : leaseSize, requests, elapsedMs, requests * 1000 / elapsedMs,
+                    (double) bench.getSharedStateOps() / requests);
+        }
+        System.out.println("✓ Leasing cuts shared-state ops by ~leaseSize×");
+        System.out.println();
+        
+        // Test Case 13: Releases are tied to the grant's window
+        System.out.println("=== Test Case 13: STALE RELEASE + BATCHED BATCH ===");
+        FixedWindowRateLimiter shortWindow = new FixedWindowRateLimiter(2, 100);
+        long[] oldGrant = new long[1];
+        shortWindow.acquire("client-H", 2, 2, oldGrant, 0);
+        Thread.sleep(120);                                            // window resets
+        boolean fresh = shortWindow.tryAcquire("client-H", 2);
+        shortWindow.release("client-H", 2, oldGrant[0]);             // late rollback of the old window
+        System.out.println((fresh && !shortWindow.tryAcquire("client-H", 1) ? "✓" : "✗")
+                + " Late release ignored, new window stays at its cap");
+        SlidingWindowLogRateLimiter shortLog = new SlidingWindowLogRateLimiter(2, 100);
+        shortLog.acquire("client-H", 2, 2, oldGrant, 0);
+        Thread.sleep(120);
+        shortLog.tryAcquire("client-H", 2);
+        shortLog.release("client-H", 2, oldGrant[0]);
+        System.out.println((!shortLog.tryAcquire("client-H", 1) ? "✓" : "✗")
+                + " Sliding log: expired grant's release frees nothing");
+        FixedWindowRateLimiter clientLevel = new FixedWindowRateLimiter(700, 60_000), tenantLevel = new FixedWindowRateLimiter(600, 60_000);
+        RateLimiterService batched = new RateLimiterService(clientLevel);
+        batched.setTenantLimiter(tenantLevel);
+        batched.setGlobalLimiter(new FixedWindowRateLimiter(500, 60_000));
+        batched.assignTenant("client-I", "tenant-I");
+        int[] batch = batched.batchRequests("/api/bulk", "client-I", 1_000);
+        System.out.println((batch[0] == 500 && batch[1] == 500 ? "✓" : "✗") + " Batch of 1,000 over client 700 / tenant 600 / global 500: "
+                + batch[0] + " allowed, " + batch[1] + " denied");
+        System.out.println((batched.getSharedStateOps() == 3 + 3 ? "✓" : "✗") + " Shared-state ops for the batch: "
+                + batched.getSharedStateOps() + " (3 grants + 3 trims, was 3,000+)");
+        System.out.println((clientLevel.tryAcquire("client-I", 200) && tenantLevel.tryAcquire("tenant-I", 100)
+                && !tenantLevel.tryAcquire("tenant-I", 1) ? "✓" : "✗") + " Trimmed levels hold exactly 500 each");
+        System.out.println();
+        
+        // Test Case 14: A denied lease refill must not restamp the lease
+        System.out.println("=== Test Case 14: DENIED REFILL KEEPS THE LEASE'S WINDOWS ===");
+        FixedWindowRateLimiter perClient = new FixedWindowRateLimiter(10, 200);
+        RateLimiterService capped = new RateLimiterService(perClient);
+        capped.setGlobalLimiter(new FixedWindowRateLimiter(8, 60_000));
+        TokenLeaser refill = new TokenLeaser(capped, 5);
+        refill.acquire("/api/feed", "client-J", 1);                   // block of 5 in client window W1, keeps 4
+        capped.tryAcquire("/api/feed", "client-K", 3);                // global now full (8/8)
+        Thread.sleep(250);                                            // client window rolls to W2
+        RequestResult denied = refill.acquire("/api/feed", "client-J", 5);   // client grants in W2, global denies → rolled back
+        boolean filled = perClient.tryAcquire("client-J", 10);        // W2 at its cap
+        refill.releaseLeases();                                       // the 4 belong to W1: nothing to refund in W2
+        System.out.println((denied == RequestResult.DENIED && filled && !perClient.tryAcquire("client-J", 1) ? "✓" : "✗")
+                + " Unused lease refunds its own window, not the one a denied refill touched");
+        System.out.println();
+        
         System.out.println("=== All Test Cases Complete! ===");
     }
 }
@@ -529,7 +892,10 @@ public class RateLimiterSystem {
  *      ```
  * 
  * 3. THREAD SAFETY:
- *    - synchronized on allowRequest (critical section)
+ *    - synchronized on allowRequest/tryAcquire (critical section)
+ *    - Multi-level quotas: lock one level at a time + release() rollback (no lock ordering needed)
+ *    - Releases carry the grant's window stamp: a late rollback never refunds a newer window
+ *    - Token leasing: ThreadLocal permit blocks → 1 shared trip per leaseSize requests
  *    - ConcurrentHashMap for client storage
  *    - AtomicInteger for global counters
  *    - Alternative: Lock-free algorithms with CAS
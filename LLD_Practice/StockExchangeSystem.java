@@ -1,5 +1,22 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.concurrent.locks.*;
 
 /*
@@ -10,120 +27,1660 @@ import java.util.concurrent.locks.*;
  * 1. Place BUY/SELL orders with price and quantity
  * 2. Order matching: price-time priority (best price first, FIFO on tie)
  * 3. Partial fills supported
- * 4. Order book: sorted buy orders (desc price), sell orders (asc price)
- * 5. Trade notifications (Observer)
+ * 4. Order book: buy levels (best = highest), sell levels (best = lowest)
+ * 5. Trade notifications (Observer) and a binary market-data feed (trades + L2 deltas + snapshots),
+ *    published off the matching thread; slow consumers are conflated, never wait for
  * 6. Pluggable matching strategy (Strategy)
- * 7. Thread-safe
+ * 7. Thread-safe, without a global lock: one single-writer matching thread per symbol shard
+ * 8. Durable (optional): every command journaled before it is applied; books rebuilt by replay
+ *    at startup; recent trades in memory, older ones read back from the journal
  * 
  * DESIGN PATTERNS:
  *   Strategy  (MatchingStrategy) — PriceTimeStrategy
  *   Observer  (TradeListener)    — TradeNotifier
  *   Facade    (StockExchangeService)
  * 
- * KEY DS: PriorityQueue for buy (max-heap) and sell (min-heap) order books
+ * KEY DS (LMAX-style engine):
+ *   - Multi-producer ring buffer of preallocated commands per shard → one matching thread owns its books
+ *   - Price ladder: array of price levels indexed by tick, each an intrusive FIFO list of orders
+ *   - Fixed-point long prices (4 decimals), tick 0.01
+ *   - Open-addressing orderId → node index → O(1) cancel; node free list → no garbage per order
+ *   - Market data: SPSC event ring per shard → publisher thread → per-subscriber byte ring of
+ *     fixed 40-byte messages; lagging subscriber → per-level conflation set
+ *   - Journal: per-shard memory-mapped segments of fixed 64-byte records, group commit per batch,
+ *     periodic book snapshots, sparse trade-id index into the log
+ * 
+ * COMPLEXITY:
+ *   place:  O(fills + levels crossed); resting insert O(1)
+ *   cancel: O(1) (+ scan to next best level when the best level empties)
+ */
+
+// ==================== EXCEPTIONS ====================
+
+class InvalidOrderException extends RuntimeException {
+    InvalidOrderException(String msg) { super("Invalid order: " + msg); }
+}
+
+class OrderNotFoundException extends RuntimeException {
+    OrderNotFoundException(String orderId) { super("Order not found: " + orderId); }
+}
+
+class TradeNotFoundException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    TradeNotFoundException(String tradeId) { super("Trade not found: " + tradeId); }
+}
+
+/** A command threw on its matching thread, or the shard has failed and takes no more commands. */
+class MatchingFailedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    MatchingFailedException(String msg, Throwable cause) { super(msg, cause); }
+}
+
+// ==================== ENUMS ====================
+
+enum OrderSide { BUY, SELL }
+
+enum OrderStatus { OPEN, PARTIALLY_FILLED, FILLED, CANCELLED, REJECTED }
+
+enum CommandType { PLACE, CANCEL, QUERY_DEPTH, QUERY_L2, SYNC, SNAPSHOT, RECOVER }
+
+/** Market-data message types; the ordinal is the wire code. */
+enum MdType {
+    TRADE, LEVEL, SNAPSHOT_BEGIN, SNAPSHOT_LEVEL, SNAPSHOT_END;
+    static final MdType[] CODES = values();
+}
+
+/** What a matching thread does when its ring is empty. */
+enum IdleStrategy {
+    BUSY_SPIN,   // dedicated (isolated, pinned) core: lowest wake-up latency, burns the core
+    BACKOFF      // spin → yield → park until a producer wakes it: shares cores politely
+}
+
+/** When a journaled command counts as durable (acks are released per group commit either way). */
+enum Durability {
+    PAGE_CACHE,    // written to the mapped file: survives a process crash, the OS flushes it later
+    GROUP_COMMIT   // force()d to disk once per batch before its acks go out: survives power loss
+}
+
+// ==================== MODELS ====================
+
+/** Fixed-point prices: 1.0 = 10_000. No double rounding in the book. */
+final class Price {
+    static final long SCALE = 10_000;
+
+    private Price() { }
+
+    static long of(double price) { return Math.round(price * SCALE); }
+    static double toDouble(long price) { return (double) price / SCALE; }
+}
+
+class StockOrder {
+    final String id, symbol, traderId;
+    final long orderNo;
+    final OrderSide side;
+    final double price;
+    int quantity, filledQty;
+    volatile OrderStatus status;   // written by the matching thread
+    final long timestamp;
+
+    StockOrder(long orderNo, String symbol, String traderId, OrderSide side, double price, int quantity) {
+        this.orderNo = orderNo; this.id = "ORD-" + orderNo;
+        this.symbol = symbol; this.traderId = traderId;
+        this.side = side; this.price = price; this.quantity = quantity;
+        this.filledQty = 0; this.status = OrderStatus.OPEN;
+        this.timestamp = System.nanoTime();
+    }
+
+    int remainingQty() { return quantity - filledQty; }
+
+    void fill(int qty) {
+        filledQty += qty;
+        status = filledQty >= quantity ? OrderStatus.FILLED : OrderStatus.PARTIALLY_FILLED;
+    }
+}
+
+class Trade {
+    final String id, symbol;
+    final String buyOrderId, sellOrderId;
+    final String buyerId, sellerId;
+    final double price;
+    final int quantity;
+
+    Trade(String id, String symbol, String buyOrderId, String sellOrderId,
+          String buyerId, String sellerId, double price, int quantity) {
+        this.id = id; this.symbol = symbol;
+        this.buyOrderId = buyOrderId; this.sellOrderId = sellOrderId;
+        this.buyerId = buyerId; this.sellerId = sellerId;
+        this.price = price; this.quantity = quantity;
+    }
+}
+
+// ==================== INTERFACES ====================
+
+/** Strategy — order matching algorithm. Runs on the book's matching thread. */
+interface MatchingStrategy {
+    /** Fill taker against the opposite side of book; whatever remains is rested by the engine. */
+    void match(OrderBook book, RestingOrder taker, ExecutionListener out);
+}
+
+/** Observer — trade execution notifications. */
+interface TradeListener {
+    void onTrade(Trade trade);
+}
+
+/** Strategy → engine fill callback: primitives and pooled nodes only, called on the matching thread. */
+interface ExecutionListener {
+    void onTrade(OrderBook book, RestingOrder taker, RestingOrder maker, long price, long qty);
+}
+
+/** Engine → facade fill callback, after the engine numbered the trade (matching thread). */
+interface FillListener {
+    void onFill(OrderBook book, RestingOrder taker, RestingOrder maker, long price, long qty, long tradeId);
+}
+
+// ==================== ORDER BOOK ====================
+
+/** Order node: intrusive links into its price level's FIFO; recycled through the book's free list. */
+final class RestingOrder {
+    long id;
+    String traderId;
+    int traderNo;      // journal's interned trader id (-1 when not journaled)
+    OrderSide side;
+    long price, quantity, remaining;
+    StockOrder view;   // facade order to keep in sync; null for submit()ted orders
+    PriceLevel level;
+    RestingOrder prev, next;
+
+    long filled() { return quantity - remaining; }
+}
+
+final class PriceLevel {
+    final long price;
+    RestingOrder head, tail;
+    long totalQty;
+    int orders;
+    OrderSide side;    // side of the orders resting here (last side, once empty)
+    boolean dirty;     // changed during the current command → one market-data delta
+    boolean flipped;   // emptied on one side and re-filled on the other in the same command
+
+    PriceLevel(long price) { this.price = price; }
+
+    boolean isEmpty() { return head == null; }
+}
+
+/** Open-addressing long → RestingOrder map (linear probing, backward-shift delete). Ids are > 0. */
+final class OrderIndex {
+    private long[] keys = new long[1024];
+    private RestingOrder[] values = new RestingOrder[1024];
+    private int size, mask = 1023;
+
+    private static int hash(long id) { return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40); }
+
+    RestingOrder get(long id) {
+        for (int i = hash(id) & mask; keys[i] != 0; i = (i + 1) & mask)
+            if (keys[i] == id) return values[i];
+        return null;
+    }
+
+    void put(long id, RestingOrder o) {
+        if (2 * (size + 1) > keys.length) resize();
+        int i = hash(id) & mask;
+        while (keys[i] != 0 && keys[i] != id) i = (i + 1) & mask;
+        if (keys[i] == 0) size++;
+        keys[i] = id;
+        values[i] = o;
+    }
+
+    void remove(long id) {
+        int i = hash(id) & mask;
+        while (keys[i] != id) {
+            if (keys[i] == 0) return;
+            i = (i + 1) & mask;
+        }
+        size--;
+        // shift later members of the probe chain back so lookups never hit a hole early
+        for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        values[i] = null;
+    }
+
+    int size() { return size; }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        RestingOrder[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new RestingOrder[oldKeys.length * 2];
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) if (oldKeys[i] != 0) put(oldKeys[i], oldValues[i]);
+    }
+}
+
+/**
+ * One symbol's book, owned by a single matching thread (no locks).
+ * Price ladder: levels[i] holds price (base + i) × TICK. A non-crossed book never has bids
+ * and asks on the same level, so one array serves both sides; bestBid/bestAsk are indexes.
+ * The ladder re-centers and doubles when a price falls outside it (up to MAX_LEVELS ticks wide).
+ */
+final class OrderBook {
+    static final long TICK = Price.of(0.01);
+    static final int MAX_LEVELS = 1 << 22;
+
+    final String symbol;
+    final int symbolId;
+    final OrderIndex index = new OrderIndex();
+    private PriceLevel[] levels = new PriceLevel[4096];
+    private long base = Long.MIN_VALUE;   // tick number of levels[0]
+    private int bestBid = -1, bestAsk = -1;
+    private int bidOrders, askOrders;
+    private RestingOrder free;
+    private PriceLevel[] dirty = new PriceLevel[16];
+    private int dirtyCount;
+
+    OrderBook(String symbol, int symbolId) {
+        this.symbol = symbol;
+        this.symbolId = symbolId;
+    }
+
+    RestingOrder acquire() {
+        RestingOrder o = free;
+        if (o == null) return new RestingOrder();
+        free = o.next;
+        o.next = null;
+        return o;
+    }
+
+    void release(RestingOrder o) {
+        o.view = null;
+        o.traderId = null;
+        o.level = null;
+        o.prev = null;
+        o.next = free;
+        free = o;
+    }
+
+    /** Ladder index for price, growing the ladder if needed; -1 if outside the price band. */
+    int slot(long price) {
+        long t = price / TICK;
+        if (base == Long.MIN_VALUE) base = t - levels.length / 2;
+        long i = t - base;
+        if (i >= 0 && i < levels.length) return (int) i;
+        long lo = Math.min(base, t), hi = Math.max(base + levels.length - 1, t), need = hi - lo + 1;
+        if (need > MAX_LEVELS) return -1;
+        int len = levels.length;
+        while (len < 2 * need && len < MAX_LEVELS) len <<= 1;
+        long newBase = lo - (len - need) / 2;
+        int shift = (int) (base - newBase);
+        PriceLevel[] grown = new PriceLevel[len];
+        System.arraycopy(levels, 0, grown, shift, levels.length);
+        if (bestBid >= 0) bestBid += shift;
+        if (bestAsk >= 0) bestAsk += shift;
+        levels = grown;
+        base = newBase;
+        return (int) (t - base);
+    }
+
+    /** Best level on a side, or null if that side is empty. */
+    PriceLevel best(OrderSide side) {
+        int i = side == OrderSide.BUY ? bestBid : bestAsk;
+        return i < 0 ? null : levels[i];
+    }
+
+    /** Append to the FIFO at its price (caller checked slot() ≥ 0). */
+    void rest(RestingOrder o) {
+        int i = slot(o.price);
+        PriceLevel level = levels[i];
+        if (level == null) level = levels[i] = new PriceLevel(o.price);
+        if (level.isEmpty()) {
+            if (level.dirty && level.side != o.side) level.flipped = true;   // old side still needs its qty-0 delta
+            level.side = o.side;
+        }
+        touch(level);
+        o.level = level;
+        o.prev = level.tail;
+        o.next = null;
+        if (level.tail == null) level.head = o; else level.tail.next = o;
+        level.tail = o;
+        level.totalQty += o.remaining;
+        level.orders++;
+        index.put(o.id, o);
+        if (o.side == OrderSide.BUY) {
+            bidOrders++;
+            if (bestBid < i) bestBid = i;
+        } else {
+            askOrders++;
+            if (bestAsk < 0 || bestAsk > i) bestAsk = i;
+        }
+    }
+
+    /** Unlink a resting order (filled or cancelled) and recycle its node. O(1) unless its level was the best and empties. */
+    void remove(RestingOrder o) {
+        PriceLevel level = o.level;
+        touch(level);
+        if (o.prev == null) level.head = o.next; else o.prev.next = o.next;
+        if (o.next == null) level.tail = o.prev; else o.next.prev = o.prev;
+        level.totalQty -= o.remaining;
+        level.orders--;
+        index.remove(o.id);
+        if (o.side == OrderSide.BUY) {
+            if (--bidOrders == 0) bestBid = -1;
+            else if (level.isEmpty() && levels[bestBid] == level) {
+                do bestBid--; while (levels[bestBid] == null || levels[bestBid].isEmpty());
+            }
+        } else {
+            if (--askOrders == 0) bestAsk = -1;
+            else if (level.isEmpty() && levels[bestAsk] == level) {
+                do bestAsk++; while (levels[bestAsk] == null || levels[bestAsk].isEmpty());
+            }
+        }
+        release(o);
+    }
+
+    /** Trade qty against a resting order (the strategy removes it once remaining hits 0). */
+    void fill(RestingOrder maker, long qty) {
+        maker.remaining -= qty;
+        maker.level.totalQty -= qty;
+        touch(maker.level);
+    }
+
+    private void touch(PriceLevel level) {
+        if (level.dirty) return;
+        level.dirty = true;
+        if (dirtyCount == dirty.length) dirty = Arrays.copyOf(dirty, dirtyCount * 2);
+        dirty[dirtyCount++] = level;
+    }
+
+    /** End of a command: one LEVEL event per changed level (absolute qty) if a feed is attached. */
+    void flushDirty(MdRing md) {
+        for (int i = 0; i < dirtyCount; i++) {
+            PriceLevel level = dirty[i];
+            level.dirty = false;
+            dirty[i] = null;
+            if (md != null && level.flipped) {
+                MdEvent e = md.claim();
+                e.type = MdType.LEVEL;
+                e.symbolId = symbolId;
+                e.side = level.side == OrderSide.BUY ? OrderSide.SELL : OrderSide.BUY;
+                e.price = level.price;
+                e.qty = 0;
+                e.orders = 0;
+                md.publish();
+            }
+            level.flipped = false;
+            if (md != null) {
+                MdEvent e = md.claim();
+                e.type = MdType.LEVEL;
+                e.symbolId = symbolId;
+                e.side = level.side;
+                e.price = level.price;
+                e.qty = level.totalQty;
+                e.orders = level.orders;
+                md.publish();
+            }
+        }
+        dirtyCount = 0;
+    }
+
+    long ladderBase() { return base; }
+    int ladderLength() { return levels.length; }
+
+    /** Snapshot restore: same ladder window as when the snapshot was taken → same band decisions as before. */
+    void restoreLadder(long base, int length) {
+        this.levels = new PriceLevel[length];
+        this.base = base;
+    }
+
+    /** Every resting order, each level in FIFO order (snapshot path, allocates). */
+    List<RestingOrder> orders() {
+        List<RestingOrder> out = new ArrayList<>(bidOrders + askOrders);
+        for (PriceLevel level : levels)
+            if (level != null) for (RestingOrder o = level.head; o != null; o = o.next) out.add(o);
+        return out;
+    }
+
+    /** Every non-empty level on a side, best first: {price, qty, orders}. Query path, allocates. */
+    List<long[]> depth(OrderSide side) {
+        List<long[]> out = new ArrayList<>();
+        int i = side == OrderSide.BUY ? bestBid : bestAsk, step = side == OrderSide.BUY ? -1 : 1;
+        for (int left = orderCount(side); i >= 0 && i < levels.length && left > 0; i += step) {
+            PriceLevel level = levels[i];
+            if (level == null || level.isEmpty()) continue;
+            out.add(new long[]{level.price, level.totalQty, level.orders});
+            left -= level.orders;
+        }
+        return out;
+    }
+
+    int orderCount(OrderSide side) { return side == OrderSide.BUY ? bidOrders : askOrders; }
+}
+
+// ==================== STRATEGY IMPLEMENTATIONS ====================
+
+/** Price-Time Priority: best price first, FIFO on same price. Trades at the resting order's price. */
+class PriceTimeStrategy implements MatchingStrategy {
+    @Override public void match(OrderBook book, RestingOrder taker, ExecutionListener out) {
+        OrderSide opposite = taker.side == OrderSide.BUY ? OrderSide.SELL : OrderSide.BUY;
+        while (taker.remaining > 0) {
+            PriceLevel level = book.best(opposite);
+            // Check price match: buy price >= sell price
+            if (level == null || (taker.side == OrderSide.BUY ? level.price > taker.price : level.price < taker.price)) break;
+            RestingOrder maker = level.head;
+            long qty = Math.min(taker.remaining, maker.remaining);
+            taker.remaining -= qty;
+            book.fill(maker, qty);
+            out.onTrade(book, taker, maker, level.price, qty);
+            if (maker.remaining == 0) book.remove(maker);
+        }
+    }
+}
+
+// ==================== MATCHING ENGINE ====================
+
+/** Blocking completion for the synchronous facade calls (one per call; the async path has none). */
+final class Ack {
+    private final Thread waiter = Thread.currentThread();
+    private volatile boolean done;
+    boolean ok;
+    long value;
+    Object result;
+
+    void complete(boolean ok, long value, Object result) {
+        this.result = result;
+        complete(ok, value);
+    }
+
+    void complete(boolean ok, long value) {
+        this.ok = ok;
+        this.value = value;
+        done = true;
+        LockSupport.unpark(waiter);
+    }
+
+    void await() { while (!done) LockSupport.park(this); }
+
+    /** await(), then rethrow a failure the matching thread completed this command with. */
+    void awaitChecked() {
+        await();
+        if (!ok && result instanceof Throwable)
+            throw new MatchingFailedException("command failed on the matching thread: " + result, (Throwable) result);
+    }
+}
+
+/** Preallocated ring slot; producers fill it, the matching thread reads it, nothing is allocated per command. */
+final class Command {
+    CommandType type;
+    int book, symbolId;
+    String symbol, traderId;
+    long orderId, price, quantity;
+    OrderSide side;
+    int traderNo;
+    StockOrder view;
+    Ack ack;
+    Journal journal;   // RECOVER only
+
+    void clear() { symbol = null; traderId = null; view = null; ack = null; journal = null; }
+}
+
+/**
+ * Multi-producer / single-consumer ring (Disruptor-style): producers claim a sequence with one
+ * getAndIncrement, wait until the consumer has freed that slot, fill it and publish it by writing
+ * the sequence into the slot's published[] cell. The consumer reads slots strictly in order.
+ */
+final class CommandRing {
+    final Command[] slots;
+    private final int mask;
+    private final AtomicLong claim = new AtomicLong();
+    private final AtomicLongArray published;
+    final AtomicLong consumed = new AtomicLong();   // next sequence the consumer will read
+
+    CommandRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of 2");
+        slots = new Command[capacity];
+        for (int i = 0; i < capacity; i++) slots[i] = new Command();
+        mask = capacity - 1;
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) published.set(i, -1);
+    }
+
+    /** Claim the next sequence; blocks (spin → yield → park) while the ring is full. */
+    long next() {
+        long seq = claim.getAndIncrement();
+        for (int spins = 0; seq - consumed.get() >= slots.length; spins++) {
+            if (spins < 100) Thread.onSpinWait();
+            else if (spins < 200) Thread.yield();
+            else LockSupport.parkNanos(10_000);
+        }
+        return seq;
+    }
+
+    Command slot(long seq) { return slots[(int) seq & mask]; }
+
+    void publish(long seq) { published.lazySet((int) seq & mask, seq); }
+
+    boolean isPublished(long seq) { return published.get((int) seq & mask) == seq; }
+}
+
+/** Log-linear latency histogram: 16 sub-buckets per power of two (≤ 6.25% error). Single writer. */
+final class LatencyHistogram {
+    private final long[] counts = new long[64 * 16];
+    private long total, max;
+
+    void record(long nanos) {
+        int idx;
+        if (nanos < 16) idx = (int) Math.max(nanos, 0);
+        else {
+            int exp = 63 - Long.numberOfLeadingZeros(nanos);
+            idx = (exp - 3) * 16 + (int) ((nanos >>> (exp - 4)) & 15);
+        }
+        counts[idx]++;
+        total++;
+        if (nanos > max) max = nanos;
+    }
+
+    /** Upper bound of the bucket holding the p-th quantile, in ns. */
+    long percentile(double p) {
+        long target = (long) Math.ceil(total * p), seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target && seen > 0) {
+                if (i < 16) return i;
+                int exp = i / 16 + 3;
+                return Math.min(max, ((16L + i % 16 + 1) << (exp - 4)) - 1);
+            }
+        }
+        return max;
+    }
+
+    long count() { return total; }
+    long max() { return max; }
+
+    void reset() { Arrays.fill(counts, 0); total = 0; max = 0; }
+}
+
+/**
+ * One shard: a ring and the single thread that owns every book assigned to it. No locks on
+ * the matching path; all book reads (depth queries) also go through the ring.
+ * Java can't pin the thread to a core itself; with BUSY_SPIN, run it on an isolated CPU
+ * (taskset/isolcpus, or an affinity library) for the LMAX latency profile.
+ * With a journal, every PLACE/CANCEL is appended before it is applied and acks are held until
+ * the batch they belong to is committed (group commit).
+ */
+final class MatchingEngine implements Runnable {
+    static final int MAX_BATCH = 1024;   // commands per group commit under sustained load
+
+    private final CommandRing ring;
+    private final MatchingStrategy strategy;
+    private final FillListener listener;
+    private final ExecutionListener fills = this::fill;
+    private final int shard, shardCount;
+    private final IdleStrategy idle;
+    private OrderBook[] books = new OrderBook[16];
+    final Thread thread;
+    private volatile boolean running = true, sleeping;
+    private volatile Throwable failure;  // non-null → fail-stop: every later command is rejected
+    volatile LatencyHistogram latency;   // non-null → record per-command service time
+    volatile MdRing md;                  // non-null → emit trades and level deltas for the feed
+
+    // journal state: matching thread only (trader names are also read by history queries)
+    private Journal journal;
+    private long trades, seq, maxOrderId, sinceSnapshot;
+    private final Map<String, Integer> traderNos = new HashMap<>();
+    private volatile String[] traderNames = new String[16];
+    private int traderCount;
+    private Ack[] held = new Ack[64];
+    private int heldCount;
+    private final Command replayed = new Command();
+    volatile long snapshotEvery;         // journaled commands between book snapshots (0 = only on request)
+
+    MatchingEngine(int shard, int shardCount, int ringSize, MatchingStrategy strategy, FillListener listener, IdleStrategy idle) {
+        this.ring = new CommandRing(ringSize);
+        this.strategy = strategy;
+        this.listener = listener;
+        this.shard = shard;
+        this.shardCount = shardCount;
+        this.idle = idle;
+        this.thread = new Thread(this, "match-" + shard);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Throws at once if the shard has failed (the thread keeps draining, so a claim never hangs either). */
+    long claim() {
+        Throwable f = failure;
+        if (f != null) throw new MatchingFailedException("shard " + shard + " has failed: " + f, f);
+        return ring.next();
+    }
+    Command slot(long seq) { return ring.slot(seq); }
+
+    void publish(long seq) {
+        ring.publish(seq);
+        if (sleeping) LockSupport.unpark(thread);
+    }
+
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /** Trades executed by this shard (read after an ack or flush()). */
+    long tradesExecuted() { return trades; }
+
+    /** Trade ids are per shard and deterministic, so a replay reproduces them: shard + 1, + shardCount, ... */
+    private long tradeId(long n) { return n * shardCount + shard + 1; }
+
+    String traderName(int no) { return no < 0 ? null : traderNames[no]; }
+
+    @Override
+    public void run() {
+        long next = 0;
+        int idleSpins = 0, batch = 0;
+        while (running) {
+            if (!ring.isPublished(next)) {
+                idleSpins = idle(next, idleSpins);
+                continue;
+            }
+            idleSpins = 0;
+            Command c = ring.slot(next);
+            LatencyHistogram h = latency;
+            long t0 = h != null ? System.nanoTime() : 0;
+            Throwable f = failure;
+            try {
+                if (f == null) process(c); else reject(c, f);
+            } catch (RuntimeException | Error e) {
+                fail(c, e);
+            }
+            if (h != null) h.record(System.nanoTime() - t0);
+            c.clear();
+            ring.consumed.lazySet(++next);
+            if (journal != null && failure == null && (++batch >= MAX_BATCH || !ring.isPublished(next))) {
+                try { endBatch(); } catch (RuntimeException | Error e) { fail(null, e); }
+                batch = 0;
+            }
+        }
+        if (journal != null) {
+            if (failure == null) endBatch();
+            journal.close();
+        }
+    }
+
+    /**
+     * A command threw. In-memory, only that command is rejected and the shard carries on.
+     * Journaled (the command may already be logged, and replay would hit it again) or on an
+     * Error, the shard fails stop: held acks are released as failed, and every later command
+     * is rejected, so no caller waits forever on an ack or a full ring.
+     */
+    private void fail(Command c, Throwable e) {
+        if (journal != null || e instanceof Error) {
+            failure = e;
+            for (int i = 0; i < heldCount; i++) {
+                held[i].complete(false, 0, e);
+                held[i] = null;
+            }
+            heldCount = 0;
+        }
+        if (c != null) reject(c, e);
+    }
+
+    private static void reject(Command c, Throwable e) {
+        if (c.view != null && c.type == CommandType.PLACE) c.view.status = OrderStatus.REJECTED;
+        if (c.ack != null) c.ack.complete(false, 0, e);
+    }
+
+    private int idle(long next, int spins) {
+        if (idle == IdleStrategy.BUSY_SPIN || spins < 100) Thread.onSpinWait();
+        else if (spins < 110) Thread.yield();
+        else {
+            sleeping = true;
+            if (!ring.isPublished(next) && running) LockSupport.parkNanos(this, 1_000_000);
+            sleeping = false;
+        }
+        return spins + 1;
+    }
+
+    /** Group commit: one force() for the whole batch, then release its acks; snapshot if due. */
+    private void endBatch() {
+        journal.commit();
+        for (int i = 0; i < heldCount; i++) {
+            Ack a = held[i];
+            held[i] = null;
+            a.complete(a.ok, a.value);
+        }
+        heldCount = 0;
+        long every = snapshotEvery;
+        if (every > 0 && sinceSnapshot >= every) snapshot();
+    }
+
+    private void done(Ack a, boolean ok, long value, Object result) {
+        if (a == null) return;
+        if (journal == null) { a.complete(ok, value, result); return; }
+        a.ok = ok;
+        a.value = value;
+        a.result = result;
+        if (heldCount == held.length) held = Arrays.copyOf(held, heldCount * 2);
+        held[heldCount++] = a;
+    }
+
+    private OrderBook book(Command c) {
+        if (c.book >= books.length) books = Arrays.copyOf(books, Math.max(books.length * 2, c.book + 1));
+        OrderBook b = books[c.book];
+        if (b != null) return b;
+        if (journal != null) journal.name(Journal.SYMBOL, c.book, c.symbolId, c.symbol);
+        return books[c.book] = new OrderBook(c.symbol, c.symbolId);
+    }
+
+    private int trader(String name) {
+        if (name == null) return -1;
+        Integer no = traderNos.get(name);
+        if (no != null) return no;
+        int n = traderCount;
+        String[] names = traderNames;
+        if (n == names.length) names = Arrays.copyOf(names, n * 2);
+        names[n] = name;
+        traderNames = names;
+        traderNos.put(name, n);
+        traderCount = n + 1;
+        if (journal != null) journal.name(Journal.TRADER, n, 0, name);
+        return n;
+    }
+
+    private void process(Command c) {
+        switch (c.type) {
+            case PLACE:
+                if (journal != null) {
+                    c.traderNo = trader(c.traderId);
+                    book(c);   // SYMBOL record goes first
+                    journal.place(++seq, c.book, c.symbolId, c.orderId, c.side, c.price, c.quantity, c.traderNo);
+                    sinceSnapshot++;
+                }
+                maxOrderId = Math.max(maxOrderId, c.orderId);
+                place(c);
+                break;
+            case CANCEL:
+                if (journal != null) {
+                    book(c);
+                    journal.cancel(++seq, c.book, c.symbolId, c.orderId);
+                    sinceSnapshot++;
+                }
+                cancel(c);
+                break;
+            case QUERY_DEPTH: done(c.ack, true, book(c).orderCount(c.side), null); break;
+            case QUERY_L2: done(c.ack, true, 0, book(c).depth(c.side)); break;
+            case SYNC: done(c.ack, true, 0, null); break;
+            case SNAPSHOT: done(c.ack, journal != null && snapshot(), 0, null); break;
+            case RECOVER: recover(c); break;
+        }
+    }
+
+    private void place(Command c) {
+        OrderBook book = book(c);
+        if (book.slot(c.price) < 0) {   // outside the ladder's price band
+            if (c.view != null) c.view.status = OrderStatus.REJECTED;
+            done(c.ack, false, 0, null);
+            return;
+        }
+        RestingOrder o = book.acquire();
+        o.id = c.orderId;
+        o.traderId = c.traderId;
+        o.traderNo = c.traderNo;
+        o.side = c.side;
+        o.price = c.price;
+        o.quantity = o.remaining = c.quantity;
+        o.view = c.view;
+        try {
+            strategy.match(book, o, fills);
+        } catch (RuntimeException e) {
+            book.release(o);        // the taker never rests; fills it already made stand
+            book.flushDirty(md);
+            throw e;
+        }
+        if (o.remaining > 0) book.rest(o); else book.release(o);
+        book.flushDirty(md);
+        done(c.ack, true, 0, null);
+    }
+
+    private void fill(OrderBook book, RestingOrder taker, RestingOrder maker, long price, long qty) {
+        long tradeId = tradeId(trades++);
+        RestingOrder buy = taker.side == OrderSide.BUY ? taker : maker, sell = buy == taker ? maker : taker;
+        if (journal != null)
+            journal.trade(book.symbolId, taker.side, tradeId, buy.id, sell.id, price, qty, buy.traderNo, sell.traderNo);
+        MdRing r = md;
+        if (r != null) {
+            MdEvent e = r.claim();
+            e.type = MdType.TRADE;
+            e.symbolId = book.symbolId;
+            e.symbol = book.symbol;
+            e.side = taker.side;   // aggressor
+            e.price = price;
+            e.qty = qty;
+            e.tradeId = tradeId;
+            e.buyOrderId = buy.id;
+            e.sellOrderId = sell.id;
+            e.buyer = buy.traderId;
+            e.seller = sell.traderId;
+            r.publish();
+        }
+        listener.onFill(book, taker, maker, price, qty, tradeId);
+    }
+
+    private void cancel(Command c) {
+        OrderBook book = book(c);
+        RestingOrder o = book.index.get(c.orderId);
+        if (o != null) {
+            if (o.view != null) o.view.status = OrderStatus.CANCELLED;
+            book.remove(o);
+            book.flushDirty(md);
+        }
+        done(c.ack, o != null, 0, null);
+    }
+
+    // ---- recovery: runs on this thread, as the first command, before any order is accepted ----
+
+    private void recover(Command c) {
+        Journal j = c.journal;
+        RecoveryStats stats = new RecoveryStats(shard);
+        long t0 = System.nanoTime();
+        try {
+            long from = loadSnapshot(j, stats);
+            stats.snapshotNanos = System.nanoTime() - t0;
+            long end = j.replay(from, (b, off, position) -> apply(j, b, off, position, stats));
+            if (trades < j.tradesWritten())
+                throw new IllegalStateException("shard " + shard + ": replay produced " + trades
+                    + " trades but the journal holds " + j.tradesWritten() + " (non-deterministic strategy?)");
+            j.openAt(end);
+            journal = j;
+            for (int i = 0; i < books.length; i++) {
+                OrderBook b = books[i];
+                if (b == null) continue;
+                stats.symbols.put(b.symbol, new int[]{i, b.symbolId});
+                for (RestingOrder o : b.orders()) {
+                    StockOrder v = new StockOrder(o.id, b.symbol, o.traderId, o.side, Price.toDouble(o.price), (int) o.quantity);
+                    if (o.filled() > 0) v.fill((int) o.filled());
+                    o.view = v;
+                    stats.openOrders.add(v);
+                }
+            }
+            stats.maxOrderId = maxOrderId;
+            stats.trades = trades;
+            stats.nanos = System.nanoTime() - t0;
+            c.ack.complete(true, 0, stats);
+        } catch (IOException | RuntimeException e) {
+            c.ack.complete(false, 0, e);
+        }
+    }
+
+    private void apply(Journal j, ByteBuffer b, int off, long position, RecoveryStats stats) {
+        stats.records++;
+        Command c = replayed;
+        byte type = b.get(off);
+        if (type == Journal.TRADE) { j.noteTrade(position); return; }
+        if (type == Journal.TRADER) { trader(Journal.name(b, off)); return; }
+        c.book = b.getInt(off + 4);
+        c.symbolId = b.getInt(off + 8);
+        if (type == Journal.SYMBOL) {
+            if (c.symbolId % shardCount != shard)
+                throw new IllegalStateException("journal was written with a different shard count");
+            c.symbol = Journal.name(b, off);
+            book(c);
+            return;
+        }
+        seq = b.getLong(off + 16);
+        c.orderId = b.getLong(off + 24);
+        stats.commands++;
+        if (type == Journal.CANCEL) { cancel(c); return; }
+        c.side = b.get(off + 1) == 0 ? OrderSide.BUY : OrderSide.SELL;
+        c.price = b.getLong(off + 32);
+        c.quantity = b.getLong(off + 40);
+        c.traderNo = b.getInt(off + 48);
+        c.traderId = traderName(c.traderNo);
+        maxOrderId = Math.max(maxOrderId, c.orderId);
+        place(c);
+    }
+
+    /**
+     * Book snapshot: every resting order, level by level in FIFO order, plus the counters and the
+     * journal position it covers. Written to a temp file and renamed, so a crash leaves the old one.
+     * Runs on the matching thread (the book can't change underneath it); bounds replay to the
+     * commands since the last snapshot.
+     */
+    private boolean snapshot() {
+        journal.commit();
+        Path file = journal.snapshotPath(), tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 20))) {
+            out.writeInt(Journal.SNAPSHOT_MAGIC);
+            out.writeInt(shard);
+            out.writeInt(shardCount);
+            out.writeLong(seq);
+            out.writeLong(journal.position());
+            out.writeLong(trades);
+            out.writeLong(maxOrderId);
+            journal.writeTradeIndex(out);
+            out.writeInt(traderCount);
+            for (int i = 0; i < traderCount; i++) out.writeUTF(traderNames[i]);
+            for (int i = 0; i < books.length; i++) {
+                OrderBook b = books[i];
+                if (b == null) continue;
+                List<RestingOrder> orders = b.orders();
+                out.writeInt(i);
+                out.writeInt(b.symbolId);
+                out.writeUTF(b.symbol);
+                out.writeLong(b.ladderBase());
+                out.writeInt(b.ladderLength());
+                out.writeInt(orders.size());
+                for (RestingOrder o : orders) {
+                    out.writeLong(o.id);
+                    out.writeInt(o.traderNo);
+                    out.writeBoolean(o.side == OrderSide.BUY);
+                    out.writeLong(o.price);
+                    out.writeLong(o.quantity);
+                    out.writeLong(o.remaining);
+                }
+            }
+            out.writeInt(-1);
+        } catch (IOException e) {
+            return false;   // the journal is still complete; the next snapshot retries
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            return false;
+        }
+        sinceSnapshot = 0;
+        return true;
+    }
+
+    /** Restore the latest snapshot, if any; returns the journal position to replay from. */
+    private long loadSnapshot(Journal j, RecoveryStats stats) throws IOException {
+        Path file = j.snapshotPath();
+        if (!Files.exists(file)) return 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 20))) {
+            if (in.readInt() != Journal.SNAPSHOT_MAGIC || in.readInt() != shard || in.readInt() != shardCount)
+                throw new IllegalStateException("snapshot " + file + " belongs to another shard layout");
+            seq = in.readLong();
+            long position = in.readLong();
+            trades = in.readLong();
+            maxOrderId = in.readLong();
+            j.readTradeIndex(in);
+            for (int i = 0, n = in.readInt(); i < n; i++) trader(in.readUTF());
+            Command c = replayed;
+            for (int book; (book = in.readInt()) >= 0; ) {
+                c.book = book;
+                c.symbolId = in.readInt();
+                c.symbol = in.readUTF();
+                OrderBook b = book(c);
+                b.restoreLadder(in.readLong(), in.readInt());
+                for (int i = 0, n = in.readInt(); i < n; i++) {
+                    RestingOrder o = b.acquire();
+                    o.id = in.readLong();
+                    o.traderNo = in.readInt();
+                    o.traderId = traderName(o.traderNo);
+                    o.side = in.readBoolean() ? OrderSide.BUY : OrderSide.SELL;
+                    o.price = in.readLong();
+                    o.quantity = in.readLong();
+                    o.remaining = in.readLong();
+                    b.rest(o);
+                }
+                b.flushDirty(null);
+            }
+            stats.snapshotSeq = seq;
+            return position;
+        }
+    }
+}
+
+/** What one shard's startup recovery did; also carries the rebuilt routes and open orders to the facade. */
+final class RecoveryStats {
+    final int shard;
+    long snapshotSeq = -1, records, commands, trades, maxOrderId, nanos, snapshotNanos;
+    final Map<String, int[]> symbols = new HashMap<>();   // symbol → {book, symbolId}
+    final List<StockOrder> openOrders = new ArrayList<>();
+
+    RecoveryStats(int shard) { this.shard = shard; }
+}
+
+// ==================== JOURNAL ====================
+
+/**
+ * Per-shard write-ahead log: every PLACE/CANCEL (plus the SYMBOL/TRADER names they introduce and
+ * the TRADEs they produced) as fixed 64-byte little-endian records in memory-mapped segment files
+ * "shard-S.NNNNNN.journal". Only the shard's matching thread appends; commit() ends a group, so
+ * one force() covers a whole batch of commands. History reads go through the page cache.
+ *
+ *   header : 0 type | 1 side or name length | 4 book or traderNo | 8 symbolId | 12 checksum
+ *   PLACE  : 16 seq | 24 orderId | 32 price | 40 qty | 48 traderNo
+ *   CANCEL : 16 seq | 24 orderId
+ *   TRADE  : 16 tradeId | 24 buyOrderId | 32 sellOrderId | 40 price | 48 qty | 56 buyerNo | 60 sellerNo
+ *   SYMBOL, TRADER : UTF-8 name from 16
+ *
+ * Type 0 ends the log; a bad checksum is a torn tail (crash mid-write) and ends it as well.
+ */
+final class Journal {
+    static final int RECORD = 64, SEGMENT_BYTES = 64 << 20, MAX_NAME = 16, TRADE_INDEX_STRIDE = 1024;
+    static final int SNAPSHOT_MAGIC = 0x534E4150;
+    static final byte PLACE = 1, CANCEL = 2, TRADE = 3, SYMBOL = 4, TRADER = 5;
+
+    interface Visitor { void record(ByteBuffer b, int off, long position); }
+
+    final Path dir;
+    final int shard;
+    private final Durability durability;
+    private MappedByteBuffer buf;
+    private int segment, pos, committed;
+    private long tradesWritten;
+    private volatile long committedTrades;              // history reads stop here
+    private volatile long[] tradeIndex = new long[64];  // position of every TRADE_INDEX_STRIDE-th trade
+    long bytesWritten;
+
+    Journal(Path dir, int shard, Durability durability) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.shard = shard;
+        this.durability = durability;
+    }
+
+    Path segmentPath(int n) { return dir.resolve(String.format("shard-%d.%06d.journal", shard, n)); }
+    Path snapshotPath() { return dir.resolve("shard-" + shard + ".snapshot"); }
+
+    long position() { return (long) segment * SEGMENT_BYTES + pos; }
+    long tradesWritten() { return tradesWritten; }
+
+    /** Start appending at position (the end of the log found by replay). */
+    void openAt(long position) throws IOException {
+        map((int) (position / SEGMENT_BYTES));
+        pos = committed = (int) (position % SEGMENT_BYTES);
+    }
+
+    private void map(int n) throws IOException {
+        try (FileChannel ch = FileChannel.open(segmentPath(n), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);   // extends the file, sparse until written
+        }
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        segment = n;
+    }
+
+    private int claim() {
+        if (pos == SEGMENT_BYTES) {
+            commit();
+            try { map(segment + 1); } catch (IOException e) { throw new UncheckedIOException(e); }   // fail-stop
+            pos = committed = 0;
+        }
+        int p = pos;
+        pos += RECORD;
+        bytesWritten += RECORD;
+        return p;
+    }
+
+    void place(long seq, int book, int symbolId, long orderId, OrderSide side, long price, long qty, int trader) {
+        int p = claim();
+        buf.putLong(p + 16, seq).putLong(p + 24, orderId).putLong(p + 32, price).putLong(p + 40, qty)
+           .putLong(p + 48, trader & 0xFFFFFFFFL).putLong(p + 56, 0);
+        seal(p, PLACE, side == OrderSide.BUY ? 0 : 1, book, symbolId);
+    }
+
+    void cancel(long seq, int book, int symbolId, long orderId) {
+        int p = claim();
+        buf.putLong(p + 16, seq).putLong(p + 24, orderId).putLong(p + 32, 0).putLong(p + 40, 0)
+           .putLong(p + 48, 0).putLong(p + 56, 0);
+        seal(p, CANCEL, 0, book, symbolId);
+    }
+
+    void trade(int symbolId, OrderSide aggressor, long tradeId, long buyId, long sellId, long price, long qty, int buyer, int seller) {
+        int p = claim();
+        buf.putLong(p + 16, tradeId).putLong(p + 24, buyId).putLong(p + 32, sellId).putLong(p + 40, price)
+           .putLong(p + 48, qty).putInt(p + 56, buyer).putInt(p + 60, seller);
+        seal(p, TRADE, aggressor == OrderSide.BUY ? 0 : 1, 0, symbolId);
+        noteTrade((long) segment * SEGMENT_BYTES + p);
+    }
+
+    /** SYMBOL (key = book) or TRADER (key = traderNo) name; names are ≤ MAX_NAME chars → ≤ 48 UTF-8 bytes. */
+    void name(byte type, int key, int symbolId, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int p = claim();
+        for (int i = 16; i < RECORD; i += 8) buf.putLong(p + i, 0);
+        buf.put(p + 16, bytes);
+        seal(p, type, bytes.length, key, symbolId);
+    }
+
+    static String name(ByteBuffer b, int off) {
+        byte[] bytes = new byte[b.get(off + 1) & 0xFF];
+        b.get(off + 16, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void seal(int p, byte type, int b1, int key, int symbolId) {
+        buf.put(p, type).put(p + 1, (byte) b1).putShort(p + 2, (short) 0).putInt(p + 4, key).putInt(p + 8, symbolId);
+        buf.putInt(p + 12, checksum(buf, p));
+    }
+
+    static int checksum(ByteBuffer b, int p) {
+        long h = (b.getLong(p) ^ ((long) b.getInt(p + 8) << 32)) * 0x9E3779B97F4A7C15L;
+        for (int i = 16; i < RECORD; i += 8) h = (h ^ b.getLong(p + i)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Count a TRADE record (written or replayed); every TRADE_INDEX_STRIDE-th goes into the sparse index. */
+    void noteTrade(long position) {
+        if (tradesWritten % TRADE_INDEX_STRIDE == 0) {
+            int i = (int) (tradesWritten / TRADE_INDEX_STRIDE);
+            long[] idx = tradeIndex;
+            if (i == idx.length) idx = Arrays.copyOf(idx, i * 2);
+            idx[i] = position;
+            tradeIndex = idx;
+        }
+        tradesWritten++;
+    }
+
+    /** End of a group: force the batch to disk (GROUP_COMMIT) and make its trades readable. */
+    void commit() {
+        if (durability == Durability.GROUP_COMMIT && pos > committed) buf.force(committed, pos - committed);
+        committed = pos;
+        if (committedTrades != tradesWritten) committedTrades = tradesWritten;
+    }
+
+    void close() {
+        commit();
+        if (buf != null) buf.force();
+    }
+
+    /** Visit every valid record from position on; returns the end of the log, where appends continue. */
+    long replay(long from, Visitor v) throws IOException {
+        long end = from;
+        for (int n = (int) (from / SEGMENT_BYTES); Files.exists(segmentPath(n)); n++) {
+            MappedByteBuffer seg;
+            try (FileChannel ch = FileChannel.open(segmentPath(n), StandardOpenOption.READ)) {
+                seg = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), SEGMENT_BYTES));
+            }
+            seg.order(ByteOrder.LITTLE_ENDIAN);
+            long base = (long) n * SEGMENT_BYTES;
+            for (int p = (int) Math.max(0, end - base); p + RECORD <= seg.capacity(); p += RECORD) {
+                if (seg.get(p) == 0 || seg.getInt(p + 12) != checksum(seg, p)) return base + p;
+                v.record(seg, p, base + p);
+            }
+            end = base + SEGMENT_BYTES;
+        }
+        return end;
+    }
+
+    /** This shard's n-th trade record (0-based), read from disk; null if not committed yet. Any thread. */
+    ByteBuffer readTrade(long n) throws IOException {
+        if (n < 0 || n >= committedTrades) return null;
+        long position = tradeIndex[(int) (n / TRADE_INDEX_STRIDE)], skip = n % TRADE_INDEX_STRIDE;
+        ByteBuffer chunk = ByteBuffer.allocate(RECORD * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        for (int seg = (int) (position / SEGMENT_BYTES); Files.exists(segmentPath(seg)); seg++) {
+            try (FileChannel ch = FileChannel.open(segmentPath(seg), StandardOpenOption.READ)) {
+                for (long p = position - (long) seg * SEGMENT_BYTES; p < SEGMENT_BYTES; ) {
+                    chunk.clear();
+                    int read = ch.read(chunk, p);
+                    if (read < RECORD) return null;
+                    for (int i = 0; i + RECORD <= read; i += RECORD)
+                        if (chunk.get(i) == TRADE && skip-- == 0) return chunk.slice(i, RECORD).order(ByteOrder.LITTLE_ENDIAN);
+                    p += read - read % RECORD;
+                }
+            }
+            position = (long) (seg + 1) * SEGMENT_BYTES;
+        }
+        return null;
+    }
+
+    void writeTradeIndex(DataOutputStream out) throws IOException {
+        int n = (int) ((tradesWritten + TRADE_INDEX_STRIDE - 1) / TRADE_INDEX_STRIDE);
+        out.writeLong(tradesWritten);
+        out.writeInt(n);
+        for (int i = 0; i < n; i++) out.writeLong(tradeIndex[i]);
+    }
+
+    void readTradeIndex(DataInputStream in) throws IOException {
+        tradesWritten = in.readLong();
+        int n = in.readInt();
+        long[] idx = new long[Math.max(64, n)];
+        for (int i = 0; i < n; i++) idx[i] = in.readLong();
+        tradeIndex = idx;
+        committedTrades = tradesWritten;
+    }
+}
+
+// ==================== MARKET DATA ====================
+
+/** Preallocated slot in a shard's market-data ring (matching thread writes, publisher reads). */
+final class MdEvent {
+    MdType type;
+    int symbolId, orders;
+    String symbol, buyer, seller;
+    OrderSide side;
+    long price, qty, tradeId, buyOrderId, sellOrderId;
+}
+
+/**
+ * SPSC ring, matching thread → publisher. The publisher never waits on subscribers, so the
+ * ring only fills if the publisher thread itself is starved; then the matching thread waits.
+ */
+final class MdRing {
+    private final MdEvent[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+    private long writeSeq;   // producer-local
+    long stalls;             // producer-local: claims that found the ring full
+
+    MdRing(int capacity) {
+        slots = new MdEvent[capacity];
+        for (int i = 0; i < capacity; i++) slots[i] = new MdEvent();
+        mask = capacity - 1;
+    }
+
+    MdEvent claim() {
+        if (writeSeq - head.get() >= slots.length) {
+            stalls++;
+            for (int spins = 0; writeSeq - head.get() >= slots.length; spins++) {
+                if (spins < 100) Thread.onSpinWait();
+                else if (spins < 200) Thread.yield();
+                else LockSupport.parkNanos(10_000);
+            }
+        }
+        return slots[(int) writeSeq & mask];
+    }
+
+    void publish() { tail.lazySet(++writeSeq); }
+
+    MdEvent peek() {
+        long h = head.get();
+        return h < tail.get() ? slots[(int) h & mask] : null;
+    }
+
+    void advance() {
+        long h = head.get();
+        MdEvent e = slots[(int) h & mask];
+        e.symbol = e.buyer = e.seller = null;
+        head.lazySet(h + 1);
+    }
+
+    long published() { return tail.get(); }
+    long consumed() { return head.get(); }
+}
+
+/**
+ * Fixed 40-byte feed message (big-endian), replacing a String.format per trade:
+ *   0 type | 1 side (0 buy, 1 sell; aggressor for TRADE) | 2 flags | 4 symbolId | 8 seq (per symbol)
+ *   16 price (Price fixed-point) | 24 qty (LEVEL: absolute level qty, 0 = level gone) | 32 orders
+ */
+final class MdCodec {
+    static final int MSG_BYTES = 40;
+    static final int FLAG_CONFLATED = 1;   // state as of now; intermediate updates were merged
+
+    private MdCodec() { }
+
+    static void encode(ByteBuffer b, MdType type, OrderSide side, int flags, int symbolId, long seq,
+                       long price, long qty, int orders) {
+        b.put(0, (byte) type.ordinal()).put(1, (byte) (side == OrderSide.SELL ? 1 : 0)).put(2, (byte) flags)
+         .putInt(4, symbolId).putLong(8, seq).putLong(16, price).putLong(24, qty).putInt(32, orders);
+    }
+
+    static MdType type(ByteBuffer b) { return MdType.CODES[b.get(0)]; }
+    static OrderSide side(ByteBuffer b) { return b.get(1) == 0 ? OrderSide.BUY : OrderSide.SELL; }
+    static boolean conflated(ByteBuffer b) { return (b.get(2) & FLAG_CONFLATED) != 0; }
+    static int symbolId(ByteBuffer b) { return b.getInt(4); }
+    static long seq(ByteBuffer b) { return b.getLong(8); }
+    static long price(ByteBuffer b) { return b.getLong(16); }
+    static long qty(ByteBuffer b) { return b.getLong(24); }
+    static int orders(ByteBuffer b) { return b.getInt(32); }
+}
+
+/** L2 book (price → {qty, orders}): the publisher's shadow copy, and what a subscriber rebuilds from the feed. */
+final class L2Book {
+    final TreeMap<Long, long[]> bids = new TreeMap<>(Comparator.reverseOrder()), asks = new TreeMap<>();
+    long seq;
+
+    void set(OrderSide side, long price, long qty, int orders) {
+        TreeMap<Long, long[]> m = side == OrderSide.BUY ? bids : asks;
+        if (qty == 0) { m.remove(price); return; }
+        long[] level = m.get(price);
+        if (level == null) m.put(price, new long[]{qty, orders});
+        else { level[0] = qty; level[1] = orders; }
+    }
+
+    long[] level(OrderSide side, long price) { return (side == OrderSide.BUY ? bids : asks).get(price); }
+
+    int levels() { return bids.size() + asks.size(); }
+
+    /** Subscriber side: apply one feed message for this symbol. */
+    void apply(ByteBuffer msg) {
+        switch (MdCodec.type(msg)) {
+            case SNAPSHOT_BEGIN: bids.clear(); asks.clear(); break;
+            case LEVEL: case SNAPSHOT_LEVEL:
+                set(MdCodec.side(msg), MdCodec.price(msg), MdCodec.qty(msg), MdCodec.orders(msg));
+                break;
+            default: break;   // TRADE, SNAPSHOT_END don't change the book
+        }
+        seq = Math.max(seq, MdCodec.seq(msg));
+    }
+
+    /** Levels best first: {price, qty, orders}. */
+    List<long[]> depth(OrderSide side) {
+        List<long[]> out = new ArrayList<>();
+        for (Map.Entry<Long, long[]> e : (side == OrderSide.BUY ? bids : asks).entrySet())
+            out.add(new long[]{e.getKey(), e.getValue()[0], e.getValue()[1]});
+        return out;
+    }
+}
+
+/**
+ * One feed consumer: an SPSC ring of fixed-size messages (publisher writes, consumer polls).
+ * When the ring is full the subscriber is lagging: further level updates collapse into a set of
+ * dirty (symbol, side, price) keys and trades into one per symbol; once it has drained half its
+ * ring, the publisher sends the current state of each dirty key (flag CONFLATED) and resumes.
  */
+final class MarketDataSubscriber {
+    static final int MAX_DIRTY = 1 << 16;   // beyond this, recover with a full snapshot instead
 
-// ==================== EXCEPTIONS ====================
+    final int id;
+    private final byte[] ring;
+    private final int capacity, mask;
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+    private long writeSeq;   // publisher-local
+    // Publisher-thread state
+    volatile boolean lagging, needsSnapshot = true;
+    final Set<Long> dirtyLevels = new HashSet<>();
+    final Map<Integer, long[]> conflatedTrades = new HashMap<>();   // symbolId → {price, qty, side}
+    volatile long delivered, conflatedUpdates, snapshots;
 
-class InvalidOrderException extends RuntimeException {
-    InvalidOrderException(String msg) { super("Invalid order: " + msg); }
-}
+    MarketDataSubscriber(int id, int capacityMessages) {
+        if (Integer.bitCount(capacityMessages) != 1) throw new IllegalArgumentException("capacity must be a power of 2");
+        this.id = id;
+        this.capacity = capacityMessages;
+        this.mask = capacityMessages - 1;
+        this.ring = new byte[capacityMessages * MdCodec.MSG_BYTES];
+    }
 
-class OrderNotFoundException extends RuntimeException {
-    OrderNotFoundException(String orderId) { super("Order not found: " + orderId); }
+    int capacity() { return capacity; }
+    int free() { return capacity - (int) (writeSeq - head.get()); }
+
+    /** Publisher side. */
+    boolean offer(byte[] msg) {
+        if (writeSeq - head.get() >= capacity) return false;
+        System.arraycopy(msg, 0, ring, ((int) writeSeq & mask) * MdCodec.MSG_BYTES, MdCodec.MSG_BYTES);
+        tail.lazySet(++writeSeq);
+        delivered++;
+        return true;
+    }
+
+    /** Consumer side: copy the next message into dst (flipped, 40 bytes). False if none. */
+    boolean poll(ByteBuffer dst) {
+        long h = head.get();
+        if (h == tail.get()) return false;
+        dst.clear();
+        dst.put(ring, ((int) h & mask) * MdCodec.MSG_BYTES, MdCodec.MSG_BYTES).flip();
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    boolean isEmpty() { return head.get() == tail.get(); }
 }
 
-// ==================== ENUMS ====================
+/**
+ * Market-data thread: drains every shard's event ring, keeps a shadow L2 book per symbol,
+ * encodes each event once and copies it into every subscriber's ring; also hands trades to the
+ * legacy TradeListeners and sends periodic full-depth snapshots (BEGIN, one SNAPSHOT_LEVEL per
+ * level, END; incrementals after it carry higher seq). Nothing here ever waits on a consumer:
+ * each listener runs on its own thread behind a bounded queue (full → that listener's trade is
+ * dropped and counted), and a listener that throws is counted, not fatal.
+ */
+final class MarketDataPublisher implements Runnable, AutoCloseable {
+    private final MdRing[] rings;
+    private final List<MarketDataSubscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<MarketDataSubscriber> joining = new ConcurrentLinkedQueue<>();
+    static final int LISTENER_QUEUE = 1 << 14;
+    private final List<ListenerFeed> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger subscriberIds = new AtomicInteger();
+    private L2Book[] books = new L2Book[16];   // shadow books by symbolId (publisher thread only)
+    private long[] seqs = new long[16];
+    private final byte[] scratch = new byte[MdCodec.MSG_BYTES];
+    private final ByteBuffer msg = ByteBuffer.wrap(scratch);
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile long snapshotIntervalMs = 1000;
+    volatile long eventsIn;
 
-enum OrderSide { BUY, SELL }
+    MarketDataPublisher(int shards) {
+        rings = new MdRing[shards];
+        for (int i = 0; i < shards; i++) rings[i] = new MdRing(1 << 16);
+        thread = new Thread(this, "market-data");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-enum OrderStatus { OPEN, PARTIALLY_FILLED, FILLED, CANCELLED }
+    /** One TradeListener on its own thread: it can only delay or lose its own trades. */
+    static final class ListenerFeed implements Runnable {
+        private final TradeListener listener;
+        private final ArrayBlockingQueue<Trade> queue;
+        private final Thread thread;
+        private volatile long accepted, dropped;   // publisher thread only
+        private volatile long handled, failures;   // listener thread only
 
-// ==================== MODELS ====================
+        ListenerFeed(TradeListener listener, int capacity) {
+            this.listener = listener;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            thread = new Thread(this, "trade-listener");
+            thread.setDaemon(true);
+            thread.start();
+        }
 
-class StockOrder {
-    final String id, symbol, traderId;
-    final OrderSide side;
-    final double price;
-    int quantity, filledQty;
-    OrderStatus status;
-    final long timestamp;
+        void offer(Trade t) {
+            if (queue.offer(t)) accepted++; else dropped++;
+        }
 
-    StockOrder(String id, String symbol, String traderId, OrderSide side, double price, int quantity) {
-        this.id = id; this.symbol = symbol; this.traderId = traderId;
-        this.side = side; this.price = price; this.quantity = quantity;
-        this.filledQty = 0; this.status = OrderStatus.OPEN;
-        this.timestamp = System.nanoTime();
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Trade t = queue.take();
+                    try { listener.onTrade(t); } catch (RuntimeException e) { failures++; }
+                    handled++;
+                }
+            } catch (InterruptedException e) {
+                // closed
+            }
+        }
+
+        boolean drained() { return handled >= accepted || !thread.isAlive(); }
+        long delivered() { return handled - failures; }
+        long dropped() { return dropped; }
+        long failures() { return failures; }
+        boolean alive() { return thread.isAlive(); }
     }
 
-    int remainingQty() { return quantity - filledQty; }
+    MdRing ring(int shard) { return rings[shard]; }
 
-    void fill(int qty) {
-        filledQty += qty;
-        status = filledQty >= quantity ? OrderStatus.FILLED : OrderStatus.PARTIALLY_FILLED;
+    ListenerFeed addListener(TradeListener l, int queueCapacity) {
+        ListenerFeed f = new ListenerFeed(l, queueCapacity);
+        listeners.add(f);
+        return f;
     }
-}
+    void setSnapshotInterval(long ms) { this.snapshotIntervalMs = ms; }
 
-class Trade {
-    final String id, symbol;
-    final String buyOrderId, sellOrderId;
-    final String buyerId, sellerId;
-    final double price;
-    final int quantity;
+    MarketDataSubscriber subscribe(int capacityMessages) {
+        MarketDataSubscriber s = new MarketDataSubscriber(subscriberIds.incrementAndGet(), capacityMessages);
+        joining.add(s);
+        return s;
+    }
 
-    Trade(String id, String symbol, String buyOrderId, String sellOrderId,
-          String buyerId, String sellerId, double price, int quantity) {
-        this.id = id; this.symbol = symbol;
-        this.buyOrderId = buyOrderId; this.sellOrderId = sellOrderId;
-        this.buyerId = buyerId; this.sellerId = sellerId;
-        this.price = price; this.quantity = quantity;
+    void unsubscribe(MarketDataSubscriber s) { subscribers.remove(s); }
+
+    /** Matching-thread waits on full event rings, summed over shards (read after the engines are idle). */
+    long stalls() {
+        long n = 0;
+        for (MdRing r : rings) n += r.stalls;
+        return n;
     }
-}
 
-// ==================== INTERFACES ====================
+    /** Waits until every event published so far has been fanned out and handled by the listeners. */
+    void awaitDrained() {
+        for (MdRing r : rings) {
+            long target = r.published();
+            while (r.consumed() < target) LockSupport.parkNanos(50_000);
+        }
+        for (ListenerFeed f : listeners) {
+            while (!f.drained()) LockSupport.parkNanos(50_000);
+        }
+    }
 
-/** Strategy — order matching algorithm. */
-interface MatchingStrategy {
-    List<Trade> match(StockOrder incoming, PriorityQueue<StockOrder> oppositeBook, int[] tradeCounter);
-}
+    @Override
+    public void close() {
+        running = false;
+        for (ListenerFeed f : listeners) f.thread.interrupt();
+    }
 
-/** Observer — trade execution notifications. */
-interface TradeListener {
-    void onTrade(Trade trade);
-}
+    @Override
+    public void run() {
+        long nextSnapshot = System.currentTimeMillis() + snapshotIntervalMs;
+        int idle = 0;
+        while (running) {
+            int handled = 0;
+            for (MdRing r : rings) {
+                for (MdEvent e; handled < 4096 && (e = r.peek()) != null; handled++) {
+                    handle(e);
+                    r.advance();
+                }
+            }
+            for (MarketDataSubscriber s; (s = joining.poll()) != null; ) subscribers.add(s);
+            long now = System.currentTimeMillis();
+            boolean periodic = now >= nextSnapshot;
+            if (periodic) nextSnapshot = now + snapshotIntervalMs;
+            for (MarketDataSubscriber s : subscribers) maintain(s, periodic);
+            if (handled > 0) idle = 0;
+            else if (++idle < 100) Thread.onSpinWait();
+            else if (idle < 200) Thread.yield();
+            else LockSupport.parkNanos(50_000);
+        }
+    }
 
-// ==================== STRATEGY IMPLEMENTATIONS ====================
+    private L2Book book(int symbolId) {
+        if (symbolId >= books.length) {
+            books = Arrays.copyOf(books, Math.max(books.length * 2, symbolId + 1));
+            seqs = Arrays.copyOf(seqs, books.length);
+        }
+        L2Book b = books[symbolId];
+        return b != null ? b : (books[symbolId] = new L2Book());
+    }
 
-/** Price-Time Priority: best price first, FIFO on same price. */
-class PriceTimeStrategy implements MatchingStrategy {
-    @Override public List<Trade> match(StockOrder incoming, PriorityQueue<StockOrder> oppositeBook, int[] tradeCounter) {
-        List<Trade> trades = new ArrayList<>();
-        while (incoming.remainingQty() > 0 && !oppositeBook.isEmpty()) {
-            StockOrder top = oppositeBook.peek();
-            // Check price match: buy price >= sell price
-            boolean priceMatch = incoming.side == OrderSide.BUY
-                ? incoming.price >= top.price
-                : top.price >= incoming.price;
-            if (!priceMatch) break;
+    private void handle(MdEvent e) {
+        eventsIn++;
+        L2Book book = book(e.symbolId);
+        long seq = book.seq = ++seqs[e.symbolId];
+        if (e.type == MdType.LEVEL) {
+            book.set(e.side, e.price, e.qty, e.orders);
+            MdCodec.encode(msg, MdType.LEVEL, e.side, 0, e.symbolId, seq, e.price, e.qty, e.orders);
+            for (MarketDataSubscriber s : subscribers) {
+                if (s.needsSnapshot) continue;
+                if (s.lagging || !s.offer(scratch)) conflateLevel(s, e.symbolId, e.side, e.price);
+            }
+            return;
+        }
+        MdCodec.encode(msg, MdType.TRADE, e.side, 0, e.symbolId, seq, e.price, e.qty, 0);
+        for (MarketDataSubscriber s : subscribers) {
+            if (s.needsSnapshot) continue;
+            if (s.lagging || !s.offer(scratch)) conflateTrade(s, e.symbolId, e.side, e.price, e.qty);
+        }
+        if (!listeners.isEmpty()) {
+            Trade t = new Trade("T-" + e.tradeId, e.symbol, "ORD-" + e.buyOrderId, "ORD-" + e.sellOrderId,
+                e.buyer, e.seller, Price.toDouble(e.price), (int) e.qty);
+            for (ListenerFeed f : listeners) f.offer(t);
+        }
+    }
+
+    // Level key: symbolId (16 bits) | price (46 bits of fixed-point, ~7e9) | side (1 bit)
+    private static long levelKey(int symbolId, OrderSide side, long price) {
+        return ((long) symbolId << 47) | (price << 1) | (side == OrderSide.SELL ? 1 : 0);
+    }
+
+    private void conflateLevel(MarketDataSubscriber s, int symbolId, OrderSide side, long price) {
+        s.lagging = true;
+        s.conflatedUpdates++;
+        s.dirtyLevels.add(levelKey(symbolId, side, price));
+        if (s.dirtyLevels.size() > MarketDataSubscriber.MAX_DIRTY) resetToSnapshot(s);
+    }
+
+    private void conflateTrade(MarketDataSubscriber s, int symbolId, OrderSide side, long price, long qty) {
+        s.lagging = true;
+        s.conflatedUpdates++;
+        long[] t = s.conflatedTrades.computeIfAbsent(symbolId, k -> new long[3]);
+        t[0] = price;
+        t[1] += qty;
+        t[2] = side.ordinal();
+    }
 
-            oppositeBook.poll();
-            int tradeQty = Math.min(incoming.remainingQty(), top.remainingQty());
-            double tradePrice = top.price; // existing order's price
+    private void resetToSnapshot(MarketDataSubscriber s) {
+        s.needsSnapshot = true;
+        s.lagging = false;
+        s.dirtyLevels.clear();
+        s.conflatedTrades.clear();
+    }
 
-            incoming.fill(tradeQty);
-            top.fill(tradeQty);
+    /** Snapshot for new/reset subscribers, catch-up for lagging ones, periodic snapshot for the rest. */
+    private void maintain(MarketDataSubscriber s, boolean periodic) {
+        if (s.needsSnapshot) {
+            if (s.free() >= snapshotMessages()) {
+                sendSnapshots(s);
+                s.needsSnapshot = false;
+            }
+        } else if (s.lagging) {
+            if (s.free() >= s.capacity() / 2) catchUp(s);
+        } else if (periodic && s.free() >= snapshotMessages()) {
+            sendSnapshots(s);
+        }
+    }
 
-            String buyId = incoming.side == OrderSide.BUY ? incoming.id : top.id;
-            String sellId = incoming.side == OrderSide.SELL ? incoming.id : top.id;
-            String buyerId = incoming.side == OrderSide.BUY ? incoming.traderId : top.traderId;
-            String sellerId = incoming.side == OrderSide.SELL ? incoming.traderId : top.traderId;
+    private void catchUp(MarketDataSubscriber s) {
+        for (Iterator<Map.Entry<Integer, long[]>> it = s.conflatedTrades.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, long[]> e = it.next();
+            int symbolId = e.getKey();
+            long[] t = e.getValue();
+            MdCodec.encode(msg, MdType.TRADE, OrderSide.values()[(int) t[2]], MdCodec.FLAG_CONFLATED, symbolId,
+                seqs[symbolId], t[0], t[1], 0);
+            if (!s.offer(scratch)) return;
+            it.remove();
+        }
+        for (Iterator<Long> it = s.dirtyLevels.iterator(); it.hasNext(); ) {
+            long key = it.next();
+            int symbolId = (int) (key >>> 47);
+            OrderSide side = (key & 1) == 0 ? OrderSide.BUY : OrderSide.SELL;
+            long price = (key >>> 1) & ((1L << 46) - 1);
+            long[] level = books[symbolId].level(side, price);
+            MdCodec.encode(msg, MdType.LEVEL, side, MdCodec.FLAG_CONFLATED, symbolId, seqs[symbolId], price,
+                level == null ? 0 : level[0], level == null ? 0 : (int) level[1]);
+            if (!s.offer(scratch)) return;
+            it.remove();
+        }
+        s.lagging = false;
+    }
 
-            trades.add(new Trade("T-" + (++tradeCounter[0]), incoming.symbol,
-                buyId, sellId, buyerId, sellerId, tradePrice, tradeQty));
+    private int snapshotMessages() {
+        int n = 0;
+        for (L2Book b : books) if (b != null) n += b.levels() + 2;
+        return n;
+    }
 
-            if (top.remainingQty() > 0) oppositeBook.offer(top); // put back partial
+    private void sendSnapshots(MarketDataSubscriber s) {
+        for (int id = 0; id < books.length; id++) {
+            L2Book b = books[id];
+            if (b == null) continue;
+            MdCodec.encode(msg, MdType.SNAPSHOT_BEGIN, OrderSide.BUY, 0, id, b.seq, 0, b.levels(), 0);
+            s.offer(scratch);
+            for (OrderSide side : OrderSide.values()) {
+                for (Map.Entry<Long, long[]> e : (side == OrderSide.BUY ? b.bids : b.asks).entrySet()) {
+                    MdCodec.encode(msg, MdType.SNAPSHOT_LEVEL, side, 0, id, b.seq, e.getKey(), e.getValue()[0], (int) e.getValue()[1]);
+                    s.offer(scratch);
+                }
+            }
+            MdCodec.encode(msg, MdType.SNAPSHOT_END, OrderSide.BUY, 0, id, b.seq, 0, 0, 0);
+            s.offer(scratch);
         }
-        return trades;
+        s.snapshots++;
     }
 }
 
@@ -139,72 +1696,281 @@ class TradeNotifier implements TradeListener {
 
 // ==================== STOCK EXCHANGE SERVICE (FACADE) ====================
 
-class StockExchangeService {
-    // Per-symbol order books: buy (max-heap by price, then FIFO), sell (min-heap)
-    private final Map<String, PriorityQueue<StockOrder>> buyBooks = new ConcurrentHashMap<>();
-    private final Map<String, PriorityQueue<StockOrder>> sellBooks = new ConcurrentHashMap<>();
+/**
+ * Routes each symbol to a shard (round-robin on first sight) and turns calls into ring commands.
+ * placeOrder/cancelOrder/book sizes are synchronous (publish, then wait for the shard's ack);
+ * submitOrder/submitCancel are fire-and-forget for high-throughput gateways.
+ * Journaled: books are rebuilt from the journal directory at startup; trade history keeps a
+ * bounded window in memory and serves older trades from the journal.
+ */
+class StockExchangeService implements AutoCloseable {
+    private static final class Route {
+        final MatchingEngine engine;
+        final int book, symbolId;
+        Route(MatchingEngine engine, int book, int symbolId) { this.engine = engine; this.book = book; this.symbolId = symbolId; }
+    }
+
+    private final MatchingEngine[] shards;
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+    private final AtomicInteger[] booksPerShard;
+    private final AtomicInteger symbolCount = new AtomicInteger();
+    private final Map<Integer, String> symbolNames = new ConcurrentHashMap<>();
     private final Map<String, StockOrder> allOrders = new ConcurrentHashMap<>();
-    private final List<Trade> allTrades = new ArrayList<>();
-    private MatchingStrategy matchingStrategy;
-    private final List<TradeListener> listeners = new ArrayList<>();
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
-    private int orderCounter = 0;
-    private final int[] tradeCounter = {0};
-
-    StockExchangeService(MatchingStrategy strategy) { this.matchingStrategy = strategy; }
+    private volatile int shardTradeWindow;  // tradeWindow / shards, rounded up
+    // One window per shard, written only by that shard's matching thread: its lock is never
+    // contended by another shard's fills, only briefly by readers (getTrades/getTrade).
+    private final List<Map<Long, Trade>> recentTrades = new ArrayList<>();
+    private final AtomicLong orderCounter = new AtomicLong();
+    private volatile boolean tradeHistory = true;
+    private volatile MarketDataPublisher marketData;
+    private Journal[] journals;             // null → in-memory only
+    private RecoveryStats[] recovery;
+
+    StockExchangeService(MatchingStrategy strategy, int shardCount, IdleStrategy idle) {
+        shards = new MatchingEngine[shardCount];
+        booksPerShard = new AtomicInteger[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new MatchingEngine(i, shardCount, 1 << 16, strategy, this::onFill, idle);
+            booksPerShard[i] = new AtomicInteger();
+            recentTrades.add(newTradeWindow());
+        }
+        setTradeWindow(100_000);
+    }
+
+    private Map<Long, Trade> newTradeWindow() {
+        return new LinkedHashMap<Long, Trade>() {
+            @Override protected boolean removeEldestEntry(Map.Entry<Long, Trade> eldest) { return size() > shardTradeWindow; }
+        };
+    }
+
+    /** The window of the shard that numbered tradeId (ids are dealt round-robin: shard = (id - 1) % shards). */
+    private Map<Long, Trade> tradeWindow(long tradeId) { return recentTrades.get((int) ((tradeId - 1) % shards.length)); }
+
+    /**
+     * Journaled exchange over dir: each shard restores its latest snapshot and replays the journal
+     * after it (on its own thread, before any new command), then appends every command it accepts.
+     */
+    StockExchangeService(MatchingStrategy strategy, int shardCount, IdleStrategy idle, Path dir, Durability durability) throws IOException {
+        this(strategy, shardCount, idle);
+        journals = new Journal[shardCount];
+        recovery = new RecoveryStats[shardCount];
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Files.createDirectories(dir), "shard-*")) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                int shard = Integer.parseInt(name.substring(6, name.indexOf('.')));
+                if (shard >= shardCount) throw new IllegalStateException(dir + " was written with more than " + shardCount + " shards");
+            }
+        }
+        List<Ack> acks = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            journals[i] = new Journal(dir, i, durability);
+            Ack ack = new Ack();
+            long seq = shards[i].claim();
+            Command c = shards[i].slot(seq);
+            c.type = CommandType.RECOVER;
+            c.journal = journals[i];
+            c.ack = ack;
+            shards[i].publish(seq);
+            acks.add(ack);
+        }
+        int symbols = 0;
+        for (int i = 0; i < shardCount; i++) {
+            Ack ack = acks.get(i);
+            ack.await();
+            if (!ack.ok) {
+                close();
+                if (ack.result instanceof IOException) throw (IOException) ack.result;
+                if (ack.result instanceof Error) throw (Error) ack.result;
+                throw (RuntimeException) ack.result;
+            }
+            RecoveryStats stats = recovery[i] = (RecoveryStats) ack.result;
+            for (Map.Entry<String, int[]> e : stats.symbols.entrySet()) {
+                int book = e.getValue()[0], id = e.getValue()[1];
+                routes.put(e.getKey(), new Route(shards[i], book, id));
+                symbolNames.put(id, e.getKey());
+                booksPerShard[i].set(Math.max(booksPerShard[i].get(), book + 1));
+                symbols = Math.max(symbols, id + 1);
+            }
+            for (StockOrder o : stats.openOrders) allOrders.put(o.id, o);
+            orderCounter.set(Math.max(orderCounter.get(), stats.maxOrderId));
+        }
+        symbolCount.set(symbols);
+    }
+    StockExchangeService(MatchingStrategy strategy) {
+        this(strategy, Math.min(4, Runtime.getRuntime().availableProcessors()), IdleStrategy.BACKOFF);
+    }
     StockExchangeService() { this(new PriceTimeStrategy()); }
 
-    void addListener(TradeListener l) { listeners.add(l); }
+    /** Each listener runs on its own thread, so a slow or throwing one never delays matching. */
+    MarketDataPublisher.ListenerFeed addListener(TradeListener l) { return addListener(l, MarketDataPublisher.LISTENER_QUEUE); }
 
-    private PriorityQueue<StockOrder> getBuyBook(String symbol) {
-        return buyBooks.computeIfAbsent(symbol, k -> new PriorityQueue<>(
-            Comparator.comparingDouble((StockOrder o) -> -o.price).thenComparingLong(o -> o.timestamp)));
+    /** Same, with room for queueCapacity trades; beyond that the listener's trades are dropped and counted. */
+    MarketDataPublisher.ListenerFeed addListener(TradeListener l, int queueCapacity) { return marketData().addListener(l, queueCapacity); }
+
+    /** The feed, started on first use; engines emit events only once it exists. */
+    synchronized MarketDataPublisher marketData() {
+        if (marketData == null) {
+            MarketDataPublisher p = new MarketDataPublisher(shards.length);
+            for (int i = 0; i < shards.length; i++) shards[i].md = p.ring(i);
+            marketData = p;
+        }
+        return marketData;
     }
 
-    private PriorityQueue<StockOrder> getSellBook(String symbol) {
-        return sellBooks.computeIfAbsent(symbol, k -> new PriorityQueue<>(
-            Comparator.comparingDouble((StockOrder o) -> o.price).thenComparingLong(o -> o.timestamp)));
+    /** New feed subscriber: gets a full L2 snapshot of every symbol, then incrementals. */
+    MarketDataSubscriber subscribe(int capacityMessages) { return marketData().subscribe(capacityMessages); }
+
+    /** Waits until everything matched so far has been published to subscribers and listeners. */
+    void awaitMarketData() {
+        flush();
+        MarketDataPublisher p = marketData;
+        if (p != null) p.awaitDrained();
     }
 
-    /** Place an order. Returns the order (may be partially/fully filled immediately). */
-    StockOrder placeOrder(String symbol, String traderId, OrderSide side, double price, int quantity) {
+    /** Off → no Trade objects or history (fills still update orders); for latency-critical runs. */
+    void setTradeHistory(boolean enabled) { this.tradeHistory = enabled; }
+
+    /**
+     * Trades kept in memory, split evenly across shards (each evicts its own oldest);
+     * older ones are still served from the journal by getTrade.
+     */
+    void setTradeWindow(int trades) { this.shardTradeWindow = Math.max(1, (trades + shards.length - 1) / shards.length); }
+
+    /** Journaled only: snapshot each shard's books every n journaled commands (0 = only snapshot()). */
+    void setSnapshotEvery(long commands) {
+        for (MatchingEngine e : shards) e.snapshotEvery = commands;
+    }
+
+    /** Journaled only: snapshot every shard now; true if all were written. */
+    boolean snapshot() {
+        boolean ok = true;
+        for (MatchingEngine e : shards) {
+            Ack ack = new Ack();
+            long seq = e.claim();
+            Command c = e.slot(seq);
+            c.type = CommandType.SNAPSHOT;
+            c.ack = ack;
+            e.publish(seq);
+            ack.awaitChecked();
+            ok &= ack.ok;
+        }
+        return ok;
+    }
+
+    /** What startup recovery did on a shard (journaled only). */
+    RecoveryStats recovery(int shard) { return recovery[shard]; }
+
+    /** Bytes appended to the journals since startup (read after flush()). */
+    long journalBytes() {
+        long n = 0;
+        if (journals != null) for (Journal j : journals) n += j.bytesWritten;
+        return n;
+    }
+
+    /** Record per-command matching time on every shard (null = stop). Read after flush(). */
+    void setLatencyTracking(boolean enabled) {
+        for (MatchingEngine e : shards) e.latency = enabled ? new LatencyHistogram() : null;
+    }
+
+    LatencyHistogram latency(int shard) { return shards[shard].latency; }
+    Thread shardThread(int shard) { return shards[shard].thread; }
+
+    private Route route(String symbol) {
+        return routes.computeIfAbsent(symbol, s -> {
+            int id = symbolCount.getAndIncrement(), shard = id % shards.length;
+            symbolNames.put(id, s);
+            return new Route(shards[shard], booksPerShard[shard].getAndIncrement(), id);
+        });
+    }
+
+    private long validate(String symbol, String traderId, double price, long quantity) {
         if (price <= 0 || quantity <= 0) throw new InvalidOrderException("price and qty must be > 0");
         if (symbol == null || symbol.isEmpty()) throw new InvalidOrderException("symbol required");
+        if (journals != null && (symbol.length() > Journal.MAX_NAME || (traderId != null && traderId.length() > Journal.MAX_NAME)))
+            throw new InvalidOrderException("symbol and trader id are limited to " + Journal.MAX_NAME + " chars in the journal");
+        long fixed = Price.of(price);
+        if (fixed % OrderBook.TICK != 0) throw new InvalidOrderException("price must be a multiple of 0.01");
+        return fixed;
+    }
 
-        lock.writeLock().lock();
-        try {
-            String orderId = "ORD-" + (++orderCounter);
-            StockOrder order = new StockOrder(orderId, symbol, traderId, side, price, quantity);
-            allOrders.put(orderId, order);
+    /** Place an order. Returns the order (may be partially/fully filled immediately). */
+    StockOrder placeOrder(String symbol, String traderId, OrderSide side, double price, int quantity) {
+        long fixed = validate(symbol, traderId, price, quantity);
+        StockOrder order = new StockOrder(orderCounter.incrementAndGet(), symbol, traderId, side, price, quantity);
+        allOrders.put(order.id, order);
+        Ack ack = new Ack();
+        send(CommandType.PLACE, route(symbol), symbol, order.orderNo, traderId, side, fixed, quantity, order, ack);
+        ack.awaitChecked();
+        if (order.status == OrderStatus.REJECTED) throw new InvalidOrderException("price outside the band for " + symbol);
+        return order;
+    }
 
-            PriorityQueue<StockOrder> oppositeBook = side == OrderSide.BUY ? getSellBook(symbol) : getBuyBook(symbol);
-            List<Trade> trades = matchingStrategy.match(order, oppositeBook, tradeCounter);
-            allTrades.addAll(trades);
-            for (Trade t : trades) for (TradeListener l : listeners) l.onTrade(t);
+    /** Fire-and-forget order entry (price in Price fixed-point); returns the order id for cancels. */
+    long submitOrder(String symbol, String traderId, OrderSide side, long price, long quantity) {
+        validate(symbol, traderId, Price.toDouble(price), quantity);
+        long id = orderCounter.incrementAndGet();
+        send(CommandType.PLACE, route(symbol), symbol, id, traderId, side, price, quantity, null, null);
+        return id;
+    }
 
-            // If not fully filled, add to own side's book
-            if (order.remainingQty() > 0) {
-                PriorityQueue<StockOrder> ownBook = side == OrderSide.BUY ? getBuyBook(symbol) : getSellBook(symbol);
-                ownBook.offer(order);
-            }
-            return order;
-        } finally { lock.writeLock().unlock(); }
+    void submitCancel(String symbol, long orderId) {
+        send(CommandType.CANCEL, route(symbol), symbol, orderId, null, null, 0, 0, null, null);
+    }
+
+    private void send(CommandType type, Route r, String symbol, long orderId, String traderId, OrderSide side,
+                      long price, long quantity, StockOrder view, Ack ack) {
+        long seq = r.engine.claim();
+        Command c = r.engine.slot(seq);
+        c.type = type;
+        c.book = r.book;
+        c.symbolId = r.symbolId;
+        c.symbol = symbol;
+        c.orderId = orderId;
+        c.traderId = traderId;
+        c.side = side;
+        c.price = price;
+        c.quantity = quantity;
+        c.view = view;
+        c.ack = ack;
+        r.engine.publish(seq);
     }
 
     boolean cancelOrder(String orderId) {
-        lock.writeLock().lock();
-        try {
-            StockOrder order = allOrders.get(orderId);
-            if (order == null) throw new OrderNotFoundException(orderId);
-            if (order.status == OrderStatus.FILLED || order.status == OrderStatus.CANCELLED)
-                return false;
-            order.status = OrderStatus.CANCELLED;
-            // Remove from book
-            PriorityQueue<StockOrder> book = order.side == OrderSide.BUY
-                ? getBuyBook(order.symbol) : getSellBook(order.symbol);
-            book.remove(order);
-            return true;
-        } finally { lock.writeLock().unlock(); }
+        StockOrder order = allOrders.get(orderId);
+        if (order == null) throw new OrderNotFoundException(orderId);
+        if (order.status == OrderStatus.FILLED || order.status == OrderStatus.CANCELLED)
+            return false;
+        Ack ack = new Ack();
+        send(CommandType.CANCEL, route(order.symbol), order.symbol, order.orderNo, null, null, 0, 0, null, ack);
+        ack.awaitChecked();
+        return ack.ok;
+    }
+
+    /** Waits until every shard has processed everything published before this call. */
+    void flush() {
+        List<Ack> acks = new ArrayList<>();
+        for (MatchingEngine e : shards) {
+            Ack ack = new Ack();
+            long seq = e.claim();
+            Command c = e.slot(seq);
+            c.type = CommandType.SYNC;
+            c.ack = ack;
+            e.publish(seq);
+            acks.add(ack);
+        }
+        for (Ack ack : acks) ack.awaitChecked();
+    }
+
+    /** Fill callback, on the symbol's matching thread. */
+    private void onFill(OrderBook book, RestingOrder taker, RestingOrder maker, long price, long qty, long tradeId) {
+        if (taker.view != null) taker.view.fill((int) qty);
+        if (maker.view != null) maker.view.fill((int) qty);
+        if (!tradeHistory) return;
+        RestingOrder buy = taker.side == OrderSide.BUY ? taker : maker, sell = buy == taker ? maker : taker;
+        Trade t = new Trade("T-" + tradeId, book.symbol, "ORD-" + buy.id, "ORD-" + sell.id,
+            buy.traderId, sell.traderId, Price.toDouble(price), (int) qty);
+        Map<Long, Trade> window = tradeWindow(tradeId);
+        synchronized (window) { window.put(tradeId, t); }
     }
 
     StockOrder getOrder(String orderId) {
@@ -213,17 +1979,77 @@ class StockExchangeService {
         return o;
     }
 
-    List<Trade> getTrades() { return new ArrayList<>(allTrades); }
-    int getTradeCount() { return allTrades.size(); }
+    /** The in-memory window of recent trades, shard by shard, each shard's oldest first. */
+    List<Trade> getTrades() {
+        List<Trade> all = new ArrayList<>();
+        for (Map<Long, Trade> window : recentTrades) {
+            synchronized (window) { all.addAll(window.values()); }
+        }
+        return all;
+    }
+
+    /** Trades executed so far, including those recovered from the journal. */
+    int getTradeCount() {
+        long n = 0;
+        for (MatchingEngine e : shards) n += e.tradesExecuted();
+        return (int) n;
+    }
+
+    /** Any trade by id: from the window, else (journaled) from the journal of the shard that numbered it. */
+    Trade getTrade(String tradeId) {
+        long id;
+        try { id = Long.parseLong(tradeId.substring(2)); }
+        catch (RuntimeException e) { throw new TradeNotFoundException(tradeId); }
+        if (id <= 0) throw new TradeNotFoundException(tradeId);
+        Map<Long, Trade> window = tradeWindow(id);
+        synchronized (window) {
+            Trade t = window.get(id);
+            if (t != null) return t;
+        }
+        if (journals == null) throw new TradeNotFoundException(tradeId);
+        int shard = (int) ((id - 1) % shards.length);
+        ByteBuffer r;
+        try { r = journals[shard].readTrade((id - 1) / shards.length); }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+        if (r == null) throw new TradeNotFoundException(tradeId);
+        MatchingEngine e = shards[shard];
+        return new Trade(tradeId, symbolNames.get(r.getInt(8)), "ORD-" + r.getLong(24), "ORD-" + r.getLong(32),
+            e.traderName(r.getInt(56)), e.traderName(r.getInt(60)), Price.toDouble(r.getLong(40)), (int) r.getLong(48));
+    }
+
+    int getBuyBookSize(String symbol) { return depth(symbol, OrderSide.BUY); }
+    int getSellBookSize(String symbol) { return depth(symbol, OrderSide.SELL); }
+
+    /** Full L2 depth from the matching thread, best first: {price, qty, orders}. */
+    @SuppressWarnings("unchecked")
+    List<long[]> getDepth(String symbol, OrderSide side) {
+        Ack ack = new Ack();
+        send(CommandType.QUERY_L2, route(symbol), symbol, 0, null, side, 0, 0, null, ack);
+        ack.awaitChecked();
+        return (List<long[]>) ack.result;
+    }
+
+    private int depth(String symbol, OrderSide side) {
+        Ack ack = new Ack();
+        send(CommandType.QUERY_DEPTH, route(symbol), symbol, 0, null, side, 0, 0, null, ack);
+        ack.awaitChecked();
+        return (int) ack.value;
+    }
 
-    int getBuyBookSize(String symbol) { return getBuyBook(symbol).size(); }
-    int getSellBookSize(String symbol) { return getSellBook(symbol).size(); }
+    @Override
+    public void close() {
+        for (MatchingEngine e : shards) e.shutdown();
+        for (MatchingEngine e : shards) {   // a journaled shard commits and forces its tail on the way out
+            try { e.thread.join(); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); }
+        }
+        if (marketData != null) marketData.close();
+    }
 }
 
 // ==================== MAIN / TESTS ====================
 
 public class StockExchangeSystem {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         System.out.println("╔═══════════════════════════════════════╗");
         System.out.println("║   STOCK EXCHANGE - LLD Demo           ║");
         System.out.println("╚═══════════════════════════════════════╝\n");
@@ -312,6 +2138,7 @@ public class StockExchangeSystem {
         svc9.addListener(notifier);
         svc9.placeOrder("NFLX", "alice", OrderSide.SELL, 500.0, 5);
         svc9.placeOrder("NFLX", "bob", OrderSide.BUY, 500.0, 5);
+        svc9.awaitMarketData();   // listeners run on their own threads
         check(notifier.notifications.size(), 1, "1 notification");
         System.out.println("  " + notifier.notifications.get(0));
         System.out.println("✓\n");
@@ -342,7 +2169,571 @@ public class StockExchangeSystem {
         check(svc11.getTradeCount() > 0, true, "Concurrent trades executed");
         System.out.println("✓\n");
 
-        System.out.println("════════ ALL 11 TESTS PASSED ✓ ════════");
+        // --- Test 12: Engine internals - FIFO cancel, ladder growth, price band, tick, index churn ---
+        System.out.println("=== Test 12: Engine internals ===");
+        try (StockExchangeService svc12 = new StockExchangeService(new PriceTimeStrategy(), 2, IdleStrategy.BACKOFF)) {
+            StockOrder s1 = svc12.placeOrder("IBM", "s1", OrderSide.SELL, 120.0, 5);
+            StockOrder s2 = svc12.placeOrder("IBM", "s2", OrderSide.SELL, 120.0, 5);
+            StockOrder s3 = svc12.placeOrder("IBM", "s3", OrderSide.SELL, 120.0, 5);
+            check(svc12.cancelOrder(s2.id), true, "Cancel from the middle of a price level");
+            svc12.placeOrder("IBM", "b", OrderSide.BUY, 120.0, 10);
+            check(s1.status == OrderStatus.FILLED && s3.status == OrderStatus.FILLED && s2.filledQty == 0, true,
+                "FIFO s1 → s3 intact after unlinking s2");
+            svc12.placeOrder("IBM", "lo", OrderSide.BUY, 1.00, 1);
+            svc12.placeOrder("IBM", "hi", OrderSide.SELL, 30_000.00, 1);     // ladder grows + re-centers twice
+            StockOrder mid = svc12.placeOrder("IBM", "mid", OrderSide.BUY, 15_000.00, 1);
+            check(mid.status, OrderStatus.OPEN, "Best pointers survive ladder growth (no false cross)");
+            StockOrder taker = svc12.placeOrder("IBM", "t", OrderSide.SELL, 1.00, 2);
+            Trade last = svc12.getTrades().get(svc12.getTradeCount() - 1);
+            check(taker.status == OrderStatus.FILLED && last.buyerId.equals("lo") && last.price == 1.00, true,
+                "Sell sweeps 15000.00 then 1.00 across a 3M-tick ladder");
+            try {
+                svc12.placeOrder("IBM", "x", OrderSide.BUY, 99_999.99, 1);
+                check(false, true, "Order outside the price band rejected");
+            } catch (InvalidOrderException e) { check(true, true, "Band reject: " + e.getMessage()); }
+            try {
+                svc12.placeOrder("IBM", "x", OrderSide.BUY, 10.005, 1);
+                check(false, true, "Off-tick price rejected");
+            } catch (InvalidOrderException e) { check(true, true, "Tick reject: " + e.getMessage()); }
+
+            OrderIndex idx = new OrderIndex();
+            Map<Long, RestingOrder> ref = new HashMap<>();
+            Random r = new Random(7);
+            boolean same = true;
+            for (int i = 0; i < 200_000 && same; i++) {
+                long id = 1 + r.nextInt(5_000);
+                if (r.nextBoolean()) { RestingOrder o = new RestingOrder(); idx.put(id, o); ref.put(id, o); }
+                else { idx.remove(id); ref.remove(id); }
+                long probe = 1 + r.nextInt(5_000);
+                same = idx.get(probe) == ref.get(probe) && idx.size() == ref.size();
+            }
+            check(same, true, "OrderIndex matches HashMap over 200K random put/remove (backward-shift delete)");
+        }
+        System.out.println("✓\n");
+
+        // --- Test 13: Benchmark - replayed synthetic order flow ---
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        System.out.println("=== Test 13: Replay Benchmark (" + n + " commands: 70% limit, 30% cancel) ===");
+        {
+            OrderFlow flow = OrderFlow.generate(n, 42);
+            int legacyOps = Math.min(n, 200_000);
+
+            LegacyExchange legacy = new LegacyExchange();
+            LatencyHistogram legacyLat = new LatencyHistogram();
+            String[] legacyIds = new String[legacyOps];
+            long t0 = System.nanoTime();
+            for (int i = 0; i < legacyOps; i++) {
+                long s = System.nanoTime();
+                if (flow.cancel[i]) legacy.cancelOrder(legacyIds[flow.target[i]]);
+                else legacyIds[i] = legacy.placeOrder("SYN", "t", flow.side(i), Price.toDouble(flow.price[i]), flow.qty[i]).id;
+                legacyLat.record(System.nanoTime() - s);
+            }
+            double legacyRate = legacyOps / ((System.nanoTime() - t0) / 1e9);
+
+            try (StockExchangeService check = new StockExchangeService(new PriceTimeStrategy(), 1, IdleStrategy.BACKOFF)) {
+                flow.replay(check, "SYN", legacyOps);
+                check.flush();
+                long volume = 0, legacyVolume = 0;
+                for (Trade t : check.getTrades()) volume += t.quantity;
+                for (Trade t : legacy.trades) legacyVolume += t.quantity;
+                check(check.getTradeCount() == legacy.trades.size() && volume == legacyVolume
+                        && check.getBuyBookSize("SYN") == legacy.buys.size() && check.getSellBookSize("SYN") == legacy.sells.size(), true,
+                    "Same " + legacy.trades.size() + " trades / " + legacyVolume + " lots / resting book as the PriorityQueue engine");
+            }
+
+            try (StockExchangeService svc13 = new StockExchangeService(new PriceTimeStrategy(), 1, IdleStrategy.BACKOFF)) {
+                svc13.setTradeHistory(false);
+                com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+                long engineTid = svc13.shardThread(0).getId();
+                flow.replay(svc13, "WARM", n);                     // JIT + grow pools/index/ladder
+                svc13.flush();
+                svc13.setLatencyTracking(true);
+                t0 = System.nanoTime();
+                flow.replay(svc13, "SYN", n);
+                svc13.flush();
+                double rate = n / ((System.nanoTime() - t0) / 1e9);
+                long alloc0 = mx.getThreadAllocatedBytes(engineTid);
+                flow.replay(svc13, "SYN", n);                      // second pass on a warm book: steady-state allocation
+                svc13.flush();
+                long alloc1 = mx.getThreadAllocatedBytes(engineTid);
+                LatencyHistogram lat = svc13.latency(0);
+
+                LatencyHistogram syncLat = new LatencyHistogram();
+                int syncOps = Math.min(n, 100_000);
+                long syncT0 = System.nanoTime();
+                for (int i = 0; i < syncOps; i++) {
+                    long s = System.nanoTime();
+                    if (!flow.cancel[i]) svc13.placeOrder("SYNC", "t", flow.side(i), Price.toDouble(flow.price[i]), flow.qty[i]);
+                    syncLat.record(System.nanoTime() - s);
+                }
+                double syncRate = syncOps / ((System.nanoTime() - syncT0) / 1e9);
+
+                System.out.printf("  %-34s %12s %8s %8s %8s %9s%n", "engine", "cmds/sec", "p50", "p99", "p99.9", "max");
+                System.out.printf("  %-34s %,12.0f %8s %8s %8s %9s%n", "PriorityQueue + RW lock (per call)", legacyRate,
+                    us(legacyLat.percentile(0.5)), us(legacyLat.percentile(0.99)), us(legacyLat.percentile(0.999)), us(legacyLat.max()));
+                System.out.printf("  %-34s %,12.0f %8s %8s %8s %9s%n", "ring + ladder (match time)", rate,
+                    us(lat.percentile(0.5)), us(lat.percentile(0.99)), us(lat.percentile(0.999)), us(lat.max()));
+                System.out.printf("  %-34s %,12.0f %8s %8s %8s %9s%n", "ring + ladder (sync round trip)", syncRate,
+                    us(syncLat.percentile(0.5)), us(syncLat.percentile(0.99)), us(syncLat.percentile(0.999)), us(syncLat.max()));
+                System.out.printf("  matching-thread allocation, warm book: %.2f bytes/command (new nodes for orders that stay resting)%n", (alloc1 - alloc0) / (double) n);
+                check(lat.count() >= n, true, "Latency recorded for every replayed command");
+            }
+        }
+        System.out.println("✓\n");
+
+        // --- Test 14: Market data - gap-free feed, conflation, snapshots; matching latency vs subscribers ---
+        System.out.println("=== Test 14: Market Data Fan-out ===");
+        {
+            try (StockExchangeService svc14 = new StockExchangeService(new PriceTimeStrategy(), 1, IdleStrategy.BACKOFF)) {
+                svc14.marketData().setSnapshotInterval(50);
+                MarketDataSubscriber fast = svc14.subscribe(1 << 14), slow = svc14.subscribe(64);
+                OrderFlow flow = OrderFlow.generate(50_000, 7);
+                long[] ids = new long[50_000];
+                L2Book fastView = new L2Book(), slowView = new L2Book();
+                ByteBuffer buf = ByteBuffer.allocate(MdCodec.MSG_BYTES);
+                long[] lastSeq = {0};
+                boolean[] gapFree = {true};
+                for (int from = 0; from < 50_000; from += 1_000) {
+                    flow.replay(svc14, "MD", from, from + 1_000, ids);
+                    svc14.awaitMarketData();
+                    drainChecked(fast, fastView, buf, lastSeq, gapFree, Integer.MAX_VALUE);
+                    for (int i = 0; i < 16 && slow.poll(buf); i++) slowView.apply(buf);
+                }
+                Thread.sleep(60);                                   // let a periodic snapshot go out
+                for (long deadline = System.currentTimeMillis() + 5_000; System.currentTimeMillis() < deadline; ) {
+                    svc14.awaitMarketData();
+                    drainChecked(fast, fastView, buf, lastSeq, gapFree, Integer.MAX_VALUE);
+                    while (slow.poll(buf)) slowView.apply(buf);
+                    if (!slow.lagging && !slow.needsSnapshot && slow.isEmpty() && fast.snapshots >= 2) break;
+                    Thread.sleep(1);
+                }
+                boolean fastOk = sameDepth(fastView, svc14, "MD"), slowOk = sameDepth(slowView, svc14, "MD");
+                check(gapFree[0] && fast.conflatedUpdates == 0, true, "Fast subscriber: gap-free seq, nothing conflated, "
+                    + fast.delivered + " msgs, " + fast.snapshots + " snapshots");
+                check(slow.conflatedUpdates > 0, true, "Slow subscriber (64-msg ring): " + slow.conflatedUpdates
+                    + " updates conflated, " + slow.delivered + " msgs delivered");
+                check(fastOk && slowOk, true, "Both rebuilt L2 books equal the matching engine's depth");
+            }
+
+            int m = Math.min(n, 300_000);
+            OrderFlow flow = OrderFlow.generate(m, 42);
+            System.out.printf("  %-34s %5s %12s %8s %8s %8s %10s %10s%n", "listeners", "subs", "cmds/sec", "p50", "p99", "p99.9", "msgs", "conflated");
+            for (int subs : new int[]{1, 10, 100}) {
+                for (boolean feed : new boolean[]{false, true}) {
+                    MatchingStrategy strategy = feed ? new PriceTimeStrategy() : new InlineNotifyStrategy(new PriceTimeStrategy(), subs);
+                    try (StockExchangeService fanout = new StockExchangeService(strategy, 1, IdleStrategy.BACKOFF)) {
+                        fanout.setTradeHistory(false);
+                        List<MarketDataSubscriber> fastSubs = new ArrayList<>(), slowSubs = new ArrayList<>();
+                        for (int i = 0; feed && i < subs; i++) (i % 10 == 9 ? slowSubs : fastSubs).add(fanout.subscribe(1 << 14));
+                        AtomicBoolean stop = new AtomicBoolean();
+                        List<Thread> consumers = new ArrayList<>();
+                        if (feed) {
+                            consumers.add(consumer(fastSubs, stop, 0));
+                            if (!slowSubs.isEmpty()) consumers.add(consumer(slowSubs, stop, 2));
+                        }
+                        flow.replay(fanout, "WARM", m);
+                        fanout.flush();
+                        fanout.setLatencyTracking(true);
+                        long t0 = System.nanoTime();
+                        flow.replay(fanout, "SYN", m);
+                        fanout.flush();
+                        double rate = m / ((System.nanoTime() - t0) / 1e9);
+                        fanout.awaitMarketData();
+                        stop.set(true);
+                        for (Thread t : consumers) t.join();
+                        LatencyHistogram lat = fanout.latency(0);
+                        long msgs = 0, conflated = 0;
+                        for (MarketDataSubscriber s : fastSubs) { msgs += s.delivered; conflated += s.conflatedUpdates; }
+                        for (MarketDataSubscriber s : slowSubs) { msgs += s.delivered; conflated += s.conflatedUpdates; }
+                        System.out.printf("  %-34s %5d %,12.0f %8s %8s %8s %,10d %,10d%n",
+                            feed ? "binary feed (" + slowSubs.size() + " slow subs)" : "inline TradeListener + format",
+                            subs, rate, us(lat.percentile(0.5)), us(lat.percentile(0.99)), us(lat.percentile(0.999)), msgs, conflated);
+                        if (feed && fanout.marketData().stalls() > 0) System.out.println("  (matching thread waited on a full event ring " + fanout.marketData().stalls() + "×)");
+                    }
+                }
+            }
+        }
+        System.out.println("✓\n");
+
+        // --- Test 15: Journal - group commit, restart (snapshot + replay), torn tail, history from disk ---
+        System.out.println("=== Test 15: Journal + Recovery ===");
+        Path dir15 = Files.createTempDirectory("exchange-journal");
+        try {
+            OrderFlow flow = OrderFlow.generate(200_000, 15);
+            String[] syms = {"AAPL", "SYN", "ALT"};
+            String state;
+            StockOrder resting, marker;
+            try (StockExchangeService a = new StockExchangeService(new PriceTimeStrategy(), 2, IdleStrategy.BACKOFF, dir15, Durability.GROUP_COMMIT)) {
+                a.setTradeWindow(1_000);
+                a.setSnapshotEvery(100_000);
+                a.placeOrder("AAPL", "alice", OrderSide.SELL, 150.0, 10);
+                a.placeOrder("AAPL", "bob", OrderSide.BUY, 150.0, 4);              // T-1: shard 0's first trade
+                resting = a.placeOrder("AAPL", "carol", OrderSide.SELL, 151.0, 7);
+                a.cancelOrder(a.placeOrder("AAPL", "dave", OrderSide.BUY, 149.0, 3).id);
+                flow.replay(a, "SYN", 200_000);                                    // shard 1
+                flow.replay(a, "ALT", 150_000);                                    // shard 0
+                marker = a.placeOrder("ALT", "zed", OrderSide.BUY, 1.00, 1);
+                check(a.getTrades().size() == 1_000 && a.getTradeCount() > 1_000, true,
+                    "Trade window holds the last 1000 of " + a.getTradeCount() + " trades");
+                Trade t1 = a.getTrade("T-1");
+                check(t1.symbol.equals("AAPL") && t1.buyerId.equals("bob") && t1.sellerId.equals("alice")
+                    && t1.quantity == 4 && t1.price == 150.0, true, "Evicted T-1 served from the journal");
+                state = bookState(a, syms);
+                System.out.printf("  journal: %,d bytes for %,d commands + trades%n", a.journalBytes(), 350_004);
+            }
+            check(Files.exists(dir15.resolve("shard-0.snapshot")) && Files.exists(dir15.resolve("shard-1.snapshot")), true,
+                "Periodic snapshots written by both shards");
+            long torn = tearTail(dir15.resolve("shard-1.000000.journal"));
+
+            try (StockExchangeService b = new StockExchangeService(new PriceTimeStrategy(), 2, IdleStrategy.BACKOFF, dir15, Durability.GROUP_COMMIT)) {
+                RecoveryStats r1 = b.recovery(1);
+                check(bookState(b, syms).equals(state), true, "Restarted exchange has the same books and trade count");
+                check(r1.snapshotSeq > 0 && r1.commands < 200_000, true, "Shard 1: snapshot @seq " + r1.snapshotSeq
+                    + " + " + r1.commands + " replayed commands, torn record @" + torn + " ignored");
+                StockOrder carol = b.getOrder(resting.id);
+                check(carol.remainingQty() == 7 && carol.status == OrderStatus.OPEN, true, "Resting order's view rebuilt");
+                StockOrder erin = b.placeOrder("AAPL", "erin", OrderSide.BUY, 151.0, 13);   // alice's 6 @150, then carol
+                check(erin.status == OrderStatus.FILLED && carol.status == OrderStatus.FILLED && erin.orderNo > marker.orderNo, true,
+                    "New order fills against the recovered book; order ids continue");
+                b.placeOrder("SYN", "frank", OrderSide.BUY, 1.00, 5);            // overwrites the torn record
+                check(b.getTrade("T-1").buyerId, "bob", "Trade history survives the restart");
+                b.flush();
+                state = bookState(b, syms);
+            }
+            Files.delete(dir15.resolve("shard-0.snapshot"));
+            Files.delete(dir15.resolve("shard-1.snapshot"));
+            try (StockExchangeService c = new StockExchangeService(new PriceTimeStrategy(), 2, IdleStrategy.BACKOFF, dir15, Durability.PAGE_CACHE)) {
+                check(bookState(c, syms).equals(state) && c.recovery(0).snapshotSeq < 0, true, "Full replay without snapshots: same books ("
+                    + (c.recovery(0).commands + c.recovery(1).commands) + " commands)");
+            }
+            try {
+                new StockExchangeService(new PriceTimeStrategy(), 1, IdleStrategy.BACKOFF, dir15, Durability.PAGE_CACHE).close();
+                check(false, true, "Journal written by 2 shards refused with 1");
+            } catch (IllegalStateException e) { check(true, true, "Shard-count mismatch refused: " + e.getMessage()); }
+        } finally { deleteTree(dir15); }
+        System.out.println("✓\n");
+
+        // --- Test 16: Journal benchmark - write throughput per durability mode, recovery time ---
+        int orders = args.length > 1 ? Integer.parseInt(args[1]) : 3_000_000;
+        System.out.println("=== Test 16: Journal Benchmark (" + orders + " orders) ===");
+        Path dir16 = Files.createTempDirectory("exchange-bench");
+        try {
+            int pass = 1_000_000, placesPerPass = 0;
+            OrderFlow flow = OrderFlow.generate(pass, 16);
+            for (boolean c : flow.cancel) if (!c) placesPerPass++;
+            System.out.printf("  %-28s %12s %10s %12s%n", "journal", "cmds/sec", "MB/sec", "sync ack");
+            for (Durability d : new Durability[]{null, Durability.PAGE_CACHE, Durability.GROUP_COMMIT}) {
+                Path dd = dir16.resolve("mode-" + d);
+                try (StockExchangeService bench = d == null ? new StockExchangeService(new PriceTimeStrategy(), 1, IdleStrategy.BACKOFF)
+                        : new StockExchangeService(new PriceTimeStrategy(), 1, IdleStrategy.BACKOFF, dd, d)) {
+                    bench.setTradeHistory(false);
+                    flow.replay(bench, "WARM", pass);
+                    bench.flush();
+                    long bytes0 = bench.journalBytes(), t0 = System.nanoTime();
+                    flow.replay(bench, "SYN", pass);
+                    bench.flush();
+                    double secs = (System.nanoTime() - t0) / 1e9;
+                    long s0 = System.nanoTime();
+                    for (int i = 0; i < 2_000; i++) bench.placeOrder("ACK", "t", i % 2 == 0 ? OrderSide.BUY : OrderSide.SELL, i % 2 == 0 ? 90.0 : 110.0, 1);
+                    System.out.printf("  %-28s %,12.0f %10.1f %12s%n", d == null ? "none (in-memory)" : d.toString(), pass / secs,
+                        (bench.journalBytes() - bytes0) / secs / 1e6, us((System.nanoTime() - s0) / 2_000));
+                }
+                if (d != null) deleteTree(dd);
+            }
+
+            Path rec = dir16.resolve("recovery");
+            int passes = (orders + placesPerPass - 1) / placesPerPass;
+            String[] syms = {"S0", "S" + (passes / 2), "S" + (passes - 1)};
+            String state;
+            long bytes;
+            double writeSecs;
+            try (StockExchangeService w = new StockExchangeService(new PriceTimeStrategy(), 1, IdleStrategy.BACKOFF, rec, Durability.PAGE_CACHE)) {
+                w.setTradeHistory(false);
+                w.setSnapshotEvery(2_000_000);
+                long t0 = System.nanoTime();
+                for (int i = 0; i < passes; i++) flow.replay(w, "S" + i, pass);
+                w.flush();
+                writeSecs = (System.nanoTime() - t0) / 1e9;
+                bytes = w.journalBytes();
+                state = bookState(w, syms);
+            }
+            System.out.printf("  wrote %,d orders (%,d commands, %,d MB journal incl. trades) in %.1f s: %,.0f cmds/sec, %.0f MB/sec%n",
+                (long) passes * placesPerPass, (long) passes * pass, bytes >> 20, writeSecs, passes * (double) pass / writeSecs, bytes / writeSecs / 1e6);
+            for (boolean fromSnapshot : new boolean[]{true, false}) {
+                if (!fromSnapshot) Files.delete(rec.resolve("shard-0.snapshot"));
+                try (StockExchangeService r = new StockExchangeService(new PriceTimeStrategy(), 1, IdleStrategy.BACKOFF, rec, Durability.PAGE_CACHE)) {
+                    RecoveryStats st = r.recovery(0);
+                    check(bookState(r, syms).equals(state), true, String.format("%-15s %,7.0f ms: snapshot %,.0f ms + %,d records replayed, %,d open orders",
+                        fromSnapshot ? "snapshot+replay" : "full replay", st.nanos / 1e6, st.snapshotNanos / 1e6, st.records, st.openOrders.size()));
+                }
+            }
+        } finally { deleteTree(dir16); }
+        System.out.println("✓\n");
+
+        // --- Test 17: Failures on the matching thread - reject the command, or fail the shard fast ---
+        System.out.println("=== Test 17: Matching failures ===");
+        try (StockExchangeService mem = new StockExchangeService(new FaultyStrategy(), 1, IdleStrategy.BACKOFF)) {
+            mem.placeOrder("F", "s", OrderSide.SELL, 10.0, 5);
+            try {
+                mem.placeOrder("F", "b", OrderSide.BUY, 10.0, FaultyStrategy.POISON_QTY);
+                check(false, true, "Throwing strategy surfaces to the caller");
+            } catch (MatchingFailedException e) {
+                check(true, true, "Throwing strategy rejects just that order: " + e.getCause().getMessage());
+            }
+            check(mem.placeOrder("F", "b", OrderSide.BUY, 10.0, 5).status, OrderStatus.FILLED, "In-memory shard keeps matching afterwards");
+        }
+        Path dir17 = Files.createTempDirectory("exchange-fail");
+        try (StockExchangeService j = new StockExchangeService(new FaultyStrategy(), 1, IdleStrategy.BACKOFF, dir17, Durability.PAGE_CACHE)) {
+            j.placeOrder("F", "s", OrderSide.SELL, 10.0, 5);
+            j.submitOrder("F", "b", OrderSide.BUY, Price.of(10.0), FaultyStrategy.POISON_QTY);   // already journaled when it throws
+            int refused = 0, total = 200_000;                                                     // > ring size: producer must wait on the ring
+            for (int i = 0; i < total; i++) {
+                try { j.submitOrder("F", "b", OrderSide.BUY, Price.of(9.0), 1); }
+                catch (MatchingFailedException e) { refused++; }
+            }
+            check(refused > 0, true, String.format("Journaled shard fails stop; async submits refused at once: %,d of %,d (none hung on the full ring)", refused, total));
+            try {
+                j.placeOrder("F", "b", OrderSide.BUY, 9.0, 1);
+                check(false, true, "Sync call on a failed shard fails fast");
+            } catch (MatchingFailedException e) {
+                check(true, true, "Sync call on a failed shard fails fast: " + e.getMessage());
+            }
+        } finally { deleteTree(dir17); }
+        System.out.println("✓\n");
+
+        // --- Test 18: Listener isolation - slow and throwing TradeListeners never stall matching ---
+        System.out.println("=== Test 18: Listener isolation ===");
+        try (StockExchangeService svc18 = new StockExchangeService(new PriceTimeStrategy(), 1, IdleStrategy.BACKOFF)) {
+            int trades18 = 50_000;                                   // ~3 feed events per trade: well past the 65,536-slot event ring
+            AtomicLong slowSeen = new AtomicLong();
+            TradeNotifier ok18 = new TradeNotifier();
+            MarketDataPublisher.ListenerFeed failing = svc18.addListener(t -> { throw new IllegalStateException("listener bug"); });
+            MarketDataPublisher.ListenerFeed slow = svc18.addListener(t -> { LockSupport.parkNanos(1_000_000); slowSeen.incrementAndGet(); }, 256);
+            MarketDataPublisher.ListenerFeed okFeed = svc18.addListener(ok18);
+            long t0 = System.nanoTime();
+            for (int i = 0; i < trades18; i++) {
+                svc18.submitOrder("L", "s", OrderSide.SELL, Price.of(10.0), 1);
+                svc18.submitOrder("L", "b", OrderSide.BUY, Price.of(10.0), 1);
+            }
+            svc18.flush();
+            long matchMs = (System.nanoTime() - t0) / 1_000_000;
+            svc18.awaitMarketData();
+            check(matchMs < trades18 / 5, true, String.format("Matched %,d trades in %,d ms (a 1 ms listener inline would need %,d ms)",
+                trades18, matchMs, trades18));
+            check(slow.dropped() > 0 && slow.delivered() + slow.dropped() == trades18 && slowSeen.get() == slow.delivered(), true,
+                String.format("Slow listener: %,d handled, %,d dropped at its own 256-trade queue", slow.delivered(), slow.dropped()));
+            check(failing.failures() + failing.dropped() == trades18 && failing.delivered() == 0 && failing.alive(), true,
+                String.format("Throwing listener: %,d failures counted, its thread still alive", failing.failures()));
+            check(ok18.notifications.size() == okFeed.delivered() && okFeed.delivered() + okFeed.dropped() == trades18, true,
+                String.format("Healthy listener unaffected: %,d notified, %,d dropped", okFeed.delivered(), okFeed.dropped()));
+        }
+        System.out.println("✓\n");
+
+        System.out.println("════════ ALL 18 TESTS PASSED ✓ ════════");
+    }
+
+    /** Depth of both sides per symbol plus the trade count, as one comparable string. */
+    static String bookState(StockExchangeService svc, String... symbols) {
+        StringBuilder sb = new StringBuilder("trades=").append(svc.getTradeCount());
+        for (String s : symbols) {
+            for (OrderSide side : OrderSide.values()) {
+                sb.append(' ').append(s).append(side);
+                for (long[] l : svc.getDepth(s, side)) sb.append(' ').append(l[0]).append('x').append(l[1]).append('/').append(l[2]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Crash mid-append: a record with a type but a garbage payload right after the last valid one. */
+    static long tearTail(Path segment) throws IOException {
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer chunk = ByteBuffer.allocate(Journal.RECORD * 1024);
+            for (long p = 0; ; p += chunk.capacity()) {
+                chunk.clear();
+                ch.read(chunk, p);
+                for (int i = 0; i < chunk.capacity(); i += Journal.RECORD) {
+                    if (chunk.get(i) != 0) continue;
+                    byte[] junk = new byte[Journal.RECORD / 2];
+                    new Random(1).nextBytes(junk);
+                    junk[0] = Journal.PLACE;
+                    ch.write(ByteBuffer.wrap(junk), p + i);
+                    return p + i;
+                }
+            }
+        }
+    }
+
+    static void deleteTree(Path dir) throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.walk(dir)) {
+            for (Path f : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(f);
+        }
+    }
+
+    static String us(long nanos) { return String.format("%.1fus", nanos / 1000.0); }
+
+    /** Synthetic flow: mid drifts ±1 tick; 15% of limits cross, the rest rest ≤ 20 ticks away; cancels hit recent orders. */
+    static final class OrderFlow {
+        final boolean[] cancel, buy;
+        final long[] price;
+        final int[] qty, target;
+
+        private OrderFlow(int n) {
+            cancel = new boolean[n]; buy = new boolean[n]; price = new long[n]; qty = new int[n]; target = new int[n];
+        }
+
+        static OrderFlow generate(int n, long seed) {
+            OrderFlow f = new OrderFlow(n);
+            Random r = new Random(seed);
+            long mid = Price.of(100.00) / OrderBook.TICK;
+            int[] recent = new int[4096];
+            int placed = 0;
+            for (int i = 0; i < n; i++) {
+                if (r.nextInt(10) == 0) mid += r.nextBoolean() ? 1 : -1;
+                if (placed > 0 && r.nextInt(10) < 3) {
+                    f.cancel[i] = true;
+                    f.target[i] = recent[r.nextInt(Math.min(placed, recent.length))];
+                    continue;
+                }
+                boolean buy = f.buy[i] = r.nextBoolean();
+                long ticks = r.nextInt(100) < 15 ? mid + (buy ? 1 : -1) * r.nextInt(4)
+                                                 : mid + (buy ? -1 : 1) * (1 + r.nextInt(20));
+                f.price[i] = ticks * OrderBook.TICK;
+                f.qty[i] = 1 + r.nextInt(100);
+                recent[placed++ % recent.length] = i;
+            }
+            return f;
+        }
+
+        OrderSide side(int i) { return buy[i] ? OrderSide.BUY : OrderSide.SELL; }
+
+        void replay(StockExchangeService svc, String symbol, int ops) { replay(svc, symbol, 0, ops, new long[ops]); }
+
+        /** Commands [from, to); ids[] maps op index → order id across calls. */
+        void replay(StockExchangeService svc, String symbol, int from, int to, long[] ids) {
+            for (int i = from; i < to; i++) {
+                if (cancel[i]) svc.submitCancel(symbol, ids[target[i]]);
+                else ids[i] = svc.submitOrder(symbol, "t", side(i), price[i], qty[i]);
+            }
+        }
+    }
+
+    /** Price-time, except that it throws on an order of POISON_QTY (a strategy bug). */
+    static final class FaultyStrategy implements MatchingStrategy {
+        static final int POISON_QTY = 13;
+        private final MatchingStrategy inner = new PriceTimeStrategy();
+
+        @Override public void match(OrderBook book, RestingOrder taker, ExecutionListener out) {
+            if (taker.quantity == POISON_QTY) throw new IllegalStateException("strategy bug on qty " + POISON_QTY);
+            inner.match(book, taker, out);
+        }
+    }
+
+    /** The pre-feed behaviour: every fill builds a Trade and runs each listener (String.format) on the matching thread. */
+    static final class InlineNotifyStrategy implements MatchingStrategy {
+        private final MatchingStrategy inner;
+        private final TradeListener[] listeners;
+        static long sink;
+
+        InlineNotifyStrategy(MatchingStrategy inner, int listenerCount) {
+            this.inner = inner;
+            this.listeners = new TradeListener[listenerCount];
+            Arrays.fill(listeners, (TradeListener) t -> sink += String.format("%s: %s %d@%.2f buyer=%s seller=%s",
+                t.id, t.symbol, t.quantity, t.price, t.buyerId, t.sellerId).length());
+        }
+
+        @Override public void match(OrderBook book, RestingOrder taker, ExecutionListener out) {
+            inner.match(book, taker, (b, t, m, price, qty) -> {
+                out.onTrade(b, t, m, price, qty);
+                RestingOrder buy = t.side == OrderSide.BUY ? t : m, sell = buy == t ? m : t;
+                Trade trade = new Trade("T-" + buy.id, b.symbol, "ORD-" + buy.id, "ORD-" + sell.id,
+                    buy.traderId, sell.traderId, Price.toDouble(price), (int) qty);
+                for (TradeListener l : listeners) l.onTrade(trade);
+            });
+        }
+    }
+
+    /** Feed consumer thread: polls its subscribers round-robin into L2 views; pauseMs > 0 → a slow consumer. */
+    static Thread consumer(List<MarketDataSubscriber> subs, AtomicBoolean stop, long pauseMs) {
+        Thread t = new Thread(() -> {
+            ByteBuffer buf = ByteBuffer.allocate(MdCodec.MSG_BYTES);
+            L2Book[] views = new L2Book[subs.size()];
+            for (int i = 0; i < views.length; i++) views[i] = new L2Book();
+            while (!stop.get()) {
+                int polled = 0;
+                for (int i = 0; i < views.length; i++)
+                    for (int k = 0; k < 256 && subs.get(i).poll(buf); k++, polled++) views[i].apply(buf);
+                if (pauseMs > 0) LockSupport.parkNanos(pauseMs * 1_000_000);
+                else if (polled == 0) LockSupport.parkNanos(50_000);
+            }
+        }, "md-consumer");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /** Drain a subscriber into view, checking incrementals are gap-free (snapshots repeat the current seq). */
+    static void drainChecked(MarketDataSubscriber s, L2Book view, ByteBuffer buf, long[] lastSeq, boolean[] gapFree, int max) {
+        for (int i = 0; i < max && s.poll(buf); i++) {
+            MdType type = MdCodec.type(buf);
+            long seq = MdCodec.seq(buf);
+            boolean snapshot = type == MdType.SNAPSHOT_BEGIN || type == MdType.SNAPSHOT_LEVEL || type == MdType.SNAPSHOT_END;
+            if (snapshot ? seq != lastSeq[0] && lastSeq[0] != 0 : seq != lastSeq[0] + 1) gapFree[0] = false;
+            lastSeq[0] = seq;
+            view.apply(buf);
+        }
+    }
+
+    static boolean sameDepth(L2Book view, StockExchangeService svc, String symbol) {
+        for (OrderSide side : OrderSide.values()) {
+            List<long[]> a = view.depth(side), b = svc.getDepth(symbol, side);
+            if (a.size() != b.size()) return false;
+            for (int i = 0; i < a.size(); i++) if (!Arrays.equals(a.get(i), b.get(i))) return false;
+        }
+        return true;
+    }
+
+    /** The previous engine, kept as the benchmark baseline: global RW lock, PriorityQueue books, O(n) cancel. */
+    static final class LegacyExchange {
+        final PriorityQueue<StockOrder> buys = new PriorityQueue<>(
+            Comparator.comparingDouble((StockOrder o) -> -o.price).thenComparingLong(o -> o.timestamp));
+        final PriorityQueue<StockOrder> sells = new PriorityQueue<>(
+            Comparator.comparingDouble((StockOrder o) -> o.price).thenComparingLong(o -> o.timestamp));
+        final Map<String, StockOrder> orders = new ConcurrentHashMap<>();
+        final List<Trade> trades = new ArrayList<>();
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private long orderCounter, tradeCounter;
+
+        StockOrder placeOrder(String symbol, String traderId, OrderSide side, double price, int quantity) {
+            lock.writeLock().lock();
+            try {
+                StockOrder order = new StockOrder(++orderCounter, symbol, traderId, side, price, quantity);
+                orders.put(order.id, order);
+                PriorityQueue<StockOrder> opposite = side == OrderSide.BUY ? sells : buys;
+                while (order.remainingQty() > 0 && !opposite.isEmpty()) {
+                    StockOrder top = opposite.peek();
+                    if (side == OrderSide.BUY ? order.price < top.price : top.price < order.price) break;
+                    opposite.poll();
+                    int qty = Math.min(order.remainingQty(), top.remainingQty());
+                    order.fill(qty);
+                    top.fill(qty);
+                    StockOrder b = side == OrderSide.BUY ? order : top, s = b == order ? top : order;
+                    trades.add(new Trade("T-" + (++tradeCounter), symbol, b.id, s.id, b.traderId, s.traderId, top.price, qty));
+                    if (top.remainingQty() > 0) opposite.offer(top);
+                }
+                if (order.remainingQty() > 0) (side == OrderSide.BUY ? buys : sells).offer(order);
+                return order;
+            } finally { lock.writeLock().unlock(); }
+        }
+
+        boolean cancelOrder(String orderId) {
+            lock.writeLock().lock();
+            try {
+                StockOrder order = orders.get(orderId);
+                if (order.status == OrderStatus.FILLED || order.status == OrderStatus.CANCELLED) return false;
+                order.status = OrderStatus.CANCELLED;
+                return (order.side == OrderSide.BUY ? buys : sells).remove(order);
+            } finally { lock.writeLock().unlock(); }
+        }
     }
 
     static void check(OrderStatus a, OrderStatus e, String m) { System.out.println("  " + (a == e ? "✓" : "✗ GOT " + a) + " " + m); }
@@ -354,9 +2745,11 @@ public class StockExchangeSystem {
 /*
  * INTERVIEW NOTES:
  * 
- * 1. ORDER BOOK: PriorityQueue per side per symbol.
- *    Buy = max-heap (highest price first), Sell = min-heap (lowest price first).
- *    Tie-break by timestamp (FIFO) → price-time priority.
+ * 1. ORDER BOOK: price ladder = array of levels indexed by (price / tick), each level an
+ *    intrusive doubly-linked FIFO. Best bid/ask are indexes; an emptied best level scans to the
+ *    next non-empty one (books are dense near the touch, so the scan is short).
+ *    Prices are fixed-point longs → exact comparisons, no double rounding.
+ *    Previous version: PriorityQueue per side → O(log n) insert, O(n) cancel (remove(Object)).
  *
  * 2. MATCHING: Incoming order matched against opposite book.
  *    BUY matches if buy.price >= sell.price. Trade at existing order's price.
@@ -366,10 +2759,39 @@ public class StockExchangeSystem {
  *    MarketMakerStrategy, AuctionStrategy.
  *
  * 4. OBSERVER (TradeListener): TradeNotifier gets notified on each trade execution.
- *    Could feed settlement, analytics, risk management.
+ *    Could feed settlement, analytics, risk management. Each listener runs on its own thread
+ *    behind a bounded queue, never on the matching or market-data thread → a slow listener
+ *    cannot add to order latency (it drops its own overflow), and a throwing one is counted.
+ *
+ * 4b. MARKET DATA: the engine only writes fixed events (trade / level delta) into an SPSC ring;
+ *    one delta per touched level per command (a level flipping sides emits qty 0 for the old side).
+ *    The publisher encodes 40-byte binary messages (no strings) with a per-symbol sequence and
+ *    copies them into each subscriber's ring. A full subscriber ring is NOT waited on: the
+ *    subscriber is marked lagging, updates for it are conflated (latest qty per level, trade
+ *    count/volume), and once it drains it gets a snapshot + the conflated state, then live again.
+ *    Periodic snapshots let late joiners and gap-detecting clients resync.
+ *
+ * 5. THREADING (LMAX): single writer per symbol shard instead of a global lock.
+ *    Gateways publish into a preallocated ring (claim = one getAndIncrement, publish = lazySet of
+ *    the sequence); one thread consumes in order → no locks, no contention on the book, deterministic.
+ *    Sync API = publish + park until the shard acks; async API = publish and return.
+ *    Idle: busy-spin on an isolated, pinned core for µs wake-ups; backoff + park otherwise.
+ *
+ * 6. CANCEL O(1): orderId → node via open addressing (no boxing), unlink from the level's list.
+ *
+ * 7. GARBAGE: ring slots, order nodes (free list) and levels are reused → steady state allocates
+ *    nothing on the matching thread; Trade objects only when history/listeners are on.
  *
- * 5. THREAD SAFETY: ReadWriteLock for order placement/cancellation.
+ * 8. JOURNAL / RECOVERY: the matching thread is the sequencer, so it appends each PLACE/CANCEL
+ *    to its shard's mmap'd journal before applying it (a plain memory write). Acks are held until
+ *    the batch ends (ring empty or 1024 commands) → one force() per batch = group commit.
+ *    Matching is deterministic (no clocks, no randomness, per-shard trade ids), so replaying the
+ *    journal rebuilds identical books; a snapshot (all resting orders in FIFO order + the ladder
+ *    window + journal position) bounds replay to the commands after it. Checksummed records →
+ *    a torn tail after a crash is cut off. Trades are journaled too, so history is a bounded LRU
+ *    window in memory + O(stride) reads from disk via a sparse index.
+ *    Market data still goes out before the batch is forced; a strict venue would publish after.
  *
- * 6. EXTENSIONS: limit/market/stop orders, order amendments, order book depth,
+ * 9. EXTENSIONS: limit/market/stop orders, order amendments, order book depth,
  *    circuit breakers, settlement T+2, FIX protocol.
  */
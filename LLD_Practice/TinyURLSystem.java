@@ -1,4 +1,13 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
 
 // ===== CUSTOM EXCEPTION CLASSES =====
 
@@ -121,6 +130,614 @@ class ShortCodeGenerationException extends Exception {
     }
 }
 
+// ===== CODE ALLOCATION (thread-safe mode) =====
+
+/**
+ * Base62 over TinyURLSystem.CHARACTERS, fixed width (left-padded with 'a' = digit 0).
+ * One char[] + one String per code — no StringBuilder.
+ */
+class Base62 {
+    static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    static String encode(long value, int length) {
+        char[] chars = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            chars[i] = CHARACTERS.charAt((int) (value % 62));
+            value /= 62;
+        }
+        return new String(chars);
+    }
+    
+    private static final int[] DIGITS = new int[128];
+    static {
+        Arrays.fill(DIGITS, -1);
+        for (int i = 0; i < CHARACTERS.length(); i++) DIGITS[CHARACTERS.charAt(i)] = i;
+    }
+    
+    /** @return numeric value, or -1 if code isn't exactly `length` Base62 chars */
+    static long decode(String code, int length) {
+        if (code.length() != length) return -1;
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = code.charAt(i);
+            int d = c < 128 ? DIGITS[c] : -1;
+            if (d < 0) return -1;
+            value = value * 62 + d;
+        }
+        return value;
+    }
+
+    static long keyspace(int length) {
+        long n = 1;
+        for (int i = 0; i < length; i++) n *= 62;
+        return n;
+    }
+}
+
+/**
+ * Bijective permutation of [0, domain) — balanced Feistel network + cycle walking.
+ * 
+ * HOW IT WORKS:
+ *   - Split x (ceil(log2 domain) bits, rounded up to even) into halves L, R
+ *   - 4 rounds: (L, R) → (R, L ^ F(R, key_i)); any F gives a bijection on 2^bits
+ *   - If the result lands in [domain, 2^bits), permute again (cycle walking) —
+ *     domain > 2^(bits-2), so < 4 walks expected
+ * 
+ * WHY: sequential counters become random-looking codes (not guessable / enumerable)
+ *      while staying unique — no collision check needed.
+ */
+class FeistelPermutation {
+    private final long domain;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] roundKeys = new long[4];
+
+    FeistelPermutation(long domain, long seed) {
+        this.domain = domain;
+        int bits = 64 - Long.numberOfLeadingZeros(domain - 1);
+        this.halfBits = (bits + 1) / 2;
+        this.halfMask = (1L << halfBits) - 1;
+        Random rnd = new Random(seed);
+        for (int i = 0; i < roundKeys.length; i++) roundKeys[i] = rnd.nextLong();
+    }
+
+    long permute(long x) {
+        do { x = encrypt(x); } while (x >= domain);
+        return x;
+    }
+
+    private long encrypt(long x) {
+        long l = x >>> halfBits, r = x & halfMask;
+        for (long key : roundKeys) {
+            long next = l ^ round(r, key);
+            l = r;
+            r = next;
+        }
+        return (l << halfBits) | r;
+    }
+
+    private long round(long r, long key) {
+        long h = (r ^ key) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        return h & halfMask;
+    }
+}
+
+/**
+ * Collision-free code allocator for concurrent shorten().
+ * 
+ * HOW IT WORKS:
+ *   - Global AtomicLong hands out counter RANGES (RANGE_SIZE at a time)
+ *   - Each thread bumps its own range locally (no CAS per code)
+ *   - counter → FeistelPermutation → Base62 → code; distinct counters give distinct codes
+ * 
+ * TRADE-OFF: a thread that dies mid-range strands < RANGE_SIZE codes (never reused).
+ */
+class RangeCodeAllocator {
+    static final int RANGE_SIZE = 1024;
+
+    private final int codeLength;
+    private final long keyspace;
+    private final FeistelPermutation permutation;
+    private final AtomicLong nextRange = new AtomicLong();
+    private final ThreadLocal<long[]> range = ThreadLocal.withInitial(() -> new long[]{0, 0});  // {next, end}
+    private final LongConsumer onReserve;   // persists the reserved high-water mark (store mode)
+
+    RangeCodeAllocator(int codeLength, long seed) {
+        this(codeLength, seed, 0, end -> { });
+    }
+
+    /** Resume after restart: counters below startCounter were already reserved. */
+    RangeCodeAllocator(int codeLength, long seed, long startCounter, LongConsumer onReserve) {
+        this.codeLength = codeLength;
+        this.keyspace = Base62.keyspace(codeLength);
+        this.permutation = new FeistelPermutation(keyspace, seed);
+        this.nextRange.set(startCounter);
+        this.onReserve = onReserve;
+    }
+
+    String next() throws ShortCodeGenerationException {
+        return Base62.encode(nextCode(), codeLength);
+    }
+
+    /** Numeric code in [0, 62^len) — what the mapped store indexes by. */
+    long nextCode() throws ShortCodeGenerationException {
+        long[] r = range.get();
+        if (r[0] == r[1]) {
+            long start = nextRange.getAndAdd(RANGE_SIZE);
+            if (start >= keyspace) throw new ShortCodeGenerationException(0);
+            r[0] = start;
+            r[1] = Math.min(start + RANGE_SIZE, keyspace);
+            onReserve.accept(r[1]);
+        }
+        return permutation.permute(r[0]++);
+    }
+}
+
+// ===== COMPACT STORAGE (mapped mode) =====
+
+/**
+ * Open-addressing long → long hash table (linear probing, ≤ 75% full), no boxing, no entry objects.
+ * value 0 = empty slot (store offsets are never 0, the file header lives there).
+ * Duplicate keys are allowed — used by the URL-fingerprint index, where callers
+ * walk every slot with a matching key and verify.
+ * NOT thread-safe: MappedUrlStore guards it with its read/write lock.
+ */
+class LongLongIndex {
+    private long[] keys, values;
+    private int size, mask;
+
+    LongLongIndex(int initialCapacityPow2) {
+        keys = new long[initialCapacityPow2];
+        values = new long[initialCapacityPow2];
+        mask = initialCapacityPow2 - 1;
+    }
+
+    /** Smallest power-of-2 capacity that holds `entries` without a resize. */
+    static int capacityFor(long entries) {
+        long needed = Math.max(16, entries * 4 / 3 + 1);
+        if (needed > 1 << 30) throw new IllegalArgumentException("Too many entries for one index: " + entries);
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    void add(long key, long value) {
+        if ((long) size * 4 >= (long) keys.length * 3) resize();
+        int i = slot(key);
+        while (values[i] != 0) i = (i + 1) & mask;
+        keys[i] = key; values[i] = value; size++;
+    }
+
+    /** First slot ≥ `from` (in probe order from the key's home) holding key, or -1 at an empty slot. */
+    int find(long key, int from) {
+        int i = from < 0 ? slot(key) : (from + 1) & mask;
+        while (values[i] != 0) {
+            if (keys[i] == key) return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    long valueAt(int slot) { return values[slot]; }
+
+    long heapBytes() { return 16L * keys.length; }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys, oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) if (oldValues[i] != 0) add(oldKeys[i], oldValues[i]);
+    }
+}
+
+/**
+ * Append-only, memory-mapped URL store.
+ * 
+ * FILE LAYOUT (segments of SEGMENT_SIZE, mapped lazily):
+ *   header  [0..8)  committed end offset    [8..16) reserved code counter (allocator high-water)
+ *   record  code:long | expiry:long | urlLen:int | url UTF-8 bytes
+ *           expiry 0 = never, DELETED = tombstone; a record never spans segments —
+ *           a PAD code marks the unused tail of a segment
+ * 
+ * HEAP: two LongLongIndexes only (no Strings, no entry objects)
+ *   code index:        36-bit code        → record offset
+ *   fingerprint index: 64-bit URL hash    → record offset (verified against bytes on hit)
+ * Restart: scan records up to the committed end and rebuild both indexes.
+ * Concurrency: ReadWriteLock — many expand() readers, one appender.
+ */
+class MappedUrlStore implements Closeable {
+    static final long DELETED = Long.MIN_VALUE;
+    private static final long PAD = -1;
+    private static final int SEGMENT_SIZE = 64 << 20;
+    private static final int HEADER = 16, RECORD_HEADER = 20;
+
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];   // copy-on-write, grows only
+    private final LongLongIndex byCode, byUrl;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long end;
+    private volatile int live;   // written under the write lock, read lock-free by size()
+
+    MappedUrlStore(Path file) throws IOException {
+        this(file, 1 << 15);
+    }
+
+    /** @param expectedUrls sizes both indexes up front so they never rehash below that count */
+    MappedUrlStore(Path file, int expectedUrls) throws IOException {
+        byCode = new LongLongIndex(LongLongIndex.capacityFor(expectedUrls));
+        byUrl = new LongLongIndex(LongLongIndex.capacityFor(expectedUrls));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        end = segment(0).getLong(0);
+        if (end == 0) { end = HEADER; segment(0).putLong(0, end); }
+        recover();
+    }
+
+    private void recover() throws IOException {
+        long pos = HEADER;
+        while (pos < end) {
+            MappedByteBuffer seg = segment(pos);
+            int at = (int) (pos % SEGMENT_SIZE);
+            long code = at + RECORD_HEADER > SEGMENT_SIZE ? PAD : seg.getLong(at);
+            if (code == PAD) { pos = (pos / SEGMENT_SIZE + 1) * SEGMENT_SIZE; continue; }
+            int len = seg.getInt(at + 16);
+            byCode.add(code, pos);
+            byUrl.add(fingerprint(readUrl(seg, at, len)), pos);
+            if (seg.getLong(at + 8) != DELETED) live++;
+            pos += RECORD_HEADER + len;
+        }
+    }
+
+    /** @return existing code if the URL is already stored (and not deleted), else appends and returns -1 */
+    long putIfUrlAbsent(long code, String url, long expiry) throws IOException {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > SEGMENT_SIZE - RECORD_HEADER) throw new IllegalArgumentException("URL too long: " + bytes.length + " bytes");
+        long fp = fingerprint(bytes);
+        lock.writeLock().lock();
+        try {
+            long existing = findOffset(fp, bytes);
+            if (existing != 0) return segment(existing).getLong((int) (existing % SEGMENT_SIZE));
+            int at = (int) (end % SEGMENT_SIZE);
+            if (at + RECORD_HEADER + bytes.length > SEGMENT_SIZE) {       // pad out the segment tail
+                if (at + 8 <= SEGMENT_SIZE) segment(end).putLong(at, PAD);
+                end = (end / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+                at = 0;
+            }
+            MappedByteBuffer seg = segment(end);
+            seg.putLong(at, code).putLong(at + 8, expiry).putInt(at + 16, bytes.length);
+            seg.put(at + RECORD_HEADER, bytes);
+            byCode.add(code, end);
+            byUrl.add(fp, end);
+            end += RECORD_HEADER + bytes.length;
+            segment(0).putLong(0, end);                                   // commit
+            live++;
+            return -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Record offset of a live code, 0 if absent or deleted. */
+    long offsetOf(long code) {
+        lock.readLock().lock();
+        try {
+            for (int slot = byCode.find(code, -1); slot >= 0; slot = byCode.find(code, slot)) {
+                long off = byCode.valueAt(slot);
+                if (segment(off).getLong((int) (off % SEGMENT_SIZE) + 8) != DELETED) return off;
+            }
+            return 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Code for a live URL, -1 if not stored. */
+    long findCode(String url) {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            long off = findOffset(fingerprint(bytes), bytes);
+            return off == 0 ? -1 : segment(off).getLong((int) (off % SEGMENT_SIZE));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Expiry is the only mutable field, so it is read/written under the lock (no torn longs). */
+    long expiryAt(long offset) {
+        lock.readLock().lock();
+        try {
+            return segment(offset).getLong((int) (offset % SEGMENT_SIZE) + 8);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean setExpiry(long code, long expiry) {
+        lock.writeLock().lock();
+        try {
+            long off = offsetOf(code);
+            if (off == 0) return false;
+            segment(off).putLong((int) (off % SEGMENT_SIZE) + 8, expiry);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** URL bytes are immutable once appended — no lock needed. */
+    String urlAt(long offset) {
+        MappedByteBuffer seg = segment(offset);
+        int at = (int) (offset % SEGMENT_SIZE);
+        return new String(readUrl(seg, at, seg.getInt(at + 16)), StandardCharsets.UTF_8);
+    }
+
+    boolean delete(long code) {
+        lock.writeLock().lock();
+        try {
+            if (!setExpiry(code, DELETED)) return false;
+            live--;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    long reservedCounter() { return segment(0).getLong(8); }
+
+    synchronized void setReservedCounter(long counter) {
+        if (counter > reservedCounter()) segment(0).putLong(8, counter);
+    }
+
+    int size() { return live; }
+    long fileBytes() { return end; }
+    long heapIndexBytes() { return byCode.heapBytes() + byUrl.heapBytes(); }
+
+    private long findOffset(long fp, byte[] bytes) {
+        for (int slot = byUrl.find(fp, -1); slot >= 0; slot = byUrl.find(fp, slot)) {
+            long off = byUrl.valueAt(slot);
+            if (segment(off).getLong((int) (off % SEGMENT_SIZE) + 8) == DELETED) continue;
+            MappedByteBuffer seg = segment(off);
+            int at = (int) (off % SEGMENT_SIZE);
+            if (seg.getInt(at + 16) == bytes.length && Arrays.equals(readUrl(seg, at, bytes.length), bytes)) return off;
+        }
+        return 0;
+    }
+
+    private static byte[] readUrl(MappedByteBuffer seg, int at, int len) {
+        byte[] bytes = new byte[len];
+        seg.get(at + RECORD_HEADER, bytes);
+        return bytes;
+    }
+
+    /** 64-bit FNV-1a + murmur finalizer over the UTF-8 bytes. */
+    static long fingerprint(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) { h ^= b; h *= 0x100000001b3L; }
+        h ^= h >>> 33; h *= 0xff51afd7ed558ccdL; h ^= h >>> 33;
+        return h;
+    }
+
+    private MappedByteBuffer segment(long offset) {
+        int idx = (int) (offset / SEGMENT_SIZE);
+        MappedByteBuffer[] segs = segments;
+        if (idx < segs.length) return segs[idx];
+        synchronized (channel) {
+            segs = segments;
+            if (idx < segs.length) return segs[idx];
+            MappedByteBuffer[] grown = Arrays.copyOf(segs, idx + 1);
+            try {
+                for (int i = segs.length; i <= idx; i++)
+                    grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * SEGMENT_SIZE, SEGMENT_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to map segment " + idx, e);
+            }
+            segments = grown;
+            return grown[idx];
+        }
+    }
+
+    /** Flush dirty pages to disk. */
+    void force() { for (MappedByteBuffer seg : segments) seg.force(); }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
+
+// ===== READ PATH: HOT CACHE + CLICK ANALYTICS =====
+
+/** Immutable redirect target — safe to share across threads without locks. */
+final class CachedRedirect {
+    final String code, url;
+    final long expiry;   // 0 = never
+    
+    CachedRedirect(String code, String url, long expiry) { this.code = code; this.url = url; this.expiry = expiry; }
+    
+    boolean isExpired(long now) { return expiry != 0 && expiry < now; }
+}
+
+/**
+ * Bounded, direct-mapped hot-code cache: slot = hash(code) & mask.
+ * Hit = ONE array read + code equals — no hashing chain, no lock, no LRU bookkeeping.
+ * A colliding code simply overwrites the slot; under Zipfian traffic the hot codes
+ * win their slots back immediately, so hit rate tracks the head of the distribution.
+ * 
+ * REFILL RACE: a miss reads the record, then puts it. A writer that changes the record
+ * and invalidates in between must not be overwritten by that stale put, so every slot
+ * has a version bumped by invalidate(). The reader takes the version BEFORE reading the
+ * record and re-checks it AFTER its put: changed → it removes its own entry; unchanged →
+ * the writer's bump (and clear) is still to come and will remove it.
+ */
+class RedirectCache {
+    private final AtomicReferenceArray<CachedRedirect> slots;
+    private final AtomicLongArray versions;
+    private final int mask;
+    
+    RedirectCache(int capacityPow2) {
+        if (Integer.bitCount(capacityPow2) != 1) throw new IllegalArgumentException("capacity must be a power of 2");
+        slots = new AtomicReferenceArray<>(capacityPow2);
+        versions = new AtomicLongArray(capacityPow2);
+        mask = capacityPow2 - 1;
+    }
+    
+    CachedRedirect get(String code) {
+        CachedRedirect r = slots.get(code.hashCode() & mask);
+        return r != null && r.code.equals(code) ? r : null;
+    }
+    
+    /** Read before the backing record; hand it to put(). */
+    long version(String code) { return versions.get(code.hashCode() & mask); }
+    
+    /** Cache r unless its slot was invalidated since `version` was read. */
+    void put(CachedRedirect r, long version) {
+        int idx = r.code.hashCode() & mask;
+        slots.set(idx, r);
+        if (versions.get(idx) != version) slots.compareAndSet(idx, r, null);
+    }
+    
+    /** Call AFTER the backing record changed. */
+    void invalidate(String code) {
+        int idx = code.hashCode() & mask;
+        versions.incrementAndGet(idx);
+        CachedRedirect r = slots.get(idx);
+        if (r != null && r.code.equals(code)) slots.compareAndSet(idx, r, null);
+    }
+}
+
+/**
+ * Asynchronous click counting — a redirect never waits on analytics.
+ * 
+ * HOW IT WORKS:
+ *   - Each redirect thread owns a single-producer/single-consumer ring (ThreadLocal)
+ *   - record(): write (code, time) into own ring, publish tail with lazySet — no lock, no CAS
+ *   - Ring full → drop the click and count it (never block the redirect)
+ *   - A scheduled merger drains every ring into per-code totals + per-hour rollups
+ *     (single writer to the counters; readers see AtomicLongs)
+ *   - Bounded: a dead thread's ring is dropped after its final drain, and only the
+ *     newest retainHours hourly rollups are kept
+ */
+class ClickAnalytics implements AutoCloseable {
+    static final long HOUR_MS = 3_600_000L;
+    
+    static final class ClickRing {
+        final String[] codes;
+        final long[] times;
+        final int mask;
+        final AtomicLong head = new AtomicLong(), tail = new AtomicLong(), dropped = new AtomicLong();
+        final Thread owner;
+        
+        ClickRing(int capacityPow2, Thread owner) {
+            codes = new String[capacityPow2]; times = new long[capacityPow2]; mask = capacityPow2 - 1;
+            this.owner = owner;
+        }
+        
+        void offer(String code, long time) {
+            long t = tail.get();
+            if (t - head.get() > mask) { dropped.incrementAndGet(); return; }
+            codes[(int) (t & mask)] = code;
+            times[(int) (t & mask)] = time;
+            tail.lazySet(t + 1);
+        }
+    }
+    
+    static final int DEFAULT_RETAIN_HOURS = 48;
+    
+    private final int ringCapacity, retainHours;
+    private final List<ClickRing> rings = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ClickRing> localRing;
+    private final ConcurrentHashMap<String, AtomicLong> totals = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<String, AtomicLong>> hourly = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService merger;
+    private long latestHour = -1;               // newest hour merged so far, -1 = none (merger-only)
+    private long droppedByDeadRings;            // dropped counts of pruned rings (merger-only)
+    
+    ClickAnalytics(int ringCapacityPow2, long mergeIntervalMs) {
+        this(ringCapacityPow2, mergeIntervalMs, DEFAULT_RETAIN_HOURS);
+    }
+    
+    ClickAnalytics(int ringCapacityPow2, long mergeIntervalMs, int retainHours) {
+        if (Integer.bitCount(ringCapacityPow2) != 1) throw new IllegalArgumentException("ring capacity must be a power of 2");
+        if (retainHours <= 0) throw new IllegalArgumentException("retainHours must be positive");
+        this.ringCapacity = ringCapacityPow2;
+        this.retainHours = retainHours;
+        this.localRing = ThreadLocal.withInitial(() -> {
+            ClickRing ring = new ClickRing(ringCapacity, Thread.currentThread());
+            rings.add(ring);
+            return ring;
+        });
+        this.merger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "click-merger");
+            t.setDaemon(true);
+            return t;
+        });
+        merger.scheduleWithFixedDelay(this::merge, mergeIntervalMs, mergeIntervalMs, TimeUnit.MILLISECONDS);
+    }
+    
+    void record(String code, long time) { localRing.get().offer(code, time); }
+    
+    /** Drain every ring into the counters. Also callable directly (e.g. before reading in tests). */
+    synchronized void merge() {
+        long newest = latestHour;
+        for (ClickRing ring : rings) {
+            // read liveness FIRST: a terminated owner's last offer happens-before isAlive() == false
+            boolean ownerDead = !ring.owner.isAlive();
+            long h = ring.head.get(), t = ring.tail.get();
+            for (long i = h; i < t; i++) {
+                int idx = (int) (i & ring.mask);
+                String code = ring.codes[idx];
+                ring.codes[idx] = null;
+                totals.computeIfAbsent(code, k -> new AtomicLong()).incrementAndGet();
+                long hour = ring.times[idx] / HOUR_MS;
+                if (hour <= newest - retainHours) continue;                 // older than the retained rollups
+                newest = Math.max(newest, hour);
+                hourly.computeIfAbsent(hour, k -> new ConcurrentHashMap<>())
+                      .computeIfAbsent(code, k -> new AtomicLong()).incrementAndGet();
+            }
+            ring.head.lazySet(t);
+            if (ownerDead) { droppedByDeadRings += ring.dropped.get(); rings.remove(ring); }
+        }
+        if (newest != latestHour) {
+            latestHour = newest;
+            long cutoff = newest - retainHours;
+            hourly.keySet().removeIf(hour -> hour <= cutoff);
+        }
+    }
+    
+    long getClicks(String code) {
+        AtomicLong c = totals.get(code);
+        return c == null ? 0 : c.get();
+    }
+    
+    long getHourlyClicks(String code, long hourEpoch) {
+        Map<String, AtomicLong> hour = hourly.get(hourEpoch);
+        AtomicLong c = hour == null ? null : hour.get(code);
+        return c == null ? 0 : c.get();
+    }
+    
+    synchronized long getDropped() {
+        long d = droppedByDeadRings;
+        for (ClickRing ring : rings) d += ring.dropped.get();
+        return d;
+    }
+    
+    int ringCount() { return rings.size(); }
+    int hourlyRollupCount() { return hourly.size(); }
+    
+    @Override
+    public void close() {
+        merger.shutdown();
+        merge();
+    }
+}
+
 /**
  * TinyURL System - Low Level Design (LLD)
  * 
@@ -161,21 +778,60 @@ public class TinyURLSystem {
     // What should be the length of short code? e.g., 6-8 characters
     private static final String BASE_URL = "http://tiny.url/";
     private static final int SHORT_CODE_LENGTH = 6;
-    private static final String CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    private static final String CHARACTERS = Base62.CHARACTERS;
     private static final int MAX_RETRIES = 10;
     
     // HINT 5: For generating unique codes
     private Random random;
+    private final int codeLength;
+    private final RangeCodeAllocator codeAllocator;   // non-null → thread-safe, collision-free mode
+    private final MappedUrlStore store;               // non-null → compact mapped storage, maps unused
+    private volatile RedirectCache redirectCache;     // optional hot-code cache in front of maps/store
+    private volatile ClickAnalytics clickAnalytics;   // optional async click counting
     
     /**
      * Constructor - Initialize your data structures
      * HINT: What data structures need initialization?
      */
     public TinyURLSystem() {
-        shortToLongMap = new HashMap<>();
-        longToShortMap = new HashMap<>();
-        expirationMap = new HashMap<>();
-        random = new Random();
+        this(false, SHORT_CODE_LENGTH);
+    }
+    
+    /**
+     * @param threadSafe true → ConcurrentHashMaps + RangeCodeAllocator (no collision retries)
+     * @param codeLength short code length (keyspace = 62^codeLength)
+     */
+    public TinyURLSystem(boolean threadSafe, int codeLength) {
+        this.codeLength = codeLength;
+        this.store = null;
+        if (threadSafe) {
+            shortToLongMap = new ConcurrentHashMap<>();
+            longToShortMap = new ConcurrentHashMap<>();
+            expirationMap = new ConcurrentHashMap<>();
+            codeAllocator = new RangeCodeAllocator(codeLength, 0x7157L);
+        } else {
+            shortToLongMap = new HashMap<>();
+            longToShortMap = new HashMap<>();
+            expirationMap = new HashMap<>();
+            random = new Random();
+            codeAllocator = null;
+        }
+    }
+    
+    /**
+     * Compact, persistent mode: URLs live in a memory-mapped file, the heap holds only
+     * two primitive indexes. Thread-safe and collision-free (same RangeCodeAllocator);
+     * the allocator resumes from the counter high-water mark saved in the file header.
+     */
+    public TinyURLSystem(Path dataFile, int codeLength) throws IOException {
+        this(dataFile, codeLength, 1 << 15);
+    }
+    
+    /** @param expectedUrls pre-sizes the heap indexes (no rehash pauses/2x transient heap until exceeded) */
+    public TinyURLSystem(Path dataFile, int codeLength, int expectedUrls) throws IOException {
+        this.codeLength = codeLength;
+        this.store = new MappedUrlStore(dataFile, expectedUrls);
+        this.codeAllocator = new RangeCodeAllocator(codeLength, 0x7157L, store.reservedCounter(), store::setReservedCounter);
     }
     
     /**
@@ -202,6 +858,8 @@ public class TinyURLSystem {
         // HINT: Check if longURL is null or empty, throw new InvalidURLException("...")
         // HINT: Call generateShortCode() which may throw ShortCodeGenerationException
         if(longURL == null || longURL.isEmpty()) throw new InvalidURLException(longURL);
+        if(store != null) return shortenStored(longURL);
+        if(codeAllocator != null) return shortenConcurrent(longURL);
         if(longToShortMap.containsKey(longURL)) return BASE_URL + longToShortMap.get(longURL);
         String shortUrl;
         try{
@@ -214,6 +872,38 @@ public class TinyURLSystem {
         return BASE_URL+shortUrl;
     }
     
+    /**
+     * Thread-safe shorten: allocated codes are unique by construction, so the only
+     * "check" is the putIfAbsent insert itself — it can only fail if a custom alias
+     * already took that code, in which case we just take the next counter.
+     * Same URL raced by two threads → putIfAbsent on longToShortMap picks one winner,
+     * the loser's code is released.
+     */
+    private String shortenConcurrent(String longURL) throws ShortCodeGenerationException {
+        String existing = longToShortMap.get(longURL);
+        if (existing != null) return BASE_URL + existing;
+        String code;
+        do { code = codeAllocator.next(); } while (shortToLongMap.putIfAbsent(code, longURL) != null);
+        String winner = longToShortMap.putIfAbsent(longURL, code);
+        if (winner != null) {
+            shortToLongMap.remove(code, longURL);
+            return BASE_URL + winner;
+        }
+        return BASE_URL + code;
+    }
+    
+    private String shortenStored(String longURL) throws ShortCodeGenerationException {
+        long existing = store.findCode(longURL);
+        if (existing >= 0) return BASE_URL + Base62.encode(existing, codeLength);
+        long code = codeAllocator.nextCode();
+        try {
+            long winner = store.putIfUrlAbsent(code, longURL, 0);
+            return BASE_URL + Base62.encode(winner >= 0 ? winner : code, codeLength);
+        } catch (IOException e) {
+            throw new UncheckedIOException("URL store write failed", e);
+        }
+    }
+    
     /**
      * Shorten with custom alias (BONUS feature)
      * 
@@ -238,8 +928,8 @@ public class TinyURLSystem {
         if(longURL == null || longURL.isEmpty()) throw new InvalidURLException("Long URL is null or empty");
         if(customAlias == null || !customAlias.matches("[a-zA-Z0-9]+")) throw new InvalidAliasException(customAlias, "Alias must be alphanumeric" );
         if(customAlias.length() <3 || customAlias.length()>20) throw new InvalidAliasException(customAlias, "Alias length must be between 3 and 20");
-        if(shortToLongMap.containsKey(customAlias)) throw new AliasAlreadyExistsException(customAlias);
-        shortToLongMap.put(customAlias, longURL);
+        if(store != null) throw new UnsupportedOperationException("Custom aliases are not supported by the mapped store (codes are 36-bit numbers)");
+        if(shortToLongMap.putIfAbsent(customAlias, longURL) != null) throw new AliasAlreadyExistsException(customAlias);
         longToShortMap.put(longURL, customAlias);
         return BASE_URL+customAlias;
     }
@@ -266,12 +956,59 @@ public class TinyURLSystem {
         // HINT: Extract code, check if exists: if (!shortToLongMap.containsKey(code)) throw new URLNotFoundException(...)
         // HINT: Check expiration: if (isExpired(shortURL)) throw new URLExpiredException(...)
         String shortCode = extractShortCode(shortURL);
-        if(!shortToLongMap.containsKey(shortCode)) throw new URLNotFoundException(shortURL);
-        if(isExpired(shortCode)) {
-            Long expirationTime = expirationMap.get(shortCode);
-            throw new URLExpiredException(shortURL, expirationTime);
+        long now = System.currentTimeMillis();
+        RedirectCache cache = redirectCache;
+        CachedRedirect target = cache == null ? null : cache.get(shortCode);    // fast path: one slot read
+        if (target == null || target.isExpired(now)) {
+            long version = cache == null ? 0 : cache.version(shortCode);   // before the record read, see RedirectCache
+            target = store != null ? lookupStored(shortURL, shortCode) : lookupMaps(shortURL, shortCode);
+            if (target.isExpired(now)) throw new URLExpiredException(shortURL, target.expiry);
+            if (cache != null) cache.put(target, version);
         }
-        return shortToLongMap.get(shortCode);
+        ClickAnalytics clicks = clickAnalytics;
+        if (clicks != null) clicks.record(shortCode, now);
+        return target.url;
+    }
+    
+    /** Map modes: one get for the URL; expiry map only consulted if the URL exists. */
+    private CachedRedirect lookupMaps(String shortURL, String shortCode) throws URLNotFoundException {
+        String url = shortToLongMap.get(shortCode);
+        if (url == null) throw new URLNotFoundException(shortURL);
+        Long expirationTime = expirationMap.get(shortCode);
+        return new CachedRedirect(shortCode, url, expirationTime == null ? 0 : expirationTime);
+    }
+    
+    /** Mapped mode: decode → one primitive index probe → expiry + URL from the same record. */
+    private CachedRedirect lookupStored(String shortURL, String shortCode) throws URLNotFoundException {
+        long code = Base62.decode(shortCode, codeLength);
+        long offset = code < 0 ? 0 : store.offsetOf(code);
+        if (offset == 0) throw new URLNotFoundException(shortURL);
+        return new CachedRedirect(shortCode, store.urlAt(offset), store.expiryAt(offset));
+    }
+    
+    /** Put a bounded hot-code cache (power-of-2 slots) in front of the maps/store. */
+    public void enableRedirectCache(int slots) { redirectCache = new RedirectCache(slots); }
+    
+    /** Count clicks asynchronously: per-thread rings merged every mergeIntervalMs. */
+    public void enableClickAnalytics(int ringCapacity, long mergeIntervalMs) {
+        clickAnalytics = new ClickAnalytics(ringCapacity, mergeIntervalMs);
+    }
+    
+    /** Same, keeping only the newest retainHours hourly rollups. */
+    public void enableClickAnalytics(int ringCapacity, long mergeIntervalMs, int retainHours) {
+        clickAnalytics = new ClickAnalytics(ringCapacity, mergeIntervalMs, retainHours);
+    }
+    
+    /** Total merged clicks for a short URL (0 if analytics disabled). */
+    public long getClicks(String shortURL) {
+        ClickAnalytics clicks = clickAnalytics;
+        return clicks == null ? 0 : clicks.getClicks(extractShortCode(shortURL));
+    }
+    
+    /** Merged clicks in the hour containing timeMs. */
+    public long getHourlyClicks(String shortURL, long timeMs) {
+        ClickAnalytics clicks = clickAnalytics;
+        return clicks == null ? 0 : clicks.getHourlyClicks(extractShortCode(shortURL), timeMs / ClickAnalytics.HOUR_MS);
     }
     
     /**
@@ -299,7 +1036,7 @@ public class TinyURLSystem {
 
         for(int attempt = 0; attempt < MAX_RETRIES; attempt++){
             StringBuilder code = new StringBuilder();
-            for(int i=0;i<SHORT_CODE_LENGTH;i++){
+            for(int i=0;i<codeLength;i++){
                 code.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
             }
             String shortCode = code.toString();
@@ -326,26 +1063,21 @@ public class TinyURLSystem {
         // HINT: Extract code and check: if (!shortToLongMap.containsKey(code)) throw new URLNotFoundException(...)
         // HINT: long expirationTime = System.currentTimeMillis() + (hours * 3600000L);
         String shortCode = extractShortCode(shortURL);
-        if(!shortToLongMap.containsKey(shortCode)) throw new URLNotFoundException(shortURL);
         long expirationTime = System.currentTimeMillis() + (hours * 3600000L);
-        expirationMap.put(shortCode, expirationTime);
+        if(store != null) {
+            long code = Base62.decode(shortCode, codeLength);
+            if(code < 0 || !store.setExpiry(code, expirationTime)) throw new URLNotFoundException(shortURL);
+        } else {
+            if(!shortToLongMap.containsKey(shortCode)) throw new URLNotFoundException(shortURL);
+            expirationMap.put(shortCode, expirationTime);
+        }
+        invalidateCached(shortCode);
     }
     
-    /**
-     * BONUS: Check if a URL has expired
-     * 
-     * IMPLEMENTATION HINTS:
-     * 1. Get expiration timestamp from expirationMap
-     * 2. Compare with current time
-     * 3. Return true if expired
-     * 
-     * @param shortURL The short URL to check
-     * @return true if expired, false otherwise
-     */
-    private boolean isExpired(String shortURL) {
-        Long expirationTime = expirationMap.get(shortURL);
-        if(expirationTime == null) return false;
-        return expirationTime < System.currentTimeMillis();
+    /** Drop a cached redirect AFTER its backing record changed, so a refill sees the new state. */
+    private void invalidateCached(String shortCode) {
+        RedirectCache cache = redirectCache;
+        if(cache != null) cache.invalidate(shortCode);
     }
     
     /**
@@ -354,7 +1086,13 @@ public class TinyURLSystem {
      * @return Total number of active short URLs
      */
     public int getTotalURLs() {
-        return shortToLongMap.size();
+        return store != null ? store.size() : shortToLongMap.size();
+    }
+    
+    /** Stop the click merger (after a final merge) and flush the mapped data file. */
+    public void close() throws IOException {
+        if (clickAnalytics != null) clickAnalytics.close();
+        if (store != null) store.close();
     }
     
     /**
@@ -387,6 +1125,12 @@ public class TinyURLSystem {
      */
     public boolean delete(String shortURL) {
         String shortCode = extractShortCode(shortURL);
+        if(store != null) {
+            long code = Base62.decode(shortCode, codeLength);
+            boolean deleted = code >= 0 && store.delete(code);
+            invalidateCached(shortCode);
+            return deleted;
+        }
         if(!shortToLongMap.containsKey(shortCode)) return false;
         String longUrl = shortToLongMap.get(shortCode);
         shortToLongMap.remove(shortCode);
@@ -394,6 +1138,7 @@ public class TinyURLSystem {
             longToShortMap.remove(longUrl);
         }
         expirationMap.remove(shortCode);
+        invalidateCached(shortCode);
         return true;
     }
     
@@ -557,8 +1302,269 @@ public class TinyURLSystem {
         }
         System.out.println();
         
+        System.out.println("=== Test Case 14: Thread-Safe Mode - Feistel Permutation ===");
+        FeistelPermutation perm = new FeistelPermutation(Base62.keyspace(2), 1);
+        boolean[] seen = new boolean[(int) Base62.keyspace(2)];
+        boolean bijective = true;
+        for (int i = 0; i < seen.length; i++) {
+            int p = (int) perm.permute(i);
+            if (seen[p]) bijective = false;
+            seen[p] = true;
+        }
+        System.out.println((bijective ? "✓" : "✗") + " Permutation is a bijection over 62^2 = " + seen.length + " codes");
+        System.out.println("  First codes: " + Base62.encode(perm.permute(0), 2) + ", " + Base62.encode(perm.permute(1), 2)
+                + ", " + Base62.encode(perm.permute(2), 2) + " (counter order hidden)");
+        System.out.println();
+        
+        System.out.println("=== Test Case 15: Thread-Safe Mode - 16 Threads, No Duplicates ===");
+        try {
+            TinyURLSystem concurrent = new TinyURLSystem(true, SHORT_CODE_LENGTH);
+            concurrent.shortenWithAlias("https://alias.example", "promo1");
+            ExecutorService exec = Executors.newFixedThreadPool(16);
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) {
+                final String url = "https://site.example/page/" + (i % 10_000);   // every URL submitted twice
+                futures.add(exec.submit(() -> concurrent.shorten(url)));
+            }
+            Set<String> codes = new HashSet<>();
+            for (Future<String> f : futures) codes.add(f.get());
+            exec.shutdown();
+            System.out.println((codes.size() == 10_000 ? "✓" : "✗") + " 10,000 distinct codes for 10,000 distinct URLs (dupes deduped): " + codes.size());
+            System.out.println((concurrent.getTotalURLs() == 10_001 ? "✓" : "✗") + " No orphaned mappings: " + concurrent.getTotalURLs());
+            String sample = concurrent.shorten("https://site.example/page/42");
+            System.out.println((concurrent.expand(sample).equals("https://site.example/page/42") ? "✓" : "✗") + " Round trip: " + sample);
+        } catch (Exception e) {
+            System.out.println("✗ Unexpected exception: " + e);
+        }
+        System.out.println();
+        
+        System.out.println("=== Test Case 16: Benchmark - shortens/sec at 16 threads vs keyspace fill ===");
+        int benchLength = 3;                                   // 62^3 = 238,328 codes so 90% fill fits in memory
+        long space = Base62.keyspace(benchLength);
+        for (int fillPct : new int[]{10, 50, 90}) {
+            long[] random = benchmarkShorten(new TinyURLSystem(false, benchLength), space, fillPct);
+            long[] ranged = benchmarkShorten(new TinyURLSystem(true, benchLength), space, fillPct);
+            System.out.printf("  fill %2d%%: random+retry (synchronized) %,10d/s, %,5d failures | ranged Feistel %,10d/s, %,d failures%n",
+                    fillPct, random[0], random[1], ranged[0], ranged[1]);
+        }
+        System.out.println("✓ Ranged allocation never retries or fails, whatever the fill level");
+        System.out.println();
+        
+        System.out.println("=== Test Case 17: Mapped Store - Round Trip, Expiry, Restart ===");
+        try {
+            Path file = Files.createTempFile("tinyurl", ".dat");
+            TinyURLSystem mapped = new TinyURLSystem(file, SHORT_CODE_LENGTH);
+            String a = mapped.shorten("https://mapped.example/a");
+            String b = mapped.shorten("https://mapped.example/ünïcode");
+            System.out.println((mapped.shorten("https://mapped.example/a").equals(a) ? "✓" : "✗") + " Same URL → same code via fingerprint index");
+            mapped.setExpiration(b, -1);
+            String gone = mapped.shorten("https://mapped.example/gone");
+            mapped.delete(gone);
+            mapped.close();
+            
+            TinyURLSystem reopened = new TinyURLSystem(file, SHORT_CODE_LENGTH);
+            System.out.println((reopened.expand(a).equals("https://mapped.example/a") ? "✓" : "✗") + " Survives restart: " + a);
+            try { reopened.expand(b); System.out.println("✗ Expiry lost on restart"); }
+            catch (URLExpiredException e) { System.out.println("✓ Expiry persisted in record"); }
+            try { reopened.expand(gone); System.out.println("✗ Delete lost on restart"); }
+            catch (URLNotFoundException e) { System.out.println("✓ Tombstone persisted"); }
+            String c = reopened.shorten("https://mapped.example/c");
+            System.out.println((!c.equals(a) && !c.equals(b) && !c.equals(gone) ? "✓" : "✗") + " Allocator resumed past reserved codes: " + c);
+            System.out.println((reopened.getTotalURLs() == 3 ? "✓" : "✗") + " Live URLs: " + reopened.getTotalURLs());
+            reopened.close();
+            Files.delete(file);
+        } catch (Exception e) {
+            System.out.println("✗ Unexpected exception: " + e);
+        }
+        System.out.println();
+        
+        System.out.println("=== Test Case 18: Benchmark - bytes/URL and expand() latency ===");
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;   // pass 100000000 for the full run
+        try {
+            benchmarkStorage(n);
+        } catch (Exception e) {
+            System.out.println("✗ Benchmark failed: " + e);
+        }
+        System.out.println();
+        
+        System.out.println("=== Test Case 19: Hot Cache + Click Analytics ===");
+        try {
+            TinyURLSystem cached = new TinyURLSystem(true, SHORT_CODE_LENGTH);
+            cached.enableRedirectCache(1 << 10);
+            cached.enableClickAnalytics(1 << 10, 50);
+            String hot = cached.shorten("https://hot.example/deal");
+            Thread[] clickers = new Thread[8];
+            for (int t = 0; t < clickers.length; t++) {
+                clickers[t] = new Thread(() -> {
+                    try { for (int i = 0; i < 500; i++) cached.expand(hot); } catch (Exception e) { throw new IllegalStateException(e); }
+                });
+                clickers[t].start();
+            }
+            for (Thread t : clickers) t.join();
+            cached.clickAnalytics.merge();                         // deterministic: no waiting on the scheduled merger
+            System.out.println((cached.getClicks(hot) == 4_000 ? "✓" : "✗") + " 4,000 clicks merged asynchronously: " + cached.getClicks(hot));
+            System.out.println((cached.getHourlyClicks(hot, System.currentTimeMillis()) == 4_000 ? "✓" : "✗") + " Hourly rollup for current hour");
+            System.out.println((cached.clickAnalytics.ringCount() == 0 ? "✓" : "✗") + " Rings of 8 finished threads dropped after their final merge: "
+                    + cached.clickAnalytics.ringCount() + " left");
+            
+            ClickAnalytics retained = new ClickAnalytics(1 << 10, 60_000, 3);
+            long hour0 = 500_000L;
+            for (int h = 0; h < 10; h++) retained.record("abc", (hour0 + h) * ClickAnalytics.HOUR_MS);
+            retained.merge();
+            retained.record("abc", hour0 * ClickAnalytics.HOUR_MS);  // late click for an evicted hour
+            retained.merge();
+            System.out.println((retained.hourlyRollupCount() == 3 && retained.getHourlyClicks("abc", hour0 + 9) == 1
+                    && retained.getHourlyClicks("abc", hour0) == 0 && retained.getClicks("abc") == 11 ? "✓" : "✗")
+                    + " 10 hours of clicks, retainHours=3: " + retained.hourlyRollupCount() + " rollups kept, totals still 11");
+            retained.close();
+            
+            RedirectCache raced = new RedirectCache(16);
+            long v = raced.version("abc");                          // reader: miss, about to read the record
+            raced.invalidate("abc");                                // writer: record changed, invalidate
+            raced.put(new CachedRedirect("abc", "https://stale.example", 0), v);   // reader: refill with what it read
+            long v2 = raced.version("xyz");
+            raced.put(new CachedRedirect("xyz", "https://fresh.example", 0), v2);
+            System.out.println((raced.get("abc") == null && raced.get("xyz") != null ? "✓" : "✗")
+                    + " Refill that raced an invalidate is discarded; a clean refill is cached");
+            cached.setExpiration(hot, -1);
+            try { cached.expand(hot); System.out.println("✗ Served stale cached redirect after expiry"); }
+            catch (URLExpiredException e) { System.out.println("✓ Cache invalidated on setExpiration"); }
+            cached.close();
+        } catch (Exception e) {
+            System.out.println("✗ Unexpected exception: " + e);
+        }
+        System.out.println();
+        
+        System.out.println("=== Test Case 20: Benchmark - redirect latency, Zipf(1.0) clicks ===");
+        try {
+            benchmarkRedirects();
+        } catch (Exception e) {
+            System.out.println("✗ Benchmark failed: " + e);
+        }
+        System.out.println();
+        
         System.out.println("=== All Exception Test Cases Complete! ===");
     }
+    
+    /** expand() p50/p99/p99.9 with and without cache + analytics, map and mapped modes. */
+    private static void benchmarkRedirects() throws Exception {
+        int urls = 200_000, clicks = 2_000_000;
+        double[] cdf = new double[urls];
+        double norm = 0;
+        for (int i = 0; i < urls; i++) { norm += 1.0 / (i + 1); cdf[i] = norm; }
+        Random rnd = new Random(3);
+        int[] sequence = new int[clicks];
+        for (int i = 0; i < clicks; i++) {
+            int idx = Arrays.binarySearch(cdf, rnd.nextDouble() * norm);
+            sequence[i] = Math.min(idx < 0 ? -idx - 1 : idx, urls - 1);
+        }
+        Path file = Files.createTempFile("tinyurl-redirect", ".dat");
+        for (String mode : new String[]{"maps", "mapped"}) {
+            for (String config : new String[]{"no cache", "cache", "cache + analytics"}) {
+                Files.deleteIfExists(file);
+                TinyURLSystem sys = mode.equals("maps") ? new TinyURLSystem(true, SHORT_CODE_LENGTH) : new TinyURLSystem(file, SHORT_CODE_LENGTH);
+                if (!config.equals("no cache")) sys.enableRedirectCache(1 << 14);
+                if (config.endsWith("analytics")) sys.enableClickAnalytics(1 << 16, 10);
+                String[] shortUrls = new String[urls];
+                for (int i = 0; i < urls; i++) shortUrls[i] = sys.shorten("https://zipf.example/item/" + i);
+                long[] lat = new long[clicks];
+                for (int i = 0; i < clicks; i++) {
+                    long t0 = System.nanoTime();
+                    sys.expand(shortUrls[sequence[i]]);
+                    lat[i] = System.nanoTime() - t0;
+                }
+                Arrays.sort(lat);
+                System.out.printf("  %-6s %-18s p50=%4dns p99=%5dns p99.9=%6dns%n", mode, config,
+                        lat[clicks / 2], lat[(int) (clicks * 0.99)], lat[(int) (clicks * 0.999)]);
+                sys.close();
+            }
+        }
+        Files.deleteIfExists(file);
+    }
+    
+    /**
+     * Heap bytes/URL for HashMap mode vs mapped mode, plus mapped expand() p50/p99/p99.9.
+     * HashMap mode needs ~200 B/URL, so above MAP_MODE_CAP it is measured at the cap
+     * (bytes/URL is flat in n) — 100M URLs in maps would need ~20 GB of heap.
+     */
+    private static void benchmarkStorage(int n) throws Exception {
+        final int MAP_MODE_CAP = 2_000_000;
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+        int mapN = Math.min(n, MAP_MODE_CAP);
+        TinyURLSystem maps = new TinyURLSystem();
+        for (int i = 0; i < mapN; i++) maps.shorten("https://www.example.com/articles/2024/" + i + "?ref=home");
+        System.gc();
+        long mapHeap = rt.totalMemory() - rt.freeMemory() - before;
+        System.out.printf("  HashMap mode: %,d URLs, ~%d heap bytes/URL%s%n", maps.getTotalURLs(), mapHeap / mapN,
+                mapN < n ? " (capped; " + n / 1_000_000 + "M would need ~" + mapHeap / mapN * n / (1L << 30) + " GB)" : "");
+        maps = null;
+        System.gc();
+        
+        Path file = Files.createTempFile("tinyurl-bench", ".dat");
+        TinyURLSystem mapped = new TinyURLSystem(file, SHORT_CODE_LENGTH, n);
+        String[] shortUrls = new String[Math.min(n, 1_000_000)];   // evenly spaced sample over all n
+        int stride = n / shortUrls.length;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            String s = mapped.shorten("https://www.example.com/articles/2024/" + i + "?ref=home");
+            if (i % stride == 0 && i / stride < shortUrls.length) shortUrls[i / stride] = s;
+        }
+        long loadMs = (System.nanoTime() - t0) / 1_000_000;
+        System.out.printf("  Mapped mode:  %,d URLs in %,d ms, %d heap bytes/URL (indexes) + %d file bytes/URL%n",
+                mapped.getTotalURLs(), loadMs, mapped.store.heapIndexBytes() / n, mapped.store.fileBytes() / n);
+        
+        Random rnd = new Random(1);
+        int lookups = n > 10_000_000 ? 100_000 : 1_000_000;   // past RAM, every miss is a disk read
+        long[] latencies = new long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            String s = shortUrls[rnd.nextInt(shortUrls.length)];
+            t0 = System.nanoTime();
+            mapped.expand(s);
+            latencies[i] = System.nanoTime() - t0;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("  expand() x %,d random codes: p50=%dns p99=%dns p99.9=%dns%n", lookups,
+                latencies[lookups / 2], latencies[(int) (lookups * 0.99)], latencies[(int) (lookups * 0.999)]);
+        mapped.close();
+        Files.delete(file);
+    }
+    
+    /**
+     * Pre-fill the system to fillPct of the keyspace, then time 16 threads shortening
+     * another 5% of it. Legacy mode isn't thread-safe, so its calls are serialized.
+     * @return {shortens/sec, ShortCodeGenerationException count}
+     */
+    private static long[] benchmarkShorten(TinyURLSystem system, long keyspace, int fillPct) {
+        long target = keyspace * fillPct / 100, batch = keyspace / 20;
+        long id = 0;
+        while (system.getTotalURLs() < target) {
+            try { system.shorten("https://prefill.example/" + id++); } catch (Exception ignored) { }
+        }
+        boolean serialize = system.codeAllocator == null;
+        AtomicLong failures = new AtomicLong();
+        ExecutorService exec = Executors.newFixedThreadPool(16);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < 16; t++) {
+            final int thread = t;
+            futures.add(exec.submit(() -> {
+                for (long i = thread; i < batch; i += 16) {
+                    try {
+                        if (serialize) { synchronized (system) { system.shorten("https://bench.example/" + i); } }
+                        else system.shorten("https://bench.example/" + i);
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) { try { f.get(); } catch (Exception ignored) { } }
+        long elapsed = System.nanoTime() - start;
+        exec.shutdown();
+        return new long[]{batch * 1_000_000_000L / elapsed, failures.get()};
+    }
 }
 
 /**
@@ -576,9 +1582,11 @@ public class TinyURLSystem {
  *       - Pros: Simple, distributed-friendly
  *       - Cons: Collision probability increases over time
  *    
- *    b) Counter-based + Base62 Encoding
+ *    b) Counter-based + Base62 Encoding (thread-safe mode here)
  *       - Pros: No collisions, predictable
  *       - Cons: Needs distributed counter (Zookeeper, Redis)
+ *       - Per-thread counter ranges avoid a CAS per code; a Feistel permutation
+ *         over 62^len hides the sequence while staying collision-free
  *    
  *    c) Hash-based (MD5/SHA)
  *       - Pros: Deterministic
@@ -603,7 +1611,12 @@ public class TinyURLSystem {
  *    - CAPTCHA for anonymous users
  *    - Blacklist malicious domains
  * 
- * 6. ADVANCED FEATURES:
+ * 6. READ PATH (100:1 reads):
+ *    - Direct-mapped hot-code cache: one slot read per redirect, bounded, lock-free
+ *    - Click analytics off the redirect path: per-thread SPSC rings merged in the
+ *      background into per-code totals + hourly rollups (drop, never block, when full)
+ * 
+ * 7. ADVANCED FEATURES:
  *    - Custom aliases
  *    - URL expiration
  *    - Analytics (click tracking, geographic data)
@@ -611,13 +1624,13 @@ public class TinyURLSystem {
  *    - User accounts and URL management
  *    - A/B testing support
  * 
- * 7. CAPACITY ESTIMATION:
+ * 8. CAPACITY ESTIMATION:
  *    - Read:Write ratio (typically 100:1)
  *    - Storage: 6 chars * 62^6 = 56 billion unique URLs
  *    - Bandwidth calculation
  *    - Storage requirements
  * 
- * 8. API DESIGN:
+ * 9. API DESIGN:
  *    POST /shorten       - Create short URL
  *    GET  /{shortCode}   - Redirect to long URL
  *    POST /custom        - Create with custom alias
@@ -11,14 +11,19 @@
  * 6. Efficient top-K retrieval without sorting entire dataset
  * 7. Periodic cleanup of expired events to bound memory
  * 8. Query count/rank for a specific hashtag
+ * 9. Approximate mode: bounded memory regardless of tweet volume
+ * 10. Parallel ingestion: batch tweets, shard tags to single-writer workers
  *
  * KEY DATA STRUCTURES:
  * - ConcurrentHashMap<String, Deque<Long>>: hashtag → timestamped events (sliding window)
  * - PriorityQueue (min-heap, size K): efficient top-K extraction O(n log K)
  * - AtomicLong: global event counter for velocity calculation
+ * - SketchHashtagTracker: ring of buckets per window, each = Count-Min Sketch + Space-Saving
+ * - ShardedTrendingPipeline: tag hash → shard queue → worker thread owning its TrendTracker
  *
  * DESIGN PATTERNS:
  * - Strategy: FrequencyTrending vs VelocityTrending for ranking
+ * - Strategy: TrendTracker — exact HashtagTracker vs approximate SketchHashtagTracker
  *
  * COMPLEXITY:
  *   recordHashtag:   O(1) amortized (deque append + cleanup)
@@ -30,6 +35,7 @@
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.function.*;
 import java.util.stream.*;
 
 // ===== ENUMS =====
@@ -71,6 +77,21 @@ class ScoredHashtag implements Comparable<ScoredHashtag> {
 interface TrendingStrategy {
     /** Score a hashtag given its event timestamps within the window */
     double score(String tag, Deque<Long> events, long windowStartMs, long nowMs);
+
+    /** Score from per-bucket counts (index 0 = newest bucket) — for trackers that keep no timestamps */
+    double scoreBuckets(String tag, long[] bucketCounts, long bucketMs, long windowMs);
+}
+
+/** Where hashtag events are stored and ranked — exact deques or bounded-memory sketches. */
+interface TrendTracker {
+    void record(String tag, long timestampMs);
+    int getCount(String tag, TrendingWindow window);
+    List<ScoredHashtag> getTopK(int k, TrendingWindow window, TrendingStrategy strategy);
+    void cleanup();
+    int uniqueHashtagCount();
+    long totalEventCount();
+
+    default void record(String tag) { record(tag, System.currentTimeMillis()); }
 }
 
 /** Rank by raw frequency — count of events in window */
@@ -83,6 +104,13 @@ class FrequencyTrendingStrategy implements TrendingStrategy {
         // HINT: return count;
         return 0;
     }
+
+    @Override
+    public double scoreBuckets(String tag, long[] bucketCounts, long bucketMs, long windowMs) {
+        long total = 0;
+        for (long c : bucketCounts) total += c;
+        return total;
+    }
 }
 
 /**
@@ -107,6 +135,18 @@ class VelocityTrendingStrategy implements TrendingStrategy {
         // HINT: return score;
         return 0;
     }
+
+    /** Same 4x/3x/2x/1x quarters, using bucket age (i * bucketMs) instead of event age. */
+    @Override
+    public double scoreBuckets(String tag, long[] bucketCounts, long bucketMs, long windowMs) {
+        long quarterDuration = Math.max(1, windowMs / 4);
+        double score = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            int quarter = (int) Math.min(3, (i * bucketMs) / quarterDuration);
+            score += (4.0 - quarter) * bucketCounts[i];
+        }
+        return score;
+    }
 }
 
 // ===== CORE ENGINE =====
@@ -117,17 +157,19 @@ class VelocityTrendingStrategy implements TrendingStrategy {
  * Each hashtag maps to a Deque of timestamps (append-only, FIFO cleanup).
  * Expired events are lazily pruned on read, and eagerly via periodic cleanup.
  */
-class HashtagTracker {
+class HashtagTracker implements TrendTracker {
     final ConcurrentHashMap<String, Deque<Long>> events = new ConcurrentHashMap<>();
     final AtomicLong totalEvents = new AtomicLong(0);
 
     /** Record a hashtag occurrence at current time */
-    void record(String tag) {
+    @Override
+    public void record(String tag) {
         record(tag, System.currentTimeMillis());
     }
 
     /** Record a hashtag occurrence at a specific timestamp (for testing) */
-    void record(String tag, long timestampMs) {
+    @Override
+    public void record(String tag, long timestampMs) {
         // TODO: Implement
         // HINT: String normalized = tag.toLowerCase().replaceAll("[^a-z0-9_]", "");
         // HINT: if (normalized.isEmpty()) return;
@@ -136,7 +178,8 @@ class HashtagTracker {
     }
 
     /** Count events for a hashtag within the given window */
-    int getCount(String tag, TrendingWindow window) {
+    @Override
+    public int getCount(String tag, TrendingWindow window) {
         // TODO: Implement
         // HINT: String normalized = tag.toLowerCase();
         // HINT: Deque<Long> deque = events.get(normalized);
@@ -152,7 +195,8 @@ class HashtagTracker {
      * Get top-K hashtags using min-heap of size K.
      * O(n log K) — much better than sorting all n hashtags O(n log n).
      */
-    List<ScoredHashtag> getTopK(int k, TrendingWindow window, TrendingStrategy strategy) {
+    @Override
+    public List<ScoredHashtag> getTopK(int k, TrendingWindow window, TrendingStrategy strategy) {
         // TODO: Implement
         // HINT: long now = System.currentTimeMillis();
         // HINT: long windowStart = now - window.durationMs;
@@ -186,7 +230,8 @@ class HashtagTracker {
      * Removes timestamps older than the largest window (7 days).
      * Also removes hashtags with zero remaining events.
      */
-    void cleanup() {
+    @Override
+    public void cleanup() {
         // TODO: Implement
         // HINT: long cutoff = System.currentTimeMillis() - TrendingWindow.LAST_7_DAYS.durationMs;
         // HINT: Iterator<Map.Entry<String, Deque<Long>>> it = events.entrySet().iterator();
@@ -198,23 +243,607 @@ class HashtagTracker {
         // HINT: }
     }
 
-    int uniqueHashtagCount() { return events.size(); }
-    long totalEventCount() { return totalEvents.get(); }
+    @Override public int uniqueHashtagCount() { return events.size(); }
+    @Override public long totalEventCount() { return totalEvents.get(); }
+}
+
+// ===== APPROXIMATE ENGINE (HEAVY HITTERS) =====
+
+/**
+ * Count-Min Sketch — depth rows × width counters.
+ * add: +1 in one counter per row. estimate: min over rows.
+ * Never under-counts; over-count ≤ e/width × N with prob 1 - e^-depth.
+ */
+class CountMinSketch {
+    private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F, 0x165667B1, 0xD3A2646C};
+    private final int depth, mask;
+    private final int[][] table;
+
+    CountMinSketch(int depth, int widthPow2) {
+        if (depth > SEEDS.length || Integer.bitCount(widthPow2) != 1)
+            throw new IllegalArgumentException("depth <= " + SEEDS.length + ", width must be a power of 2");
+        this.depth = depth;
+        this.mask = widthPow2 - 1;
+        this.table = new int[depth][widthPow2];
+    }
+
+    void add(int hash) {
+        for (int r = 0; r < depth; r++) table[r][index(r, hash)]++;
+    }
+
+    int estimate(int hash) {
+        int min = Integer.MAX_VALUE;
+        for (int r = 0; r < depth; r++) min = Math.min(min, table[r][index(r, hash)]);
+        return min;
+    }
+
+    void clear() { for (int[] row : table) Arrays.fill(row, 0); }
+
+    long bytes() { return 4L * depth * (mask + 1); }
+
+    /** murmur3 fmix32 of (hash ^ seed) — independent-enough rows from one String.hashCode */
+    private int index(int row, int hash) {
+        int h = hash ^ SEEDS[row];
+        h ^= h >>> 16; h *= 0x85EBCA6B; h ^= h >>> 13; h *= 0xC2B2AE35; h ^= h >>> 16;
+        return h & mask;
+    }
+}
+
+/**
+ * Space-Saving top-k summary with `capacity` counters.
+ * Known tag → count++. Unknown tag with room → insert at 1.
+ * Full → evict the min counter, new tag inherits min + 1 (guaranteed to keep every
+ * tag with frequency > N / capacity). Min found via indexed min-heap: O(log m).
+ * Only the KEY SET is used (candidate heavy hitters); counts come from the CMS.
+ */
+class SpaceSaving {
+    private final String[] keys;
+    private final long[] counts;
+    private final Map<String, Integer> pos;
+    private int size;
+
+    SpaceSaving(int capacity) {
+        this.keys = new String[capacity];
+        this.counts = new long[capacity];
+        this.pos = new HashMap<>(capacity * 2);
+    }
+
+    void offer(String tag) {
+        Integer i = pos.get(tag);
+        if (i != null) { counts[i]++; siftDown(i); return; }
+        if (size < keys.length) {
+            int j = size++;
+            keys[j] = tag; counts[j] = 1; pos.put(tag, j);
+            siftUp(j);
+            return;
+        }
+        pos.remove(keys[0]);
+        keys[0] = tag; counts[0]++; pos.put(tag, 0);
+        siftDown(0);
+    }
+
+    Set<String> keySet() { return pos.keySet(); }
+
+    void clear() { pos.clear(); Arrays.fill(keys, 0, size, null); size = 0; }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (counts[parent] <= counts[i]) return;
+            swap(i, parent); i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int l = 2 * i + 1, r = l + 1, min = i;
+            if (l < size && counts[l] < counts[min]) min = l;
+            if (r < size && counts[r] < counts[min]) min = r;
+            if (min == i) return;
+            swap(i, min); i = min;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String k = keys[a]; keys[a] = keys[b]; keys[b] = k;
+        long c = counts[a]; counts[a] = counts[b]; counts[b] = c;
+        pos.put(keys[a], a); pos.put(keys[b], b);
+    }
+}
+
+/**
+ * Ring of `buckets` time buckets covering one TrendingWindow.
+ * Slot = epoch (timestamp / bucketMs) + CMS + Space-Saving. A write to a newer epoch
+ * resets the slot in place (rotation), so memory is fixed no matter the tweet volume.
+ * Window is bucket-aligned: covers (buckets - 1, buckets] × bucketMs.
+ */
+class SketchRing {
+    final TrendingWindow window;
+    final long bucketMs;
+    private final long[] epochs;
+    private final CountMinSketch[] sketches;
+    private final SpaceSaving[] heavy;
+
+    SketchRing(TrendingWindow window, int buckets, int cmsDepth, int cmsWidth, int heavyCapacity) {
+        this.window = window;
+        this.bucketMs = window.durationMs / buckets;
+        this.epochs = new long[buckets];
+        this.sketches = new CountMinSketch[buckets];
+        this.heavy = new SpaceSaving[buckets];
+        for (int i = 0; i < buckets; i++) {
+            epochs[i] = -1;
+            sketches[i] = new CountMinSketch(cmsDepth, cmsWidth);
+            heavy[i] = new SpaceSaving(heavyCapacity);
+        }
+    }
+
+    synchronized void record(String tag, int hash, long timestampMs) {
+        long epoch = timestampMs / bucketMs;
+        int idx = (int) (epoch % epochs.length);
+        if (epochs[idx] != epoch) {
+            if (epochs[idx] > epoch) return;               // older than the window
+            sketches[idx].clear(); heavy[idx].clear(); epochs[idx] = epoch;
+        }
+        sketches[idx].add(hash);
+        heavy[idx].offer(tag);
+    }
+
+    /** Per-bucket estimates, index 0 = newest bucket */
+    synchronized long[] bucketCounts(int hash, long nowMs) {
+        long nowEpoch = nowMs / bucketMs;
+        long[] counts = new long[epochs.length];
+        for (int i = 0; i < epochs.length; i++) {
+            long age = nowEpoch - epochs[i];
+            if (epochs[i] >= 0 && age >= 0 && age < epochs.length) counts[(int) age] += sketches[i].estimate(hash);
+        }
+        return counts;
+    }
+
+    synchronized Set<String> candidates(long nowMs) {
+        long nowEpoch = nowMs / bucketMs;
+        Set<String> tags = new HashSet<>();
+        for (int i = 0; i < epochs.length; i++) {
+            long age = nowEpoch - epochs[i];
+            if (epochs[i] >= 0 && age >= 0 && age < epochs.length) tags.addAll(heavy[i].keySet());
+        }
+        return tags;
+    }
+
+    long bytes(int heavyCapacity) {
+        // CMS tables + Space-Saving (key ref + count + HashMap entry ≈ 64B per slot, tag Strings shared)
+        return epochs.length * (sketches[0].bytes() + 64L * heavyCapacity + 8);
+    }
+}
+
+/**
+ * SketchHashtagTracker — approximate heavy-hitter engine.
+ * One SketchRing per TrendingWindow; every event updates all three rings.
+ * getTopK: candidates = union of live buckets' Space-Saving keys,
+ *          per-bucket counts from CMS → TrendingStrategy.scoreBuckets → min-heap of K.
+ *
+ *   record:   O(windows × (depth + log m))     memory: O(windows × buckets × (depth × width + m))
+ *   getTopK:  O(C × buckets × depth + C log K)  C = candidate tags (≤ buckets × m)
+ */
+class SketchHashtagTracker implements TrendTracker {
+    private final SketchRing[] rings = new SketchRing[TrendingWindow.values().length];
+    private final int heavyCapacity;
+    private final AtomicLong totalEvents = new AtomicLong(0);
+
+    SketchHashtagTracker(int bucketsPerWindow, int cmsDepth, int cmsWidth, int heavyCapacity) {
+        this.heavyCapacity = heavyCapacity;
+        for (TrendingWindow w : TrendingWindow.values())
+            rings[w.ordinal()] = new SketchRing(w, bucketsPerWindow, cmsDepth, cmsWidth, heavyCapacity);
+    }
+
+    SketchHashtagTracker() { this(12, 4, 1 << 14, 512); }
+
+    @Override
+    public void record(String tag, long timestampMs) {
+        String normalized = normalize(tag);
+        if (normalized.isEmpty()) return;
+        int hash = normalized.hashCode();
+        for (SketchRing ring : rings) ring.record(normalized, hash, timestampMs);
+        totalEvents.incrementAndGet();
+    }
+
+    @Override
+    public int getCount(String tag, TrendingWindow window) {
+        long total = 0;
+        for (long c : rings[window.ordinal()].bucketCounts(normalize(tag).hashCode(), System.currentTimeMillis())) total += c;
+        return (int) total;
+    }
+
+    @Override
+    public List<ScoredHashtag> getTopK(int k, TrendingWindow window, TrendingStrategy strategy) {
+        return getTopK(k, window, strategy, System.currentTimeMillis());
+    }
+
+    List<ScoredHashtag> getTopK(int k, TrendingWindow window, TrendingStrategy strategy, long nowMs) {
+        SketchRing ring = rings[window.ordinal()];
+        PriorityQueue<ScoredHashtag> minHeap = new PriorityQueue<>(k + 1);
+        for (String tag : ring.candidates(nowMs)) {
+            long[] counts = ring.bucketCounts(tag.hashCode(), nowMs);
+            double score = strategy.scoreBuckets(tag, counts, ring.bucketMs, window.durationMs);
+            if (score <= 0) continue;
+            long count = 0;
+            for (long c : counts) count += c;
+            minHeap.offer(new ScoredHashtag(tag, score, (int) count));
+            if (minHeap.size() > k) minHeap.poll();
+        }
+        List<ScoredHashtag> result = new ArrayList<>(minHeap);
+        result.sort(Collections.reverseOrder());
+        return result;
+    }
+
+    /** Rotation already bounds memory — nothing to sweep. */
+    @Override public void cleanup() { }
+
+    /** Sketches can't enumerate every tag; this is the number of tracked heavy-hitter candidates. */
+    @Override public int uniqueHashtagCount() {
+        return rings[TrendingWindow.LAST_7_DAYS.ordinal()].candidates(System.currentTimeMillis()).size();
+    }
+
+    @Override public long totalEventCount() { return totalEvents.get(); }
+
+    long memoryBytes() {
+        long bytes = 0;
+        for (SketchRing ring : rings) bytes += ring.bytes(heavyCapacity);
+        return bytes;
+    }
+
+    /** Lower-case, keep [a-z0-9_]. Returns the input itself when already clean (no allocation). */
+    static String normalize(String tag) {
+        int n = tag.length(), i = 0;
+        while (i < n) {
+            char c = tag.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_')) break;
+            i++;
+        }
+        if (i == n) return tag;
+        StringBuilder sb = new StringBuilder(n).append(tag, 0, i);
+        for (; i < n; i++) {
+            char c = Character.toLowerCase(tag.charAt(i));
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_') sb.append(c);
+        }
+        return sb.toString();
+    }
+}
+
+// ===== PARALLEL INGESTION =====
+
+/**
+ * Allocation-light hashtag scanner: one pass over the chars, no split()/regex.
+ * '#' followed by [A-Za-z0-9_]+ → lower-cased tag. Hash (String.hashCode formula)
+ * is computed during the scan so the tag can be routed without re-hashing.
+ * Allocates exactly one String per tag (substring when already lower-case).
+ * One instance per thread — the char buffer is reused.
+ */
+class HashtagScanner {
+    private char[] buf = new char[64];
+    final String[] tags;
+    final int[] hashes;
+
+    HashtagScanner(int maxTagsPerTweet) {
+        this.tags = new String[maxTagsPerTweet];
+        this.hashes = new int[maxTagsPerTweet];
+    }
+
+    /** Fills tags/hashes, returns how many were found (extra tags beyond capacity are dropped). */
+    int scan(String text) {
+        int n = text.length(), found = 0, i = 0;
+        while (i < n && found < tags.length) {
+            if (text.charAt(i++) != '#') continue;
+            int start = i, len = 0, hash = 0;
+            boolean lower = true;
+            while (i < n) {
+                char c = text.charAt(i);
+                if (c >= 'A' && c <= 'Z') { c = (char) (c + 32); lower = false; }
+                else if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_')) break;
+                if (len == buf.length) buf = Arrays.copyOf(buf, len * 2);
+                buf[len++] = c;
+                hash = 31 * hash + c;
+                i++;
+            }
+            if (len == 0) continue;
+            tags[found] = lower ? text.substring(start, start + len) : new String(buf, 0, len);
+            hashes[found++] = hash;
+        }
+        return found;
+    }
+}
+
+/**
+ * ShardedTrendingPipeline — parallel ingestion.
+ *
+ *   producer threads: submit(tweet) → HashtagScanner → per-shard outbound batch (thread-local)
+ *                     full batch → shard's bounded queue (backpressure)
+ *   shard workers:    one thread per shard, SOLE writer of its own TrendTracker
+ *   queries:          per-shard top-K (tags are disjoint across shards) merged with a min-heap
+ *
+ * Shard = (tagHash & 0x7fffffff) % shards, so a tag's whole history lives on one shard
+ * and its counts never need cross-shard merging.
+ * Every producer's buffers are registered, so flush()/drain()/close() from ANY thread hand
+ * off every partially filled batch. Each producer guards its buffers with its own monitor —
+ * uncontended except while a flush is sweeping it.
+ */
+class ShardedTrendingPipeline implements AutoCloseable {
+    private static final int MAX_TAGS_PER_TWEET = 32;
+    private static final ShardBatch POISON = new ShardBatch(0);
+
+    static final class ShardBatch {
+        final String[] tags;
+        final long[] timestamps;
+        int size;
+        ShardBatch(int capacity) { tags = new String[capacity]; timestamps = new long[capacity]; }
+    }
+
+    /** Per producer thread: a scanner (owner only) + one partially filled batch per shard (guarded by this). */
+    private final class Producer {
+        final Thread owner = Thread.currentThread();
+        final HashtagScanner scanner = new HashtagScanner(MAX_TAGS_PER_TWEET);
+        final ShardBatch[] pending = new ShardBatch[shards.length];
+    }
+
+    /**
+     * A throwing record() costs only that event (counted in failedEvents); the batch still counts
+     * as applied, so drain() never waits on it. If the worker itself stops (an Error), puts and
+     * drain() fail with its cause instead of blocking on a queue nobody takes from.
+     */
+    private final class Shard {
+        final TrendTracker tracker;
+        final BlockingQueue<ShardBatch> queue = new ArrayBlockingQueue<>(1024);
+        final AtomicLong enqueued = new AtomicLong(), applied = new AtomicLong(), failedEvents = new AtomicLong();
+        final Thread worker;
+        volatile Throwable failure;   // latest record() failure, or what stopped the worker
+        volatile boolean stopped;
+
+        Shard(int id, TrendTracker tracker) {
+            this.tracker = tracker;
+            this.worker = new Thread(this::run, "trending-shard-" + id);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        private void run() {
+            try {
+                while (true) {
+                    ShardBatch batch = queue.take();
+                    if (batch == POISON) return;
+                    for (int i = 0; i < batch.size; i++) {
+                        try {
+                            tracker.record(batch.tags[i], batch.timestamps[i]);
+                        } catch (RuntimeException e) {
+                            failedEvents.incrementAndGet();
+                            failure = e;
+                        }
+                    }
+                    applied.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Error e) {
+                failure = e;
+                throw e;
+            } finally {
+                stopped = true;
+            }
+        }
+
+        void checkRunning() {
+            if (stopped) throw new IllegalStateException(worker.getName() + " has stopped", failure);
+        }
+
+        /** Blocks on a full queue (backpressure); an interrupt never drops the batch, it is re-asserted after the put. */
+        void put(ShardBatch batch) {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        if (queue.offer(batch, 10, TimeUnit.MILLISECONDS)) return;
+                        checkRunning();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final Shard[] shards;
+    private final int batchSize;
+    private final List<Producer> allProducers = new CopyOnWriteArrayList<>();   // one per live producer thread
+    private final ThreadLocal<Producer> producers = ThreadLocal.withInitial(() -> {
+        Producer p = new Producer();
+        sweep(true);                                   // hand off and forget producers whose thread ended
+        allProducers.add(p);
+        return p;
+    });
+    private volatile boolean closed;
+
+    ShardedTrendingPipeline(int shardCount, int batchSize, Supplier<TrendTracker> trackerFactory) {
+        if (shardCount <= 0 || batchSize <= 0) throw new IllegalArgumentException("shards and batchSize must be positive");
+        this.batchSize = batchSize;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) shards[i] = new Shard(i, trackerFactory.get());
+    }
+
+    void submit(String tweetText, long timestampMs) {
+        Producer p = producers.get();
+        int found = p.scanner.scan(tweetText);
+        synchronized (p) {
+            checkOpen();
+            for (int i = 0; i < found; i++) append(p, p.scanner.tags[i], p.scanner.hashes[i], timestampMs);
+        }
+    }
+
+    /** Route one already-extracted tag (normalized like the scanner does). */
+    void submitTag(String tag, long timestampMs) {
+        String normalized = SketchHashtagTracker.normalize(tag);
+        if (normalized.isEmpty()) return;
+        Producer p = producers.get();
+        synchronized (p) {
+            checkOpen();
+            append(p, normalized, normalized.hashCode(), timestampMs);
+        }
+    }
+
+    /** Caller holds p's monitor. */
+    private void append(Producer p, String tag, int hash, long timestampMs) {
+        int shard = (hash & 0x7fffffff) % shards.length;
+        ShardBatch batch = p.pending[shard];
+        if (batch == null) batch = p.pending[shard] = new ShardBatch(batchSize);
+        batch.tags[batch.size] = tag;
+        batch.timestamps[batch.size++] = timestampMs;
+        if (batch.size == batchSize) { enqueue(shard, batch); p.pending[shard] = null; }
+    }
+
+    /** Checked under the producer's monitor: close() sets the flag before sweeping, so nothing lands after its sweep. */
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("Pipeline is closed");
+    }
+
+    /** Hand off EVERY producer's partially filled batches, not just the calling thread's. */
+    void flush() { sweep(false); }
+
+    /**
+     * Enqueue the partial batches of every producer (deadOnly: of producers whose thread has
+     * ended) and drop ended producers from the list. A batch for a stopped shard is discarded;
+     * the sweep still finishes the other producers, then throws.
+     */
+    private void sweep(boolean deadOnly) {
+        IllegalStateException stoppedShard = null;
+        for (Producer p : allProducers) {
+            boolean ended = !p.owner.isAlive();   // read first: a terminated owner's last append is then visible
+            if (deadOnly && !ended) continue;
+            synchronized (p) {
+                for (int shard = 0; shard < shards.length; shard++) {
+                    if (p.pending[shard] == null) continue;
+                    try { enqueue(shard, p.pending[shard]); }
+                    catch (IllegalStateException e) { stoppedShard = e; }
+                    p.pending[shard] = null;
+                }
+            }
+            if (ended) allProducers.remove(p);
+        }
+        if (stoppedShard != null) throw stoppedShard;
+    }
+
+    /** flush() + wait until workers applied every batch enqueued so far (read-your-writes for tests). */
+    void drain() throws InterruptedException {
+        flush();
+        for (Shard s : shards) {
+            long target = s.enqueued.get();
+            while (s.applied.get() < target) {
+                s.checkRunning();
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private void enqueue(int shard, ShardBatch batch) {
+        shards[shard].checkRunning();
+        shards[shard].enqueued.incrementAndGet();
+        shards[shard].put(batch);
+    }
+
+    /** Events whose tracker.record threw (skipped, not retried). */
+    long failedEventCount() {
+        long total = 0;
+        for (Shard s : shards) total += s.failedEvents.get();
+        return total;
+    }
+
+    /** Producers still tracked: threads that submitted and were alive at the last sweep. */
+    int producerCount() { return allProducers.size(); }
+
+    int getCount(String tag, TrendingWindow window) {
+        String normalized = SketchHashtagTracker.normalize(tag);
+        return shards[(normalized.hashCode() & 0x7fffffff) % shards.length].tracker.getCount(normalized, window);
+    }
+
+    List<ScoredHashtag> getTopK(int k, TrendingWindow window, TrendingStrategy strategy) {
+        PriorityQueue<ScoredHashtag> minHeap = new PriorityQueue<>(k + 1);
+        for (Shard s : shards) {
+            for (ScoredHashtag h : s.tracker.getTopK(k, window, strategy)) {
+                minHeap.offer(h);
+                if (minHeap.size() > k) minHeap.poll();
+            }
+        }
+        List<ScoredHashtag> result = new ArrayList<>(minHeap);
+        result.sort(Collections.reverseOrder());
+        return result;
+    }
+
+    long totalEventCount() {
+        long total = 0;
+        for (Shard s : shards) total += s.tracker.totalEventCount();
+        return total;
+    }
+
+    int uniqueHashtagCount() {
+        int total = 0;
+        for (Shard s : shards) total += s.tracker.uniqueHashtagCount();
+        return total;
+    }
+
+    /** Trackers used here sweep safely alongside their writer (concurrent maps / no-op for sketches). */
+    void cleanup() { for (Shard s : shards) s.tracker.cleanup(); }
+
+    /**
+     * Reject new submits, hand off every producer's partial batches, then stop the workers
+     * once they have applied everything. An interrupt does not abort the shutdown (that would
+     * strand queued batches); it is re-asserted on return. Trackers stay readable afterwards.
+     * If a worker had stopped on its own, the rest still shut down, then close() throws.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        IllegalStateException stoppedShard = null;
+        try { flush(); } catch (IllegalStateException e) { stoppedShard = e; }
+        for (Shard s : shards) {
+            try { s.put(POISON); } catch (IllegalStateException e) { stoppedShard = e; }
+        }
+        boolean interrupted = Thread.interrupted();
+        for (Shard s : shards) {
+            while (true) {
+                try { s.worker.join(); break; }
+                catch (InterruptedException e) { interrupted = true; }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (stoppedShard != null) throw stoppedShard;
+    }
 }
 
 // ===== SERVICE =====
 
 /**
  * TrendingService — public API for the trending hashtags system.
- * Composes HashtagTracker + TrendingStrategy.
+ * Composes HashtagTracker + TrendingStrategy, or a ShardedTrendingPipeline
+ * (writes batched to single-writer shards, reads merged across shards).
  * Supports recording from tweet text (extracts #hashtags automatically).
  */
 class TrendingService {
-    final HashtagTracker tracker;
+    final TrendTracker tracker;                  // null when backed by a pipeline
+    final ShardedTrendingPipeline pipeline;      // null in single-tracker mode
+    private final ThreadLocal<HashtagScanner> scanners = ThreadLocal.withInitial(() -> new HashtagScanner(32));
     TrendingStrategy strategy;
 
-    TrendingService() {
-        this.tracker = new HashtagTracker();
+    TrendingService() { this(new HashtagTracker()); }
+
+    TrendingService(TrendTracker tracker) {
+        this.tracker = tracker;
+        this.pipeline = null;
+        this.strategy = new FrequencyTrendingStrategy();
+    }
+
+    /** Parallel ingestion: recordTweet/recordHashtag go through the pipeline's shards. */
+    TrendingService(ShardedTrendingPipeline pipeline) {
+        this.tracker = null;
+        this.pipeline = pipeline;
         this.strategy = new FrequencyTrendingStrategy();
     }
 
@@ -227,32 +856,35 @@ class TrendingService {
 
     /** Extract and record hashtags at a specific timestamp (for testing) */
     void recordTweet(String tweetText, long timestampMs) {
-        // TODO: Implement
-        // HINT: extract hashtags from text using simple parsing
-        // HINT: for each word in tweetText.split("\\s+"):
-        // HINT:     if (word.startsWith("#") && word.length() > 1)
-        // HINT:         tracker.record(word.substring(1), timestampMs);
+        if (pipeline != null) { pipeline.submit(tweetText, timestampMs); return; }
+        HashtagScanner scanner = scanners.get();
+        int found = scanner.scan(tweetText);
+        for (int i = 0; i < found; i++) tracker.record(scanner.tags[i], timestampMs);
     }
 
     /** Record a single hashtag directly */
     void recordHashtag(String tag) {
-        tracker.record(tag);
+        recordHashtag(tag, System.currentTimeMillis());
     }
 
     void recordHashtag(String tag, long timestampMs) {
-        tracker.record(tag, timestampMs);
+        if (pipeline != null) pipeline.submitTag(tag, timestampMs);
+        else tracker.record(tag, timestampMs);
+    }
+
+    /** Pipeline mode: wait until every tweet recorded so far (by any thread) is counted. */
+    void awaitIngested() throws InterruptedException {
+        if (pipeline != null) pipeline.drain();
     }
 
     /** Get top-K trending hashtags for a given time window */
     List<ScoredHashtag> getTrending(int k, TrendingWindow window) {
-        // TODO: Implement
-        // HINT: return tracker.getTopK(k, window, strategy);
-        return Collections.emptyList();
+        return pipeline != null ? pipeline.getTopK(k, window, strategy) : tracker.getTopK(k, window, strategy);
     }
 
     /** Get count of a specific hashtag in the window */
     int getHashtagCount(String tag, TrendingWindow window) {
-        return tracker.getCount(tag, window);
+        return pipeline != null ? pipeline.getCount(tag, window) : tracker.getCount(tag, window);
     }
 
     /** Check if a hashtag is currently in the top-K */
@@ -274,9 +906,9 @@ class TrendingService {
         return -1;
     }
 
-    void cleanup() { tracker.cleanup(); }
-    int uniqueHashtagCount() { return tracker.uniqueHashtagCount(); }
-    long totalEventCount() { return tracker.totalEventCount(); }
+    void cleanup() { if (pipeline != null) pipeline.cleanup(); else tracker.cleanup(); }
+    int uniqueHashtagCount() { return pipeline != null ? pipeline.uniqueHashtagCount() : tracker.uniqueHashtagCount(); }
+    long totalEventCount() { return pipeline != null ? pipeline.totalEventCount() : tracker.totalEventCount(); }
 }
 
 // ===== MAIN =====
@@ -424,8 +1056,230 @@ public class TrendingHashtagsSystem {
             System.out.println("  #" + s.tag + " count=" + s.count);
         System.out.println("✓ Scale test complete");
 
+        // ---- Test 12: Sketch tracker correctness ----
+        System.out.println("\n--- Test 12: Sketch Tracker (Count-Min + Space-Saving) ---");
+        SketchHashtagTracker sketchTracker = new SketchHashtagTracker();
+        TrendingService sketchSvc = new TrendingService(sketchTracker);
+        long t12 = System.currentTimeMillis();
+        for (int i = 0; i < 30; i++) sketchSvc.recordHashtag("WorldCup", t12 - i * 1000);
+        for (int i = 0; i < 20; i++) sketchSvc.recordHashtag("#election!", t12 - i * 1000);
+        for (int i = 0; i < 10; i++) sketchSvc.recordHashtag("rust", t12 - i * 1000);
+        for (int i = 0; i < 40; i++) sketchSvc.recordHashtag("lastweek", t12 - 5L * 24 * 60 * 60 * 1000);
+        List<ScoredHashtag> sketchTop = sketchTracker.getTopK(3, TrendingWindow.LAST_HOUR, new FrequencyTrendingStrategy());
+        for (ScoredHashtag s : sketchTop) System.out.println("  #" + s.tag + " count=" + s.count);
+        System.out.println("worldcup count: " + sketchSvc.getHashtagCount("worldcup", TrendingWindow.LAST_HOUR) + " (expect 30)");
+        System.out.println("lastweek in LAST_HOUR: " + sketchSvc.getHashtagCount("lastweek", TrendingWindow.LAST_HOUR)
+                + " (expect 0), in LAST_7_DAYS: " + sketchSvc.getHashtagCount("lastweek", TrendingWindow.LAST_7_DAYS) + " (expect 40)");
+        if (sketchTop.size() == 3 && sketchTop.get(0).tag.equals("worldcup") && sketchTop.get(1).tag.equals("election"))
+            System.out.println("✓ Sketch top-K and normalization match exact counts at low volume");
+        List<ScoredHashtag> weekTop = sketchTracker.getTopK(1, TrendingWindow.LAST_7_DAYS, new VelocityTrendingStrategy());
+        System.out.println("7d velocity leader: #" + weekTop.get(0).tag + " (expect worldcup: 30×4 > 40×2)");
+        if (weekTop.get(0).tag.equals("worldcup")) System.out.println("✓ TrendingStrategy plugs into bucketed counts");
+
+        // ---- Test 13: Sketch vs exact — memory, throughput, recall ----
+        long n = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000L;   // pass 100000000 for the full run
+        int distinctTags = 100_000;
+        System.out.printf("%n--- Test 13: Sketch vs Exact (%,d Zipf(1.1) events, %,d tags) ---%n", n, distinctTags);
+        String[] tags = new String[distinctTags];
+        double[] cdf = new double[distinctTags];
+        double norm = 0;
+        for (int i = 0; i < distinctTags; i++) { tags[i] = "tag" + i; norm += 1.0 / Math.pow(i + 1, 1.1); cdf[i] = norm; }
+        for (int i = 0; i < distinctTags; i++) cdf[i] /= norm;
+        SketchHashtagTracker sketch = new SketchHashtagTracker();
+        long[] exact = new long[distinctTags];
+        Random rnd = new Random(42);
+        long benchNow = System.currentTimeMillis();
+        long spanMs = 55 * 60 * 1000L;                       // all inside LAST_HOUR
+        long sketchNs = 0;
+        for (long e = 0; e < n; e++) {
+            int idx = Arrays.binarySearch(cdf, rnd.nextDouble());
+            if (idx < 0) idx = Math.min(-idx - 1, distinctTags - 1);
+            exact[idx]++;
+            long ts = benchNow - spanMs + (e * spanMs) / n;
+            long s0 = System.nanoTime();
+            sketch.record(tags[idx], ts);
+            sketchNs += System.nanoTime() - s0;
+        }
+        Integer[] order = new Integer[distinctTags];
+        for (int i = 0; i < distinctTags; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(exact[b], exact[a]));
+        for (int k : new int[]{10, 100}) {
+            Set<String> truth = new HashSet<>();
+            for (int i = 0; i < k; i++) truth.add(tags[order[i]]);
+            int hit = 0;
+            for (ScoredHashtag s : sketch.getTopK(k, TrendingWindow.LAST_HOUR, new FrequencyTrendingStrategy(), benchNow))
+                if (truth.contains(s.tag)) hit++;
+            System.out.printf("  top-%d recall: %.1f%%%n", k, 100.0 * hit / k);
+        }
+        System.out.printf("  sketch update throughput: %,d events/s%n", (long) (n / (sketchNs / 1e9)));
+        System.out.printf("  sketch memory (fixed):    %,d KB%n", sketch.memoryBytes() / 1024);
+        // exact side, measured: the same stream into the per-tag timestamp deques HashtagTracker keeps
+        // (heap used before/after, with GC); capped, since its bytes/event do not depend on n
+        long exactN = Math.min(n, 2_000_000L);
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = rt.totalMemory() - rt.freeMemory();
+        ConcurrentHashMap<String, Deque<Long>> exactDeques = new ConcurrentHashMap<>();
+        Random replay = new Random(42);
+        for (long e = 0; e < exactN; e++) {
+            int idx = Arrays.binarySearch(cdf, replay.nextDouble());
+            if (idx < 0) idx = Math.min(-idx - 1, distinctTags - 1);
+            exactDeques.computeIfAbsent(tags[idx], k -> new ConcurrentLinkedDeque<>()).addLast(benchNow - spanMs + (e * spanMs) / n);
+        }
+        System.gc();
+        long exactBytes = rt.totalMemory() - rt.freeMemory() - heapBefore;
+        System.out.printf("  exact deque memory:       %,d KB measured for %,d events (%d B/event, %,d tags)%s%n",
+                exactBytes / 1024, exactN, exactBytes / exactN, exactDeques.size(),
+                exactN < n ? String.format("; ~%,d KB at %,d events", exactBytes / exactN * n / 1024, n) : "");
+        System.out.println((sketch.memoryBytes() < exactBytes ? "✓" : "✗") + " Sketch memory is independent of event volume");
+
+        // ---- Test 14: Sharded pipeline correctness ----
+        System.out.println("\n--- Test 14: Sharded Ingestion Pipeline ---");
+        HashtagScanner scanner = new HashtagScanner(8);
+        int found = scanner.scan("Loving #JavaScript and #react_js!! #  #42 end#tail");
+        System.out.println("Scanned: " + Arrays.toString(Arrays.copyOf(scanner.tags, found)) + " (expect [javascript, react_js, 42, tail])");
+        System.out.println("Hash matches String.hashCode: " + (scanner.hashes[0] == "javascript".hashCode()));
+        try (ShardedTrendingPipeline pipeline = new ShardedTrendingPipeline(4, 64, SketchHashtagTracker::new)) {
+            ExecutorService producersPool = Executors.newFixedThreadPool(4);
+            long t14 = System.currentTimeMillis();
+            List<Future<?>> pf = new ArrayList<>();
+            for (int p = 0; p < 4; p++) {
+                pf.add(producersPool.submit(() -> {
+                    for (int i = 0; i < 2_500; i++) pipeline.submit("match day #WorldCup #goal" + (i % 3 == 0 ? " #VAR" : ""), t14);
+                    pipeline.flush();
+                    return null;
+                }));
+            }
+            for (Future<?> f : pf) f.get();
+            producersPool.shutdown();
+            pipeline.drain();
+            List<ScoredHashtag> merged = pipeline.getTopK(3, TrendingWindow.LAST_HOUR, new FrequencyTrendingStrategy());
+            for (ScoredHashtag s : merged) System.out.println("  #" + s.tag + " count=" + s.count);
+            System.out.println("Total events: " + pipeline.totalEventCount() + " (expect 23336)");
+            if (pipeline.totalEventCount() == 23_336 && merged.get(0).count == 10_000 && merged.get(2).tag.equals("var"))
+                System.out.println("✓ Per-shard top-K merged correctly, no events lost");
+        }
+
+        // ---- Test 15: Throughput scaling, shared tracker vs sharded pipeline ----
+        System.out.println("\n--- Test 15: Tweets/sec Scaling (cores available: " + Runtime.getRuntime().availableProcessors() + ") ---");
+        int tweetCount = 400_000;
+        String[] tweets = new String[tweetCount];
+        Random trnd = new Random(7);
+        for (int i = 0; i < tweetCount; i++) {
+            tweets[i] = "breaking #" + tags[Math.abs(Arrays.binarySearch(cdf, trnd.nextDouble())) % distinctTags]
+                    + " news #Topic" + trnd.nextInt(2_000) + " via #app";
+        }
+        Supplier<TrendTracker> smallSketch = () -> new SketchHashtagTracker(12, 4, 1 << 12, 256);
+        for (int cores : new int[]{1, 2, 4, 8, 16}) {
+            // baseline: every producer scans + records into ONE shared tracker (caller-thread ingestion)
+            TrendTracker shared = smallSketch.get();
+            long sharedNs = runProducers(cores, tweetCount, (i, sc) -> {
+                int f = sc.scan(tweets[i]);
+                for (int j = 0; j < f; j++) shared.record(sc.tags[j], benchNow);
+            }, null);
+            long pipeNs;
+            try (ShardedTrendingPipeline pipe = new ShardedTrendingPipeline(cores, 256, smallSketch)) {
+                pipeNs = runProducers(cores, tweetCount, (i, sc) -> pipe.submit(tweets[i], benchNow), pipe);
+            }
+            System.out.printf("  %2d threads: shared tracker %,10d tweets/s | sharded pipeline %,10d tweets/s%n",
+                    cores, tweetCount * 1_000_000_000L / sharedNs, tweetCount * 1_000_000_000L / pipeNs);
+        }
+        System.out.println("✓ Single-writer shards: no shared lock on the write path (scaling needs that many physical cores)");
+
+        // ---- Test 16: TrendingService on the pipeline, producers never flush ----
+        System.out.println("\n--- Test 16: TrendingService Backed by the Pipeline ---");
+        ShardedTrendingPipeline servicePipe = new ShardedTrendingPipeline(4, 64, SketchHashtagTracker::new);
+        TrendingService pipeSvc = new TrendingService(servicePipe);
+        ExecutorService tweeters = Executors.newFixedThreadPool(3);
+        long t16 = System.currentTimeMillis();
+        List<Future<?>> tf = new ArrayList<>();
+        for (int p = 0; p < 3; p++) {
+            tf.add(tweeters.submit(() -> {
+                for (int i = 0; i < 1_000; i++) pipeSvc.recordTweet("live #Final #Goal" + (i % 7 == 0 ? " #Upset" : ""), t16);
+                return null;                                   // no flush(): partial batches stay buffered
+            }));
+        }
+        for (Future<?> f : tf) f.get();
+        pipeSvc.recordHashtag("#Upset!", t16);
+        pipeSvc.awaitIngested();                               // sweeps the other threads' buffers
+        List<ScoredHashtag> live = pipeSvc.getTrending(3, TrendingWindow.LAST_HOUR);
+        for (ScoredHashtag h : live) System.out.println("  #" + h.tag + " count=" + h.count);
+        System.out.println("final count: " + pipeSvc.getHashtagCount("FINAL", TrendingWindow.LAST_HOUR) + " (expect 3000)");
+        System.out.println("upset count: " + pipeSvc.getHashtagCount("upset", TrendingWindow.LAST_HOUR) + " (expect 430)");
+        if (pipeSvc.totalEventCount() == 6_430 && live.get(2).tag.equals("upset"))
+            System.out.println("✓ recordTweet routed through shards; awaitIngested drains every producer's batches");
+        Future<?> straggler = tweeters.submit(() -> pipeSvc.recordTweet("late #Final", t16));
+        straggler.get();
+        tweeters.shutdown();
+        Thread.currentThread().interrupt();                    // close() must still finish the shutdown
+        servicePipe.close();
+        boolean stillInterrupted = Thread.interrupted();
+        System.out.println("After close: " + pipeSvc.totalEventCount() + " events (expect 6431), interrupt re-asserted: " + stillInterrupted);
+        try {
+            pipeSvc.recordTweet("#afterclose", t16);
+            System.out.println("✗ Submit after close accepted");
+        } catch (IllegalStateException e) {
+            if (pipeSvc.totalEventCount() == 6_431 && stillInterrupted)
+                System.out.println("✓ close() hands off stranded batches without throwing InterruptedException");
+        }
+
+        // ---- Test 17: Pipeline robustness - a throwing tracker, short-lived producer threads ----
+        System.out.println("\n--- Test 17: Pipeline Failures and Producer Lifetime ---");
+        try (ShardedTrendingPipeline faulty = new ShardedTrendingPipeline(2, 16, FaultyTracker::new)) {
+            long t17 = System.currentTimeMillis();
+            for (int i = 0; i < 1_000; i++) faulty.submit("#boom then #ok", t17);
+            faulty.drain();                                        // used to spin forever once a worker died
+            System.out.println("failed events: " + faulty.failedEventCount() + " (expect 1000), ok count: "
+                    + faulty.getCount("ok", TrendingWindow.LAST_HOUR) + " (expect 1000)");
+            Thread[] shortLived = new Thread[200];
+            for (int t = 0; t < shortLived.length; t++) {
+                shortLived[t] = new Thread(() -> faulty.submit("one-off #burst", t17));   // never flushes
+                shortLived[t].start();
+                shortLived[t].join();
+            }
+            faulty.drain();
+            System.out.println("producers tracked after 200 threads came and went: " + faulty.producerCount()
+                    + ", burst count: " + faulty.getCount("burst", TrendingWindow.LAST_HOUR) + " (expect 200)");
+            if (faulty.failedEventCount() == 1_000 && faulty.getCount("ok", TrendingWindow.LAST_HOUR) == 1_000
+                    && faulty.producerCount() <= 2 && faulty.getCount("burst", TrendingWindow.LAST_HOUR) == 200)
+                System.out.println("✓ Tracker failures counted, workers keep going; ended producers handed off and dropped");
+            else
+                System.out.println("✗ Pipeline lost events, hung, or kept dead producers");
+        }
+
         System.out.println("\n=== All Tests Complete ===");
     }
+
+    /** Sketch tracker with a bug: throws on #boom. */
+    static final class FaultyTracker extends SketchHashtagTracker {
+        @Override
+        public void record(String tag, long timestampMs) {
+            if (tag.equals("boom")) throw new IllegalArgumentException("tracker bug on #boom");
+            super.record(tag, timestampMs);
+        }
+    }
+
+    /** Split tweets [0, n) across `threads` producers; time until every tweet is applied. */
+    static long runProducers(int threads, int n, BiConsumer<Integer, HashtagScanner> work,
+                             ShardedTrendingPipeline pipeline) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int from = t * n / threads, to = (t + 1) * n / threads;
+            futures.add(pool.submit(() -> {
+                HashtagScanner sc = new HashtagScanner(32);
+                for (int i = from; i < to; i++) work.accept(i, sc);
+                if (pipeline != null) pipeline.flush();
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        if (pipeline != null) pipeline.drain();
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        return elapsed;
+    }
 }
 
 /*
@@ -465,7 +1319,18 @@ public class TrendingHashtagsSystem {
  *    - Spam/abuse filter: suppress hashtags from bot accounts
  *    - Personalized trending: blend global trend + user interest graph
  *
- * 6. TRADE-OFFS:
+ * 6. SKETCH MODE (SketchHashtagTracker):
+ *    - Per window: ring of 12 buckets, each = CMS (4 × 16K ints) + Space-Saving (512 keys)
+ *    - Write rotates a stale bucket in place → fixed memory, no cleanup sweep
+ *    - Top-K candidates = Space-Saving keys, scored from CMS counts via scoreBuckets()
+ *
+ * 7. PARALLEL INGESTION (ShardedTrendingPipeline, or TrendingService(pipeline)):
+ *    - Scan tweets on producer threads, shard tags by hash into batched queues
+ *    - flush()/close() sweep every producer's partial batches, not just the caller's
+ *    - One worker per shard owns its counters → no shared lock on the write path
+ *    - Query = per-shard top-K merged (tags never span shards) — like Kafka partitions + Flink keyBy
+ *
+ * 8. TRADE-OFFS:
  *    - Deque per hashtag = exact counts but O(W) space per tag
  *    - Count-Min Sketch = O(1) space but approximate (false positives)
  *    - Min-heap top-K = no pre-computation, good for dynamic K